@@ -16,10 +16,18 @@
 package io.gravitee.llama.cpp;
 
 import io.gravitee.llama.cpp.draft.HiddenStateDraft;
+import io.gravitee.llama.cpp.draft.LookaheadDraft;
+import io.gravitee.llama.cpp.logits.LogitsKernels;
+import io.gravitee.llama.cpp.speculative.HybridSpeculativeDecoding;
 import io.gravitee.llama.cpp.speculative.Speculation;
+import io.gravitee.llama.cpp.speculative.SpeculationGate;
 import java.lang.foreign.Arena;
 import java.lang.foreign.MemorySegment;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 /**
  * @author Rémi SULTAN (remi.sultan at graviteesource.com)
@@ -40,6 +48,27 @@ public final class BatchIterator
   // freed with the iterator).
   private final Map<LlamaContext, FusedDualBatch> dualScratch =
     new LinkedHashMap<>();
+  // Runs the post-decode sampling phase one task per sampler when set; null keeps it on the
+  // iterator thread.
+  private Executor samplingExecutor;
+  // Batch-wide draft-length cap for the fused speculative step; null drafts what each state asks.
+  private SpeculationGate speculationGate;
+  // Drafts greedy model-draft sequences ahead while the target verifies; null drafts serially.
+  private Executor draftExecutor;
+  // The next round's drafts, per sequence id, drafted during the last verify from a bonus token
+  // guessed right. Their cells are already in the draft KV.
+  private final Map<Integer, int[]> draftedAhead = new HashMap<>();
+  // Drafts the model-draft groups of a fused step concurrently when set; null drafts them in turn.
+  private Executor draftGroupExecutor;
+  // Per-draft-context batches for drafting ahead and for concurrent draft groups, on a shared
+  // arena: they are filled off-thread.
+  private final Map<LlamaContext, LlamaBatch> aheadBatches =
+    new LinkedHashMap<>();
+  // Per-draft-context candidate buffers for concurrent draft groups, on the same arena: a group's
+  // thread may not live past the round, so its thread-local scratch would not be reused.
+  private final Map<LlamaContext, LlamaTokenDataArray> groupDraftBufs =
+    new HashMap<>();
+  private Arena aheadArena;
   private int currentOutputIndex = 0;
   private volatile boolean stopped = false;
   private boolean freed = false;
@@ -103,6 +132,95 @@ public final class BatchIterator
     return this;
   }
 
+  /**
+   * Fans the per-sequence work that follows each fused decode — EOG ramp, sampling, logprobs,
+   * detokenization and state evaluation — out over {@code executor}, one task per sampler.
+   * {@code null} (the default) runs it on the iterator thread.
+   *
+   * <p>Outputs are still queued in batch order, so {@link #next()} returns exactly what the serial
+   * path would. States that share a {@link LlamaSampler} (or a
+   * {@link io.gravitee.llama.cpp.logits.LogitsSampler}) share its RNG and penalty history, so they
+   * run in one task, in batch order: the draws are the serial ones too. A {@code LogitsSampler}
+   * used here must be allocated from an arena other threads may access (shared, global or auto).
+   *
+   * <p>Worth it when the batch holds many sequences over a large vocabulary, where this phase can
+   * rival the decode itself. A ForkJoin pool or a virtual-thread executor both fit; the iterator
+   * never shuts the executor down.
+   *
+   * @param executor The executor to sample on, or {@code null} to sample serially
+   * @return This iterator for chaining
+   */
+  public BatchIterator setSamplingExecutor(Executor executor) {
+    this.samplingExecutor = executor;
+    return this;
+  }
+
+  /**
+   * Caps how many tokens the speculative sequences draft each step by how loaded the fused verify
+   * decode is, suspending drafting altogether while the target is compute-bound and resuming it as
+   * the batch drains — see {@link SpeculationGate}. Every target decode this iterator runs feeds
+   * the gate's cost model. {@code null} (the default) lets each state draft its own
+   * {@code nDraft}.
+   *
+   * <p>A suspended step still runs through the speculative path, verifying no drafts, so the
+   * draft caches and n-gram histories stay in step. MTP and EAGLE3 sequences keep one draft token:
+   * their head state is only carried forward by drafting rounds. When {@code n_batch} cannot hold
+   * that token for all of them at once, the step verifies the speculative sequences in more than
+   * one fused decode.
+   *
+   * @param gate The gate to consult, or {@code null} to draft uncapped
+   * @return This iterator for chaining
+   */
+  public BatchIterator setSpeculationGate(SpeculationGate gate) {
+    this.speculationGate = gate;
+    return this;
+  }
+
+  /**
+   * Overlaps greedy model drafting with the fused target verify. While the verify decode runs, each
+   * draft context keeps drafting on {@code executor} past the round's last draft token: it guesses
+   * the bonus token a full accept would add, then drafts the next round on from that guess until
+   * the verify returns. When the round accepts everything and the guess was right, the next round
+   * starts with its drafts already decoded; otherwise the extra draft cells go with the usual
+   * rollback. The first step decodes the cell the full-accept gap-fill would add anyway, so a wrong
+   * guess costs no more than the serial round. {@code null} (the default) drafts serially.
+   *
+   * <p>Worth it where both models can compute at once — CPU nodes with spare cores, or a draft on
+   * another device. Sampling configs and n-gram, MTP, EAGLE3 and lookahead sequences keep drafting
+   * on the iterator thread.
+   *
+   * @param executor The executor to draft ahead on, or {@code null} to draft serially
+   * @return This iterator for chaining
+   */
+  public BatchIterator setDraftExecutor(Executor executor) {
+    this.draftExecutor = executor;
+    return this;
+  }
+
+  /**
+   * Drafts the independent draft groups of each fused speculative step concurrently. Sequences
+   * that share a draft context already draft in lockstep, one batched decode per step; with this
+   * set, each other draft context's group runs on {@code executor} at the same time, packed into a
+   * batch of its own, and the iterator thread takes the MTP/EAGLE3 groups, or else the last group.
+   * Every group is joined before the verify decode, so Phase A costs the slowest group rather than
+   * the sum of them. {@code null} (the default) drafts the groups one after another.
+   *
+   * <p>Only pays off with two or more draft contexts in the batch — several draft models, or one
+   * draft context per tenant — on hardware that can run their decodes at once. Drafts, snapshots
+   * and sampler draws are the serial ones: each group only touches its own sequences. MTP and
+   * EAGLE3 groups stay on the iterator thread, since their hidden rows live on the states' arenas.
+   * Each concurrent group samples into a candidate buffer the iterator keeps for its draft context,
+   * so a virtual-thread executor fits as well as a fixed pool. The iterator never shuts the
+   * executor down.
+   *
+   * @param executor The executor to draft groups on, or {@code null} to draft them in turn
+   * @return This iterator for chaining
+   */
+  public BatchIterator setDraftGroupExecutor(Executor executor) {
+    this.draftGroupExecutor = executor;
+    return this;
+  }
+
   /**
    * Process the prompt for a state using the shared processPrompt() method.
    * This reuses the existing prompt processing logic from LlamaIterator.
@@ -168,15 +286,23 @@ public final class BatchIterator
         return false;
       }
 
-      // Speculative states verify together in ONE target decode (fused); non-speculative states
-      // use the normal fused single-token batch.
+      // Speculative states verify together in ONE target decode (fused), which also carries as
+      // many non-speculative states as n_batch leaves room for; the rest use the normal fused
+      // single-token batch.
       List<ConversationState> speculative = new ArrayList<>();
       List<ConversationState> normal = new ArrayList<>();
       for (ConversationState state : activeStates) {
         (state.isSpeculative() ? speculative : normal).add(state);
       }
-      if (!speculative.isEmpty()) {
-        speculativeFusedStep(speculative);
+      // Under a gate, MTP and EAGLE3 keep a draft token even at a cap of zero: when the batch is too
+      // full for those rows, the sequences that don't fit verify in a second fused decode.
+      int from = 0;
+      while (from < speculative.size()) {
+        int to = speculationGate == null
+          ? speculative.size()
+          : fusedChunkEnd(speculative, from);
+        normal = speculativeFusedStep(speculative.subList(from, to), normal);
+        from = to;
       }
       if (!normal.isEmpty()) {
         processInBatches(normal);
@@ -186,6 +312,25 @@ public final class BatchIterator
     return true;
   }
 
+  /**
+   * End of the run of speculative sequences from {@code from} whose smallest gated verify fits
+   * {@code n_batch}: one row each, plus the draft token MTP and EAGLE3 never give up. Always takes
+   * at least one sequence.
+   */
+  private int fusedChunkEnd(List<ConversationState> states, int from) {
+    long rows = 0;
+    int to = from;
+    while (to < states.size()) {
+      ConversationState s = states.get(to);
+      rows += s.isMtp() || s.isEagle3() ? 2 : 1;
+      if (rows > context.nBatch() && to > from) {
+        break;
+      }
+      to++;
+    }
+    return to;
+  }
+
   /**
    * Batched speculative decoding: draft all sequences (fused per shared draft context), then verify
    * ALL of them in a single target decode (each sequence's {@code [idLast, drafts…]} packed under
@@ -199,16 +344,51 @@ public final class BatchIterator
    * fuse together; sequences become inactive when they hit their {@code nDraft} or stop early on low
    * confidence (adaptive). Batching never changes a sequence's logits (sequences don't cross-attend),
    * so each drafted token is identical to drafting the sequence on its own.
+   *
+   * <p>Plain (non-speculative) sequences ride along in the same target decode while {@code n_batch}
+   * has room after the verify rows: each adds its one row (plus jump-forward tokens) behind the
+   * speculative ones and is sampled from it after the accept phase, exactly as
+   * {@link #decodeBatch} would. One forward pass per step instead of two whenever both kinds of
+   * traffic are present.
+   *
+   * <p>With a {@link #setDraftExecutor draft executor}, greedy model-draft groups keep drafting
+   * during the verify decode, from the bonus token they guess a full accept would add. A right
+   * guess hands the next round its drafts; a wrong one is trimmed by the rollback.
+   *
+   * @param states the speculative sequences
+   * @param plain  the non-speculative sequences, in batch order
+   * @return the plain sequences that did not fit, still to be decoded
    */
-  private void speculativeFusedStep(List<ConversationState> states) {
+  private List<ConversationState> speculativeFusedStep(
+    List<ConversationState> states,
+    List<ConversationState> plain
+  ) {
     int n = states.size();
     int nVocab = context.nVocab();
 
-    // Conservative pre-check: the fused target verify must hold every sequence's (nDraft + 1) tokens
+    // Each sequence's draft budget this step: its own nDraft, capped by the gate (if any). MTP and
+    // EAGLE3 never go below one — their head seeds only advance through drafting rounds. The floor
+    // can only bind at a cap of zero, where the caller's fusedChunkEnd left room for it.
+    int[] budget = new int[n];
+    int maxDraft = 0;
+    for (int c = 0; c < n; c++) {
+      budget[c] = states.get(c).getNDraft();
+      maxDraft = Math.max(maxDraft, budget[c]);
+    }
+    if (speculationGate != null) {
+      int cap = speculationGate.draftCap(n, maxDraft, context.nBatch());
+      for (int c = 0; c < n; c++) {
+        ConversationState s = states.get(c);
+        int floor = s.isMtp() || s.isEagle3() ? 1 : 0;
+        budget[c] = Math.min(budget[c], Math.max(cap, floor));
+      }
+    }
+
+    // Conservative pre-check: the fused target verify must hold every sequence's (budget + 1) tokens
     // at once. Adaptive early stop only drafts fewer, so this upper bound stays safe.
     long verifyTokens = 0;
-    for (ConversationState s : states) {
-      verifyTokens += s.getNDraft() + 1L;
+    for (int c = 0; c < n; c++) {
+      verifyTokens += budget[c] + 1L;
     }
     if (verifyTokens > context.nBatch()) {
       throw new LlamaException(
@@ -224,6 +404,12 @@ public final class BatchIterator
     LlamaSampler[] chains = new LlamaSampler[n];
     int[] base = new int[n];
     int[] nDrafted = new int[n];
+    // Lookahead sequences drafting their window's column 0, and that column's new top.
+    boolean[] jacobi = new boolean[n];
+    int[] jacobiNext = new int[n];
+    // Round timings for autoDraft: the phases are shared, so each sequence is charged 1/n of the
+    // drafting phases and sees the whole verify decode, fixed cost split n ways.
+    long start = System.nanoTime();
     // Phase A — propose drafts for all sequences. Each sequence's persistent chain (and the
     // batches/buffers it uses) is owned by its Speculation and freed by Speculation.free() in
     // cleanupState() on teardown, not per round. Model-draft sequences are decoded fused per shared
@@ -231,59 +417,155 @@ public final class BatchIterator
     for (int c = 0; c < n; c++) {
       ConversationState s = states.get(c);
       Speculation spec = s.getSpeculation();
-      int k = s.getNDraft();
+      int k = budget[c];
       chains[c] = spec.chain();
       drafted[c] = new int[k];
-      // n-gram uses a per-position point-mass draft, so it needs no draft snapshots.
-      if (!spec.isGreedy() && !s.isNgram()) {
+      // n-gram uses a per-position point-mass draft, so it needs no draft snapshots (a hybrid
+      // sequence drops its own if the lookup wins the round).
+      if (!spec.isGreedy() && (!s.isNgram() || s.hasDraft())) {
         snaps[c] = new Speculation.Snapshot[k];
       }
     }
     Map<LlamaContext, List<Integer>> byDraftContext = new LinkedHashMap<>();
     Map<LlamaContext, List<Integer>> byHiddenContext = new LinkedHashMap<>();
+    Map<LlamaContext, List<Integer>> aheadGroups = new LinkedHashMap<>();
     for (int c = 0; c < n; c++) {
       ConversationState s = states.get(c);
-      if (s.hasDraft()) {
-        byDraftContext
-          .computeIfAbsent(s.getDraftContext(), key -> new ArrayList<>())
-          .add(c);
+      int[] ahead = draftedAhead.remove(s.getSequenceId());
+      int[] lookup = s.isHybrid() && budget[c] > 0
+        ? s.proposeNgram(budget[c])
+        : null;
+      if (lookup != null && lookup.length >= s.getHybridMinNgram()) {
+        // Hybrid, lookup long enough: an n-gram round, the draft model sits it out.
+        s.markDraftBehind();
+        snaps[c] = null;
+        System.arraycopy(lookup, 0, drafted[c], 0, lookup.length);
+        nDrafted[c] = lookup.length;
+      } else if (s.hasDraft()) {
+        // A hybrid draft KV that skipped earlier rounds first catches up to idLast.
+        HybridSpeculativeDecoding.catchUpDraft(s, s.getNPast());
+        if (ahead != null && ahead.length > 0 && budget[c] > 0) {
+          // Drafted during the last verify: keep the cells a serial draft would have left.
+          nDrafted[c] = Math.min(ahead.length, budget[c]);
+          System.arraycopy(ahead, 0, drafted[c], 0, nDrafted[c]);
+          s
+            .getDraftContext()
+            .getMemory()
+            .seqRm(s.getSequenceId(), s.getNPast() + nDrafted[c], -1);
+          ahead = null;
+        } else {
+          byDraftContext
+            .computeIfAbsent(s.getDraftContext(), key -> new ArrayList<>())
+            .add(c);
+        }
+        if (draftExecutor != null && s.getSpeculation().isGreedy()) {
+          aheadGroups
+            .computeIfAbsent(s.getDraftContext(), key -> new ArrayList<>())
+            .add(c);
+        }
       } else if (s.isMtp() || s.isEagle3()) {
         // MTP/EAGLE3: fused per shared head context (dual token+embd chain steps).
         byHiddenContext
           .computeIfAbsent(hiddenDraft(s).context(), key -> new ArrayList<>())
           .add(c);
+      } else if (s.isLookahead()) {
+        // Lookahead: the newest pooled continuation of idLast, else the guess window's column 0,
+        // whose top-level prediction then comes out of the verify rows (see Phase B).
+        LookaheadDraft lookahead = s.getLookaheadDraft();
+        int[][] pooled = lookahead.candidates(s.getNewTokenId(), budget[c], 1);
+        int[] proposed = pooled.length > 0
+          ? pooled[0]
+          : lookahead.columnGuesses(budget[c]);
+        jacobi[c] =
+          pooled.length == 0 && proposed.length == lookahead.levels() - 1;
+        System.arraycopy(proposed, 0, drafted[c], 0, proposed.length);
+        nDrafted[c] = proposed.length;
       } else {
         // n-gram: propose up to nDraft tokens from the committed history (no draft decode).
-        int[] proposed = s.proposeNgram(s.getNDraft());
+        int[] proposed = s.proposeNgram(budget[c]);
         System.arraycopy(proposed, 0, drafted[c], 0, proposed.length);
         nDrafted[c] = proposed.length;
       }
+      if (ahead != null) {
+        // Drafted ahead but not used this round: back to the cells before idLast.
+        s
+          .getDraftContext()
+          .getMemory()
+          .seqRm(s.getSequenceId(), s.getNPast(), -1);
+      }
     }
+    // With a draft-group executor, model-draft groups decode concurrently, each on its own batch;
+    // the iterator thread takes the hidden-state groups, or else the last model-draft group.
+    List<CompletableFuture<Void>> groupTasks = new ArrayList<>();
+    List<LlamaContext> onThisThread = new ArrayList<>();
+    int concurrent = draftGroupExecutor == null
+      ? 0
+      : byHiddenContext.isEmpty()
+        ? byDraftContext.size() - 1
+        : byDraftContext.size();
     for (var entry : byDraftContext.entrySet()) {
-      draftGroupFused(
-        states,
-        entry.getKey(),
-        entry.getValue(),
-        chains,
-        drafted,
-        snaps,
-        nDrafted
+      LlamaContext draftContext = entry.getKey();
+      List<Integer> group = entry.getValue();
+      if (groupTasks.size() == concurrent) {
+        onThisThread.add(draftContext);
+        continue;
+      }
+      LlamaBatch groupBatch = aheadBatch(draftContext, group.size());
+      LlamaTokenDataArray draftBuf = groupDraftBuf(draftContext);
+      groupTasks.add(
+        CompletableFuture.runAsync(
+          () ->
+            draftGroupFused(
+              states,
+              draftContext,
+              group,
+              groupBatch,
+              draftBuf,
+              chains,
+              budget,
+              drafted,
+              snaps,
+              nDrafted
+            ),
+          draftGroupExecutor
+        )
       );
     }
-    for (var entry : byHiddenContext.entrySet()) {
-      draftHiddenGroupFused(
-        states,
-        entry.getKey(),
-        entry.getValue(),
-        chains,
-        drafted,
-        snaps,
-        nDrafted
-      );
+    try {
+      for (LlamaContext draftContext : onThisThread) {
+        draftGroupFused(
+          states,
+          draftContext,
+          byDraftContext.get(draftContext),
+          batch,
+          null,
+          chains,
+          budget,
+          drafted,
+          snaps,
+          nDrafted
+        );
+      }
+      for (var entry : byHiddenContext.entrySet()) {
+        draftHiddenGroupFused(
+          states,
+          entry.getKey(),
+          entry.getValue(),
+          chains,
+          budget,
+          drafted,
+          snaps,
+          nDrafted
+        );
+      }
+    } finally {
+      // Joined even when a group here failed: the others still write the per-sequence arrays.
+      awaitDraftAhead(groupTasks);
     }
 
     // Phase B — one fused target decode over all sequences' drafts. Each sequence's pre-verify
     // idLast is captured for the hidden-state advance (acceptSequence overwrites newTokenId).
+    long verifyStart = System.nanoTime();
     int[] idLast = new int[n];
     batch.clear();
     for (int c = 0; c < n; c++) {
@@ -296,9 +578,84 @@ public final class BatchIterator
         batch.add(drafted[c][i], s.getNPast() + 1 + i, seq, true);
       }
     }
-    if (batch.decode(context) != 0) {
-      handleDecodeError(states);
-      return;
+    // Plain sequences go behind every verify row, so the speculative rows (and EAGLE3's captured
+    // features) keep the indices they would have on their own.
+    int merged = 0;
+    int room = Math.max(1, context.nBatch()) - batch.nTokens();
+    seqIdToBatchPos.clear();
+    while (merged < plain.size()) {
+      int needed = 1 + plain.get(merged).getForwardTokens().length;
+      if (needed > room) {
+        break;
+      }
+      room -= needed;
+      addPlainRows(plain.get(merged));
+      merged++;
+    }
+    List<ConversationState> ridingAlong = plain.subList(0, merged);
+    int verifyBatchTokens = batch.nTokens();
+    // With a draft executor, greedy model-draft groups draft ahead while the target verifies.
+    var verified = new AtomicBoolean();
+    List<CompletableFuture<Void>> aheadTasks = new ArrayList<>();
+    int[][] aheadDrafts = new int[n][];
+    for (var entry : aheadGroups.entrySet()) {
+      List<Integer> group = new ArrayList<>();
+      for (int c : entry.getValue()) {
+        if (nDrafted[c] > 0) {
+          group.add(c);
+        }
+      }
+      if (!group.isEmpty()) {
+        LlamaContext draftContext = entry.getKey();
+        aheadTasks.add(
+          CompletableFuture.runAsync(
+            () ->
+              draftAhead(
+                states,
+                draftContext,
+                group,
+                budget,
+                drafted,
+                nDrafted,
+                aheadDrafts,
+                verified
+              ),
+            draftExecutor
+          )
+        );
+      }
+    }
+    int verifyStatus = batch.decode(context);
+    if (verifyStatus == 0) {
+      // An asynchronous backend returns from decode once the graph is queued: wait for the compute,
+      // or the gate sees a free verify and charges its cost to Phase C.
+      context.synchronize();
+    }
+    long verifyEnd = System.nanoTime();
+    verified.set(true);
+    awaitDraftAhead(aheadTasks);
+    if (verifyStatus != 0) {
+      List<ConversationState> failed = new ArrayList<>(states);
+      failed.addAll(ridingAlong);
+      handleDecodeError(failed);
+      return plain.subList(merged, plain.size());
+    }
+    // A drafted column's top-level prediction, read before Phase C can bias the rows.
+    for (int c = 0; c < n; c++) {
+      if (jacobi[c]) {
+        jacobiNext[c] = LogitsKernels.get().argmax(
+          logitsRow(context, base[c] + nDrafted[c], nVocab),
+          nVocab
+        );
+      }
+    }
+    if (speculationGate != null) {
+      int steps = 0;
+      for (int c = 0; c < n; c++) {
+        steps = Math.max(steps, nDrafted[c]);
+      }
+      speculationGate.observeDrafting(verifyStart - start, steps);
+      speculationGate.observeDecode(verifyBatchTokens, verifyEnd - verifyStart);
     }
 
     // Phase C — accept / roll back per sequence from its slice of the fused logits. Capture each
@@ -306,16 +663,40 @@ public final class BatchIterator
     int[] oldNPast = new int[n];
     int[] matched = new int[n];
     for (int c = 0; c < n; c++) {
-      oldNPast[c] = states.get(c).getNPast();
+      ConversationState s = states.get(c);
+      oldNPast[c] = s.getNPast();
+      // The bonus token the draft guessed while drafting ahead; -1 when it did not.
+      int guess = aheadDrafts[c] != null ? aheadDrafts[c][0] : -1;
       matched[c] = acceptSequence(
-        states.get(c),
+        s,
         chains[c],
         base[c],
         drafted[c],
         nDrafted[c],
         snaps[c],
-        nVocab
+        nVocab,
+        guess
       );
+      if (
+        guess >= 0 &&
+        matched[c] == nDrafted[c] &&
+        s.getNewTokenId() == guess &&
+        !s.isFinished()
+      ) {
+        draftedAhead.put(
+          s.getSequenceId(),
+          Arrays.copyOfRange(aheadDrafts[c], 1, aheadDrafts[c].length)
+        );
+      }
+      if (speculationGate != null) {
+        speculationGate.observeAcceptance(nDrafted[c], matched[c]);
+      }
+      if (jacobi[c]) {
+        states
+          .get(c)
+          .getLookaheadDraft()
+          .advance(idLast[c], new int[] { jacobiNext[c] }, 1);
+      }
     }
 
     // Phase C' — advance MTP seeds / EAGLE3 boundaries from the verify decode's capture buffers.
@@ -336,33 +717,64 @@ public final class BatchIterator
       }
     }
 
+    // Plain sequences sample from their rows of the same decode.
+    if (!ridingAlong.isEmpty()) {
+      samplePlain(ridingAlong);
+    }
+
     // Phase D — fused gap-fill, only for full-accept (still-running) sequences. On partial accept
     // the rollback in Phase C already trimmed the over-drafted draft cells, so no fill is needed;
     // skipping it saves a draft forward pass. Grouped by shared draft context like Phase A.
     for (var entry : byDraftContext.entrySet()) {
+      // Sequences that drafted ahead already decoded their fill cell.
+      List<Integer> toFill = new ArrayList<>();
+      for (int c : entry.getValue()) {
+        if (aheadDrafts[c] == null) {
+          toFill.add(c);
+        }
+      }
       fillGroupFused(
         states,
         entry.getKey(),
-        entry.getValue(),
+        toFill,
         drafted,
         nDrafted,
         matched,
         oldNPast
       );
     }
+
+    long draftShare =
+      (verifyStart - start + System.nanoTime() - verifyEnd) / n;
+    for (int c = 0; c < n; c++) {
+      states
+        .get(c)
+        .recordRoundCost(
+          draftShare,
+          nDrafted[c],
+          verifyEnd - verifyStart,
+          verifyBatchTokens,
+          n + merged
+        );
+    }
+    return plain.subList(merged, plain.size());
   }
 
   /**
    * Drafts a group of sequences that share one draft context, stepping them in lockstep so each
    * draft step is a single batched decode. Writes each sequence's drafted tokens (and snapshots,
    * for the rejection-sampling path) and actual drafted count into the per-sequence arrays, indexed
-   * by the sequence's global position {@code c}.
+   * by the sequence's global position {@code c}. Snapshots are taken in {@code draftBuf}, or in the
+   * thread's own scratch when it is {@code null} (the iterator thread).
    */
   private void draftGroupFused(
     List<ConversationState> states,
     LlamaContext draftContext,
     List<Integer> group,
+    LlamaBatch draftBatch,
+    LlamaTokenDataArray draftBuf,
     LlamaSampler[] chains,
+    int[] budget,
     int[][] drafted,
     Speculation.Snapshot[][] snaps,
     int[] nDrafted
@@ -386,15 +798,18 @@ public final class BatchIterator
       prev[j] = s.getNewTokenId();
       active[j] = true;
       nDrafted[group.get(j)] = 0;
-      maxK = Math.max(maxK, s.getNDraft());
+      // A sequence drafting nothing this round (autoDraft, gate) still takes step 0, which brings
+      // idLast into its draft KV; it samples nothing from it.
+      maxK = Math.max(maxK, Math.max(1, budget[group.get(j)]));
     }
 
-    // Reuse the iterator's persistent batch for the fused draft packing (cleared each step). Phase B
-    // (verify) and Phase D (fill) also clear it before their own use, so no stale tokens leak between
-    // phases, and there is no per-round draft-batch allocation.
+    // Pack into the persistent batch given — the iterator's own, or the draft context's ahead batch
+    // when groups draft concurrently — cleared each step. Phase B (verify) and Phase D (fill) also
+    // clear both before their own use, so no stale tokens leak between phases, and there is no
+    // per-round draft-batch allocation.
     int[] row = new int[g];
     for (int step = 0; step < maxK; step++) {
-      batch.clear();
+      draftBatch.clear();
       int packed = 0;
       for (int j = 0; j < g; j++) {
         if (!active[j]) {
@@ -402,8 +817,8 @@ public final class BatchIterator
         }
         ConversationState s = states.get(group.get(j));
         // Logits output index == batch position (every token has logits=true).
-        row[j] = batch.nTokens();
-        batch.add(
+        row[j] = draftBatch.nTokens();
+        draftBatch.add(
           prev[j],
           s.getNPast() + step,
           List.of(s.getSequenceId()),
@@ -414,7 +829,7 @@ public final class BatchIterator
       if (packed == 0) {
         break;
       }
-      if (batch.decode(draftContext) != 0) {
+      if (draftBatch.decode(draftContext) != 0) {
         throw new LlamaException("Speculative draft decode failed");
       }
       for (int j = 0; j < g; j++) {
@@ -423,6 +838,10 @@ public final class BatchIterator
         }
         int c = group.get(j);
         ConversationState s = states.get(c);
+        if (budget[c] == 0) {
+          active[j] = false;
+          continue;
+        }
         Speculation spec = s.getSpeculation();
         int sampled;
         float topProb;
@@ -439,10 +858,10 @@ public final class BatchIterator
             topProb = 1.0f; // unused without adaptive stop
           }
         } else {
-          Speculation.Snapshot ds = spec.draft(
-            chains[c],
-            logitsRow(draftContext, row[j], nVocab)
-          );
+          MemorySegment logits = logitsRow(draftContext, row[j], nVocab);
+          Speculation.Snapshot ds = draftBuf == null
+            ? spec.draft(chains[c], logits)
+            : spec.draft(chains[c], logits, draftBuf);
           sampled = ds.selectedId();
           snaps[c][nDrafted[c]] = ds;
           topProb = ds.maxProb();
@@ -450,7 +869,7 @@ public final class BatchIterator
         drafted[c][nDrafted[c]] = sampled;
         nDrafted[c]++;
         prev[j] = sampled;
-        if (nDrafted[c] >= s.getNDraft()) {
+        if (nDrafted[c] >= budget[c]) {
           active[j] = false;
         } else if (
           spec.isAdaptive() &&
@@ -475,6 +894,7 @@ public final class BatchIterator
     LlamaContext headContext,
     List<Integer> group,
     LlamaSampler[] chains,
+    int[] budget,
     int[][] drafted,
     Speculation.Snapshot[][] snaps,
     int[] nDrafted
@@ -497,7 +917,7 @@ public final class BatchIterator
     int nVocab = context.nVocab();
     int[] prev = new int[g];
     int[] basePos = new int[g];
-    float[][] hidden = new float[g][];
+    MemorySegment[] hidden = new MemorySegment[g];
     boolean[] active = new boolean[g];
     float[] probOut = new float[1];
     int maxK = 0;
@@ -513,7 +933,7 @@ public final class BatchIterator
         : s.getEagle3Draft().boundary();
       active[j] = true;
       nDrafted[group.get(j)] = 0;
-      maxK = Math.max(maxK, s.getNDraft());
+      maxK = Math.max(maxK, budget[group.get(j)]);
       // Wipe stale head cells in this round's write window (previous round's chain overrun).
       headContext.getMemory().seqRm(s.getSequenceId(), basePos[j], -1);
     }
@@ -574,7 +994,7 @@ public final class BatchIterator
         drafted[c][nDrafted[c]] = sampled;
         nDrafted[c]++;
         prev[j] = sampled;
-        if (nDrafted[c] >= s.getNDraft()) {
+        if (nDrafted[c] >= budget[c]) {
           active[j] = false;
         } else if (
           spec.isAdaptive() &&
@@ -610,29 +1030,20 @@ public final class BatchIterator
     int newNPast = oldNPast + matched + 1;
     if (s.isMtp()) {
       var mtp = s.getMtpDraft();
-      mtp.setSeed(context.getEmbeddingsIth(base + matched));
+      mtp.setSeed(context.getEmbeddingsIthSegment(base + matched));
       mtp.context().getMemory().seqRm(seqId, newNPast, -1);
       return;
     }
     var e3 = s.getEagle3Draft();
     int boundaryPos = oldNPast - 1;
-    // gv[r] = g at target pos oldNPast + r, from this sequence's verify-row slice.
-    float[][] gv = e3.encodeCaptured(context, base, m + 1);
+    // Staged g row r = g at target pos oldNPast + r, from this sequence's verify-row slice.
+    e3.encodeCaptured(context, base, m + 1);
     // Head resync: wipe from the boundary, re-decode only the accepted shifted pairs.
     e3.context().getMemory().seqRm(seqId, boundaryPos, -1);
     int[] toks = new int[matched + 1];
-    int[] poss = new int[matched + 1];
-    float[][] rows = new float[matched + 1][];
     toks[0] = idLast;
-    poss[0] = boundaryPos;
-    rows[0] = e3.boundary();
-    for (int k = 0; k < matched; k++) {
-      toks[k + 1] = drafted[k];
-      poss[k + 1] = boundaryPos + 1 + k;
-      rows[k + 1] = gv[k];
-    }
-    e3.syncPairs(toks, poss, rows, List.of(seqId));
-    e3.setBoundary(gv[matched]);
+    System.arraycopy(drafted, 0, toks, 1, matched);
+    e3.commitPairs(toks, 0, boundaryPos, matched, List.of(seqId));
   }
 
   /** The state's hidden-state draft source (MTP head or EAGLE3 head). */
@@ -667,18 +1078,15 @@ public final class BatchIterator
       batch.clear();
     }
 
-    /** Adds one (token, hidden) row; returns its batch row index (== logits row). */
-    int addRow(int token, int pos, int seqId, float[] hidden) {
+    /**
+     * Adds one (token, hidden) row, copying the native {@code hidden} row straight into the embd
+     * region; returns its batch row index (== logits row).
+     */
+    int addRow(int token, int pos, int seqId, MemorySegment hidden) {
       int r = batch.nTokens();
       batch.add(token, pos, List.of(seqId), true);
-      MemorySegment.copy(
-        hidden,
-        0,
-        embd,
-        java.lang.foreign.ValueLayout.JAVA_FLOAT,
-        (long) r * nEmbd * Float.BYTES,
-        nEmbd
-      );
+      long rowBytes = (long) nEmbd * Float.BYTES;
+      MemorySegment.copy(hidden, 0, embd, r * rowBytes, rowBytes);
       return r;
     }
 
@@ -696,6 +1104,10 @@ public final class BatchIterator
    * Accept the longest matching prefix for one sequence and roll back both caches. Returns the
    * accepted count {@code matched} so the caller can issue the deferred (full-accept-only) gap-fill
    * without re-running the accept test (which would advance the rejection-sampling RNG twice).
+   *
+   * <p>{@code guess} is the bonus token the draft guessed while drafting ahead ({@code -1} if it did
+   * not): when everything is accepted and the bonus is that token, the draft cells past the round
+   * are the next round's and are kept.
    */
   private int acceptSequence(
     ConversationState s,
@@ -704,11 +1116,14 @@ public final class BatchIterator
     int[] drafted,
     int m,
     Speculation.Snapshot[] snaps,
-    int nVocab
+    int nVocab,
+    int guess
   ) {
     Speculation spec = s.getSpeculation();
     int seqId = s.getSequenceId();
     boolean ngram = s.isNgram();
+    // No snapshots: the draft was a lookup (n-gram, or a hybrid's n-gram round), a point mass.
+    boolean pointMass = snaps == null;
 
     int matched = 0;
     int extra = -1;
@@ -736,7 +1151,7 @@ public final class BatchIterator
       } else {
         // n-gram proposes a single certain token per position (point-mass q = 1); model drafting
         // uses the draft snapshot's probability.
-        float qOfDrafted = ngram ? 1.0f : snaps[i].selectedProbability();
+        float qOfDrafted = pointMass ? 1.0f : snaps[i].selectedProbability();
         if (
           spec.acceptTarget(
             chain,
@@ -747,7 +1162,7 @@ public final class BatchIterator
         ) {
           matched++;
         } else {
-          extra = ngram
+          extra = pointMass
             ? spec.residualTargetPointMass(drafted[i])
             : spec.residualTargetScatter(snaps[i]);
           break;
@@ -770,7 +1185,7 @@ public final class BatchIterator
     int newNPast = s.getNPast() + matched + 1;
     context.getMemory().seqRm(seqId, newNPast, -1);
     // Roll back the draft cache only for model drafting (n-gram has none).
-    if (s.hasDraft()) {
+    if (s.hasDraft() && !(matched == m && extra == guess)) {
       s.getDraftContext().getMemory().seqRm(seqId, newNPast, -1);
     }
 
@@ -822,7 +1237,7 @@ public final class BatchIterator
   ) {
     int count = 0;
     for (int c : group) {
-      if (matched[c] == nDrafted[c] && !states.get(c).isFinished()) {
+      if (needsFill(states.get(c), nDrafted[c], matched[c])) {
         count++;
       }
     }
@@ -833,7 +1248,7 @@ public final class BatchIterator
     // a previous group's fill). count <= g <= draft n_batch, and g < target n_batch == batch capacity.
     batch.clear();
     for (int c : group) {
-      if (matched[c] == nDrafted[c] && !states.get(c).isFinished()) {
+      if (needsFill(states.get(c), nDrafted[c], matched[c])) {
         ConversationState s = states.get(c);
         int m = nDrafted[c];
         batch.add(
@@ -849,6 +1264,146 @@ public final class BatchIterator
     }
   }
 
+  /**
+   * Drafts ahead for a group of greedy sequences sharing one draft context, off the iterator thread
+   * while the target verifies. Step 0 decodes each sequence's last draft token at the position the
+   * full-accept fill would use and guesses the bonus token from it; each further step drafts one
+   * more token of the next round, until the sequence's budget, its adaptive early stop (the same
+   * {@code draftMin}/{@code pMin} rule as the serial draft) or until {@code verified} is set —
+   * which the fused step sets only once the target has synchronized. Writes, per sequence
+   * {@code c}, the guess followed by the next round's drafts into {@code ahead[c]}.
+   */
+  private void draftAhead(
+    List<ConversationState> states,
+    LlamaContext draftContext,
+    List<Integer> group,
+    int[] budget,
+    int[][] drafted,
+    int[] nDrafted,
+    int[][] ahead,
+    AtomicBoolean verified
+  ) {
+    int g = group.size();
+    int nVocab = context.nVocab();
+    var kernels = LogitsKernels.get();
+    LlamaBatch aheadBatch = aheadBatch(draftContext, g);
+    int[] prev = new int[g];
+    int[] row = new int[g];
+    int[] count = new int[g];
+    boolean[] stopped = new boolean[g];
+    float[] probOut = new float[1];
+    int steps = 0;
+    for (int j = 0; j < g; j++) {
+      int c = group.get(j);
+      prev[j] = drafted[c][nDrafted[c] - 1];
+      ahead[c] = new int[budget[c] + 1];
+      steps = Math.max(steps, budget[c] + 1);
+    }
+    for (
+      int step = 0;
+      step < steps && (step == 0 || !verified.get());
+      step++
+    ) {
+      aheadBatch.clear();
+      for (int j = 0; j < g; j++) {
+        int c = group.get(j);
+        if (step < ahead[c].length && !stopped[j]) {
+          ConversationState s = states.get(c);
+          row[j] = aheadBatch.nTokens();
+          aheadBatch.add(
+            prev[j],
+            s.getNPast() + nDrafted[c] + step,
+            List.of(s.getSequenceId()),
+            true
+          );
+        }
+      }
+      if (aheadBatch.nTokens() == 0) {
+        break;
+      }
+      if (aheadBatch.decode(draftContext) != 0) {
+        throw new LlamaException("Speculative draft decode failed");
+      }
+      for (int j = 0; j < g; j++) {
+        int c = group.get(j);
+        if (step < ahead[c].length && !stopped[j]) {
+          // Greedy: the argmax, as the chain would pick — without touching it off-thread.
+          Speculation spec = states.get(c).getSpeculation();
+          MemorySegment logits = logitsRow(draftContext, row[j], nVocab);
+          if (spec.isAdaptive()) {
+            prev[j] = spec.draftGreedyConfident(logits, nVocab, probOut);
+            // Step 0 is the bonus guess; steps 1.. are next-round drafts 1.., kept like the serial
+            // draft keeps its low-confidence token and stops after it.
+            stopped[j] =
+              step >= 1 &&
+              step >= spec.draftMin() &&
+              probOut[0] < spec.pMin();
+          } else {
+            prev[j] = kernels.argmax(logits, nVocab);
+          }
+          ahead[c][step] = prev[j];
+          count[j] = step + 1;
+        }
+      }
+    }
+    for (int j = 0; j < g; j++) {
+      int c = group.get(j);
+      ahead[c] = Arrays.copyOf(ahead[c], count[j]);
+    }
+  }
+
+  private LlamaBatch aheadBatch(LlamaContext draftContext, int rows) {
+    if (rows > draftContext.nBatch()) {
+      throw new LlamaException(
+        "Fused speculative draft needs draft n_batch >= " +
+          rows +
+          " (sequences sharing a draft context); got " +
+          draftContext.nBatch()
+      );
+    }
+    synchronized (aheadBatches) {
+      if (aheadArena == null) {
+        aheadArena = Arena.ofShared();
+      }
+      return aheadBatches.computeIfAbsent(draftContext, key ->
+        new LlamaBatch(aheadArena, key.nBatch(), 0, 1)
+      );
+    }
+  }
+
+  private LlamaTokenDataArray groupDraftBuf(LlamaContext draftContext) {
+    synchronized (aheadBatches) {
+      if (aheadArena == null) {
+        aheadArena = Arena.ofShared();
+      }
+      return groupDraftBufs.computeIfAbsent(draftContext, key ->
+        new LlamaTokenDataArray(aheadArena, context.nVocab())
+      );
+    }
+  }
+
+  /** Waits for every draft-ahead or draft-group task; a failed one rethrows its cause. */
+  private static void awaitDraftAhead(List<CompletableFuture<Void>> tasks) {
+    try {
+      // allOf completes only once every task has, so no draft decode outlives this call.
+      CompletableFuture.allOf(tasks.toArray(CompletableFuture[]::new)).join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      throw e;
+    }
+  }
+
+  // A sequence that drafted nothing had idLast decoded by draft step 0 and needs no fill.
+  private static boolean needsFill(
+    ConversationState s,
+    int nDrafted,
+    int matched
+  ) {
+    return nDrafted > 0 && matched == nDrafted && !s.isFinished();
+  }
+
   /**
    * Prepares the list of active states for the next batch processing cycle.
    * This method performs several key preparatory steps:
@@ -928,9 +1483,22 @@ public final class BatchIterator
    */
   private void processInBatches(List<ConversationState> activeStates) {
     int batchSize = Math.max(1, context.nBatch());
-    for (int start = 0; start < activeStates.size(); start += batchSize) {
-      int end = Math.min(start + batchSize, activeStates.size());
+    int start = 0;
+    while (start < activeStates.size()) {
+      // Each state adds its new token plus any jump-forward tokens; fill up to nBatch tokens.
+      // jumpForward() caps those at nBatch - 1, so a state always fits on its own.
+      int end = start;
+      int tokens = 0;
+      while (end < activeStates.size()) {
+        int needed = 1 + activeStates.get(end).getForwardTokens().length;
+        if (end > start && tokens + needed > batchSize) {
+          break;
+        }
+        tokens += needed;
+        end++;
+      }
       List<ConversationState> batchStates = activeStates.subList(start, end);
+      start = end;
 
       // Decode one batch of states.
       if (!decodeBatch(batchStates)) {
@@ -949,44 +1517,131 @@ public final class BatchIterator
   private boolean decodeBatch(List<ConversationState> batchStates) {
     batch.clear();
     seqIdToBatchPos.clear();
-
-    // Add a token from each state in the sub-batch to the main batch.
     for (ConversationState state : batchStates) {
-      seqIdToBatchPos.put(state.getSequenceId(), batch.nTokens());
-      batch.add(
-        state.getNewTokenId(),
-        state.getNPast(),
-        List.of(state.getSequenceId()),
-        true
-      );
+      addPlainRows(state);
     }
 
     // Perform the main decoding step.
+    long start = System.nanoTime();
     if (batch.decode(context) != 0) {
       handleDecodeError(batchStates);
       return false;
     }
+    if (speculationGate != null) {
+      context.synchronize(); // time the compute, not just the enqueue
+      speculationGate.observeDecode(batch.nTokens(), System.nanoTime() - start);
+    }
+
+    samplePlain(batchStates);
+    return true;
+  }
 
-    // Sample a new token for each state in the batch.
+  /**
+   * Adds a plain state's token to the batch, followed by its jump-forward tokens; logits only on
+   * the last one, which is where it samples from (recorded in {@link #seqIdToBatchPos}).
+   */
+  private void addPlainRows(ConversationState state) {
+    var seq = List.of(state.getSequenceId());
+    int[] forward = state.getForwardTokens();
+    batch.add(
+      state.getNewTokenId(),
+      state.getNPast(),
+      seq,
+      forward.length == 0
+    );
+    for (int i = 0; i < forward.length; i++) {
+      batch.add(
+        forward[i],
+        state.getNPast() + 1 + i,
+        seq,
+        i == forward.length - 1
+      );
+    }
+    seqIdToBatchPos.put(state.getSequenceId(), batch.nTokens() - 1);
+  }
+
+  /** Samples a new token for each plain state of the last decode, serially or on the executor. */
+  private void samplePlain(List<ConversationState> batchStates) {
+    if (samplingExecutor == null || batchStates.size() < 2) {
+      for (ConversationState state : batchStates) {
+        sampleAndProcessNextToken(state, currentOutputs);
+      }
+    } else {
+      sampleInParallel(batchStates);
+    }
+  }
+
+  /**
+   * Runs {@link #sampleAndProcessNextToken} for every state of the batch on the
+   * {@link #setSamplingExecutor sampling executor}, then queues the outputs in batch order.
+   *
+   * @param batchStates The states decoded in this batch.
+   */
+  private void sampleInParallel(List<ConversationState> batchStates) {
+    // The first llama_get_logits_ith after a decode synchronizes the backend and settles the output
+    // rows; do it here, once, so the tasks below only read the logits buffer.
+    logitsRow(
+      context,
+      seqIdToBatchPos.get(batchStates.getFirst().getSequenceId()),
+      1
+    );
+
+    // One output list per state, filled only by the task that owns the state.
+    Map<ConversationState, List<LlamaOutput>> outputs = new IdentityHashMap<>();
+    Map<Object, List<ConversationState>> bySampler = new IdentityHashMap<>();
     for (ConversationState state : batchStates) {
-      sampleAndProcessNextToken(state);
+      outputs.put(state, new ArrayList<>(2));
+      Object sampler = state.getLogitsSampler() != null
+        ? state.getLogitsSampler()
+        : state.getSampler();
+      bySampler.computeIfAbsent(sampler, k -> new ArrayList<>()).add(state);
+    }
+
+    var tasks = new CompletableFuture<?>[bySampler.size()];
+    int t = 0;
+    for (List<ConversationState> group : bySampler.values()) {
+      tasks[t++] = CompletableFuture.runAsync(
+        () -> {
+          for (ConversationState state : group) {
+            sampleAndProcessNextToken(state, outputs.get(state));
+          }
+        },
+        samplingExecutor
+      );
+    }
+    try {
+      // allOf completes only once every task has, so no task still touches a state on failure.
+      CompletableFuture.allOf(tasks).join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      throw e;
+    }
+
+    for (ConversationState state : batchStates) {
+      currentOutputs.addAll(outputs.get(state));
     }
-    return true;
   }
 
   /**
    * Samples the next token for a given state and processes it.
    *
    * @param state The conversation state to process.
+   * @param out   Where to queue the outputs this step emits.
    */
-  private void sampleAndProcessNextToken(ConversationState state) {
+  private void sampleAndProcessNextToken(
+    ConversationState state,
+    List<LlamaOutput> out
+  ) {
     // The token just decoded at position nPast (decodeBatch added state.getNewTokenId()); it
     // enters the committed history when nPast is incremented below.
     int decodedToken = state.getNewTokenId();
+    int[] decodedForward = state.getForwardTokens();
     int batchPos = seqIdToBatchPos.get(state.getSequenceId());
     // Budget-aware EOG boost, written into the logits this sample() is about to read.
     applyEogRamp(state, batchPos);
-    int newToken = state.getSampler().sample(context, batchPos);
+    int newToken = sampleToken(state, batchPos);
     String tokenPiece = decodeTokenPiece(state, newToken);
 
     // Collect logprobs before processing (logits are invalidated after next decode).
@@ -1002,7 +1657,7 @@ public final class BatchIterator
         );
       }
       state.setFinished(true);
-      flushPendingMarker(state, currentOutputs);
+      flushPendingMarker(state, out);
       return;
     }
 
@@ -1016,6 +1671,9 @@ public final class BatchIterator
       return;
     }
 
+    // Tokens a logits processor dictates after this one are emitted with it (jump-forward).
+    emission = jumpForward(state, emission, null);
+
     // Update the state with the new token and add it to the output queue (nothing is queued
     // while a multi-token marker prefix is buffered).
     state.setNewTokenId(newToken);
@@ -1024,10 +1682,14 @@ public final class BatchIterator
     state.setLogprobs(logprobs);
     state.incrementNPast();
     state.getTokenHistory().append(decodedToken);
+    for (int forwardToken : decodedForward) {
+      state.incrementNPast();
+      state.getTokenHistory().append(forwardToken);
+    }
     // Nothing is queued while a marker prefix is buffered, and a confirmed marker's text is
     // suppressed (empty emit with emitTokens > 0 — counted, never streamed).
     if (!emission.emit().isEmpty()) {
-      currentOutputs.add(
+      out.add(
         new LlamaOutput(
           emission.emit(),
           emission.emitTokens(),
@@ -1167,6 +1829,14 @@ public final class BatchIterator
       dual.free();
     }
     dualScratch.clear();
+    for (LlamaBatch ahead : aheadBatches.values()) {
+      ahead.free();
+    }
+    aheadBatches.clear();
+    groupDraftBufs.clear();
+    if (aheadArena != null) {
+      aheadArena.close();
+    }
     batch.free();
   }
 
@@ -1199,5 +1869,6 @@ public final class BatchIterator
     }
     firstTokenEmitted.remove(sequenceId);
     seqIdToBatchPos.remove(sequenceId);
+    draftedAhead.remove(sequenceId);
   }
 }
@@ -0,0 +1,73 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.llama.cpp;
+
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Coalesces concurrent single-text {@link #embed} calls — one per HTTP request, say, from any
+ * thread including virtual threads — into packed {@link LlamaEmbedder#embedAll} calls on one
+ * worker thread, for batch throughput at single-request latency.
+ *
+ * <p>A batch closes once {@code nSeqMax} texts are queued — a full decode — or once its oldest
+ * text has waited {@code maxWait}; texts that queued while the previous batch decoded join the next
+ * one immediately, up to {@code 16 * nSeqMax}. {@code embedAll} then packs them under
+ * {@code nBatch} tokens and {@code nSeqMax} sequences per decode, serves repeats from its cache if
+ * it has one, and a text it rejects fails only its own future.
+ *
+ * <p>The worker is the embedder's only user while this is open: do not call the embedder directly
+ * meanwhile. Its native batch lives in the arena it was created with, which must therefore be
+ * accessible from the worker thread (a shared, global or automatic arena, not a confined one).
+ * {@link #close()} leaves the embedder open.
+ *
+ * @author GraviteeSource Team
+ */
+public final class CoalescingEmbedder implements AutoCloseable {
+
+  private final RequestCoalescer<String, float[]> coalescer;
+
+  /**
+   * @param embedder The embedder every batch runs on
+   * @param maxWait  Longest a text waits for others to join its batch
+   */
+  public CoalescingEmbedder(LlamaEmbedder embedder, Duration maxWait) {
+    int nSeqMax = embedder.context().nSeqMax();
+    this.coalescer = new RequestCoalescer<>(
+      "llama-embed-coalescer",
+      embedder::embedAll,
+      nSeqMax,
+      16 * nSeqMax,
+      maxWait
+    );
+  }
+
+  /**
+   * Queues {@code text} for the next batch.
+   *
+   * @return The text's embedding, as {@link LlamaEmbedder#embed} would return it; failed with a
+   *         {@link LlamaException} if the embedder rejects it or this is closed
+   */
+  public CompletableFuture<float[]> embed(String text) {
+    return coalescer.submit(text);
+  }
+
+  /** Serves the texts already queued, then stops the worker. The embedder is left open. */
+  @Override
+  public void close() {
+    coalescer.close();
+  }
+}
@@ -0,0 +1,79 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.llama.cpp;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Coalesces concurrent single-pair {@link #score} calls from any thread, including virtual threads,
+ * into packed {@link LlamaReranker#scorePairs} calls on one worker thread — pairs of different
+ * queries share a batch.
+ *
+ * <p>Batching follows {@link CoalescingEmbedder}: a batch closes once {@code nSeqMax} pairs are
+ * queued or its oldest pair has waited {@code maxWait}, and a pair the reranker rejects fails only
+ * its own future. The worker is the reranker's only user while this is open; {@link #close()}
+ * leaves the reranker open.
+ *
+ * @author GraviteeSource Team
+ */
+public final class CoalescingReranker implements AutoCloseable {
+
+  private record Pair(String query, String document) {}
+
+  private final RequestCoalescer<Pair, float[]> coalescer;
+
+  /**
+   * @param reranker The reranker every batch runs on
+   * @param maxWait  Longest a pair waits for others to join its batch
+   */
+  public CoalescingReranker(LlamaReranker reranker, Duration maxWait) {
+    int nSeqMax = reranker.context().nSeqMax();
+    this.coalescer = new RequestCoalescer<>(
+      "llama-rerank-coalescer",
+      pairs -> {
+        List<String> queries = new ArrayList<>(pairs.size());
+        List<String> documents = new ArrayList<>(pairs.size());
+        for (Pair pair : pairs) {
+          queries.add(pair.query());
+          documents.add(pair.document());
+        }
+        return reranker.scorePairs(queries, documents);
+      },
+      nSeqMax,
+      16 * nSeqMax,
+      maxWait
+    );
+  }
+
+  /**
+   * Queues the pair for the next batch.
+   *
+   * @return The pair's raw scores, as {@link LlamaReranker#score} would return them; failed with a
+   *         {@link LlamaException} if the reranker rejects the pair or this is closed
+   */
+  public CompletableFuture<float[]> score(String query, String document) {
+    return coalescer.submit(new Pair(query, document));
+  }
+
+  /** Serves the pairs already queued, then stops the worker. The reranker is left open. */
+  @Override
+  public void close() {
+    coalescer.close();
+  }
+}
@@ -20,8 +20,13 @@ import static java.lang.foreign.ValueLayout.JAVA_INT;
 
 import io.gravitee.llama.cpp.LlamaTokenizer.TokenizerResponse;
 import io.gravitee.llama.cpp.draft.Eagle3Draft;
+import io.gravitee.llama.cpp.draft.LookaheadDraft;
 import io.gravitee.llama.cpp.draft.MtpDraft;
+import io.gravitee.llama.cpp.draft.NgramCorpus;
 import io.gravitee.llama.cpp.draft.NgramIndex;
+import io.gravitee.llama.cpp.draft.SharedNgramIndex;
+import io.gravitee.llama.cpp.logits.LogitsProcessor;
+import io.gravitee.llama.cpp.logits.LogitsSampler;
 import io.gravitee.llama.cpp.modules.PromptMemory;
 import io.gravitee.llama.cpp.modules.StateEvaluation;
 import io.gravitee.llama.cpp.modules.StopString;
@@ -31,7 +36,9 @@ import io.gravitee.llama.cpp.speculative.*;
 import io.gravitee.llama.cpp.utils.Utf8Decoder;
 import java.lang.foreign.Arena;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
+import java.util.Objects;
 
 /**
  * @author Rémi SULTAN (remi.sultan at graviteesource.com)
@@ -95,6 +102,19 @@ public class ConversationState {
   // reported as LENGTH rather than a natural STOP.
   private boolean eogRampApplied = false;
   private int topLogprobs = 0;
+  // Optional Java sampler chain; when set it replaces the native sampler for plain decoding.
+  private LogitsSampler logitsSampler;
+  // Row rewrites run before sampling, in insertion order; logitsStep counts the tokens sampled
+  // since initialize() and is what a processor sees as its step.
+  private final List<LogitsProcessor> logitsProcessors = new ArrayList<>();
+  private final List<LogitsProcessor> logitsProcessorsView =
+    Collections.unmodifiableList(logitsProcessors);
+  private int logitsStep;
+  // Jump-forward: tokens a processor dictated after newTokenId, committed to the output but not yet
+  // decoded; the next decode appends them behind newTokenId in the same batch.
+  private static final int[] NO_TOKENS = {};
+  private boolean jumpForward = true;
+  private int[] forwardTokens = NO_TOKENS;
 
   // Optional speculative decoding: a draft context (separate small model, same vocab) whose
   // KV is kept in lockstep with this state's target context. When set, the iterators run a
@@ -109,9 +129,15 @@ public class ConversationState {
   // optimistic so the first rounds draft at the configured maximum.
   private static final double EWMA_ALPHA = 0.3;
   private double ewmaAcceptRate = 1.0;
+  // Cost-model draft length (SpeculativeConfig#autoDraft); null when the config does not ask.
+  private DraftLengthController draftLength;
   // Deferred draft-KV fill from a full-accept round (model-draft flavour); -1 = none.
   private int pendingDraftFillToken = -1;
   private int pendingDraftFillPos;
+  // Hybrid (setHybrid): the shortest n-gram proposal that stands in for the draft model (0 = not
+  // hybrid), and the first position the draft KV lacks since a round skipped it (-1 = none).
+  private int hybridMinNgram;
+  private int draftBehindFrom = -1;
 
   // N-gram (prompt-lookup) drafting history + position index (the committed token stream
   // prompt+generated, on the heap, NOT the confined arena). Built lazily by setNgram().
@@ -120,8 +146,11 @@ public class ConversationState {
   // MTP self-speculation (setMtp) / EAGLE3 head drafting (setEagle3) proposal state.
   private MtpDraft mtpDraft;
   private Eagle3Draft eagle3Draft;
+  // Lookahead (setLookahead): the Jacobi guess window and its n-gram pool, on the heap.
+  private LookaheadDraft lookaheadDraft;
 
-  // The speculative flavour attached by setDraft/setNgram/setMtp/setEagle3 (stateless singleton).
+  // The speculative flavour attached by setDraft/setNgram/setLookahead/setMtp/setEagle3
+  // (stateless singleton).
   private SpeculativeDecoding speculativeDecoding;
   private final List<StateBounds> stateBounds = new ArrayList<>();
   private List<MtmdMedia> media = new ArrayList<>();
@@ -256,6 +285,11 @@ public class ConversationState {
     this.pieceTokens = 1;
     this.logprobs = null;
     this.nPast = 0;
+    this.logitsStep = 0;
+    this.forwardTokens = NO_TOKENS;
+    for (LogitsProcessor processor : logitsProcessors) {
+      processor.reset();
+    }
     this.decoder.reset();
     this.media.clear();
     return this;
@@ -288,6 +322,7 @@ public class ConversationState {
     LlamaContext draftContext,
     SpeculativeConfig config
   ) {
+    requireNoLogitsProcessors();
     if (draftContext.nVocab() != context.nVocab()) {
       throw new LlamaException(
         "Draft vocab size (" +
@@ -297,13 +332,105 @@ public class ConversationState {
           ") — speculative decoding requires a shared tokenizer/vocab"
       );
     }
+    requireTreeCapacity(config);
     this.draftContext = draftContext;
     this.speculativeConfig = config;
     this.speculation = new Speculation(arena, context.nVocab(), config);
+    this.draftLength = draftLengthFor(config, true);
     this.speculativeDecoding = ModelDraftSpeculativeDecoding.INSTANCE;
     return this;
   }
 
+  /**
+   * Enables hybrid speculative decoding with
+   * {@link HybridSpeculativeDecoding#DEFAULT_MIN_NGRAM} as the n-gram threshold — see
+   * {@link #setHybrid(LlamaContext, SpeculativeConfig, int)}.
+   */
+  public ConversationState setHybrid(
+    LlamaContext draftContext,
+    SpeculativeConfig config
+  ) {
+    return setHybrid(
+      draftContext,
+      config,
+      HybridSpeculativeDecoding.DEFAULT_MIN_NGRAM
+    );
+  }
+
+  /**
+   * Enables hybrid speculative decoding: each round first looks the last {@code config.ngram()}
+   * committed tokens up in the history, like {@link #setNgram}, and only runs {@code draftContext},
+   * like {@link #setDraft}, when that proposes fewer than {@code minNgram} tokens. Verbatim repeats
+   * then cost no draft decode, while novel text still gets the draft model's guesses. The draft KV
+   * skips the n-gram rounds and catches up in one batched decode the next time the model drafts.
+   *
+   * @param draftContext A context over the draft model (must share the target's vocab size)
+   * @param config       An n-gram config ({@code ngram >= 1}); {@code nDraft} bounds both sources
+   * @param minNgram     The shortest n-gram proposal that replaces the draft model, {@code >= 1}
+   */
+  public ConversationState setHybrid(
+    LlamaContext draftContext,
+    SpeculativeConfig config,
+    int minNgram
+  ) {
+    if (!config.isNgram()) {
+      throw new LlamaException(
+        "setHybrid requires an n-gram config (ngram >= 1) for its lookup window"
+      );
+    }
+    if (minNgram < 1) {
+      throw new LlamaException(
+        "Hybrid n-gram threshold must be >= 1, got " + minNgram
+      );
+    }
+    setDraft(draftContext, config);
+    this.ngramIndex = new NgramIndex(config.ngram(), null);
+    this.hybridMinNgram = minNgram;
+    this.speculativeDecoding = HybridSpeculativeDecoding.INSTANCE;
+    return this;
+  }
+
+  /** Speculative rounds bypass logits processors: refuse rather than silently ignore them. */
+  private void requireNoLogitsProcessors() {
+    if (!logitsProcessors.isEmpty()) {
+      throw new LlamaException(
+        "Speculative decoding cannot be combined with logits processors"
+      );
+    }
+  }
+
+  /**
+   * Tree speculation decodes its extra branches under other sequence ids carrying a copy of this
+   * conversation's prefix, which llama.cpp only allows within a unified KV cache — checked here so a
+   * misconfigured context fails at setup instead of aborting the process at the first round.
+   */
+  private void requireTreeCapacity(SpeculativeConfig config) {
+    if (!config.isTree()) {
+      return;
+    }
+    if (!context.isKvUnified()) {
+      throw new LlamaException(
+        "Tree speculation needs a unified KV cache (LlamaContextParams.kvUnified(true))"
+      );
+    }
+    if (
+      context.nSeqMax() < config.treeBranches() ||
+      sequenceId >= context.nSeqMax()
+    ) {
+      throw new LlamaException(
+        "Tree speculation with " +
+          config.treeBranches() +
+          " branches needs nSeqMax >= " +
+          config.treeBranches() +
+          " and a sequence id below it (nSeqMax = " +
+          context.nSeqMax() +
+          ", sequence id = " +
+          sequenceId +
+          ")"
+      );
+    }
+  }
+
   /**
    * Enables n-gram (prompt-lookup) speculative decoding: proposes up to {@code config.nDraft()}
    * tokens per round by matching the last {@code config.ngram()} committed tokens against this
@@ -312,18 +439,73 @@ public class ConversationState {
    * n-gram config ({@code config.isNgram()}).
    */
   public ConversationState setNgram(SpeculativeConfig config) {
+    return setNgram(config, null);
+  }
+
+  /**
+   * Enables n-gram speculative decoding like {@link #setNgram(SpeculativeConfig)}, with
+   * {@code shared} as a second tier: this conversation publishes its committed tokens to it, and
+   * drafts from what other conversations published when its own history has no match — usually
+   * {@link SharedNgramIndex#of}{@code (model, config.ngram())}, one per model.
+   *
+   * @param shared the cross-conversation index, with the same window as {@code config}; or null
+   */
+  public ConversationState setNgram(
+    SpeculativeConfig config,
+    SharedNgramIndex shared
+  ) {
+    requireNoLogitsProcessors();
     if (!config.isNgram()) {
       throw new LlamaException(
         "setNgram requires an n-gram config (ngram >= 1); use setDraft for model drafting"
       );
     }
+    requireTreeCapacity(config);
     this.speculativeConfig = config;
     this.speculation = new Speculation(arena, context.nVocab(), config);
-    this.ngramIndex = new NgramIndex(config.ngram());
+    this.draftLength = draftLengthFor(config, true);
+    this.ngramIndex = new NgramIndex(config.ngram(), shared);
     this.speculativeDecoding = NgramSpeculativeDecoding.INSTANCE;
     return this;
   }
 
+  /**
+   * Lets the n-gram drafter also propose continuations found in {@code corpus} — a retrieved
+   * document, a tool output, a file the answer should quote — when this conversation's own history
+   * has none. The corpus is consulted, never appended: the history still holds exactly the committed
+   * tokens. Stays attached across re-initialization; requires n-gram or hybrid drafting, enabled
+   * first, with the same window as the corpus.
+   */
+  public ConversationState addNgramCorpus(NgramCorpus corpus) {
+    if (ngramIndex == null) {
+      throw new LlamaException(
+        "addNgramCorpus requires n-gram drafting; call setNgram or setHybrid first"
+      );
+    }
+    ngramIndex.addCorpus(corpus);
+    return this;
+  }
+
+  /** Tokenizes {@code text} with this state's tokenizer and attaches it as an n-gram corpus. */
+  public ConversationState addNgramCorpus(String text) {
+    if (ngramIndex == null) {
+      throw new LlamaException(
+        "addNgramCorpus requires n-gram drafting; call setNgram or setHybrid first"
+      );
+    }
+    return addNgramCorpus(
+      new NgramCorpus(speculativeConfig.ngram(), tokenizer.tokenizeText(text))
+    );
+  }
+
+  /** Detaches every corpus added with {@link #addNgramCorpus}. */
+  public ConversationState clearNgramCorpora() {
+    if (ngramIndex != null) {
+      ngramIndex.clearCorpora();
+    }
+    return this;
+  }
+
   /**
    * Enables MTP (nextn) self-speculative decoding: the target model's own multi-token-prediction
    * head proposes tokens — no separate draft model. Requires a model with {@code n_layer_nextn > 0},
@@ -342,11 +524,17 @@ public class ConversationState {
     LlamaContext mtpContext,
     SpeculativeConfig config
   ) {
+    requireNoLogitsProcessors();
     if (config.isNgram()) {
       throw new LlamaException(
         "setMtp requires a model-draft config (ngram == 0)"
       );
     }
+    if (config.isTree()) {
+      throw new LlamaException(
+        "MTP drafts a single chain; tree speculation needs setDraft or setNgram"
+      );
+    }
     if (!LlamaExt.available()) {
       throw new LlamaException(
         "MTP requires the staging nextn API in the loaded libllama:\n" +
@@ -369,6 +557,7 @@ public class ConversationState {
     LlamaExt.setEmbeddingsNextn(mtpContext, true, false);
     this.speculativeConfig = config;
     this.speculation = new Speculation(arena, context.nVocab(), config);
+    this.draftLength = draftLengthFor(config, false);
     this.mtpDraft = new MtpDraft(
       arena,
       mtpContext,
@@ -398,11 +587,17 @@ public class ConversationState {
     LlamaModel eagle3Model,
     SpeculativeConfig config
   ) {
+    requireNoLogitsProcessors();
     if (config.isNgram()) {
       throw new LlamaException(
         "setEagle3 requires a model-draft config (ngram == 0)"
       );
     }
+    if (config.isTree()) {
+      throw new LlamaException(
+        "EAGLE3 drafts a single chain; tree speculation needs setDraft or setNgram"
+      );
+    }
     if (!LlamaExt.eagle3Available()) {
       throw new LlamaException(
         "EAGLE3 requires the staging layer-input API in the loaded libllama:\n" +
@@ -433,6 +628,7 @@ public class ConversationState {
     LlamaExt.setEmbeddingsNextn(eagle3Context, true, true);
     this.speculativeConfig = config;
     this.speculation = new Speculation(arena, context.nVocab(), config);
+    this.draftLength = draftLengthFor(config, false);
     this.eagle3Draft = new Eagle3Draft(
       arena,
       eagle3Context,
@@ -445,6 +641,72 @@ public class ConversationState {
     return this;
   }
 
+  /**
+   * Enables lookahead (Jacobi) speculative decoding: no draft model and no history — the target
+   * iterates on a window of guessed tokens inside each verify decode, pools the n-grams they settle
+   * into, and verifies the pooled continuations of the last token in the same decode. See
+   * {@link LookaheadSpeculativeDecoding}.
+   *
+   * <p>{@code config.nDraft()} is the n-gram length past its first token (N - 1: the window's
+   * levels, and the longest candidate) and {@code config.treeBranches()} the candidates verified
+   * per round (G). Greedy only. The guess columns and extra candidates run on the context's highest
+   * sequence ids, so the context needs a unified KV cache, {@code nSeqMax >= treeBranches + window}
+   * and {@code nBatch >= (treeBranches + window) * nDraft}.
+   *
+   * @param config Speculative decoding configuration: greedy, {@code ngram} 0
+   * @param window W, the number of guess columns (≥ 1)
+   */
+  public ConversationState setLookahead(SpeculativeConfig config, int window) {
+    requireNoLogitsProcessors();
+    if (!config.isGreedy() || config.isNgram()) {
+      throw new LlamaException(
+        "setLookahead requires a greedy config with ngram == 0"
+      );
+    }
+    if (window < 1) {
+      throw new LlamaException("Lookahead window must be >= 1, got " + window);
+    }
+    int seqs = config.treeBranches() + window;
+    if (!context.isKvUnified()) {
+      throw new LlamaException(
+        "Lookahead needs a unified KV cache (LlamaContextParams.kvUnified(true))"
+      );
+    }
+    if (context.nSeqMax() < seqs || sequenceId >= context.nSeqMax()) {
+      throw new LlamaException(
+        "Lookahead with " +
+          config.treeBranches() +
+          " candidates and a window of " +
+          window +
+          " needs nSeqMax >= " +
+          seqs +
+          " and a sequence id below it (nSeqMax = " +
+          context.nSeqMax() +
+          ", sequence id = " +
+          sequenceId +
+          ")"
+      );
+    }
+    if (context.nBatch() < seqs * config.nDraft()) {
+      throw new LlamaException(
+        "Lookahead needs n_batch >= " +
+          seqs * config.nDraft() +
+          " ((candidates + window) * nDraft); got " +
+          context.nBatch()
+      );
+    }
+    this.speculativeConfig = config;
+    this.speculation = new Speculation(arena, context.nVocab(), config);
+    this.draftLength = draftLengthFor(config, false);
+    this.lookaheadDraft = new LookaheadDraft(
+      window,
+      config.nDraft(),
+      config.treeBranches()
+    );
+    this.speculativeDecoding = LookaheadSpeculativeDecoding.INSTANCE;
+    return this;
+  }
+
   public boolean hasDraft() {
     return draftContext != null;
   }
@@ -459,6 +721,16 @@ public class ConversationState {
     return speculativeConfig != null && speculativeConfig.isNgram();
   }
 
+  /** Whether hybrid drafting is enabled: n-gram lookup first, the draft model as fallback. */
+  public boolean isHybrid() {
+    return hybridMinNgram > 0;
+  }
+
+  /** The shortest n-gram proposal a hybrid round uses instead of the draft model. */
+  public int getHybridMinNgram() {
+    return hybridMinNgram;
+  }
+
   /** Whether MTP (nextn) self-speculation is enabled. */
   public boolean isMtp() {
     return mtpDraft != null;
@@ -469,6 +741,15 @@ public class ConversationState {
     return eagle3Draft != null;
   }
 
+  /** Whether lookahead (Jacobi) drafting is enabled. */
+  public boolean isLookahead() {
+    return lookaheadDraft != null;
+  }
+
+  public LookaheadDraft getLookaheadDraft() {
+    return lookaheadDraft;
+  }
+
   public MtpDraft getMtpDraft() {
     return mtpDraft;
   }
@@ -501,8 +782,15 @@ public class ConversationState {
    * the first position, so the budget shrinks toward {@code draftMin} and recovers as
    * accepts return. Verify-batch capacity is sized off the configured maximum, so the
    * dynamic value is always safe.
+   *
+   * <p>With {@code autoDraft} the {@link DraftLengthController} decides instead, from this
+   * conversation's measured acceptance and round costs — and may return {@code 0}, a plain decode,
+   * for the flavours whose drafter can resume from there (n-gram and model drafting).
    */
   public int getNDraft() {
+    if (draftLength != null) {
+      return draftLength.nDraft();
+    }
     int max = speculativeConfig.nDraft();
     if (!speculativeConfig.isAdaptive()) {
       return max;
@@ -527,10 +815,9 @@ public class ConversationState {
    */
   void seedNgramHistory() {
     ngramIndex.clear();
-    int promptLen = tokenized.size();
-    var data = tokenized.data();
-    for (int i = 0; i < promptLen; i++) {
-      ngramIndex.append(data.getAtIndex(JAVA_INT, i));
+    // The committed prompt: the tokenized one, or a multimodal prompt's text around its media.
+    for (int token : tokenHistory.textTokens()) {
+      ngramIndex.append(token);
     }
     ngramIndex.append(newTokenId); // idLast, position == nPast (not yet in KV)
   }
@@ -551,6 +838,15 @@ public class ConversationState {
     return ngramIndex.propose(kMax);
   }
 
+  /**
+   * Proposes up to {@code branches} different continuations of the last {@code ngram} history
+   * tokens, each up to {@code kMax} tokens, for tree speculation — see
+   * {@link NgramIndex#proposeBranches}.
+   */
+  public int[][] proposeNgramBranches(int kMax, int branches) {
+    return ngramIndex.proposeBranches(kMax, branches);
+  }
+
   /** Accumulates speculative accept statistics for {@link #acceptRate()} and {@link #getNDraft()}. */
   public void recordSpeculation(int drafted, int accepted) {
     this.nDrafted += drafted;
@@ -560,6 +856,45 @@ public class ConversationState {
         (1 - EWMA_ALPHA) * ewmaAcceptRate +
         EWMA_ALPHA * ((double) accepted / drafted);
     }
+    if (draftLength != null) {
+      draftLength.observeAcceptance(drafted, accepted);
+    }
+  }
+
+  /**
+   * Feeds one round's timings to the draft-length controller (no-op without {@code autoDraft}).
+   *
+   * @param draftNanos   time the round spent outside the verify decode
+   * @param drafted      tokens drafted
+   * @param verifyNanos  time of the verify decode
+   * @param verifyTokens tokens in the verify decode, other sequences' included when fused
+   * @param sharers      sequences sharing the verify decode
+   */
+  public void recordRoundCost(
+    long draftNanos,
+    int drafted,
+    long verifyNanos,
+    int verifyTokens,
+    int sharers
+  ) {
+    if (draftLength != null) {
+      draftLength.observeCost(
+        draftNanos,
+        drafted,
+        verifyNanos,
+        verifyTokens,
+        sharers
+      );
+    }
+  }
+
+  private static DraftLengthController draftLengthFor(
+    SpeculativeConfig config,
+    boolean canSwitchOff
+  ) {
+    return config.autoDraft()
+      ? new DraftLengthController(config.nDraft(), 1, canSwitchOff)
+      : null;
   }
 
   /* ----- deferred draft-KV fill (model-draft flavour, see ModelDraftSpeculativeDecoding) ----- */
@@ -585,6 +920,29 @@ public class ConversationState {
     this.pendingDraftFillToken = -1;
   }
 
+  /* ----- draft-KV lag (hybrid flavour, see HybridSpeculativeDecoding) ----- */
+
+  /**
+   * Records that the current round leaves the draft model out. Its KV then stops where it is now —
+   * at this round's {@code nPast}, or at the deferred fill, which is dropped — until a later round
+   * catches it up from the token history. Call before the round commits.
+   */
+  public void markDraftBehind() {
+    if (draftBehindFrom < 0) {
+      draftBehindFrom = hasPendingDraftFill() ? pendingDraftFillPos : nPast;
+    }
+    clearPendingDraftFill();
+  }
+
+  /** The first position missing from the draft KV, or {@code -1} when it is in step. */
+  public int draftBehindFrom() {
+    return draftBehindFrom;
+  }
+
+  public void clearDraftBehind() {
+    this.draftBehindFrom = -1;
+  }
+
   /** Fraction of drafted tokens accepted so far — a sanity check on the speedup. */
   public double acceptRate() {
     return nDrafted == 0 ? 0.0 : (double) nAccepted / nDrafted;
@@ -613,6 +971,94 @@ public class ConversationState {
     return topLogprobs;
   }
 
+  /**
+   * Samples this conversation with a Java {@link LogitsSampler} instead of the native
+   * {@link LlamaSampler}.
+   *
+   * <p>The chain runs over the logits row in place and, for the same stages and seed, picks the
+   * same tokens as the native chain — so it can be swapped in without changing output. The native
+   * sampler passed to {@link #create} is then left unused for plain decoding; speculative rounds
+   * keep their own sampling (see {@link SpeculativeConfig}).
+   *
+   * @param logitsSampler the chain to use, or {@code null} to go back to the native sampler
+   * @return This state for chaining
+   */
+  public ConversationState setLogitsSampler(LogitsSampler logitsSampler) {
+    this.logitsSampler = logitsSampler;
+    return this;
+  }
+
+  public LogitsSampler getLogitsSampler() {
+    return logitsSampler;
+  }
+
+  /**
+   * Adds a {@link LogitsProcessor} that rewrites this conversation's logits row before every
+   * sample — after the EOG ramp and after any processor added before it. See
+   * {@link io.gravitee.llama.cpp.logits.LogitsProcessors} for biases, bans, whitelists and forced
+   * tokens. Speculative rounds would draft and verify without them, so a state cannot have both:
+   * this throws once speculative decoding is enabled, and the speculative setters throw once a
+   * processor is added.
+   *
+   * @param processor the processor to append
+   * @return This state for chaining
+   * @throws LlamaException if speculative decoding is enabled on this state
+   */
+  public ConversationState addLogitsProcessor(LogitsProcessor processor) {
+    Objects.requireNonNull(processor, "processor");
+    if (speculativeDecoding != null) {
+      throw new LlamaException(
+        "Logits processors cannot be combined with speculative decoding"
+      );
+    }
+    this.logitsProcessors.add(processor);
+    return this;
+  }
+
+  /** Removes every {@link #addLogitsProcessor logits processor}. */
+  public ConversationState clearLogitsProcessors() {
+    this.logitsProcessors.clear();
+    return this;
+  }
+
+  public List<LogitsProcessor> getLogitsProcessors() {
+    return logitsProcessorsView;
+  }
+
+  /** The step the next sample is, then advances it: 0 right after the prompt. */
+  int nextLogitsStep() {
+    return logitsStep++;
+  }
+
+  /**
+   * Enables or disables jump-forward decoding (on by default): when a
+   * {@linkplain LogitsProcessor#forcedTokens() logits processor dictates} the next tokens — a JSON
+   * key, a closing brace — they are emitted at once and decoded together with the sampled token in
+   * one batch, instead of one decode and one sample each. Forced text is split into the longest
+   * vocabulary pieces, which is not always how the model would have tokenized it; turn this off to
+   * keep every token sampled. It never applies while logprobs are collected or under speculation.
+   *
+   * @param jumpForward whether to commit forced tokens without sampling them
+   * @return This state for chaining
+   */
+  public ConversationState setJumpForward(boolean jumpForward) {
+    this.jumpForward = jumpForward;
+    return this;
+  }
+
+  public boolean isJumpForward() {
+    return jumpForward;
+  }
+
+  /** Forced tokens already emitted after {@code newTokenId}, awaiting their decode; never null. */
+  int[] getForwardTokens() {
+    return forwardTokens;
+  }
+
+  void setForwardTokens(int[] forwardTokens) {
+    this.forwardTokens = forwardTokens == null ? NO_TOKENS : forwardTokens;
+  }
+
   /**
    * Sets stop strings for this conversation.
    */
@@ -832,8 +1278,8 @@ public class ConversationState {
 
   /**
    * Snapshot of the committed token ids — the tokens whose KV rows are resident for this
-   * sequence, positions {@code [0, nPast)}. Length {@code == nPast} at all stable points
-   * (text path; the multimodal path does not maintain the history).
+   * sequence, positions {@code [0, nPast)}. Length {@code == nPast} at all stable points; the
+   * positions of a multimodal prompt's media hold {@link TokenHistory#NO_TOKEN}.
    */
   public int[] committedTokens() {
     return tokenHistory.toArray();
@@ -58,7 +58,6 @@ public final class DefaultLlamaIterator
     }
     var arena = currentState.getArena();
     var context = currentState.getContext();
-    var sampler = currentState.getSampler();
 
     LlamaBatch batch;
     if (currentState.getNewTokenId() == null) {
@@ -71,14 +70,24 @@ public final class DefaultLlamaIterator
         hasNotReachedQuota()
       );
     } else {
-      // Single token generation - need to specify position and sequence ID
-      batch = new LlamaBatch(arena, 1, 0, 1);
+      // Single token generation - need to specify position and sequence ID. Forced tokens
+      // (jump-forward) follow it in the same batch; only the last one needs logits.
+      int[] forward = currentState.getForwardTokens();
+      batch = new LlamaBatch(arena, 1 + forward.length, 0, 1);
       batch.add(
         currentState.getNewTokenId(),
         currentState.getNPast(),
         java.util.List.of(currentState.getSequenceId()),
-        true
+        forward.length == 0
       );
+      for (int i = 0; i < forward.length; i++) {
+        batch.add(
+          forward[i],
+          currentState.getNPast() + 1 + i,
+          java.util.List.of(currentState.getSequenceId()),
+          i == forward.length - 1
+        );
+      }
     }
 
     if (!checkContextSize(batch)) {
@@ -99,11 +108,15 @@ public final class DefaultLlamaIterator
     // After single token: increment nPast — the decoded token's KV row is now resident.
     currentState.incrementNPast();
     currentState.getTokenHistory().append(currentState.getNewTokenId());
+    for (int forwardToken : currentState.getForwardTokens()) {
+      currentState.incrementNPast();
+      currentState.getTokenHistory().append(forwardToken);
+    }
 
     // Budget-aware EOG boost, written into the logits this sample() is about to read.
     // -1 is the last output row, which is what sample(context) reads.
     applyEogRamp(currentState, -1);
-    int newToken = sampler.sample(context);
+    int newToken = sampleToken(currentState, -1);
     String tokenPiece = decodeTokenPiece(currentState, newToken);
 
     // Collect logprobs before processing (logits are invalidated after next decode).
@@ -140,8 +153,11 @@ public final class DefaultLlamaIterator
       return false;
     }
 
-    // Process the sampled token using shared helper method (token-sequence aware)
+    // Process the sampled token using shared helper method (token-sequence aware), then any
+    // tokens a logits processor dictates after it.
     var emission = processSampledToken(currentState, newToken, tokenPiece);
+    var forcedPieces = new StringBuilder();
+    emission = jumpForward(currentState, emission, forcedPieces);
 
     batch.free();
 
@@ -150,7 +166,9 @@ public final class DefaultLlamaIterator
     currentState.setPieceTokens(emission.emitTokens());
     currentState.setLogprobs(logprobs);
 
-    feedPromptMemory(tokenPiece);
+    feedPromptMemory(
+      forcedPieces.isEmpty() ? tokenPiece : tokenPiece + forcedPieces
+    );
     return !endWithStopString() && hasNotReachedQuota();
   }
 
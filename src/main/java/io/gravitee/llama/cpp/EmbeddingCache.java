@@ -0,0 +1,260 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.llama.cpp;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.ValueLayout;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Embedding vectors already computed, so a text embedded again — a title, boilerplate, a popular
+ * query — costs a hash and a copy instead of tokenization and a forward pass. Set on an embedder
+ * with {@link LlamaEmbedder#setCache}; {@link LlamaEmbedder#embedAll} then decodes only the texts
+ * it misses.
+ *
+ * <p>Entries are keyed by a 128-bit hash of the text and of the embedder's settings — model
+ * metadata, pooling, attention and windowing — so embedders that would produce different vectors
+ * for the same text can share a cache without mixing them up. The text itself is not kept.
+ *
+ * <p>Vectors live in one off-heap slab of {@code byteBudget / (dimension * 4)} rows, allocated from
+ * the caller's arena on first use and living as long as it does; an entry is a row index, not a
+ * {@code float[]}. Once full, the least recently used entry gives its row to the newest one.
+ *
+ * <p>Thread-safe: embedders on different threads may share one cache, provided its arena can be
+ * accessed from all of them (a shared or global arena, not a confined one).
+ *
+ * @author GraviteeSource Team
+ */
+public final class EmbeddingCache {
+
+  private static final long C1 = 0x87c37b91114253d5L;
+  private static final long C2 = 0x4cf5ad432745937fL;
+
+  private final Arena arena;
+  private final int dimension;
+  private final long rowBytes;
+  private final int capacity;
+  // Key -> slab row, least recently used first. Rows [0, size) are always the ones in use.
+  private final Map<Key, Integer> rows;
+  private MemorySegment slab;
+  private long hits;
+  private long misses;
+  private long evictions;
+
+  /**
+   * @param arena      Arena the slab is allocated from, on first use
+   * @param dimension  Floats per vector; the {@link LlamaEmbedder#nEmbdOut()} of the embedders
+   *                   using this cache
+   * @param byteBudget Bytes of vector storage; at least one vector's worth
+   */
+  public EmbeddingCache(Arena arena, int dimension, long byteBudget) {
+    if (dimension < 1) {
+      throw new LlamaException("dimension must be >= 1");
+    }
+    this.rowBytes = (long) dimension * Float.BYTES;
+    if (byteBudget < rowBytes) {
+      throw new LlamaException(
+        "byteBudget " +
+          byteBudget +
+          " holds no " +
+          dimension +
+          "-float vector (" +
+          rowBytes +
+          " bytes)"
+      );
+    }
+    this.arena = arena;
+    this.dimension = dimension;
+    this.capacity = (int) Math.min(
+      Integer.MAX_VALUE - 8,
+      byteBudget / rowBytes
+    );
+    this.rows = new LinkedHashMap<>(16, 0.75f, true);
+  }
+
+  public int dimension() {
+    return dimension;
+  }
+
+  /** Vectors the byte budget holds. */
+  public int capacity() {
+    return capacity;
+  }
+
+  /** Vectors currently held. */
+  public synchronized int size() {
+    return rows.size();
+  }
+
+  /** Lookups that found their vector. */
+  public synchronized long hits() {
+    return hits;
+  }
+
+  /** Lookups that did not. */
+  public synchronized long misses() {
+    return misses;
+  }
+
+  /** Entries dropped to make room for newer ones. */
+  public synchronized long evictions() {
+    return evictions;
+  }
+
+  /** Forgets every vector and resets the counters; the slab is kept for reuse. */
+  public synchronized void clear() {
+    rows.clear();
+    hits = 0;
+    misses = 0;
+    evictions = 0;
+  }
+
+  /** A fresh copy of the vector stored under {@code key}, or {@code null}. */
+  float[] get(Key key) {
+    float[][] vector = new float[1][];
+    read(key, row -> vector[0] = row.toArray(ValueLayout.JAVA_FLOAT));
+    return vector[0];
+  }
+
+  /**
+   * Hands the slab row stored under {@code key} to {@code reader}, holding this cache's lock so
+   * the row cannot be evicted meanwhile; {@code false} if there is none.
+   */
+  synchronized boolean read(Key key, Consumer<MemorySegment> reader) {
+    Integer row = rows.get(key);
+    if (row == null) {
+      misses++;
+      return false;
+    }
+    hits++;
+    reader.accept(slab.asSlice(row * rowBytes, rowBytes));
+    return true;
+  }
+
+  /** Stores a copy of {@code vector} under {@code key}, evicting the least recently used. */
+  void put(Key key, float[] vector) {
+    put(key, MemorySegment.ofArray(vector));
+  }
+
+  /**
+   * Stores a copy of {@code vector} — {@link #dimension()} floats, native or heap — under
+   * {@code key}, evicting the least recently used.
+   */
+  synchronized void put(Key key, MemorySegment vector) {
+    if (vector.byteSize() != rowBytes) {
+      throw new LlamaException(
+        "Vector of " +
+          vector.byteSize() / Float.BYTES +
+          " floats does not fit a " +
+          dimension +
+          "-float cache"
+      );
+    }
+    if (slab == null) {
+      slab = arena.allocate(capacity * rowBytes, Float.BYTES);
+    }
+    Integer row = rows.get(key);
+    if (row == null) {
+      if (rows.size() < capacity) {
+        row = rows.size();
+      } else {
+        Iterator<Map.Entry<Key, Integer>> eldest = rows
+          .entrySet()
+          .iterator();
+        row = eldest.next().getValue();
+        eldest.remove();
+        evictions++;
+      }
+      rows.put(key, row);
+    }
+    MemorySegment.copy(vector, 0, slab, row * rowBytes, rowBytes);
+  }
+
+  /** A 128-bit text hash. */
+  record Key(long hi, long lo) {}
+
+  /**
+   * MurmurHash3 x64 128 of {@code text}'s UTF-16 code units, little-endian, with both halves of the
+   * state seeded by {@code seed}. Reads the string in place: nothing is encoded or copied.
+   */
+  static Key key(long seed, String text) {
+    int n = text.length();
+    long h1 = seed;
+    long h2 = seed;
+    int i = 0;
+    for (; i + 8 <= n; i += 8) {
+      h1 ^= mixK1(chars(text, i, 4));
+      h1 = Long.rotateLeft(h1, 27);
+      h1 += h2;
+      h1 = h1 * 5 + 0x52dce729;
+      h2 ^= mixK2(chars(text, i + 4, 4));
+      h2 = Long.rotateLeft(h2, 31);
+      h2 += h1;
+      h2 = h2 * 5 + 0x38495ab5;
+    }
+    int rest = n - i;
+    if (rest > 4) {
+      h2 ^= mixK2(chars(text, i + 4, rest - 4));
+    }
+    if (rest > 0) {
+      h1 ^= mixK1(chars(text, i, Math.min(rest, 4)));
+    }
+    long bytes = 2L * n;
+    h1 ^= bytes;
+    h2 ^= bytes;
+    h1 += h2;
+    h2 += h1;
+    h1 = fmix(h1);
+    h2 = fmix(h2);
+    h1 += h2;
+    h2 += h1;
+    return new Key(h1, h2);
+  }
+
+  /** {@code count} (at most 4) chars from {@code from}, the first in the low bits. */
+  private static long chars(String text, int from, int count) {
+    long k = 0;
+    for (int c = 0; c < count; c++) {
+      k |= (long) text.charAt(from + c) << (16 * c);
+    }
+    return k;
+  }
+
+  private static long mixK1(long k1) {
+    k1 *= C1;
+    k1 = Long.rotateLeft(k1, 31);
+    return k1 * C2;
+  }
+
+  private static long mixK2(long k2) {
+    k2 *= C2;
+    k2 = Long.rotateLeft(k2, 33);
+    return k2 * C1;
+  }
+
+  private static long fmix(long k) {
+    k ^= k >>> 33;
+    k *= 0xff51afd7ed558ccdL;
+    k ^= k >>> 33;
+    k *= 0xc4ceb9fe1a85ec53L;
+    k ^= k >>> 33;
+    return k;
+  }
+}
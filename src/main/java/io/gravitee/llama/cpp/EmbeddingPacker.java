@@ -0,0 +1,107 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.llama.cpp;
+
+import java.util.Arrays;
+
+/**
+ * Packs embedding inputs into decode batches of at most {@code nBatch} tokens and
+ * {@code nSeqMax} sequences, first-fit decreasing: longest input first, each into the first batch
+ * it fits, a new batch when none has room. Caller order packs a long input after a run of short
+ * ones into a batch of its own and leaves the one before it half empty; sorted, the short inputs
+ * fill the gaps the long ones leave, and a list needs about as few decodes as its total token
+ * count allows.
+ *
+ * <p>The first batch with room is found in a max-tree over the batches' free tokens, so a plan
+ * costs {@code O(n log n)} however many batches it opens.
+ *
+ * @author GraviteeSource Team
+ */
+final class EmbeddingPacker {
+
+  private EmbeddingPacker() {}
+
+  /**
+   * Plans the batches for inputs of the given token {@code lengths}, each at most {@code nBatch}.
+   * Returns, per batch, the indices of its inputs, longest first; batches come in the order they
+   * were opened, so the first holds the longest input.
+   */
+  static int[][] pack(int[] lengths, int nBatch, int nSeqMax) {
+    int n = lengths.length;
+    if (n == 0) {
+      return new int[0][];
+    }
+    // Length descending, then index ascending: one sort of packed keys.
+    long[] order = new long[n];
+    for (int i = 0; i < n; i++) {
+      long rank = Integer.MAX_VALUE - lengths[i];
+      order[i] = (rank << 32) | i;
+    }
+    Arrays.sort(order);
+
+    int leaves = Integer.highestOneBit(Math.max(1, n - 1)) << 1;
+    // tree[leaves + b] is batch b's free tokens, -1 once it is full or not opened yet.
+    int[] tree = new int[2 * leaves];
+    Arrays.fill(tree, -1);
+    int[] seqs = new int[n];
+    int[] batchOf = new int[n];
+    int opened = 0;
+    for (long key : order) {
+      int input = (int) key;
+      int length = lengths[input];
+      int b;
+      if (tree[1] >= length) {
+        b = firstWithRoom(tree, length);
+      } else {
+        b = opened++;
+        set(tree, leaves + b, nBatch);
+      }
+      batchOf[input] = b;
+      seqs[b]++;
+      int free = tree[leaves + b] - length;
+      set(tree, leaves + b, seqs[b] == nSeqMax ? -1 : free);
+    }
+
+    int[][] batches = new int[opened][];
+    for (int b = 0; b < opened; b++) {
+      batches[b] = new int[seqs[b]];
+      seqs[b] = 0;
+    }
+    for (long key : order) {
+      int input = (int) key;
+      int b = batchOf[input];
+      batches[b][seqs[b]++] = input;
+    }
+    return batches;
+  }
+
+  /** The leftmost batch with at least {@code length} free tokens; the root must have room. */
+  private static int firstWithRoom(int[] tree, int length) {
+    int node = 1;
+    int leaves = tree.length / 2;
+    while (node < leaves) {
+      node = tree[2 * node] >= length ? 2 * node : 2 * node + 1;
+    }
+    return node - leaves;
+  }
+
+  private static void set(int[] tree, int node, int value) {
+    tree[node] = value;
+    for (node /= 2; node >= 1; node /= 2) {
+      tree[node] = Math.max(tree[2 * node], tree[2 * node + 1]);
+    }
+  }
+}
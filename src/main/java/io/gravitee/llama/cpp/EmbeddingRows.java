@@ -0,0 +1,86 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.llama.cpp;
+
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+import static java.lang.foreign.ValueLayout.JAVA_FLOAT;
+
+import io.gravitee.llama.cpp.LlamaEmbedder.RowEncoding;
+import io.gravitee.llama.cpp.logits.LogitsKernels;
+import java.lang.foreign.MemorySegment;
+
+/**
+ * Writes a pooled embedding row into a row of a caller's matrix, in the caller's
+ * {@link RowEncoding}. The source is read in place — the native row that
+ * {@code llama_get_embeddings_seq} points at, a cache slab row, or an aggregated window vector —
+ * and never copied onto the heap.
+ *
+ * @author GraviteeSource Team
+ */
+final class EmbeddingRows {
+
+  private EmbeddingRows() {}
+
+  /**
+   * Encodes the {@code dimension} floats of {@code src} into {@code dst}, which holds
+   * {@code encoding.rowBytes(dimension)} bytes. {@code normalize} L2-normalizes a
+   * {@link RowEncoding#FLOAT32} row with {@code kernels}; the other encodings do not depend on the
+   * row's scale, so it changes nothing for them.
+   */
+  static void write(
+    MemorySegment src,
+    int dimension,
+    MemorySegment dst,
+    RowEncoding encoding,
+    boolean normalize,
+    LogitsKernels kernels
+  ) {
+    switch (encoding) {
+      case FLOAT32 -> {
+        float norm = normalize
+          ? (float) Math.sqrt(kernels.sumOfSquares(src, dimension))
+          : 0f;
+        if (norm > 0f) {
+          kernels.divide(src, dimension, norm, dst);
+        } else {
+          MemorySegment.copy(src, 0, dst, 0, (long) dimension * Float.BYTES);
+        }
+      }
+      case INT8 -> {
+        float maxAbs = 0f;
+        for (int d = 0; d < dimension; d++) {
+          maxAbs = Math.max(maxAbs, Math.abs(src.getAtIndex(JAVA_FLOAT, d)));
+        }
+        float scale = maxAbs > 0f ? 127f / maxAbs : 0f;
+        for (int d = 0; d < dimension; d++) {
+          float v = src.getAtIndex(JAVA_FLOAT, d) * scale;
+          dst.set(JAVA_BYTE, d, (byte) Math.round(v));
+        }
+      }
+      case BINARY -> {
+        for (int b = 0; b < (dimension + 7) / 8; b++) {
+          int bits = 0;
+          for (int d = b * 8; d < Math.min(dimension, b * 8 + 8); d++) {
+            if (src.getAtIndex(JAVA_FLOAT, d) > 0f) {
+              bits |= 0x80 >>> (d & 7);
+            }
+          }
+          dst.set(JAVA_BYTE, b, (byte) bits);
+        }
+      }
+    }
+  }
+}
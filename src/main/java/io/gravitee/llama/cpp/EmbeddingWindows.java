@@ -0,0 +1,139 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.llama.cpp;
+
+import io.gravitee.llama.cpp.LlamaEmbedder.WindowAggregation;
+import java.util.Arrays;
+
+/**
+ * Sliding windows over an embedding input longer than {@link LlamaEmbedder.Windowing#size()}, and
+ * the aggregation of their vectors back into one. Every window keeps the input's special tokens —
+ * the BOS or CLS before the content, the SEP or EOS after it — so each one is embedded the way a
+ * whole input is, and carries {@code overlap} content tokens of the window before it.
+ *
+ * @author GraviteeSource Team
+ */
+final class EmbeddingWindows {
+
+  private EmbeddingWindows() {}
+
+  /**
+   * How many of the special tokens in {@code wrap} — what tokenizing an empty input yields —
+   * lead {@code tokens}, the rest trailing them; {@code -1} when {@code tokens} is not wrapped
+   * that way.
+   */
+  static int lead(int[] tokens, int[] wrap) {
+    if (tokens.length < wrap.length) {
+      return -1;
+    }
+    for (int lead = wrap.length; lead >= 0; lead--) {
+      int trail = wrap.length - lead;
+      if (
+        Arrays.equals(tokens, 0, lead, wrap, 0, lead) &&
+        Arrays.equals(
+          tokens,
+          tokens.length - trail,
+          tokens.length,
+          wrap,
+          lead,
+          wrap.length
+        )
+      ) {
+        return lead;
+      }
+    }
+    return -1;
+  }
+
+  /**
+   * Splits {@code tokens} into windows of at most {@code size} tokens: its first {@code lead} and
+   * last {@code trail} tokens around each slice of the content between them, consecutive slices
+   * sharing {@code overlap} tokens. The last slice ends with the content and may be shorter.
+   */
+  static int[][] split(
+    int[] tokens,
+    int lead,
+    int trail,
+    int size,
+    int overlap
+  ) {
+    int content = tokens.length - lead - trail;
+    int span = size - lead - trail;
+    int stride = span - overlap;
+    int count = content <= span ? 1 : 1 + ceilDiv(content - span, stride);
+    int[][] windows = new int[count][];
+    for (int w = 0; w < count; w++) {
+      int start = lead + w * stride;
+      int length = Math.min(span, tokens.length - trail - start);
+      int[] window = new int[lead + length + trail];
+      System.arraycopy(tokens, 0, window, 0, lead);
+      System.arraycopy(tokens, start, window, lead, length);
+      System.arraycopy(
+        tokens,
+        tokens.length - trail,
+        window,
+        lead + length,
+        trail
+      );
+      windows[w] = window;
+    }
+    return windows;
+  }
+
+  /**
+   * Combines the window vectors {@code vectors[from, from + count)} into one: their mean, their
+   * element-wise maximum, or their mean weighted by {@code weights} — each window's content
+   * tokens, so a short tail window counts for what it covers.
+   */
+  static float[] aggregate(
+    float[][] vectors,
+    int[] weights,
+    int from,
+    int count,
+    WindowAggregation aggregation
+  ) {
+    int dim = vectors[from].length;
+    float[] out = new float[dim];
+    if (aggregation == WindowAggregation.MAX) {
+      System.arraycopy(vectors[from], 0, out, 0, dim);
+      for (int w = from + 1; w < from + count; w++) {
+        for (int d = 0; d < dim; d++) {
+          out[d] = Math.max(out[d], vectors[w][d]);
+        }
+      }
+      return out;
+    }
+    double[] sum = new double[dim];
+    double total = 0;
+    for (int w = from; w < from + count; w++) {
+      double weight = aggregation == WindowAggregation.LENGTH_WEIGHTED
+        ? weights[w]
+        : 1;
+      for (int d = 0; d < dim; d++) {
+        sum[d] += weight * vectors[w][d];
+      }
+      total += weight;
+    }
+    for (int d = 0; d < dim; d++) {
+      out[d] = (float) (sum[d] / total);
+    }
+    return out;
+  }
+
+  private static int ceilDiv(int a, int b) {
+    return (a + b - 1) / b;
+  }
+}
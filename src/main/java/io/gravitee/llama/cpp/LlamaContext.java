@@ -17,12 +17,11 @@ package io.gravitee.llama.cpp;
 
 import static io.gravitee.llama.cpp.LlamaRuntime.*;
 
+import io.gravitee.llama.cpp.logits.LogitsKernels;
 import java.lang.foreign.Arena;
 import java.lang.foreign.MemorySegment;
 import java.lang.foreign.ValueLayout;
-import java.nio.charset.StandardCharsets;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.Arrays;
 
 /**
  * @author Rémi SULTAN (remi.sultan at graviteesource.com)
@@ -176,6 +175,16 @@ public final class LlamaContext extends MemorySegmentAware implements Freeable {
    *         or {@code null} if pooling is disabled
    */
   public float[] getEmbeddingsSeq(int seqId) {
+    MemorySegment row = getEmbeddingsSeqSegment(seqId);
+    return row == null ? null : row.toArray(ValueLayout.JAVA_FLOAT);
+  }
+
+  /**
+   * As {@link #getEmbeddingsSeq}, but returns the native row itself instead of a heap copy — for
+   * callers that copy it straight into another native buffer. The segment is only valid until the
+   * next decode on this context.
+   */
+  public MemorySegment getEmbeddingsSeqSegment(int seqId) {
     checkNotFreed();
     MemorySegment ptr = llama_get_embeddings_seq(segment, seqId);
     if (ptr == null || ptr.address() == 0) {
@@ -185,9 +194,7 @@ public final class LlamaContext extends MemorySegmentAware implements Freeable {
     // For all other non-NONE pooling types it holds n_embd_out floats.
     PoolingType pooling = llama_pooling_type(segment);
     int size = pooling == PoolingType.RANK ? model.nClsOut() : model.nEmbdOut();
-    return ptr
-      .reinterpret(size * ValueLayout.JAVA_FLOAT.byteSize())
-      .toArray(ValueLayout.JAVA_FLOAT);
+    return ptr.reinterpret(size * ValueLayout.JAVA_FLOAT.byteSize());
   }
 
   /**
@@ -206,6 +213,15 @@ public final class LlamaContext extends MemorySegmentAware implements Freeable {
    * @throws LlamaException if the native call returns a NULL pointer
    */
   public float[] getEmbeddingsIth(int i) {
+    return getEmbeddingsIthSegment(i).toArray(ValueLayout.JAVA_FLOAT);
+  }
+
+  /**
+   * As {@link #getEmbeddingsIth}, but returns the native row itself instead of a heap copy — for
+   * callers that copy it straight into another native buffer. The segment is only valid until the
+   * next decode on this context.
+   */
+  public MemorySegment getEmbeddingsIthSegment(int i) {
     checkNotFreed();
     MemorySegment ptr = llama_get_embeddings_ith(segment, i);
     if (ptr == null || ptr.address() == 0) {
@@ -216,9 +232,7 @@ public final class LlamaContext extends MemorySegmentAware implements Freeable {
       );
     }
     int nEmbd = model.nEmbdOut();
-    return ptr
-      .reinterpret(nEmbd * ValueLayout.JAVA_FLOAT.byteSize())
-      .toArray(ValueLayout.JAVA_FLOAT);
+    return ptr.reinterpret(nEmbd * ValueLayout.JAVA_FLOAT.byteSize());
   }
 
   public MemorySegment getMemorySegment() {
@@ -239,12 +253,22 @@ public final class LlamaContext extends MemorySegmentAware implements Freeable {
     );
   }
 
+  /**
+   * Blocks until the last decode has really finished. On GPU backends {@code llama_decode} returns
+   * once the graph is queued, so a timer stopped right after it measures only the enqueue; call
+   * this first to time the compute itself.
+   */
+  public void synchronize() {
+    checkNotFreed();
+    llama_synchronize(segment);
+  }
+
   /**
    * Collects log-probability information for the token at batch output index {@code batchIdx}.
    *
-   * <p>Reads the raw logit vector produced by the last {@code decode()} call and derives
-   * exact log-probabilities via a numerically stable log-sum-exp, then returns the top-N
-   * entries sorted by descending log-probability.  The sampled token
+   * <p>Reads the raw logit vector produced by the last {@code decode()} call in place and
+   * derives log-probabilities via a numerically stable log-sum-exp (see {@link LogitsKernels}),
+   * then returns the top-N entries sorted by descending log-probability.  The sampled token
    * ({@code sampledTokenId}) is always included even if it did not make the top-N cut.
    *
    * <p>The caller must ensure the token at {@code batchIdx} was added to the batch with
@@ -272,77 +296,47 @@ public final class LlamaContext extends MemorySegmentAware implements Freeable {
       );
     }
 
-    // Read all nVocab logits into a float array.
-    float[] logits = logitsPtr
-      .reinterpret(nVocab * ValueLayout.JAVA_FLOAT.byteSize())
-      .toArray(ValueLayout.JAVA_FLOAT);
-
-    // logprob(i) = logits[i] - logZ with logZ = max + log(sum(exp(logits - max))),
-    // so exact log-probabilities need only the max and the log-sum-exp — no
-    // vocab-sized probability array. The top-N candidates are selected on the raw
-    // logits in the same pass (softmax is monotonic), kept in a small
-    // descending insertion buffer: candidates below its minimum are rejected in
-    // O(1), so the pass is ~O(nVocab) for the small N used in practice.
-    float max = logits[0];
-    for (float v : logits) {
-      if (v > max) max = v;
-    }
-
+    // The row is read in place: no nVocab-sized copy, no per-entry Math.exp on the vector path.
+    MemorySegment row = logitsPtr.reinterpret(
+      nVocab * ValueLayout.JAVA_FLOAT.byteSize()
+    );
     int limit = Math.min(topN, nVocab);
-    int[] topIdx = new int[limit];
-    int topCount = 0;
-    double sum = 0.0;
-    for (int i = 0; i < nVocab; i++) {
-      sum += Math.exp(logits[i] - max);
-      if (topCount == limit && logits[i] <= logits[topIdx[limit - 1]]) {
-        continue;
-      }
-      int pos = topCount < limit ? topCount : limit - 1;
-      while (pos > 0 && logits[i] > logits[topIdx[pos - 1]]) {
-        topIdx[pos] = topIdx[pos - 1];
-        pos--;
+    // One spare slot for the chosen token when it falls below the top-N cut.
+    int[] ids = new int[limit + 1];
+    float[] values = new float[limit + 1];
+    double logZ = LogitsKernels.get().summarize(
+      row,
+      nVocab,
+      limit,
+      ids,
+      values
+    );
+
+    int chosenIndex = -1;
+    for (int rank = 0; rank < limit && chosenIndex < 0; rank++) {
+      if (ids[rank] == sampledTokenId) {
+        chosenIndex = rank;
       }
-      topIdx[pos] = i;
-      if (topCount < limit) topCount++;
     }
-    double logZ = max + Math.log(sum);
-
-    List<TokenLogprob> topList = new ArrayList<>(topCount + 1);
-    boolean chosenPresent = false;
-    for (int rank = 0; rank < topCount; rank++) {
-      int id = topIdx[rank];
-      chosenPresent |= id == sampledTokenId;
-      topList.add(buildTokenLogprob(vocab, id, logits[id] - logZ));
+    int size = limit;
+    if (chosenIndex < 0) {
+      chosenIndex = size;
+      ids[size] = sampledTokenId;
+      values[size] = row.getAtIndex(ValueLayout.JAVA_FLOAT, sampledTokenId);
+      size++;
     }
 
-    // The chosen token entry — always included even below the top-N cut.
-    TokenLogprob chosen = buildTokenLogprob(
-      vocab,
-      sampledTokenId,
-      logits[sampledTokenId] - logZ
-    );
-    if (!chosenPresent) {
-      topList.add(chosen);
+    if (size < ids.length) {
+      ids = Arrays.copyOf(ids, size);
     }
-
-    return new Logprobs(chosen, List.copyOf(topList));
-  }
-
-  private TokenLogprob buildTokenLogprob(
-    LlamaVocab vocab,
-    int tokenId,
-    double logprob
-  ) {
-    byte[] rawBytes = vocab.tokenToPiece(tokenId);
-    String piece = rawBytes.length == 0
-      ? ""
-      : new String(rawBytes, StandardCharsets.UTF_8);
-
-    List<Integer> byteList = new ArrayList<>(rawBytes.length);
-    for (byte b : rawBytes) {
-      byteList.add(b & 0xFF);
+    double[] logprobs = new double[size];
+    byte[][] pieces = new byte[size][];
+    for (int rank = 0; rank < size; rank++) {
+      logprobs[rank] = values[rank] - logZ;
+      pieces[rank] = vocab.tokenToPiece(ids[rank]);
     }
-    return new TokenLogprob(piece, tokenId, logprob, List.copyOf(byteList));
+    var top = new TokenLogprobList(ids, logprobs, pieces);
+    return new Logprobs(top.get(chosenIndex), top);
   }
 
   @Override
@@ -15,9 +15,19 @@
  */
 package io.gravitee.llama.cpp;
 
+import io.gravitee.llama.cpp.logits.LogitsKernels;
 import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
 import java.lang.foreign.ValueLayout;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Executor;
 
 /**
  * High-level wrapper around {@link LlamaContext} for dense text embeddings.
@@ -39,7 +49,8 @@ import java.util.List;
  * </ul>
  *
  * <h2>Thread safety</h2>
- * Not thread-safe. Create one instance per thread, or synchronise externally.
+ * Not thread-safe. Create one instance per thread, or synchronise externally; a
+ * {@link CoalescingEmbedder} serves concurrent callers from one instance.
  *
  * <h2>Resource management</h2>
  * The caller always owns the {@link LlamaModel} and is responsible for freeing it.
@@ -52,11 +63,28 @@ import java.util.List;
  */
 public final class LlamaEmbedder implements Freeable, AutoCloseable {
 
+  // Inputs planned together: enough for sorting to pay off, few enough that tokenizing the next
+  // window hides behind decoding this one.
+  private static final int PLAN_WINDOW = 1024;
+
   private final LlamaModel model;
   private final LlamaContext context;
   private final LlamaVocab vocab;
   private final LlamaTokenizer tokenizer;
   private final PoolingType poolingType;
+  // One batch for every decode of this embedder, cleared before each.
+  private final LlamaBatch batch;
+  // Splits over-long inputs; null embeds each input whole. wrap is what tokenizing an empty
+  // input yields: the special tokens every window keeps.
+  private final Windowing windowing;
+  private final int[] wrap;
+  // Tokenizes and packs the next window of embedAll inputs while the current one decodes; null
+  // does it on the caller thread, between windows.
+  private Executor tokenizeExecutor;
+  // Vectors already computed, looked up before tokenizing; null computes every input. Keys are
+  // seeded with cacheSeed, a hash of everything above that shapes a vector.
+  private EmbeddingCache cache;
+  private final long cacheSeed;
 
   private boolean freed = false;
 
@@ -93,6 +121,84 @@ public final class LlamaEmbedder implements Freeable, AutoCloseable {
     this.vocab = new LlamaVocab(model);
     this.tokenizer = new LlamaTokenizer(vocab, context);
     this.poolingType = pooling;
+    this.batch = new LlamaBatch(
+      arena,
+      context.nBatch(),
+      0,
+      context.nSeqMax()
+    );
+    this.batch.enableCache();
+    this.windowing = options.windowing();
+    this.wrap = tokenizer.tokenizeInput("");
+    if (windowing != null && windowing.size() > context.nBatch()) {
+      throw new LlamaException(
+        "Windowing size " +
+          windowing.size() +
+          " exceeds nBatch=" +
+          context.nBatch()
+      );
+    }
+    if (
+      windowing != null &&
+      windowing.size() - wrap.length <= windowing.overlap()
+    ) {
+      throw new LlamaException(
+        "Windowing size " +
+          windowing.size() +
+          " leaves no room past the overlap once the " +
+          wrap.length +
+          " special tokens are added"
+      );
+    }
+    try (Arena local = Arena.ofConfined()) {
+      this.cacheSeed = EmbeddingCache.key(
+        0,
+        model.desc(local) +
+          '\n' +
+          model.meta(local) +
+          '\n' +
+          pooling +
+          '\n' +
+          attention +
+          '\n' +
+          windowing
+      ).hi();
+    }
+  }
+
+  /**
+   * Tokenizes and packs the next window of {@link #embedAll} inputs on {@code executor} while the
+   * current window decodes, so neither waits on the other. {@code null} (the default) does both on
+   * the caller thread. The embedder never shuts the executor down.
+   *
+   * @param executor The executor to tokenize on, or {@code null} to tokenize inline
+   * @return This embedder for chaining
+   */
+  public LlamaEmbedder setTokenizeExecutor(Executor executor) {
+    this.tokenizeExecutor = executor;
+    return this;
+  }
+
+  /**
+   * Serves {@link #embed} and {@link #embedAll} inputs embedded before from {@code cache}, and
+   * stores the ones computed. {@code null} (the default) computes every input. A cache may be
+   * shared by several embedders, even of different models or settings: its keys tell them apart.
+   *
+   * @param cache The cache to use, or {@code null} for none
+   * @return This embedder for chaining
+   * @throws LlamaException if the cache's dimension is not {@link #nEmbdOut()}
+   */
+  public LlamaEmbedder setCache(EmbeddingCache cache) {
+    if (cache != null && cache.dimension() != model.nEmbdOut()) {
+      throw new LlamaException(
+        "EmbeddingCache dimension " +
+          cache.dimension() +
+          " does not match nEmbdOut=" +
+          model.nEmbdOut()
+      );
+    }
+    this.cache = cache;
+    return this;
   }
 
   /**
@@ -114,100 +220,394 @@ public final class LlamaEmbedder implements Freeable, AutoCloseable {
    * embedding for every sequence is collected via
    * {@link LlamaContext#getEmbeddingsSeq(int)}.
    * <p>
+   * Inputs are planned a window at a time, longest first ({@link EmbeddingPacker}), so short
+   * inputs fill the room long ones leave instead of following caller order into half-empty
+   * batches. With a {@link #setTokenizeExecutor tokenize executor} the next window is tokenized
+   * and packed while the current one decodes.
+   * <p>
+   * With a {@link #setCache cache}, only the texts it misses are tokenized and packed — each
+   * distinct one once — and their vectors are stored for the next call.
+   * <p>
+   * With {@link Options#windowing()} set, an input longer than the window is split into
+   * overlapping windows that are packed alongside every other input, and their vectors are
+   * aggregated into one ({@link WindowAggregation}).
+   * <p>
    * For long lists this is significantly faster than one {@code decode()} per
    * text because the transformer attention runs in parallel across sequences.
    *
    * @param texts Input texts
    * @return One embedding per input text, in the same order
-   * @throws LlamaException if any single input exceeds {@code nBatch} tokens
+   * @throws LlamaException if any single input exceeds {@code nBatch} tokens and no
+   *                        {@link Options#windowing()} is set
    */
   public List<float[]> embedAll(List<String> texts) {
     checkNotFreed();
     if (texts.isEmpty()) {
       return List.of();
     }
+    float[][] results = new float[texts.size()][];
+    embed(texts, (i, row) -> results[i] = row.toArray(ValueLayout.JAVA_FLOAT));
+    return List.of(results);
+  }
+
+  /**
+   * As {@link #embedInto(List, MemorySegment, long, RowEncoding, boolean)}, writing raw
+   * {@link RowEncoding#FLOAT32} rows.
+   */
+  public void embedInto(List<String> texts, MemorySegment out, long rowStride) {
+    embedInto(texts, out, rowStride, RowEncoding.FLOAT32, false);
+  }
+
+  /**
+   * Embeds {@code texts} like {@link #embedAll}, but writes vector {@code i} into {@code out} at
+   * byte offset {@code i * rowStride} instead of returning it. Pooled rows are encoded straight
+   * from the context's native output — no {@code float[]} per vector, no list — which is what bulk
+   * indexing into an off-heap vector store wants.
+   *
+   * @param texts     Input texts
+   * @param out       Destination matrix, native or heap; a {@link RowEncoding#FLOAT32} one must be
+   *                  4-byte aligned
+   * @param rowStride Bytes from one row to the next; at least {@code encoding.rowBytes(nEmbdOut())}
+   * @param encoding  How each vector is written
+   * @param normalize Whether to L2-normalize {@link RowEncoding#FLOAT32} rows; the other encodings
+   *                  do not depend on a row's scale
+   * @throws LlamaException if {@code out} cannot hold every row, or as {@link #embedAll}
+   */
+  public void embedInto(
+    List<String> texts,
+    MemorySegment out,
+    long rowStride,
+    RowEncoding encoding,
+    boolean normalize
+  ) {
+    checkNotFreed();
+    int dimension = model.nEmbdOut();
+    long rowBytes = encoding.rowBytes(dimension);
+    if (rowStride < rowBytes) {
+      throw new LlamaException(
+        "rowStride " +
+          rowStride +
+          " is below the " +
+          rowBytes +
+          " bytes of a " +
+          encoding +
+          " row"
+      );
+    }
+    if (encoding == RowEncoding.FLOAT32 && rowStride % Float.BYTES != 0) {
+      throw new LlamaException(
+        "rowStride " + rowStride + " is not a multiple of 4 for FLOAT32 rows"
+      );
+    }
+    if (texts.isEmpty()) {
+      return;
+    }
+    long needed = (texts.size() - 1) * rowStride + rowBytes;
+    if (out.byteSize() < needed) {
+      throw new LlamaException(
+        "Output of " +
+          out.byteSize() +
+          " bytes cannot hold " +
+          texts.size() +
+          " rows (" +
+          needed +
+          " bytes)"
+      );
+    }
+    LogitsKernels kernels = LogitsKernels.get();
+    embed(texts, (i, row) ->
+      EmbeddingRows.write(
+        row,
+        dimension,
+        out.asSlice(i * rowStride, rowBytes),
+        encoding,
+        normalize,
+        kernels
+      )
+    );
+  }
+
+  /**
+   * Embeds {@code texts} into {@code out} as consecutive rows of {@code nEmbdOut()} floats, from
+   * its position, which then moves past the last row — a relative bulk put.
+   *
+   * @throws LlamaException if {@code out} has too little room or is not in native byte order
+   */
+  public void embedInto(List<String> texts, FloatBuffer out) {
+    checkNotFreed();
+    int dimension = model.nEmbdOut();
+    long floats = (long) texts.size() * dimension;
+    if (out.remaining() < floats) {
+      throw new LlamaException(
+        "FloatBuffer has " +
+          out.remaining() +
+          " floats remaining, " +
+          floats +
+          " needed"
+      );
+    }
+    if (out.order() != ByteOrder.nativeOrder()) {
+      throw new LlamaException("FloatBuffer must be in native byte order");
+    }
+    embedInto(
+      texts,
+      MemorySegment.ofBuffer(out),
+      (long) dimension * Float.BYTES
+    );
+    out.position(out.position() + (int) floats);
+  }
+
+  /** Where {@link #embed} delivers input {@code i}'s vector, valid only during the call. */
+  @FunctionalInterface
+  private interface RowSink {
+    void accept(int i, MemorySegment row);
+  }
+
+  /**
+   * Hands every input's vector to {@code sink}: from the cache when it has one, otherwise computed
+   * — each distinct missed text once — and stored.
+   */
+  private void embed(List<String> texts, RowSink sink) {
+    if (cache == null) {
+      compute(texts, null, sink);
+      return;
+    }
 
     int n = texts.size();
-    int nEmbd = model.nEmbdOut();
-    int nBatch = context.nBatch();
-    int nSeqMax = context.nSeqMax();
-    float[][] results = new float[n][];
+    // Distinct missed texts; for each, its first input, then a chain of the inputs repeating it.
+    Map<EmbeddingCache.Key, Integer> missIndex = new HashMap<>();
+    List<EmbeddingCache.Key> missKeys = new ArrayList<>();
+    List<String> misses = new ArrayList<>();
+    int[] missFirst = new int[n];
+    int[] missLast = new int[n];
+    int[] nextRepeat = new int[n];
+    for (int i = 0; i < n; i++) {
+      var key = EmbeddingCache.key(cacheSeed, texts.get(i));
+      int input = i;
+      if (cache.read(key, row -> sink.accept(input, row))) {
+        continue;
+      }
+      nextRepeat[i] = -1;
+      Integer m = missIndex.putIfAbsent(key, misses.size());
+      if (m == null) {
+        m = misses.size();
+        missFirst[m] = i;
+        missKeys.add(key);
+        misses.add(texts.get(i));
+      } else {
+        nextRepeat[missLast[m]] = i;
+      }
+      missLast[m] = i;
+    }
+    if (misses.isEmpty()) {
+      return;
+    }
 
-    try (Arena local = Arena.ofConfined()) {
-      // Pre-tokenise everything so we can size batches by token count
-      int[][] tokenIds = new int[n][];
-      for (int i = 0; i < n; i++) {
-        var tokenized = tokenizer.tokenize(local, texts.get(i));
-        int size = tokenized.size();
-        if (size > nBatch) {
-          throw new LlamaException(
-            "Input at index " +
-              i +
-              " has " +
-              size +
-              " tokens, exceeding nBatch=" +
-              nBatch +
-              ". Increase Options.nBatch or truncate the input."
-          );
-        }
-        tokenIds[i] = tokenized
-          .data()
-          .reinterpret(size * ValueLayout.JAVA_INT.byteSize())
-          .toArray(ValueLayout.JAVA_INT);
+    compute(misses, missFirst, (m, row) -> {
+      cache.put(missKeys.get(m), row);
+      for (int i = missFirst[m]; i != -1; i = nextRepeat[i]) {
+        sink.accept(i, row);
       }
+    });
+  }
 
-      // Pack into batches and decode
-      int i = 0;
-      while (i < n) {
-        context.clearCache();
-        var batch = new LlamaBatch(local, nBatch, 0, nSeqMax);
-        try {
-          batch.enableCache();
-
-          int tokensInBatch = 0;
-          int seqsInBatch = 0;
-          int[] inputIndices = new int[nSeqMax];
-
-          while (i < n && seqsInBatch < nSeqMax) {
-            int[] ids = tokenIds[i];
-            if (tokensInBatch + ids.length > nBatch) {
-              break;
-            }
-            List<Integer> seqIdList = List.of(seqsInBatch);
-            for (int k = 0; k < ids.length; k++) {
-              batch.add(ids[k], k, seqIdList, true);
-            }
-            inputIndices[seqsInBatch] = i;
-            tokensInBatch += ids.length;
-            seqsInBatch++;
-            i++;
-          }
-
-          int ret = context.decode(batch);
-          if (ret != 0) {
-            throw new LlamaException(
-              "decode() returned non-zero status: " + ret
-            );
-          }
-
-          for (int s = 0; s < seqsInBatch; s++) {
-            float[] emb = context.getEmbeddingsSeq(s);
-            if (emb == null) {
-              throw new LlamaException(
-                "getEmbeddingsSeq returned null for pooling=" +
-                  poolingType +
-                  " - ensure the GGUF supports pooled embeddings for this pooling type"
-              );
-            }
-            results[inputIndices[s]] = emb;
-          }
-        } finally {
-          batch.free();
+  /**
+   * Embeds every text into {@code sink}: plans, decodes and aggregates them a window of inputs at a
+   * time. Errors name text {@code i} as input {@code indices[i]} — its index in the caller's list —
+   * or as {@code i} when {@code indices} is {@code null}.
+   */
+  private void compute(List<String> texts, int[] indices, RowSink sink) {
+    int n = texts.size();
+    int window = Math.max(PLAN_WINDOW, context.nSeqMax() * 16);
+
+    Plan planned = plan(texts, indices, 0, Math.min(n, window));
+    for (int from = 0; from < n; from += window) {
+      int next = Math.min(n, from + window);
+      int to = Math.min(n, next + window);
+      CompletableFuture<Plan> ahead = null;
+      if (next < n && tokenizeExecutor != null) {
+        ahead = CompletableFuture.supplyAsync(
+          () -> plan(texts, indices, next, to),
+          tokenizeExecutor
+        );
+      }
+      try {
+        decode(planned, sink);
+      } catch (RuntimeException e) {
+        if (ahead != null) {
+          // Let the planning task finish before unwinding; its own failure is secondary.
+          ahead.exceptionally(t -> null).join();
         }
+        throw e;
+      }
+      if (ahead != null) {
+        planned = await(ahead);
+      } else if (next < n) {
+        planned = plan(texts, indices, next, to);
       }
     }
+  }
 
-    return List.of(results);
+  /**
+   * A window of inputs, tokenized and packed. Each unit is a whole input or, with
+   * {@link Options#windowing()}, one window of it; {@code owners[u]} is the input unit {@code u}
+   * belongs to, the units of one input being adjacent, and {@code weights[u]} its content tokens.
+   * {@code batches} hold unit indices.
+   */
+  private record Plan(
+    int[][] units,
+    int[] owners,
+    int[] weights,
+    int[][] batches
+  ) {}
+
+  /**
+   * Tokenizes inputs {@code [from, to)}, splits the ones longer than a window, and packs the units.
+   * Touches no native state but the vocabulary, so it may run while the context decodes.
+   */
+  private Plan plan(List<String> texts, int[] indices, int from, int to) {
+    int nBatch = context.nBatch();
+    int limit = windowing != null ? windowing.size() : nBatch;
+    int[][][] split = new int[to - from][][];
+    int[] specials = new int[to - from];
+    int count = 0;
+    for (int i = from; i < to; i++) {
+      int[] ids = tokenizer.tokenizeInput(texts.get(i));
+      if (ids.length <= limit) {
+        split[i - from] = new int[][] { ids };
+      } else if (windowing == null) {
+        throw new LlamaException(
+          "Input at index " +
+            (indices != null ? indices[i] : i) +
+            " has " +
+            ids.length +
+            " tokens, exceeding nBatch=" +
+            nBatch +
+            ". Increase Options.nBatch, set Options.windowing or truncate the input."
+        );
+      } else {
+        int lead = EmbeddingWindows.lead(ids, wrap);
+        specials[i - from] = lead < 0 ? 0 : wrap.length;
+        split[i - from] = EmbeddingWindows.split(
+          ids,
+          Math.max(lead, 0),
+          lead < 0 ? 0 : wrap.length - lead,
+          windowing.size(),
+          windowing.overlap()
+        );
+      }
+      count += split[i - from].length;
+    }
+
+    int[][] units = new int[count][];
+    int[] owners = new int[count];
+    int[] weights = new int[count];
+    int[] lengths = new int[count];
+    int u = 0;
+    for (int i = 0; i < split.length; i++) {
+      for (int[] unit : split[i]) {
+        units[u] = unit;
+        owners[u] = from + i;
+        weights[u] = unit.length - specials[i];
+        lengths[u] = unit.length;
+        u++;
+      }
+    }
+    int[][] batches = EmbeddingPacker.pack(
+      lengths,
+      nBatch,
+      context.nSeqMax()
+    );
+    return new Plan(units, owners, weights, batches);
+  }
+
+  /**
+   * Decodes a plan's batches into {@code sink}: a whole input's row as soon as its batch decodes,
+   * a windowed input's once its windows are aggregated.
+   */
+  private void decode(Plan planned, RowSink sink) {
+    float[][] windows = new float[planned.units().length][];
+    for (int[] units : planned.batches()) {
+      decodeBatch(units, planned, windows, sink);
+    }
+    int[] owners = planned.owners();
+    for (int u = 0; u < owners.length;) {
+      int end = u + 1;
+      while (end < owners.length && owners[end] == owners[u]) {
+        end++;
+      }
+      if (end - u > 1) {
+        float[] vector = EmbeddingWindows.aggregate(
+          windows,
+          planned.weights(),
+          u,
+          end - u,
+          windowing.aggregation()
+        );
+        sink.accept(owners[u], MemorySegment.ofArray(vector));
+      }
+      u = end;
+    }
+  }
+
+  /**
+   * Decodes one planned batch, sequence {@code s} holding unit {@code units[s]}. A whole input's
+   * native row goes straight to {@code sink}; a window's is kept in {@code windows}.
+   */
+  private void decodeBatch(
+    int[] units,
+    Plan planned,
+    float[][] windows,
+    RowSink sink
+  ) {
+    // Drop the previous batch's cells without zeroing the buffers the next decode overwrites.
+    context.getMemory().seqRm(-1, -1, -1);
+    batch.clear();
+    for (int s = 0; s < units.length; s++) {
+      int[] ids = planned.units()[units[s]];
+      List<Integer> seqIdList = List.of(s);
+      for (int k = 0; k < ids.length; k++) {
+        batch.add(ids[k], k, seqIdList, true);
+      }
+    }
+
+    int ret = context.decode(batch);
+    if (ret != 0) {
+      throw new LlamaException("decode() returned non-zero status: " + ret);
+    }
+
+    int[] owners = planned.owners();
+    for (int s = 0; s < units.length; s++) {
+      MemorySegment row = context.getEmbeddingsSeqSegment(s);
+      if (row == null) {
+        throw new LlamaException(
+          "getEmbeddingsSeq returned null for pooling=" +
+            poolingType +
+            " - ensure the GGUF supports pooled embeddings for this pooling type"
+        );
+      }
+      int u = units[s];
+      boolean whole =
+        (u == 0 || owners[u - 1] != owners[u]) &&
+        (u == owners.length - 1 || owners[u + 1] != owners[u]);
+      if (whole) {
+        sink.accept(owners[u], row);
+      } else {
+        windows[u] = row.toArray(ValueLayout.JAVA_FLOAT);
+      }
+    }
+  }
+
+  /** Waits for a window's plan; a failed one rethrows its cause. */
+  private static Plan await(CompletableFuture<Plan> plan) {
+    try {
+      return plan.join();
+    } catch (CompletionException e) {
+      if (e.getCause() instanceof RuntimeException cause) {
+        throw cause;
+      }
+      throw e;
+    }
   }
 
   /** Output embedding dimension for this model. */
@@ -238,6 +638,7 @@ public final class LlamaEmbedder implements Freeable, AutoCloseable {
   public void free() {
     if (freed) return;
     freed = true;
+    batch.free();
     context.free();
   }
 
@@ -269,36 +670,121 @@ public final class LlamaEmbedder implements Freeable, AutoCloseable {
    *                  KV cache memory).
    * @param pooling   Pooling type; {@code null} -> auto (CLS for encoders, LAST for decoders)
    * @param attention Attention type; {@code null} -> auto (NON_CAUSAL for encoders, CAUSAL for decoders)
+   * @param windowing Sliding windows for inputs longer than {@link Windowing#size()};
+   *                  {@code null} -> none, an input over {@code nBatch} tokens is rejected
    */
   public record Options(
     Integer nCtx,
     Integer nBatch,
     Integer nSeqMax,
     PoolingType pooling,
-    AttentionType attention
+    AttentionType attention,
+    Windowing windowing
   ) {
+    public Options(
+      Integer nCtx,
+      Integer nBatch,
+      Integer nSeqMax,
+      PoolingType pooling,
+      AttentionType attention
+    ) {
+      this(nCtx, nBatch, nSeqMax, pooling, attention, null);
+    }
+
     public static Options defaults() {
-      return new Options(null, null, null, null, null);
+      return new Options(null, null, null, null, null, null);
     }
 
     public Options withNCtx(int nCtx) {
-      return new Options(nCtx, nBatch, nSeqMax, pooling, attention);
+      return new Options(nCtx, nBatch, nSeqMax, pooling, attention, windowing);
     }
 
     public Options withNBatch(int nBatch) {
-      return new Options(nCtx, nBatch, nSeqMax, pooling, attention);
+      return new Options(nCtx, nBatch, nSeqMax, pooling, attention, windowing);
     }
 
     public Options withNSeqMax(int nSeqMax) {
-      return new Options(nCtx, nBatch, nSeqMax, pooling, attention);
+      return new Options(nCtx, nBatch, nSeqMax, pooling, attention, windowing);
     }
 
     public Options withPooling(PoolingType pooling) {
-      return new Options(nCtx, nBatch, nSeqMax, pooling, attention);
+      return new Options(nCtx, nBatch, nSeqMax, pooling, attention, windowing);
     }
 
     public Options withAttention(AttentionType attention) {
-      return new Options(nCtx, nBatch, nSeqMax, pooling, attention);
+      return new Options(nCtx, nBatch, nSeqMax, pooling, attention, windowing);
+    }
+
+    public Options withWindowing(Windowing windowing) {
+      return new Options(nCtx, nBatch, nSeqMax, pooling, attention, windowing);
+    }
+  }
+
+  /**
+   * Sliding windows over long inputs: every window holds at most {@code size} tokens, the input's
+   * special tokens included, and shares {@code overlap} content tokens with the one before it.
+   *
+   * @param size        Tokens per window; at most {@code nBatch}
+   * @param overlap     Content tokens shared by consecutive windows; below {@code size}
+   * @param aggregation How the window vectors combine into the input's vector
+   */
+  public record Windowing(
+    int size,
+    int overlap,
+    WindowAggregation aggregation
+  ) {
+    public Windowing {
+      if (size < 1) {
+        throw new LlamaException("Windowing size must be >= 1");
+      }
+      if (overlap < 0 || overlap >= size) {
+        throw new LlamaException(
+          "Windowing overlap must be >= 0 and below size"
+        );
+      }
+      if (aggregation == null) {
+        throw new LlamaException("Windowing aggregation must not be null");
+      }
+    }
+
+    /** Windows of {@code size} tokens overlapping by {@code overlap}, averaged. */
+    public static Windowing of(int size, int overlap) {
+      return new Windowing(size, overlap, WindowAggregation.MEAN);
+    }
+  }
+
+  /** How the vectors of an input's windows combine into one. */
+  public enum WindowAggregation {
+    /** Element-wise mean: every window counts the same. */
+    MEAN,
+    /** Element-wise maximum. */
+    MAX,
+    /** Element-wise mean weighted by each window's content tokens, so a short tail counts less. */
+    LENGTH_WEIGHTED
+  }
+
+  /** How {@link #embedInto} writes each vector into the caller's matrix. */
+  public enum RowEncoding {
+    /** {@code nEmbdOut()} native-order floats, optionally L2-normalized. */
+    FLOAT32,
+    /**
+     * {@code nEmbdOut()} signed bytes, {@code round(127 * x / max|x|)}. The row's scale is not
+     * written, so compare rows by cosine similarity.
+     */
+    INT8,
+    /**
+     * One bit per dimension, set when the value is positive, packed eight per byte with the first
+     * dimension in the high bit. Compare rows by Hamming distance.
+     */
+    BINARY;
+
+    /** Bytes one row of {@code dimension} values takes. */
+    public long rowBytes(int dimension) {
+      return switch (this) {
+        case FLOAT32 -> (long) dimension * Float.BYTES;
+        case INT8 -> dimension;
+        case BINARY -> (dimension + 7) / 8;
+      };
     }
   }
 }
@@ -163,6 +163,18 @@ public final class LlamaExt {
     LlamaContext ctx,
     int i,
     int nEmbd
+  ) {
+    return getEmbeddingsNextnRow(ctx, i, nEmbd).toArray(JAVA_FLOAT);
+  }
+
+  /**
+   * The nextn hidden state for output row {@code i} as a native view of {@code nEmbd} floats, no
+   * heap copy. Valid only until the next decode on {@code ctx}.
+   */
+  public static MemorySegment getEmbeddingsNextnRow(
+    LlamaContext ctx,
+    int i,
+    int nEmbd
   ) {
     MemorySegment ptr = (MemorySegment) CxxFunctions.call(
       GET_EMBEDDINGS_NEXTN_ITH,
@@ -172,7 +184,7 @@ public final class LlamaExt {
     if (ptr == null || ptr.equals(MemorySegment.NULL)) {
       throw new LlamaException("no nextn embeddings at row " + i);
     }
-    return ptr.reinterpret((long) nEmbd * Float.BYTES).toArray(JAVA_FLOAT);
+    return ptr.reinterpret((long) nEmbd * Float.BYTES);
   }
 
   /** The context this one was linked to via {@code ctx_other} (target for an MTP/EAGLE3 draft). */
@@ -18,9 +18,12 @@ package io.gravitee.llama.cpp;
 import static io.gravitee.llama.cpp.FinishReason.*;
 import static java.lang.foreign.ValueLayout.JAVA_INT;
 
+import io.gravitee.llama.cpp.modules.TokenHistory;
+import io.gravitee.llama.cpp.speculative.ModelDraftSpeculativeDecoding;
 import io.gravitee.llama.cpp.speculative.SpeculativeDecoding;
 import java.lang.foreign.MemorySegment;
 import java.lang.foreign.ValueLayout;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.List;
 import java.util.Spliterator;
@@ -91,7 +94,6 @@ public abstract class LlamaIterator<T> implements Iterator<T> {
   protected void processPrompt(ConversationState state) {
     var arena = state.getArena();
     var context = state.getContext();
-    var sampler = state.getSampler();
     var tokenizer = state.getTokenizer();
 
     // The prompt may be long, so we need to process it in chunks to avoid
@@ -125,6 +127,22 @@ public abstract class LlamaIterator<T> implements Iterator<T> {
         true // logitsLast
       );
 
+      // The committed history follows positions, media included (NO_TOKEN), so speculative
+      // rounds and their rollbacks line up with the KV as they do on the text path. Rows resident
+      // before this prompt keep their tokens when the history still covers exactly them, and are
+      // NO_TOKEN otherwise. MTP keeps embeddings on throughout: the chunk helper decodes the whole
+      // prompt, so every row becomes an output, once.
+      TokenHistory tokenHistory = state.getTokenHistory();
+      int[] evaluated = chunks.tokensByPosition();
+      int[] history = new int[nPast + evaluated.length];
+      if (tokenHistory.size() == nPast) {
+        System.arraycopy(tokenHistory.toArray(), 0, history, 0, nPast);
+      } else {
+        Arrays.fill(history, 0, nPast, TokenHistory.NO_TOKEN);
+      }
+      System.arraycopy(evaluated, 0, history, nPast, evaluated.length);
+      tokenHistory.initialize(history);
+
       chunks.free();
 
       state.setNPast((int) newNPast);
@@ -226,7 +244,7 @@ public abstract class LlamaIterator<T> implements Iterator<T> {
     }
 
     // Sample the very first token after the prompt.
-    int newToken = sampler.sample(context);
+    int newToken = sampleToken(state, -1);
     String tokenPiece = decodeTokenPiece(state, newToken);
 
     // Collect logprobs if requested.
@@ -252,6 +270,7 @@ public abstract class LlamaIterator<T> implements Iterator<T> {
 
     // Check if the generation finished immediately (e.g., if the prompt was just an EOG token).
     if (!tokenizer.isEog(newToken)) {
+      emission = jumpForward(state, emission, null);
       // If not finished, set the new token and piece for the next iteration.
       state.setNewTokenId(newToken);
       state.setPiece(emission.emit());
@@ -317,6 +336,90 @@ public abstract class LlamaIterator<T> implements Iterator<T> {
     return emission;
   }
 
+  /**
+   * Jump-forward decoding: when a logits processor already dictates the tokens after the one just
+   * sampled ({@link io.gravitee.llama.cpp.logits.LogitsProcessor#forcedTokens()}), commits them as
+   * if they had been sampled — every processor and the sampler chain accept them, and they go
+   * through state evaluation and token tracking — and leaves them on the state, so the next decode
+   * appends them behind the sampled token in the same batch, with logits on the last one only.
+   *
+   * <p>Takes at most {@code nBatch - 1} tokens, and leaves room in the token budget for the next
+   * sampled one. Skipped when disabled, while logprobs are collected (each token would need its own
+   * distribution) and under speculation, whose rounds bypass processors.
+   *
+   * @param state    The conversation state, right after its sampled token was processed
+   * @param emission The sampled token's emission
+   * @param pieces   Receives the forced tokens' text as decoded, or {@code null}
+   * @return {@code emission} extended with the forced tokens
+   */
+  protected io.gravitee.llama.cpp.modules.StateEvaluation.Emission jumpForward(
+    ConversationState state,
+    io.gravitee.llama.cpp.modules.StateEvaluation.Emission emission,
+    StringBuilder pieces
+  ) {
+    state.setForwardTokens(null);
+    if (
+      !state.isJumpForward() ||
+      state.getTopLogprobs() > 0 ||
+      state.isSpeculative()
+    ) {
+      return emission;
+    }
+    var processors = state.getLogitsProcessors();
+    int[] forced = null;
+    for (int i = 0; i < processors.size() && forced == null; i++) {
+      int[] tokens = processors.get(i).forcedTokens();
+      if (tokens.length > 0) {
+        forced = tokens;
+      }
+    }
+    if (forced == null) {
+      return emission;
+    }
+    int limit = Math.min(forced.length, state.getContext().nBatch() - 1);
+    if (state.getMaxTokens() != -1) {
+      limit = Math.min(
+        limit,
+        state.getMaxTokens() - state.getAnswerTokens() - 1
+      );
+    }
+    if (limit <= 0) {
+      return emission;
+    }
+    int[] tokens = limit == forced.length
+      ? forced
+      : Arrays.copyOf(forced, limit);
+
+    var text = new StringBuilder(emission.emit());
+    int emitTokens = emission.emitTokens();
+    var generationState = emission.state();
+    for (int token : tokens) {
+      state.nextLogitsStep();
+      for (int i = 0; i < processors.size(); i++) {
+        processors.get(i).accept(token);
+      }
+      if (state.getLogitsSampler() != null) {
+        state.getLogitsSampler().accept(token);
+      } else {
+        state.getSampler().accept(token);
+      }
+      String tokenPiece = decodeTokenPiece(state, token);
+      if (pieces != null) {
+        pieces.append(tokenPiece);
+      }
+      var forcedEmission = processSampledToken(state, token, tokenPiece);
+      text.append(forcedEmission.emit());
+      emitTokens += forcedEmission.emitTokens();
+      generationState = forcedEmission.state();
+    }
+    state.setForwardTokens(tokens);
+    return new io.gravitee.llama.cpp.modules.StateEvaluation.Emission(
+      generationState,
+      text.toString(),
+      emitTokens
+    );
+  }
+
   /**
    * Checks if a state should finish based on token and length limits.
    * Sets appropriate finish reason if needed.
@@ -413,6 +516,45 @@ public abstract class LlamaIterator<T> implements Iterator<T> {
     return state.getDecoder().decode(bytes, bytes.length);
   }
 
+  /**
+   * Samples the next token from batch output {@code batchIdx} ({@code -1} for the last one), after
+   * its {@linkplain #applyLogitsProcessors logits processors}, with the state's
+   * {@link io.gravitee.llama.cpp.logits.LogitsSampler} when it has one and its native
+   * {@link LlamaSampler} otherwise.
+   */
+  protected int sampleToken(ConversationState state, int batchIdx) {
+    applyLogitsProcessors(state, batchIdx);
+    var logitsSampler = state.getLogitsSampler();
+    int token = logitsSampler == null
+      ? state.getSampler().sample(state.getContext(), batchIdx)
+      : logitsSampler.sample(
+        logitsRow(state.getContext(), batchIdx, logitsSampler.nVocab())
+      );
+    var processors = state.getLogitsProcessors();
+    for (int i = 0; i < processors.size(); i++) {
+      processors.get(i).accept(token);
+    }
+    return token;
+  }
+
+  /**
+   * Runs the state's {@link io.gravitee.llama.cpp.logits.LogitsProcessor}s over batch output
+   * {@code batchIdx}, in place, and advances its step — also when it has none, so a processor added
+   * mid-generation sees the true step.
+   */
+  protected void applyLogitsProcessors(ConversationState state, int batchIdx) {
+    int step = state.nextLogitsStep();
+    var processors = state.getLogitsProcessors();
+    if (processors.isEmpty()) {
+      return;
+    }
+    int nVocab = state.getTokenizer().getVocab().nVocab();
+    var row = logitsRow(state.getContext(), batchIdx, nVocab);
+    for (int i = 0; i < processors.size(); i++) {
+      processors.get(i).process(row, nVocab, step);
+    }
+  }
+
   /**
    * Collects log-probability information for the sampled token if enabled.
    *
@@ -456,7 +598,8 @@ public abstract class LlamaIterator<T> implements Iterator<T> {
   /**
    * Brings the state's draft-side speculation state in line with the freshly-processed prompt
    * (model-draft KV replay, MTP hidden seed, or EAGLE3 prompt encode). No-op for n-gram and
-   * non-speculative states. Text-only (speculative + multimodal is unsupported).
+   * non-speculative states. After a multimodal prompt the model draft replays only its text, and
+   * EAGLE3 refuses it — see {@link ModelDraftSpeculativeDecoding#prefill}.
    */
   protected void prefillDraft(ConversationState state) {
     if (state.isSpeculative()) {
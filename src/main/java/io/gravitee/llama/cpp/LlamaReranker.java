@@ -20,6 +20,7 @@ import static io.gravitee.llama.cpp.AttentionType.NON_CAUSAL;
 
 import java.lang.foreign.Arena;
 import java.lang.foreign.ValueLayout;
+import java.util.ArrayList;
 import java.util.List;
 
 /**
@@ -53,7 +54,8 @@ import java.util.List;
  * {@link LlamaContext}.
  *
  * <h2>Thread safety</h2>
- * Not thread-safe. Create one instance per thread, or synchronise externally.
+ * Not thread-safe. Create one instance per thread, or synchronise externally; a
+ * {@link CoalescingReranker} serves concurrent callers from one instance.
  *
  * @author Rémi SULTAN (remi.sultan at graviteesource.com)
  * @author GraviteeSource Team
@@ -136,11 +138,48 @@ public final class LlamaReranker implements Freeable, AutoCloseable {
    */
   public List<float[]> scoreAll(String query, List<String> documents) {
     checkNotFreed();
-    if (documents.isEmpty()) {
+    List<String> inputs = new ArrayList<>(documents.size());
+    for (String document : documents) {
+      inputs.add(template.format(query, document));
+    }
+    return scoreFormatted(inputs);
+  }
+
+  /**
+   * Scores {@code documents.get(i)} against {@code queries.get(i)} for every {@code i}, packing the
+   * pairs like {@link #scoreAll}. For callers batching pairs of different queries together, such
+   * as {@link CoalescingReranker}.
+   *
+   * @param queries   One query per pair
+   * @param documents One document per pair
+   * @return One raw score array per pair, in input order
+   * @throws LlamaException if the lists differ in size, or any single formatted input exceeds
+   *                        {@code nBatch} tokens
+   */
+  public List<float[]> scorePairs(
+    List<String> queries,
+    List<String> documents
+  ) {
+    checkNotFreed();
+    if (queries.size() != documents.size()) {
+      throw new LlamaException(
+        queries.size() + " queries for " + documents.size() + " documents"
+      );
+    }
+    List<String> inputs = new ArrayList<>(documents.size());
+    for (int i = 0; i < documents.size(); i++) {
+      inputs.add(template.format(queries.get(i), documents.get(i)));
+    }
+    return scoreFormatted(inputs);
+  }
+
+  /** Scores template-formatted (query, document) inputs, packed into as few decodes as fit. */
+  private List<float[]> scoreFormatted(List<String> inputs) {
+    if (inputs.isEmpty()) {
       return List.of();
     }
 
-    int n = documents.size();
+    int n = inputs.size();
     int nBatch = context.nBatch();
     int nSeqMax = context.nSeqMax();
     float[][] results = new float[n][];
@@ -149,8 +188,7 @@ public final class LlamaReranker implements Freeable, AutoCloseable {
       // Pre-tokenise every (query, document) pair once
       int[][] tokenIds = new int[n][];
       for (int i = 0; i < n; i++) {
-        String input = template.format(query, documents.get(i));
-        var tokenized = tokenizer.tokenize(local, input);
+        var tokenized = tokenizer.tokenize(local, inputs.get(i));
         int size = tokenized.size();
         if (size > nBatch) {
           throw new LlamaException(
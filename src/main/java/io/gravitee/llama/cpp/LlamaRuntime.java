@@ -1427,6 +1427,15 @@ public final class LlamaRuntime {
     );
   }
 
+  public static void llama_sampler_accept(MemorySegment sampler, int token) {
+    llama_h(
+      "llama_sampler_accept",
+      new Class<?>[] { MEM_SEG_CLASS, int.class },
+      sampler,
+      token
+    );
+  }
+
   public static void llama_sampler_apply(
     MemorySegment sampler,
     MemorySegment curP
@@ -1873,6 +1882,17 @@ public final class LlamaRuntime {
     );
   }
 
+  /**
+   * Waits until every computation queued on the context has finished. {@code llama_decode} may
+   * return as soon as the graph is queued on an asynchronous backend (GPU); the first read of its
+   * outputs, or this call, is where the compute actually completes.
+   *
+   * @param ctx The llama context
+   */
+  public static void llama_synchronize(MemorySegment ctx) {
+    llama_h("llama_synchronize", new Class<?>[] { MEM_SEG_CLASS }, ctx);
+  }
+
   /* Logits */
 
   /**
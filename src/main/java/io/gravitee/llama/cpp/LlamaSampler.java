@@ -54,6 +54,16 @@ public final class LlamaSampler extends MemorySegmentAware implements Freeable {
     return llama_sampler_sample(this.segment, context.segment, idx);
   }
 
+  /**
+   * Records a token the chain did not sample itself — a forced one — in its stateful stages
+   * (penalty window, grammar), as if it had.
+   *
+   * @param token The token appended to the output
+   */
+  public void accept(int token) {
+    llama_sampler_accept(this.segment, token);
+  }
+
   public LlamaSampler greedy() {
     llama_sampler_chain_add(this.segment, llama_sampler_init_greedy());
     return this;
@@ -17,9 +17,12 @@ package io.gravitee.llama.cpp;
 
 import static io.gravitee.llama.cpp.LlamaRuntime.llama_sampler_apply;
 
+import java.lang.foreign.Arena;
 import java.lang.foreign.MemorySegment;
 import java.lang.foreign.SegmentAllocator;
 import java.lang.foreign.ValueLayout;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * Reusable candidate buffer mirroring the native {@code llama_token_data_array}.
@@ -37,6 +40,10 @@ import java.lang.foreign.ValueLayout;
  * ({@code {token_data* data; size_t size; int64_t selected; bool sorted;}}, 32 bytes)
  * struct layouts on all supported 64-bit platforms.
  *
+ * <p>The pristine candidate image {@link #fill} restores from depends only on {@code n_vocab}, so
+ * it is built once per vocabulary size and shared, read-only, by every buffer in the process: a
+ * buffer owns only its own {@code 12 * n_vocab} bytes of candidates.
+ *
  * @author Rémi SULTAN (remi.sultan at graviteesource.com)
  * @author GraviteeSource Team
  */
@@ -55,30 +62,42 @@ public final class LlamaTokenDataArray {
   private static final long ARR_SORTED_OFFSET = 24;
   private static final long ARR_SIZE = 32;
 
+  // Pristine images by vocabulary size, shared by every buffer; they live as long as the process.
+  private static final Map<Integer, MemorySegment> TEMPLATES =
+    new ConcurrentHashMap<>();
+
   private final int nVocab;
   private final MemorySegment data; // n_vocab * llama_token_data
   private final MemorySegment array; // the llama_token_data_array header
   // Pristine candidate image (ids ascending, logit 0, p 0). fill() restores it with one bulk
   // copy instead of three per-element writes; a sorting/truncating apply() can then never leak
-  // stale ids or probs into the next fill.
+  // stale ids or probs into the next fill. Shared — see template(int).
   private final MemorySegment template;
 
   public LlamaTokenDataArray(SegmentAllocator allocator, int nVocab) {
     this.nVocab = nVocab;
     this.data = allocator.allocate(TD_SIZE * nVocab, 4);
     this.array = allocator.allocate(ARR_SIZE, 8);
-    this.template = allocator.allocate(TD_SIZE * nVocab, 4);
-    for (int id = 0; id < nVocab; id++) {
-      template.set(
-        ValueLayout.JAVA_INT,
-        (long) id * TD_SIZE + TD_ID_OFFSET,
-        id
-      );
-    }
+    this.template = template(nVocab);
     array.set(ValueLayout.ADDRESS, ARR_DATA_OFFSET, data);
     array.set(ValueLayout.JAVA_LONG, ARR_SIZE_OFFSET, nVocab);
   }
 
+  /** The read-only pristine image for {@code nVocab} candidates, built on first use. */
+  private static MemorySegment template(int nVocab) {
+    return TEMPLATES.computeIfAbsent(nVocab, n -> {
+      MemorySegment image = Arena.ofAuto().allocate(TD_SIZE * n, 4);
+      for (int id = 0; id < n; id++) {
+        image.set(
+          ValueLayout.JAVA_INT,
+          (long) id * TD_SIZE + TD_ID_OFFSET,
+          id
+        );
+      }
+      return image.asReadOnly();
+    });
+  }
+
   /**
    * Populates the candidate buffer from a logit row and resets the array header so the
    * sampler chain treats every token as a fresh, unsorted candidate.
@@ -18,6 +18,7 @@ package io.gravitee.llama.cpp;
 import static io.gravitee.llama.cpp.LlamaRuntime.llama_tokenize;
 import static java.lang.foreign.ValueLayout.JAVA_INT;
 
+import java.lang.foreign.Arena;
 import java.lang.foreign.MemorySegment;
 import java.lang.foreign.SegmentAllocator;
 
@@ -64,6 +65,58 @@ public final class LlamaTokenizer {
     return new TokenizerResponse(tokenBuffer, nbPromptTokens);
   }
 
+  /**
+   * Tokenizes {@code text} as plain content — no BOS, special-token text left as text — into a heap
+   * array, e.g. for an {@link io.gravitee.llama.cpp.draft.NgramCorpus}.
+   */
+  public int[] tokenizeText(String text) {
+    return toArray(text, false, false);
+  }
+
+  /**
+   * Tokenizes {@code text} as a standalone input — BOS (or an encoder's CLS/SEP) added, special
+   * tokens parsed — into a heap array, whatever the context holds. Needs no caller arena, so any
+   * thread may call it, e.g. to tokenize embedding inputs ahead of the decode.
+   */
+  public int[] tokenizeInput(String text) {
+    return toArray(text, true, true);
+  }
+
+  private int[] toArray(String text, boolean addSpecial, boolean parseSpecial) {
+    try (var arena = Arena.ofConfined()) {
+      var data = arena.allocateFrom(text);
+      int length = (int) data.byteSize() - 1;
+      int nbTokens = -llama_tokenize(
+        vocab.segment,
+        data,
+        length,
+        MemorySegment.NULL,
+        0,
+        addSpecial,
+        parseSpecial
+      );
+      if (nbTokens <= 0) {
+        return new int[0];
+      }
+      var tokens = arena.allocate(JAVA_INT, nbTokens);
+      if (
+        llama_tokenize(
+          vocab.segment,
+          data,
+          length,
+          tokens,
+          nbTokens,
+          addSpecial,
+          parseSpecial
+        ) <
+        0
+      ) {
+        throw new IllegalStateException("Failed to tokenize");
+      }
+      return tokens.toArray(JAVA_INT);
+    }
+  }
+
   public PromptSegment getPromptSegment(
     SegmentAllocator allocator,
     String prompt,
@@ -45,8 +45,16 @@ public final class LlamaVocab extends MemorySegmentAware {
   private static final int ATTR_CONTROL = 1 << 3;
   private static final int ATTR_USER_DEFINED = 1 << 4;
 
+  private final LlamaModel model;
+
   public LlamaVocab(LlamaModel model) {
     super(llama_model_get_vocab(model.segment));
+    this.model = model;
+  }
+
+  /** The model this vocabulary belongs to; every {@code LlamaVocab} over it shares its tokens. */
+  public LlamaModel getModel() {
+    return model;
   }
 
   public boolean isEog(int tokenId) {
@@ -57,6 +65,13 @@ public final class LlamaVocab extends MemorySegmentAware {
     return llama_n_vocab(this.segment);
   }
 
+  /**
+   * Whether {@code tokenId} is a control token — BOS, EOS, chat-format markers — rather than text.
+   */
+  public boolean isControl(int tokenId) {
+    return (llama_vocab_get_attr(this.segment, tokenId) & ATTR_CONTROL) != 0;
+  }
+
   /**
    * Every end-of-generation token id in this vocabulary, ascending.
    *
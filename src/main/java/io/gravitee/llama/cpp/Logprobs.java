@@ -32,6 +32,11 @@ import java.util.List;
  * {@link ConversationState#setTopLogprobs(int)}, this field will be
  * {@code null} in the corresponding {@link LlamaOutput}.
  *
+ * <p>Instances from {@link LlamaContext#getLogprobs} hold their top list as a view over primitive
+ * arrays that builds each {@link TokenLogprob} on first access. {@link #size()},
+ * {@link #tokenId(int)} and {@link #logprob(int)} read those arrays directly; on any other list
+ * they read the list's entries.
+ *
  * @param chosenToken The token that was actually sampled at this position
  * @param topLogprobs The top-N candidate tokens with their log-probabilities,
  *                    sorted by descending log-probability.  The chosen token
@@ -43,4 +48,36 @@ import java.util.List;
 public record Logprobs(
   TokenLogprob chosenToken,
   List<TokenLogprob> topLogprobs
-) {}
+) {
+  /** Number of entries in {@link #topLogprobs()}. */
+  public int size() {
+    return topLogprobs.size();
+  }
+
+  /** Vocabulary id of entry {@code rank}, in descending log-probability order. */
+  public int tokenId(int rank) {
+    return topLogprobs instanceof TokenLogprobList list
+      ? list.tokenId(rank)
+      : topLogprobs.get(rank).tokenId();
+  }
+
+  /** {@code ln(p)} of entry {@code rank}. */
+  public double logprob(int rank) {
+    return topLogprobs instanceof TokenLogprobList list
+      ? list.logprob(rank)
+      : topLogprobs.get(rank).logprob();
+  }
+
+  /** Rank of the sampled token among the entries, or {@code -1} if the list does not hold it. */
+  public int chosenIndex() {
+    if (chosenToken == null) {
+      return -1;
+    }
+    for (int rank = 0; rank < topLogprobs.size(); rank++) {
+      if (tokenId(rank) == chosenToken.tokenId()) {
+        return rank;
+      }
+    }
+    return -1;
+  }
+}
@@ -20,7 +20,11 @@ import static java.lang.Boolean.parseBoolean;
 import static java.lang.Integer.parseInt;
 import static java.util.Optional.ofNullable;
 
+import io.gravitee.llama.cpp.draft.NgramCorpus;
+import io.gravitee.llama.cpp.logits.LogitsSampler;
 import io.gravitee.llama.cpp.nativelib.LlamaLibLoader;
+import io.gravitee.llama.cpp.speculative.HybridSpeculativeDecoding;
+import io.gravitee.llama.cpp.structured.TokenFsm;
 import java.lang.foreign.Arena;
 import java.nio.file.Files;
 import java.nio.file.Path;
@@ -268,9 +272,19 @@ public class Main {
 
     // Speculative decoding (optional): validate up front so we fail before loading a draft model.
     SpeculativeConfig speculativeConfig = speculativeConfig(strategy, params);
-    if (speculativeConfig != null && mmprojGguf != null) {
+    // Cost-model draft length: picks each round's length (and may switch speculation off) from the
+    // acceptance and timings it measures, with --n_draft as the ceiling.
+    if (
+      speculativeConfig != null &&
+      parseBoolean(params.getOrDefault("auto_draft", "false"))
+    ) {
+      speculativeConfig = speculativeConfig.withAutoDraft(true);
+    }
+    // The model draft, n-gram, MTP and lookahead flavours follow a multimodal prompt; EAGLE3 needs
+    // layer features from a token decode of the whole prompt, which media chunks are not.
+    if (params.containsKey("eagle3") && mmprojGguf != null) {
       System.err.println(
-        "Error: speculative decoding is not supported together with multimodal (--mmproj)."
+        "Error: --eagle3 is not supported together with multimodal (--mmproj)."
       );
       System.exit(1);
     }
@@ -282,6 +296,27 @@ public class Main {
       contextParams.nRsSeq(speculativeConfig.nDraft() + 1);
     }
 
+    // Tree branches run on scratch sequence ids holding a copy of the prompt's KV, which only a
+    // unified cache allows.
+    if (speculativeConfig != null && speculativeConfig.isTree()) {
+      contextParams
+        .kvUnified(true)
+        .nSeqMax(
+          Math.max(contextParams.nSeqMax(), speculativeConfig.treeBranches())
+        );
+    }
+    // Lookahead adds one scratch sequence per guess column, and decodes the whole window with the
+    // candidates in one batch.
+    if (speculativeConfig != null && params.containsKey("lookahead")) {
+      int seqs = speculativeConfig.treeBranches() + lookaheadWindow(params);
+      contextParams
+        .kvUnified(true)
+        .nSeqMax(Math.max(contextParams.nSeqMax(), seqs))
+        .nBatch(
+          Math.max(contextParams.nBatch(), seqs * speculativeConfig.nDraft())
+        );
+    }
+
     LlamaContext context = new LlamaContext(ARENA, model, contextParams);
 
     // Optional draft model + context for model drafting. setDraft() enforces a shared vocab size.
@@ -338,12 +373,38 @@ public class Main {
     }
 
     LlamaSampler sampler = llamaSampler(strategy, context, vocab, params);
+    LogitsSampler logitsSampler = parseBoolean(
+        params.getOrDefault("java_sampler", "false")
+      )
+      ? logitsSampler(strategy, context, vocab, params)
+      : null;
+    if (params.containsKey("json_schema") && speculativeConfig != null) {
+      // Speculative rounds bypass logits processors, so the schema would not hold.
+      System.err.println(
+        "Error: --json_schema cannot be combined with speculative decoding."
+      );
+      System.exit(1);
+    }
+    // Compiled once; each turn gets its own processor, which tracks that turn's FSM state.
+    TokenFsm jsonSchemaFsm = params.containsKey("json_schema")
+      ? TokenFsm.jsonSchema(vocab, safeRead(params.get("json_schema")))
+      : null;
 
     List<LlamaChatMessage> messages = new ArrayList<>();
     messages.add(new LlamaChatMessage(ARENA, Role.SYSTEM, systemMessage));
 
     String input = "";
     var tokenizer = new LlamaTokenizer(vocab, context);
+    // Tokenized and indexed once, then attached to every turn's n-gram drafter.
+    NgramCorpus ngramCorpus =
+      params.containsKey("ngram_corpus") &&
+      speculativeConfig != null &&
+      speculativeConfig.isNgram()
+        ? new NgramCorpus(
+          speculativeConfig.ngram(),
+          tokenizer.tokenizeText(safeRead(params.get("ngram_corpus")))
+        )
+        : null;
     var messageTrimmer = new MessageTrimmer(
       tokenizer,
       context.nCtx(),
@@ -399,21 +460,39 @@ public class Main {
 
       // Create conversation state with resources
       var state = ConversationState.create(ARENA, context, tokenizer, sampler)
+        .setLogitsSampler(logitsSampler)
         .setMaxTokens(quota)
         .setMedia(initialMedia); // Set initial media (images and/or audio)
+      if (jsonSchemaFsm != null) {
+        state.addLogitsProcessor(jsonSchemaFsm.processor());
+      }
 
       // Enable speculation for this turn: model drafting, MTP self-speculation, EAGLE3 head
       // drafting, or n-gram. DefaultLlamaIterator dispatches when state.isSpeculative().
       if (speculativeConfig != null) {
-        if (draftContext != null) {
+        if (draftContext != null && speculativeConfig.isNgram()) {
+          state.setHybrid(
+            draftContext,
+            speculativeConfig,
+            parseSpecInt(
+              params.get("ngram_min"),
+              HybridSpeculativeDecoding.DEFAULT_MIN_NGRAM
+            )
+          );
+        } else if (draftContext != null) {
           state.setDraft(draftContext, speculativeConfig);
         } else if (mtpContext != null) {
           state.setMtp(mtpContext, speculativeConfig);
         } else if (eagle3Context != null) {
           state.setEagle3(eagle3Context, eagle3Model, speculativeConfig);
+        } else if (params.containsKey("lookahead")) {
+          state.setLookahead(speculativeConfig, lookaheadWindow(params));
         } else {
           state.setNgram(speculativeConfig);
         }
+        if (ngramCorpus != null) {
+          state.addNgramCorpus(ngramCorpus);
+        }
       }
 
       if (reasoningTags.isConfigured()) {
@@ -651,11 +730,81 @@ public class Main {
     };
   }
 
+  /**
+   * The Java counterpart of {@link #llamaSampler} for {@code --java_sampler}: the same stages, in
+   * the same order, with the same parameters, so a run picks the same tokens either way.
+   * Mirostat and grammar have no Java implementation, so ADAPTIVE and CONSTRAINED are rejected.
+   */
+  public static LogitsSampler logitsSampler(
+    SamplingStrategy strategy,
+    LlamaContext context,
+    LlamaVocab vocab,
+    Map<String, String> params
+  ) {
+    if (
+      strategy == SamplingStrategy.ADAPTIVE ||
+      strategy == SamplingStrategy.CONSTRAINED
+    ) {
+      System.err.println(
+        "Error: --java_sampler does not support the " +
+          strategy +
+          " strategy (mirostat and grammar are native-only)."
+      );
+      System.exit(1);
+    }
+    float temperature = Float.parseFloat(
+      params.getOrDefault("temperature", "0.7")
+    );
+    int topK = Integer.parseInt(params.getOrDefault("top_k", "40"));
+    float topP = Float.parseFloat(params.getOrDefault("top_p", "0.9"));
+    int topPWindow = Integer.parseInt(params.getOrDefault("top_p_window", "1"));
+    float minP = Float.parseFloat(params.getOrDefault("min_p", "0.1"));
+    int minPWindow = Integer.parseInt(params.getOrDefault("min_p_window", "1"));
+    int seed = Integer.parseInt(params.getOrDefault("seed", "42"));
+
+    int penaltyLastN = Integer.parseInt(
+      params.getOrDefault("penalty_last_n", String.valueOf(context.nCtx()))
+    );
+    float penaltyRepeat = Float.parseFloat(
+      params.getOrDefault("penalty_repeat", "1.5")
+    );
+    float penaltyFreq = Float.parseFloat(
+      params.getOrDefault("penalty_freq", "0.1")
+    );
+    float penaltyPresent = Float.parseFloat(
+      params.getOrDefault("penalty_present", "0.1")
+    );
+
+    var sampler = new LogitsSampler(ARENA, vocab.nVocab());
+    return switch (strategy) {
+      case DETERMINISTIC -> sampler.greedy().seed(seed);
+      case CLASSIC_CHAT -> sampler
+        .temperature(temperature)
+        .topP(topP, topPWindow)
+        .penalties(penaltyLastN, penaltyRepeat, penaltyFreq, penaltyPresent)
+        .seed(seed);
+      case FOCUSED -> sampler
+        .temperature(temperature)
+        .topK(topK)
+        .penalties(penaltyLastN, penaltyRepeat, penaltyFreq, penaltyPresent)
+        .seed(seed);
+      case BALANCED -> sampler
+        .temperature(temperature)
+        .minP(minP, minPWindow)
+        .penalties(penaltyLastN, penaltyRepeat, penaltyFreq, penaltyPresent)
+        .seed(seed);
+      case ADAPTIVE, CONSTRAINED -> throw new IllegalStateException(
+        "unreachable"
+      );
+    };
+  }
+
   /**
    * Builds the {@link SpeculativeConfig} for the run, or {@code null} when neither {@code --draft}
    * (model drafting) nor {@code --ngram} (prompt-lookup) is requested. Greedy (lossless) under the
    * DETERMINISTIC strategy; an exact memoryless sampler (temperature/top-k/top-p) otherwise. Rejects
-   * strategies whose sampler is not memoryless (grammar/mirostat) and the draft+ngram combination.
+   * strategies whose sampler is not memoryless (grammar/mirostat). {@code --draft} with
+   * {@code --ngram} is the hybrid flavour: n-gram lookup first, the draft model as fallback.
    */
   private static SpeculativeConfig speculativeConfig(
     SamplingStrategy strategy,
@@ -667,6 +816,7 @@ public class Main {
     boolean mtpDraft = params.containsKey("mtp");
     String eagle3Path = params.get("eagle3");
     boolean eagle3Draft = eagle3Path != null && !eagle3Path.isBlank();
+    boolean lookaheadDraft = params.containsKey("lookahead");
 
     if (params.containsKey("draft") && !modelDraft) {
       System.err.println(
@@ -680,18 +830,22 @@ public class Main {
       );
       System.exit(1);
     }
-    if (!modelDraft && !ngramDraft && !mtpDraft && !eagle3Draft) {
+    if (
+      !modelDraft && !ngramDraft && !mtpDraft && !eagle3Draft && !lookaheadDraft
+    ) {
       return null;
     }
+    // --draft and --ngram together are one flavour: hybrid.
     int flavours =
-      (modelDraft ? 1 : 0) +
-      (ngramDraft ? 1 : 0) +
+      (modelDraft || ngramDraft ? 1 : 0) +
       (mtpDraft ? 1 : 0) +
-      (eagle3Draft ? 1 : 0);
+      (eagle3Draft ? 1 : 0) +
+      (lookaheadDraft ? 1 : 0);
     if (flavours > 1) {
       System.err.println(
         "Error: use exactly one of --draft (model drafting), --ngram (prompt-lookup), " +
-          "--mtp (nextn self-speculation) or --eagle3 (EAGLE3 head)."
+          "both (hybrid), --mtp (nextn self-speculation), --eagle3 (EAGLE3 head) or " +
+          "--lookahead (Jacobi)."
       );
       System.exit(1);
     }
@@ -731,6 +885,29 @@ public class Main {
     int draftMin = parseSpecInt(params.get("draft_min"), 1);
     boolean adaptive = pMin > 0.0f;
 
+    // Token-tree speculation: several branches per round, verified in one target decode.
+    int treeBranches = parseSpecInt(params.get("draft_tree"), 1);
+    if (treeBranches > 1 && (!greedy || mtpDraft || eagle3Draft)) {
+      System.err.println(
+        "Error: --draft_tree needs --strategy DETERMINISTIC and --draft, --ngram or --lookahead."
+      );
+      System.exit(1);
+    }
+
+    if (lookaheadDraft) {
+      if (!greedy || adaptive) {
+        System.err.println(
+          "Error: --lookahead needs --strategy DETERMINISTIC and takes no --p_min/--draft_min."
+        );
+        System.exit(1);
+      }
+      // --draft_tree sets how many pooled candidates a round verifies; default one per column.
+      int window = lookaheadWindow(params);
+      return SpeculativeConfig.greedy(nDraft).withTreeBranches(
+        params.containsKey("draft_tree") ? treeBranches : window
+      );
+    }
+
     if (ngramDraft) {
       if (adaptive) {
         System.err.println(
@@ -740,14 +917,18 @@ public class Main {
       }
       int ngram = parseSpecInt(params.get("ngram"), 2);
       return greedy
-        ? SpeculativeConfig.ngramGreedy(nDraft, ngram)
+        ? SpeculativeConfig.ngramGreedy(nDraft, ngram).withTreeBranches(
+          treeBranches
+        )
         : SpeculativeConfig.ngram(nDraft, ngram, temperature, topK, topP, seed);
     }
 
     if (greedy) {
-      return adaptive
-        ? SpeculativeConfig.greedyAdaptive(nDraft, draftMin, pMin)
-        : SpeculativeConfig.greedy(nDraft);
+      return (
+        adaptive
+          ? SpeculativeConfig.greedyAdaptive(nDraft, draftMin, pMin)
+          : SpeculativeConfig.greedy(nDraft)
+      ).withTreeBranches(treeBranches);
     }
     SpeculativeConfig sampling = new SpeculativeConfig(
       nDraft,
@@ -759,6 +940,11 @@ public class Main {
     return adaptive ? sampling.withDraftMin(draftMin).withPMin(pMin) : sampling;
   }
 
+  /** {@code --lookahead <window>}: guess columns per round (default 8). */
+  private static int lookaheadWindow(Map<String, String> params) {
+    return parseSpecInt(params.get("lookahead"), 8);
+  }
+
   private static int parseSpecInt(String value, int fallback) {
     return (value == null || value.isBlank()) ? fallback : parseInt(value);
   }
@@ -960,7 +1146,13 @@ public class Main {
         --draft <path>              Draft model GGUF for model drafting (must share the target's
                                     vocab).
         --ngram <window>            Enable n-gram prompt-lookup drafting with this window, no draft
-                                    model (default window: 2).
+                                    model (default window: 2). With --draft: hybrid, the lookup
+                                    first and the draft model when it proposes too few tokens.
+        --ngram_min <int>           Hybrid only: the shortest lookup that skips the draft model
+                                    (default: 2).
+        --ngram_corpus <path>       With --ngram: a text file (retrieved documents, reference
+                                    material) whose continuations are drafted too, when the
+                                    conversation's own history has none.
         --mtp                       MTP (nextn) self-speculation: the target model's own multi-token-
                                     prediction head drafts, no separate model. Requires a model with
                                     n_layer_nextn > 0 and the staging nextn API in the bundled
@@ -968,6 +1160,11 @@ public class Main {
         --eagle3 <path>             EAGLE3 head model GGUF (arch eagle3, trained for this target)
                                     drafting from the target's intermediate hidden states. Dense
                                     targets; prompt must fit one batch.
+        --lookahead <window>        Lookahead (Jacobi) decoding: the target guesses its own n-grams
+                                    in a window of this many columns and verifies pooled ones, no
+                                    draft model or history (default window: 8). DETERMINISTIC only;
+                                    --n_draft is the n-gram length, --draft_tree the candidates per
+                                    round (default: the window).
         --n_draft <int>             Max tokens drafted/proposed per round (default: 4).
                                     Lossless greedy under --strategy DETERMINISTIC; otherwise an exact
                                     sampler using temperature/top-k/top-p only (penalties/min-p/grammar/
@@ -977,6 +1174,13 @@ public class Main {
                                     Distinct from --min_p (which is min-p sampling).
         --draft_min <int>           Min tokens to draft before --p_min applies (default: 1; clamped to
                                     [1, n_draft]).
+        --draft_tree <int>          Draft a token tree of up to this many branches per round (the
+                                    draft's runner-up tokens, or several n-gram continuations), all
+                                    verified in one target decode (default: 1 = a single chain).
+                                    DETERMINISTIC with --draft or --ngram only.
+        --auto_draft <true|false>   Pick each round's draft length (up to --n_draft) from measured
+                                    acceptance and decode timings; --draft/--ngram may switch
+                                    speculation off while it does not pay (default: false).
 
       Tag handling:
         --reasoning_tags <open|close>  Reasoning tags to filter from output (default: disabled)
@@ -992,6 +1196,9 @@ public class Main {
         --min_p <float>             Minimum probability (default: 0.1)
         --min_p_window <int>        Min-P window size (default: 1)
         --seed <int>                Random seed (default: 42)
+        --java_sampler <true|false> Sample with the pure-Java chain over the logits row instead of
+                                    the native one; same tokens for the same seed (default: false).
+                                    Not available for ADAPTIVE/CONSTRAINED.
 
       Repetition penalties:
         --penalty_last_n <int>      Number of tokens for penalty (default: n_ctx)
@@ -1006,6 +1213,7 @@ public class Main {
       Constrained generation:
         --grammar <path>            Path to grammar file
         --grammar_root <rule>       Grammar root rule (default: "root")
+        --json_schema <path>        Constrain output to a JSON schema, compiled to a token FSM
 
        Commands:
          Type 'bye' to exit the REPL.
@@ -15,7 +15,12 @@
  */
 package io.gravitee.llama.cpp;
 
+import static java.lang.foreign.ValueLayout.JAVA_INT;
+
+import io.gravitee.llama.cpp.modules.TokenHistory;
+import java.lang.foreign.Arena;
 import java.lang.foreign.MemorySegment;
+import java.util.Arrays;
 import java.util.Iterator;
 import java.util.NoSuchElementException;
 
@@ -52,6 +57,40 @@ public class MtmdInputChunks implements Freeable, Iterable<MtmdInputChunk> {
     return new MtmdInputChunk(chunkSegment);
   }
 
+  /**
+   * The token at each position these chunks take once evaluated, in order: a text chunk's tokens,
+   * and {@link TokenHistory#NO_TOKEN} for each position of an image or audio chunk, which
+   * {@code n_pos} counts (fewer than its embeddings under M-RoPE).
+   */
+  public int[] tokensByPosition() {
+    int[] tokens = new int[64];
+    int n = 0;
+    try (Arena arena = Arena.ofConfined()) {
+      for (MtmdInputChunk chunk : this) {
+        boolean text = chunk.getType() == MtmdInputChunkType.TEXT;
+        int count = (int) (text ? chunk.nTokens() : chunk.nPos());
+        if (n + count > tokens.length) {
+          tokens = Arrays.copyOf(
+            tokens,
+            Math.max(n + count, tokens.length * 2)
+          );
+        }
+        if (text) {
+          MemorySegment ids = chunk
+            .getTextTokens(arena)
+            .reinterpret((long) count * Integer.BYTES);
+          for (int i = 0; i < count; i++) {
+            tokens[n + i] = ids.getAtIndex(JAVA_INT, i);
+          }
+        } else {
+          Arrays.fill(tokens, n, n + count, TokenHistory.NO_TOKEN);
+        }
+        n += count;
+      }
+    }
+    return Arrays.copyOf(tokens, n);
+  }
+
   @Override
   public void free() {
     if (chunksSegment != null && chunksSegment.address() != 0) {
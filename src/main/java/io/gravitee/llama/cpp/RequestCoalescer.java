@@ -0,0 +1,246 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.llama.cpp;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+/**
+ * Turns single-input calls from any number of threads into batched calls on one worker thread —
+ * the engine behind {@link CoalescingEmbedder} and {@link CoalescingReranker}.
+ *
+ * <p>The worker takes the oldest queued request and waits for more until {@code fill} are queued or
+ * that request has waited {@code maxWait}, then drains whatever else is queued, up to {@code cap},
+ * into one call of {@code batch}. A lone request therefore waits at most {@code maxWait}, and under
+ * load the worker never waits at all: requests that queued while the previous batch ran are already
+ * past their deadline.
+ *
+ * <p>A batch that throws is retried one request at a time, so an input the model rejects fails
+ * only its own future; an {@link Error}, or a batch returning the wrong number of outputs, fails
+ * the whole batch. Futures complete on the worker thread; continuations with real work should use
+ * the {@code *Async} stages so they do not hold up the next batch.
+ *
+ * @author GraviteeSource Team
+ */
+final class RequestCoalescer<I, O> implements AutoCloseable {
+
+  private record Request<I, O>(
+    I input,
+    long enqueuedAt,
+    CompletableFuture<O> result
+  ) {}
+
+  private final String name;
+  private final Function<List<I>, List<O>> batch;
+  private final int fill;
+  private final int cap;
+  private final long maxWaitNanos;
+  // LinkedBlockingQueue parks on a ReentrantLock, so virtual-thread callers never pin a carrier.
+  private final LinkedBlockingQueue<Request<I, O>> queue =
+    new LinkedBlockingQueue<>();
+  // Queued by close() to wake the worker; never dispatched.
+  private final Request<I, O> stop = new Request<>(null, 0, null);
+  private final Thread worker;
+  private volatile boolean closed;
+
+  /**
+   * @param name    Worker thread name, and the subject of the error a closed coalescer fails with
+   * @param batch   Computes one output per input, in order; only ever called on the worker thread
+   * @param fill    Queued requests that end the wait early; at least 1
+   * @param cap     Most requests per batch; at least {@code fill}
+   * @param maxWait Longest a request waits for others to join its batch
+   */
+  RequestCoalescer(
+    String name,
+    Function<List<I>, List<O>> batch,
+    int fill,
+    int cap,
+    Duration maxWait
+  ) {
+    if (fill < 1 || cap < fill) {
+      throw new LlamaException("fill must be >= 1 and cap >= fill");
+    }
+    if (maxWait.isNegative()) {
+      throw new LlamaException("maxWait must not be negative");
+    }
+    this.name = name;
+    this.batch = batch;
+    this.fill = fill;
+    this.cap = cap;
+    this.maxWaitNanos = maxWait.toNanos();
+    this.worker = Thread.ofPlatform().name(name).daemon().start(this::run);
+  }
+
+  /** Queues {@code input}; the future fails with a {@link LlamaException} once closed. */
+  CompletableFuture<O> submit(I input) {
+    var request = new Request<I, O>(
+      input,
+      System.nanoTime(),
+      new CompletableFuture<>()
+    );
+    if (!closed) {
+      queue.add(request);
+      // Closed meanwhile: the worker may have drained for the last time already. Whoever removes
+      // the request from the queue answers it.
+      if (!closed || !queue.remove(request)) {
+        return request.result();
+      }
+    }
+    request.result().completeExceptionally(
+      new LlamaException(name + " is closed")
+    );
+    return request.result();
+  }
+
+  /**
+   * Stops taking requests, serves the ones already queued, and waits for the worker to finish.
+   * The model wrapper behind it is left open. Called from a continuation running on the worker
+   * itself, it returns at once instead: the worker serves the queue once the current batch is done.
+   */
+  @Override
+  public void close() {
+    closed = true;
+    // Wakes an idle worker without interrupting a batch that is running native code.
+    queue.add(stop);
+    if (Thread.currentThread() == worker) {
+      return;
+    }
+    boolean interrupted = false;
+    while (worker.isAlive()) {
+      try {
+        worker.join();
+      } catch (InterruptedException e) {
+        interrupted = true;
+      }
+    }
+    if (interrupted) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private void run() {
+    List<Request<I, O>> pending = new ArrayList<>(cap);
+    try {
+      while (!closed) {
+        gather(pending);
+        dispatch(pending);
+        pending.clear();
+      }
+      while (!queue.isEmpty()) {
+        queue.drainTo(pending, cap);
+        pending.removeIf(request -> request == stop);
+        dispatch(pending);
+        pending.clear();
+      }
+    } catch (Throwable t) {
+      fail(pending, t);
+      throw t;
+    } finally {
+      // Normally a no-op; if the worker died, later submits must fail rather than hang.
+      closed = true;
+      Request<I, O> left;
+      while ((left = queue.poll()) != null) {
+        if (left != stop) {
+          left.result().completeExceptionally(
+            new LlamaException(name + " is closed")
+          );
+        }
+      }
+    }
+  }
+
+  private void gather(List<Request<I, O>> pending) {
+    try {
+      Request<I, O> first = queue.take();
+      if (first == stop) {
+        return;
+      }
+      pending.add(first);
+      long deadline = first.enqueuedAt() + maxWaitNanos;
+      while (pending.size() < fill) {
+        long left = deadline - System.nanoTime();
+        Request<I, O> next = left > 0
+          ? queue.poll(left, TimeUnit.NANOSECONDS)
+          : null;
+        if (next == null || next == stop) {
+          break;
+        }
+        pending.add(next);
+      }
+    } catch (InterruptedException e) {
+      // Nothing but a dying JVM interrupts the worker: serve what was gathered, then stop.
+      closed = true;
+    }
+    queue.drainTo(pending, cap - pending.size());
+    pending.removeIf(request -> request == stop);
+  }
+
+  private void dispatch(List<Request<I, O>> requests) {
+    if (requests.isEmpty()) {
+      return;
+    }
+    List<I> inputs = new ArrayList<>(requests.size());
+    for (Request<I, O> request : requests) {
+      inputs.add(request.input());
+    }
+    List<O> outputs;
+    try {
+      outputs = batch.apply(inputs);
+    } catch (RuntimeException e) {
+      if (requests.size() == 1) {
+        requests.getFirst().result().completeExceptionally(e);
+        return;
+      }
+      // One bad input must not fail the rest of its batch.
+      for (Request<I, O> request : requests) {
+        dispatch(List.of(request));
+      }
+      return;
+    } catch (Throwable t) {
+      // An Error is no input's fault; fail the batch and keep serving.
+      fail(requests, t);
+      return;
+    }
+    if (outputs == null || outputs.size() != requests.size()) {
+      fail(
+        requests,
+        new LlamaException(
+          name +
+          " batch returned " +
+          (outputs == null ? 0 : outputs.size()) +
+          " outputs for " +
+          requests.size() +
+          " inputs"
+        )
+      );
+      return;
+    }
+    for (int i = 0; i < requests.size(); i++) {
+      requests.get(i).result().complete(outputs.get(i));
+    }
+  }
+
+  private static <I, O> void fail(List<Request<I, O>> requests, Throwable t) {
+    for (Request<I, O> request : requests) {
+      request.result().completeExceptionally(t);
+    }
+  }
+}
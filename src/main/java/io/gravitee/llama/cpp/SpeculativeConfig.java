@@ -46,6 +46,16 @@ package io.gravitee.llama.cpp;
  *                    last {@code ngram} committed tokens against the generation history (no draft
  *                    model, no draft forward pass — see {@link ConversationState#setNgram}). The
  *                    target still verifies every proposed token, so it stays lossless/exact.
+ * @param treeBranches Token-tree speculation: {@code <= 1} drafts a single chain; {@code >= 2}
+ *                    drafts a tree of up to this many root-to-leaf branches — the draft's runner-up
+ *                    tokens, or several n-gram continuations — verified in one target decode.
+ *                    Greedy only; needs a unified KV cache and {@code treeBranches - 1} spare
+ *                    sequence ids (see {@link #isTree()}).
+ * @param autoDraft   Cost-aware draft length: when set, every round drafts the length that maximizes
+ *                    the expected tokens per second under the acceptance rate and draft/verify step
+ *                    costs measured so far — between 1 and {@code nDraft}, or none at all for a
+ *                    sequence where speculation stopped paying off (model-draft and n-gram). See
+ *                    {@link io.gravitee.llama.cpp.speculative.DraftLengthController}.
  * @author Rémi SULTAN (remi.sultan at graviteesource.com)
  * @author GraviteeSource Team
  */
@@ -57,7 +67,9 @@ public record SpeculativeConfig(
   long seed,
   int draftMin,
   float pMin,
-  int ngram
+  int ngram,
+  int treeBranches,
+  boolean autoDraft
 ) {
   public SpeculativeConfig {
     if (nDraft < 1) {
@@ -66,8 +78,55 @@ public record SpeculativeConfig(
     if (ngram < 0) {
       throw new LlamaException("ngram must be >= 0");
     }
+    if (treeBranches > 1 && temperature > 0.0f) {
+      throw new LlamaException(
+        "Tree speculation is greedy only: verifying several branches keeps greedy decoding " +
+          "lossless, but rejection sampling accepts one draft per position"
+      );
+    }
     // Keep draftMin in [1, nDraft] so a round always drafts at least one and at most nDraft tokens.
     draftMin = Math.max(1, Math.min(draftMin, nDraft));
+    treeBranches = Math.max(1, treeBranches);
+  }
+
+  /** Config with a fixed draft-length policy (no cost model). */
+  public SpeculativeConfig(
+    int nDraft,
+    float temperature,
+    int topK,
+    float topP,
+    long seed,
+    int draftMin,
+    float pMin,
+    int ngram,
+    int treeBranches
+  ) {
+    this(
+      nDraft,
+      temperature,
+      topK,
+      topP,
+      seed,
+      draftMin,
+      pMin,
+      ngram,
+      treeBranches,
+      false
+    );
+  }
+
+  /** Chain config (no tree) with explicit n-gram window. */
+  public SpeculativeConfig(
+    int nDraft,
+    float temperature,
+    int topK,
+    float topP,
+    long seed,
+    int draftMin,
+    float pMin,
+    int ngram
+  ) {
+    this(nDraft, temperature, topK, topP, seed, draftMin, pMin, ngram, 1);
   }
 
   /** Model-draft config (no n-gram) with explicit adaptive parameters. */
@@ -163,6 +222,22 @@ public record SpeculativeConfig(
     return ngram > 0;
   }
 
+  /**
+   * Whether rounds draft a token tree rather than a chain ({@code treeBranches >= 2}).
+   *
+   * <p>The branches share the committed prefix and are verified together: each is decoded under its
+   * own sequence id — the conversation's for the first, the context's highest spare ids for the
+   * rest — with shared nodes decoded once for all the branches through them. The longest root path
+   * the target agrees with is committed and the other branches are removed. Copying the prefix onto
+   * a branch id is metadata only in a unified KV cache, so that is required, as are
+   * {@code nSeqMax >= treeBranches} sequence ids; a round refuses (LlamaException) branch ids that
+   * another conversation is using. Model-draft and n-gram flavours only, in
+   * {@link DefaultLlamaIterator}; {@link BatchIterator} still verifies chains.
+   */
+  public boolean isTree() {
+    return treeBranches > 1;
+  }
+
   /*
    * Fluent "wither" API: start from a factory preset and override individual settings, e.g.
    *
@@ -185,7 +260,9 @@ public record SpeculativeConfig(
       seed,
       draftMin,
       pMin,
-      ngram
+      ngram,
+      treeBranches,
+      autoDraft
     );
   }
 
@@ -199,7 +276,9 @@ public record SpeculativeConfig(
       seed,
       draftMin,
       pMin,
-      ngram
+      ngram,
+      treeBranches,
+      autoDraft
     );
   }
 
@@ -213,7 +292,9 @@ public record SpeculativeConfig(
       seed,
       draftMin,
       pMin,
-      ngram
+      ngram,
+      treeBranches,
+      autoDraft
     );
   }
 
@@ -227,7 +308,9 @@ public record SpeculativeConfig(
       seed,
       draftMin,
       pMin,
-      ngram
+      ngram,
+      treeBranches,
+      autoDraft
     );
   }
 
@@ -241,7 +324,9 @@ public record SpeculativeConfig(
       seed,
       draftMin,
       pMin,
-      ngram
+      ngram,
+      treeBranches,
+      autoDraft
     );
   }
 
@@ -255,7 +340,9 @@ public record SpeculativeConfig(
       seed,
       draftMin,
       pMin,
-      ngram
+      ngram,
+      treeBranches,
+      autoDraft
     );
   }
 
@@ -269,7 +356,9 @@ public record SpeculativeConfig(
       seed,
       draftMin,
       pMin,
-      ngram
+      ngram,
+      treeBranches,
+      autoDraft
     );
   }
 
@@ -283,7 +372,44 @@ public record SpeculativeConfig(
       seed,
       draftMin,
       pMin,
-      ngram
+      ngram,
+      treeBranches,
+      autoDraft
+    );
+  }
+
+  /** A copy drafting a tree of up to {@code treeBranches} branches ({@code <= 1} = a chain). */
+  public SpeculativeConfig withTreeBranches(int treeBranches) {
+    return new SpeculativeConfig(
+      nDraft,
+      temperature,
+      topK,
+      topP,
+      seed,
+      draftMin,
+      pMin,
+      ngram,
+      treeBranches,
+      autoDraft
+    );
+  }
+
+  /**
+   * A copy whose draft length is chosen every round by a {@link
+   * io.gravitee.llama.cpp.speculative.DraftLengthController}, with {@code nDraft} as the ceiling.
+   */
+  public SpeculativeConfig withAutoDraft(boolean autoDraft) {
+    return new SpeculativeConfig(
+      nDraft,
+      temperature,
+      topK,
+      topP,
+      seed,
+      draftMin,
+      pMin,
+      ngram,
+      treeBranches,
+      autoDraft
     );
   }
 
@@ -308,7 +434,9 @@ public record SpeculativeConfig(
       .seed(seed)
       .draftMin(draftMin)
       .pMin(pMin)
-      .ngram(ngram);
+      .ngram(ngram)
+      .treeBranches(treeBranches)
+      .autoDraft(autoDraft);
   }
 
   /**
@@ -336,6 +464,8 @@ public record SpeculativeConfig(
     private int draftMin = 1;
     private float pMin = 0.0f;
     private int ngram = 0;
+    private int treeBranches = 1;
+    private boolean autoDraft = false;
 
     private Builder() {}
 
@@ -387,6 +517,18 @@ public record SpeculativeConfig(
       return this;
     }
 
+    /** Token-tree branches per round ({@code <= 1} = a chain; greedy only). */
+    public Builder treeBranches(int treeBranches) {
+      this.treeBranches = treeBranches;
+      return this;
+    }
+
+    /** Pick the draft length per round from measured acceptance and step costs. */
+    public Builder autoDraft(boolean autoDraft) {
+      this.autoDraft = autoDraft;
+      return this;
+    }
+
     /** Builds the immutable config (validated by the record's canonical constructor). */
     public SpeculativeConfig build() {
       return new SpeculativeConfig(
@@ -397,7 +539,9 @@ public record SpeculativeConfig(
         seed,
         draftMin,
         pMin,
-        ngram
+        ngram,
+        treeBranches,
+        autoDraft
       );
     }
   }
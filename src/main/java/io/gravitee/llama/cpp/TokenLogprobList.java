@@ -0,0 +1,76 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.llama.cpp;
+
+import java.nio.charset.StandardCharsets;
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * Read-only {@code List<TokenLogprob>} over the primitive arrays {@link LlamaContext#getLogprobs}
+ * fills: each {@link TokenLogprob} is built on first access, so a caller reading only ids and
+ * log-probabilities through {@link Logprobs#tokenId} and {@link Logprobs#logprob} builds none.
+ * Equality is the list's, element by element, so it compares equal to any list of the same entries.
+ *
+ * @author GraviteeSource Team
+ */
+final class TokenLogprobList
+  extends AbstractList<TokenLogprob>
+  implements RandomAccess {
+
+  private final int[] tokenIds;
+  private final double[] logprobs;
+  private final byte[][] pieces;
+  // Racy but idempotent: every thread builds an equal entry.
+  private final TokenLogprob[] built;
+
+  /** Takes ownership of the arrays, which must be the same length. */
+  TokenLogprobList(int[] tokenIds, double[] logprobs, byte[][] pieces) {
+    this.tokenIds = tokenIds;
+    this.logprobs = logprobs;
+    this.pieces = pieces;
+    this.built = new TokenLogprob[tokenIds.length];
+  }
+
+  int tokenId(int index) {
+    return tokenIds[index];
+  }
+
+  double logprob(int index) {
+    return logprobs[index];
+  }
+
+  @Override
+  public TokenLogprob get(int index) {
+    TokenLogprob entry = built[index];
+    if (entry == null) {
+      byte[] piece = pieces[index];
+      entry = new TokenLogprob(
+        piece.length == 0 ? "" : new String(piece, StandardCharsets.UTF_8),
+        tokenIds[index],
+        logprobs[index],
+        new UnsignedByteList(piece)
+      );
+      built[index] = entry;
+    }
+    return entry;
+  }
+
+  @Override
+  public int size() {
+    return tokenIds.length;
+  }
+}
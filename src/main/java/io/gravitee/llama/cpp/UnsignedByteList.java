@@ -0,0 +1,61 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.llama.cpp;
+
+import java.util.AbstractList;
+import java.util.RandomAccess;
+
+/**
+ * Read-only {@code List<Integer>} view of a token piece's bytes, as unsigned values 0–255.
+ *
+ * <p>{@link TokenLogprob#bytes()} is a list for API compatibility; backing it with the piece's
+ * {@code byte[]} and a shared table of the 256 possible boxes means no per-byte allocation.
+ *
+ * @author GraviteeSource Team
+ */
+final class UnsignedByteList
+  extends AbstractList<Integer>
+  implements RandomAccess {
+
+  private static final Integer[] BOXES = new Integer[256];
+
+  static {
+    for (int i = 0; i < BOXES.length; i++) {
+      BOXES[i] = i;
+    }
+  }
+
+  private final byte[] bytes;
+
+  UnsignedByteList(byte[] bytes) {
+    this.bytes = bytes;
+  }
+
+  /** The backing array; shared, must not be mutated. */
+  byte[] bytes() {
+    return bytes;
+  }
+
+  @Override
+  public Integer get(int index) {
+    return BOXES[bytes[index] & 0xFF];
+  }
+
+  @Override
+  public int size() {
+    return bytes.length;
+  }
+}
@@ -15,8 +15,6 @@
  */
 package io.gravitee.llama.cpp.draft;
 
-import static java.lang.foreign.ValueLayout.JAVA_FLOAT;
-
 import io.gravitee.llama.cpp.LlamaBatch;
 import io.gravitee.llama.cpp.LlamaContext;
 import io.gravitee.llama.cpp.LlamaException;
@@ -44,6 +42,10 @@ import java.util.List;
  * from the boundary and re-syncs only the accepted pairs — one extra tiny decode per round for a
  * no-duplicate-cells invariant. Dense targets only.
  *
+ * <p>g rows never reach the heap: each encode chunk is copied once from the head's nextn buffer
+ * into a per-sequence {@link HiddenStateRing}, right after the boundary row, and the sync batch's
+ * embd pointer is aimed at the boundary plus the accepted rows where they already lie.
+ *
  * @author GraviteeSource Team
  */
 public final class Eagle3Draft implements HiddenStateDraft {
@@ -58,12 +60,14 @@ public final class Eagle3Draft implements HiddenStateDraft {
 
   // Persistent native scratch (lazily built, reused across rounds, freed once by free()).
   private MemorySegment features; // [maxRows, nEmbdEnc] interleaved target features
-  private MemorySegment embdRows; // [maxRows, nEmbdDec] decoder embd rows
-  private LlamaBatch dualBatch; // up-to-maxRows dual token+embd decoder batch
+  private MemorySegment stepEmbd; // [1, nEmbdDec] the draft step's embd row
+  private LlamaBatch stepBatch; // 1-token dual token+embd decoder batch (draft steps)
+  private LlamaBatch syncBatch; // up-to-maxRows dual batch, embd aimed at ring rows (syncs)
   private LlamaBatch encShell; // raw embd-only encoder batch (all arrays NULLed)
 
-  // Pending boundary g row: g at position nPast-1, paired with idLast at draft time.
-  private float[] boundary;
+  // g rows: the pending boundary (g at position nPast-1, paired with idLast at draft time)
+  // followed by the rows the last encode staged.
+  private final HiddenStateRing ring;
 
   public Eagle3Draft(
     Arena arena,
@@ -80,6 +84,7 @@ public final class Eagle3Draft implements HiddenStateDraft {
     this.nEmbdDec = nEmbdDec;
     this.nEmbdEnc = layerIds.length * nEmbdTgt;
     this.maxRows = nDraft + 1;
+    this.ring = new HiddenStateRing(arena, nEmbdDec, maxRows);
   }
 
   @Override
@@ -87,40 +92,52 @@ public final class Eagle3Draft implements HiddenStateDraft {
     return dft;
   }
 
+  /** Most target rows one {@link #encodeCaptured} call takes — the verify-round row count. */
+  public int maxRows() {
+    return maxRows;
+  }
+
   public boolean hasBoundary() {
-    return boundary != null;
+    return ring.hasPending();
   }
 
-  public float[] boundary() {
-    return boundary;
+  /** The pending boundary g row; valid until the next {@link #encodeCaptured}. */
+  public MemorySegment boundary() {
+    return ring.pending();
   }
 
-  public void setBoundary(float[] g) {
-    this.boundary = g;
+  /** Forgets the boundary — for a re-prefilled sequence. */
+  public void resetBoundary() {
+    ring.clear();
   }
 
   /**
    * Encoder pass over the target's captured layer inputs for its last decode ({@code nRows}
    * tokens): interleave the layers into {@code [nRows, 3*nEmbdTgt]} features, run
-   * {@code llama_encode} on the head (chunked by its n_ubatch), and return the g_embd rows.
+   * {@code llama_encode} on the head (chunked by its n_ubatch), and stage the g_embd rows right
+   * after the boundary (see {@link #commitPairs}).
    */
-  public float[][] encodeCaptured(LlamaContext target, int nRows) {
-    return encodeCaptured(target, 0, nRows);
+  public void encodeCaptured(LlamaContext target, int nRows) {
+    encodeCaptured(target, 0, nRows);
   }
 
   /**
    * As {@link #encodeCaptured(LlamaContext, int)} but reading the capture buffer starting at
    * {@code rowOffset} — a fused multi-sequence verify decode captures all sequences' rows in one
-   * buffer, and each sequence encodes only its own slice (its verify-batch base offset).
+   * buffer, and each sequence encodes only its own slice (its verify-batch base offset). At most
+   * {@link #maxRows()} rows per call.
    */
-  public float[][] encodeCaptured(
+  public void encodeCaptured(
     LlamaContext target,
     int rowOffset,
     int nRows
   ) {
-    MemorySegment feat = nRows <= maxRows
-      ? featuresBuf()
-      : arena.allocate((long) nRows * nEmbdEnc * Float.BYTES); // prompt prefill: one-shot
+    if (nRows > maxRows) {
+      throw new LlamaException(
+        "EAGLE3 encodes at most " + maxRows + " rows per call, got " + nRows
+      );
+    }
+    MemorySegment feat = featuresBuf();
     for (int k = 0; k < layerIds.length; k++) {
       MemorySegment layer = LlamaExt.getEmbeddingsLayerInp(
         target,
@@ -137,7 +154,7 @@ public final class Eagle3Draft implements HiddenStateDraft {
       }
     }
 
-    float[][] g = new float[nRows][];
+    ring.stage(nRows);
     int nUb = dft.nUbatch();
     for (int off = 0; off < nRows; off += nUb) {
       int n = Math.min(nUb, nRows - off);
@@ -152,57 +169,44 @@ public final class Eagle3Draft implements HiddenStateDraft {
           "EAGLE3 encoder failed (n=" + n + ", off=" + off + ")"
         );
       }
-      MemorySegment gBuf = LlamaExt.getEmbeddingsNextnAll(dft).reinterpret(
+      // One copy per chunk, native to native: the next head decode overwrites the nextn buffer.
+      MemorySegment.copy(
+        LlamaExt.getEmbeddingsNextnAll(dft),
+        0,
+        ring.staged(off, n),
+        0,
         (long) n * nEmbdDec * Float.BYTES
       );
-      for (int i = 0; i < n; i++) {
-        float[] row = new float[nEmbdDec];
-        MemorySegment.copy(
-          gBuf,
-          JAVA_FLOAT,
-          (long) i * nEmbdDec * Float.BYTES,
-          row,
-          0,
-          nEmbdDec
-        );
-        g[off + i] = row;
-      }
     }
-    return g;
   }
 
   /**
-   * Decoder sync of shifted pairs {@code (toks[i] @ poss[i], gRows[i])} with no logits — keeps the
-   * head's KV in lockstep with committed tokens. Chunked by the persistent batch capacity.
+   * Decoder sync of the shifted pairs that became final, with no logits — keeps the head's KV in
+   * lockstep with committed tokens. The rows are the boundary (when there is one) followed by the
+   * first {@code keep} staged g rows, paired with {@code toks[from], toks[from + 1], ...} at
+   * positions {@code pos, pos + 1, ...}; staged row {@code keep} then becomes the boundary. The
+   * rows are already contiguous in the ring, so the batch reads them in place.
    */
-  public void syncPairs(
+  public void commitPairs(
     int[] toks,
-    int[] poss,
-    float[][] gRows,
+    int from,
+    int pos,
+    int keep,
     List<Integer> seq
   ) {
-    int total = toks.length;
-    int off = 0;
-    while (off < total) {
-      int n = Math.min(maxRows, total - off);
-      LlamaBatch b = dual();
+    int n = (ring.hasPending() ? 1 : 0) + keep;
+    if (n > 0) {
+      LlamaBatch b = syncBatch();
       b.clear();
       for (int i = 0; i < n; i++) {
-        b.add(toks[off + i], poss[off + i], seq, false);
-        MemorySegment.copy(
-          gRows[off + i],
-          0,
-          embdRows,
-          JAVA_FLOAT,
-          (long) i * nEmbdDec * Float.BYTES,
-          nEmbdDec
-        );
+        b.add(toks[from + i], pos + i, seq, false);
       }
+      LlamaExt.setBatchEmbd(b, ring.pendingThenStaged(keep));
       if (b.decode(dft) != 0) {
         throw new LlamaException("EAGLE3 decoder sync failed");
       }
-      off += n;
     }
+    ring.commit(keep);
   }
 
   /**
@@ -210,11 +214,16 @@ public final class Eagle3Draft implements HiddenStateDraft {
    * logits on. Caller reads logits from batch row {@code 0} and chains via {@link #chainHidden()}.
    */
   @Override
-  public void step(int token, int pos, List<Integer> seq, float[] hidden) {
-    LlamaBatch b = dual();
+  public void step(
+    int token,
+    int pos,
+    List<Integer> seq,
+    MemorySegment hidden
+  ) {
+    LlamaBatch b = stepBatch();
     b.clear();
     b.add(token, pos, seq, true);
-    MemorySegment.copy(hidden, 0, embdRows, JAVA_FLOAT, 0, nEmbdDec);
+    MemorySegment.copy(hidden, 0, stepEmbd, 0, (long) nEmbdDec * Float.BYTES);
     if (b.decode(dft) != 0) {
       throw new LlamaException("EAGLE3 draft decode failed");
     }
@@ -227,8 +236,8 @@ public final class Eagle3Draft implements HiddenStateDraft {
   }
 
   @Override
-  public float[] chainHidden(int row) {
-    return LlamaExt.getEmbeddingsNextnIth(dft, row, nEmbdDec);
+  public MemorySegment chainHidden(int row) {
+    return LlamaExt.getEmbeddingsNextnRow(dft, row, nEmbdDec);
   }
 
   private MemorySegment featuresBuf() {
@@ -238,13 +247,21 @@ public final class Eagle3Draft implements HiddenStateDraft {
     return features;
   }
 
-  private LlamaBatch dual() {
-    if (dualBatch == null) {
-      embdRows = arena.allocate((long) maxRows * nEmbdDec * Float.BYTES);
-      dualBatch = new LlamaBatch(arena, maxRows, 0, 1);
-      LlamaExt.setBatchEmbd(dualBatch, embdRows); // arena-owned, survives clear()
+  private LlamaBatch stepBatch() {
+    if (stepBatch == null) {
+      stepEmbd = arena.allocate((long) nEmbdDec * Float.BYTES);
+      stepBatch = new LlamaBatch(arena, 1, 0, 1);
+      LlamaExt.setBatchEmbd(stepBatch, stepEmbd); // arena-owned, survives clear()
     }
-    return dualBatch;
+    return stepBatch;
+  }
+
+  private LlamaBatch syncBatch() {
+    if (syncBatch == null) {
+      // Its embd pointer is aimed at the ring rows of each sync (see commitPairs).
+      syncBatch = new LlamaBatch(arena, maxRows, 0, 1);
+    }
+    return syncBatch;
   }
 
   private LlamaBatch encShell() {
@@ -270,10 +287,15 @@ public final class Eagle3Draft implements HiddenStateDraft {
    * arena-owned, NOT malloc'd — they must be nulled before {@code llama_batch_free}.
    */
   public void free() {
-    if (dualBatch != null) {
-      LlamaExt.setBatchEmbd(dualBatch, MemorySegment.NULL);
-      dualBatch.free();
-      dualBatch = null;
+    if (stepBatch != null) {
+      LlamaExt.setBatchEmbd(stepBatch, MemorySegment.NULL);
+      stepBatch.free();
+      stepBatch = null;
+    }
+    if (syncBatch != null) {
+      LlamaExt.setBatchEmbd(syncBatch, MemorySegment.NULL);
+      syncBatch.free();
+      syncBatch = null;
     }
     if (encShell != null) {
       LlamaExt.setBatchPointer(encShell, "embd", MemorySegment.NULL);
@@ -281,7 +303,7 @@ public final class Eagle3Draft implements HiddenStateDraft {
       encShell = null;
     }
     features = null;
-    embdRows = null;
-    boundary = null;
+    stepEmbd = null;
+    ring.clear();
   }
 }
@@ -16,6 +16,7 @@
 package io.gravitee.llama.cpp.draft;
 
 import io.gravitee.llama.cpp.LlamaContext;
+import java.lang.foreign.MemorySegment;
 import java.util.List;
 
 /**
@@ -24,6 +25,10 @@ import java.util.List;
  * self-speculation) and {@link Eagle3Draft} (EAGLE3 head). Lets the speculative decoder drive
  * both flavours' draft chains through one code path.
  *
+ * <p>Hidden states stay native end to end: {@code hidden} arguments are native rows (a
+ * {@link HiddenStateRing} row, or a head output returned by {@link #chainHidden(int)}) copied
+ * straight into the draft batch's embd region.
+ *
  * @author GraviteeSource Team
  */
 public sealed interface HiddenStateDraft permits MtpDraft, Eagle3Draft {
@@ -33,17 +38,18 @@ public sealed interface HiddenStateDraft permits MtpDraft, Eagle3Draft {
   /** The width of the hidden-state rows this source consumes and produces. */
   int hiddenSize();
 
-  /** Decode one {@code (token @ pos)} step with {@code hidden} injected as its embd row. */
-  void step(int token, int pos, List<Integer> seq, float[] hidden);
+  /** Decode one {@code (token @ pos)} step with {@code hidden} copied in as its embd row. */
+  void step(int token, int pos, List<Integer> seq, MemorySegment hidden);
 
   /**
    * The source's own hidden state for output row {@code row} of the last decode — the seed for
-   * that sequence's next chained draft. Fused (multi-sequence) steps read one row per sequence.
+   * that sequence's next chained draft. Fused (multi-sequence) steps read one row per sequence. A
+   * view of the head's output buffer, so only valid until the next decode on {@link #context()}.
    */
-  float[] chainHidden(int row);
+  MemorySegment chainHidden(int row);
 
   /** Single-row convenience: {@code chainHidden(0)}. */
-  default float[] chainHidden() {
+  default MemorySegment chainHidden() {
     return chainHidden(0);
   }
 }
@@ -0,0 +1,156 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.llama.cpp.draft;
+
+import io.gravitee.llama.cpp.LlamaException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+
+/**
+ * Off-heap hidden-state rows of one sequence for a {@link HiddenStateDraft}: the <i>pending</i> row
+ * the next draft chain starts from (the MTP seed, the EAGLE3 boundary) and the rows a round
+ * <i>stages</i> right after it. Rows are copied in straight from native buffers (target
+ * embeddings, head outputs) and never pass through the heap.
+ *
+ * <p>Staged rows always follow the pending row in memory, so the pending row plus any prefix of the
+ * staged ones is one contiguous {@code [n, width]} block — a batch's embd pointer can aim at it
+ * with no copy at all. Committing a staged row just moves the pending index forward. Once the next
+ * stage would run past the end, the pending row is copied back to slot 0: one row copy every few
+ * rounds instead of a copy per row per round.
+ *
+ * <p>Memory is allocated from the caller's arena on first use and lives as long as it does.
+ * Single-threaded, like the draft that owns it.
+ *
+ * @author GraviteeSource Team
+ */
+public final class HiddenStateRing {
+
+  private static final int NONE = -1;
+
+  private final Arena arena;
+  private final int width;
+  private final long rowBytes;
+  private final int maxStaged;
+  private final int capacity;
+  private MemorySegment rows;
+  private int pending = NONE;
+  private int stagedFrom;
+  private int staged;
+
+  /**
+   * @param width     floats per row
+   * @param maxStaged most rows a single {@link #stage} may ask for; at least 1
+   */
+  public HiddenStateRing(Arena arena, int width, int maxStaged) {
+    if (width < 1 || maxStaged < 1) {
+      throw new LlamaException("width and maxStaged must be >= 1");
+    }
+    this.arena = arena;
+    this.width = width;
+    this.rowBytes = (long) width * Float.BYTES;
+    this.maxStaged = maxStaged;
+    this.capacity = 2 * (maxStaged + 1);
+  }
+
+  public int width() {
+    return width;
+  }
+
+  public boolean hasPending() {
+    return pending != NONE;
+  }
+
+  /** The pending row; valid until the next {@link #stage}. */
+  public MemorySegment pending() {
+    if (pending == NONE) {
+      throw new LlamaException("No pending hidden-state row");
+    }
+    return rows.asSlice(pending * rowBytes, rowBytes);
+  }
+
+  /**
+   * Reserves {@code n} rows right after the pending row (at the start when there is none), to be
+   * filled through {@link #staged}. Drops whatever was staged before.
+   */
+  public void stage(int n) {
+    if (n < 1 || n > maxStaged) {
+      throw new LlamaException(
+        "Cannot stage " + n + " hidden-state rows (1.." + maxStaged + ")"
+      );
+    }
+    if (rows == null) {
+      rows = arena.allocate(capacity * rowBytes, Float.BYTES);
+    }
+    int from = pending == NONE ? 0 : pending + 1;
+    if (from + n > capacity) {
+      MemorySegment.copy(rows, pending * rowBytes, rows, 0, rowBytes);
+      pending = 0;
+      from = 1;
+    }
+    stagedFrom = from;
+    staged = n;
+  }
+
+  /** Staged rows {@code [i, i + n)}, one contiguous block to write into. */
+  public MemorySegment staged(int i, int n) {
+    if (i < 0 || n < 0 || i + n > staged) {
+      throw new IndexOutOfBoundsException(
+        "Staged rows [" + i + ", " + (i + n) + ") of " + staged
+      );
+    }
+    return rows.asSlice((stagedFrom + i) * rowBytes, n * rowBytes);
+  }
+
+  /**
+   * The pending row, if any, followed by the first {@code n} staged rows, as one contiguous block —
+   * {@code n + 1} rows, or {@code n} when nothing is pending.
+   */
+  public MemorySegment pendingThenStaged(int n) {
+    if (n < 0 || n > staged) {
+      throw new IndexOutOfBoundsException(
+        "Staged rows [0, " + n + ") of " + staged
+      );
+    }
+    int first = pending == NONE ? stagedFrom : pending;
+    return rows.asSlice(first * rowBytes, (stagedFrom + n - first) * rowBytes);
+  }
+
+  /** Makes staged row {@code i} the pending row; the staged rows are dropped. */
+  public void commit(int i) {
+    if (i < 0 || i >= staged) {
+      throw new IndexOutOfBoundsException(
+        "Staged row " + i + " of " + staged
+      );
+    }
+    pending = stagedFrom + i;
+    stagedFrom = pending + 1;
+    staged = 0;
+  }
+
+  /** Copies {@code row} ({@code width} floats, any native or heap segment) in as the pending row. */
+  public void setPending(MemorySegment row) {
+    stage(1);
+    MemorySegment.copy(row, 0, staged(0, 1), 0, rowBytes);
+    commit(0);
+  }
+
+  /** Forgets the pending and staged rows; the memory is kept for reuse. */
+  public void clear() {
+    pending = NONE;
+    stagedFrom = 0;
+    staged = 0;
+  }
+}
@@ -0,0 +1,193 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.llama.cpp.draft;
+
+import io.gravitee.llama.cpp.LlamaException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Lookahead (Jacobi) decoding draft source — no draft model and no history needed: the target
+ * model itself guesses n-grams by iterating on a window of guesses, and the guesses it settles on
+ * become draft candidates.
+ *
+ * <p>The window holds {@code window} columns of {@code levels} guessed tokens each. Column
+ * {@code i} is a trajectory starting at position {@code nPast + i}: its level-0 token is the
+ * {@code i}-th guess after the last committed token (column 0 is that token itself), and each
+ * higher level guesses the token after the one below it. Every round the target decodes the window
+ * alongside the verify rows and predicts the token after each column's top level; each column then
+ * yields one n-gram — its {@code levels} tokens plus that prediction — for the pool, and moves up one
+ * level, the prediction becoming its new top. Guesses that happen to be right stay stable from
+ * round to round (a Jacobi fixed point), so the pool fills with n-grams the target actually
+ * produces.
+ *
+ * <p>The pool maps a first token to up to {@code maxCandidates} distinct continuations of
+ * {@code levels} tokens, most recent first, and holds at most {@link #DEFAULT_POOL_CAPACITY} first
+ * tokens (least recently used evicted). Orchestration — the batch layout, sequence ids, verify —
+ * lives in the iterator's lookahead round; this class is pure heap state.
+ *
+ * @author GraviteeSource Team
+ */
+public final class LookaheadDraft {
+
+  /** Distinct first tokens the pool remembers. */
+  public static final int DEFAULT_POOL_CAPACITY = 1 << 12;
+
+  private static final int[][] NO_CANDIDATES = {};
+
+  private final int window;
+  private final int levels;
+  private final int maxCandidates;
+  // grid[column][level]; column 0's level 0 is the last committed token, set every round.
+  private final int[][] grid;
+  private final Map<Integer, int[][]> pool;
+
+  /**
+   * @param window        W, the number of columns (guess trajectories)
+   * @param levels        N - 1, the tokens per column and per candidate continuation
+   * @param maxCandidates G, the continuations kept per first token
+   */
+  public LookaheadDraft(int window, int levels, int maxCandidates) {
+    if (window < 1 || levels < 1 || maxCandidates < 1) {
+      throw new LlamaException(
+        "Lookahead needs window, levels and candidates >= 1 (got " +
+          window +
+          ", " +
+          levels +
+          ", " +
+          maxCandidates +
+          ")"
+      );
+    }
+    this.window = window;
+    this.levels = levels;
+    this.maxCandidates = maxCandidates;
+    this.grid = new int[window][levels];
+    this.pool = new LinkedHashMap<>(64, 0.75f, true) {
+      @Override
+      protected boolean removeEldestEntry(Map.Entry<Integer, int[][]> e) {
+        return size() > DEFAULT_POOL_CAPACITY;
+      }
+    };
+  }
+
+  public int window() {
+    return window;
+  }
+
+  public int levels() {
+    return levels;
+  }
+
+  /** The guessed token at {@code level} of {@code column}. */
+  public int token(int column, int level) {
+    return grid[column][level];
+  }
+
+  /**
+   * Fills the window with initial guesses — tokens of {@code tokens}, walking back from its end —
+   * and empties the pool. Any guesses do: wrong ones are simply iterated away.
+   */
+  public void seed(int[] tokens) {
+    pool.clear();
+    int n = tokens.length;
+    for (int i = 0; i < window; i++) {
+      for (int l = 0; l < levels; l++) {
+        grid[i][l] = n == 0 ? 0 : tokens[n - 1 - ((i * levels + l) % n)];
+      }
+    }
+  }
+
+  /**
+   * Column 0's guesses above its base, at most {@code kMax}: with the last committed token below
+   * them they are a plain chain, so they can be drafted on the conversation's own sequence.
+   */
+  public int[] columnGuesses(int kMax) {
+    int count = Math.max(0, Math.min(kMax, levels - 1));
+    return Arrays.copyOfRange(grid[0], 1, 1 + count);
+  }
+
+  /**
+   * Up to {@code max} pooled continuations of {@code first}, most recent first, each cut to
+   * {@code kMax} tokens; empty when the pool has none.
+   */
+  public int[][] candidates(int first, int kMax, int max) {
+    int[][] stored = pool.get(first);
+    if (stored == null || kMax < 1 || max < 1) {
+      return NO_CANDIDATES;
+    }
+    int count = Math.min(max, stored.length);
+    int[][] out = new int[count][];
+    for (int c = 0; c < count; c++) {
+      out[c] = stored[c].length > kMax
+        ? Arrays.copyOf(stored[c], kMax)
+        : stored[c].clone();
+    }
+    return out;
+  }
+
+  /**
+   * Ends a round: pools each of the first {@code columns} columns' n-grams and moves them up one
+   * level, {@code next[i]} becoming column {@code i}'s new top.
+   *
+   * @param first   the round's last committed token, column 0's level 0
+   * @param next    per column, the target's prediction after its top level
+   * @param columns how many columns the round decoded
+   */
+  public void advance(int first, int[] next, int columns) {
+    grid[0][0] = first;
+    for (int i = 0; i < columns; i++) {
+      int[] column = grid[i];
+      int[] continuation = new int[levels];
+      System.arraycopy(column, 1, continuation, 0, levels - 1);
+      continuation[levels - 1] = next[i];
+      remember(column[0], continuation);
+      System.arraycopy(column, 1, column, 0, levels - 1);
+      column[levels - 1] = next[i];
+    }
+  }
+
+  /** Number of first tokens with pooled continuations. */
+  public int poolSize() {
+    return pool.size();
+  }
+
+  private void remember(int first, int[] continuation) {
+    int[][] stored = pool.get(first);
+    if (stored == null) {
+      pool.put(first, new int[][] { continuation });
+      return;
+    }
+    int found = -1;
+    for (int c = 0; c < stored.length && found < 0; c++) {
+      if (Arrays.equals(stored[c], continuation)) {
+        found = c;
+      }
+    }
+    int keep = found >= 0
+      ? stored.length
+      : Math.min(stored.length + 1, maxCandidates);
+    int[][] updated = new int[keep][];
+    updated[0] = continuation;
+    for (int c = 0, o = 1; c < stored.length && o < keep; c++) {
+      if (c != found) {
+        updated[o++] = stored[c];
+      }
+    }
+    pool.put(first, updated);
+  }
+}
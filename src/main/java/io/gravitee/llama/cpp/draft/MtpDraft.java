@@ -15,8 +15,6 @@
  */
 package io.gravitee.llama.cpp.draft;
 
-import static java.lang.foreign.ValueLayout.JAVA_FLOAT;
-
 import io.gravitee.llama.cpp.LlamaBatch;
 import io.gravitee.llama.cpp.LlamaContext;
 import io.gravitee.llama.cpp.LlamaException;
@@ -54,13 +52,15 @@ public final class MtpDraft implements HiddenStateDraft {
   private MemorySegment embd; // single-row hidden-state buffer injected into the batch
   private LlamaBatch batch; // 1-token dual token+embd batch
 
-  // The target's post-norm hidden at the last committed position — the seed for draft step 0.
-  private float[] seed;
+  // Pending row: the target's post-norm hidden at the last committed position, the seed for
+  // draft step 0 — copied in from the target's embeddings, never through the heap.
+  private final HiddenStateRing seed;
 
   public MtpDraft(Arena arena, LlamaContext mtpContext, int nEmbd) {
     this.arena = arena;
     this.mtp = mtpContext;
     this.nEmbd = nEmbd;
+    this.seed = new HiddenStateRing(arena, nEmbd, 1);
   }
 
   @Override
@@ -69,15 +69,17 @@ public final class MtpDraft implements HiddenStateDraft {
   }
 
   public boolean hasSeed() {
-    return seed != null;
+    return seed.hasPending();
   }
 
-  public float[] seed() {
-    return seed;
+  /** The current seed row; valid until the next {@link #setSeed}. */
+  public MemorySegment seed() {
+    return seed.pending();
   }
 
-  public void setSeed(float[] hidden) {
-    this.seed = hidden;
+  /** Copies {@code hidden} (a native row, e.g. the target's embeddings) in as the seed. */
+  public void setSeed(MemorySegment hidden) {
+    seed.setPending(hidden);
   }
 
   /**
@@ -86,9 +88,14 @@ public final class MtpDraft implements HiddenStateDraft {
    * the next hidden via {@link #chainHidden()}.
    */
   @Override
-  public void step(int token, int pos, List<Integer> seq, float[] hidden) {
+  public void step(
+    int token,
+    int pos,
+    List<Integer> seq,
+    MemorySegment hidden
+  ) {
     LlamaBatch b = batch();
-    MemorySegment.copy(hidden, 0, embd, JAVA_FLOAT, 0, nEmbd);
+    MemorySegment.copy(hidden, 0, embd, 0, (long) nEmbd * Float.BYTES);
     b.clear();
     b.add(token, pos, seq, true);
     if (b.decode(mtp) != 0) {
@@ -103,8 +110,8 @@ public final class MtpDraft implements HiddenStateDraft {
   }
 
   @Override
-  public float[] chainHidden(int row) {
-    return LlamaExt.getEmbeddingsNextnIth(mtp, row, nEmbd);
+  public MemorySegment chainHidden(int row) {
+    return LlamaExt.getEmbeddingsNextnRow(mtp, row, nEmbd);
   }
 
   private LlamaBatch batch() {
@@ -130,6 +137,6 @@ public final class MtpDraft implements HiddenStateDraft {
       batch = null;
     }
     embd = null;
-    seed = null;
+    seed.clear();
   }
 }
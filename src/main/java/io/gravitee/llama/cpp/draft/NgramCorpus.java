@@ -0,0 +1,190 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.llama.cpp.draft;
+
+import io.gravitee.llama.cpp.LlamaException;
+import java.io.IOException;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * A fixed token corpus an {@link NgramIndex} drafts from besides its own history: retrieved
+ * documents, tool outputs, a reference file the answer is expected to quote. Its windows are indexed
+ * once, on construction, and it never changes afterwards, so one corpus can back any number of
+ * conversations at once without locking.
+ *
+ * <p>Only the full {@code ngram}-token window is indexed, with the same primitive layout as
+ * {@link NgramIndex}: an open-addressing table maps the hash of a window to the first position it
+ * starts at, and a flat per-position array chains it to its next occurrence. A lookup therefore
+ * proposes continuations in corpus order. Nothing a corpus proposes is appended to the history, so
+ * the history stays exactly the conversation's committed tokens.
+ *
+ * @author GraviteeSource Team
+ */
+public final class NgramCorpus {
+
+  private static final int[][] NO_BRANCHES = new int[0][];
+  private static final long HASH_PRIME = 1099511628211L;
+  // Occurrences of a window a lookup looks at.
+  private static final int MAX_SCAN = 64;
+  private static final int EMPTY = -1;
+
+  private final int ngram;
+  private final int[] tokens;
+  private final long[] keys;
+  private final int[] heads;
+  // Per start position, the next start position of a window with the same hash, or EMPTY.
+  private final int[] next;
+
+  /** Indexes a copy of {@code tokens}. */
+  public NgramCorpus(int ngram, int[] tokens) {
+    this(tokens.clone(), ngram);
+  }
+
+  /** Indexes {@code tokens} itself: the caller hands the array over. */
+  private NgramCorpus(int[] tokens, int ngram) {
+    if (ngram < 1) {
+      throw new LlamaException("ngram must be >= 1");
+    }
+    this.ngram = ngram;
+    this.tokens = tokens;
+    int windows = Math.max(0, this.tokens.length - ngram + 1);
+    int capacity = Integer.highestOneBit(Math.max(1, windows) * 2 - 1) << 1;
+    this.keys = new long[capacity];
+    this.heads = new int[capacity];
+    this.next = new int[windows];
+    Arrays.fill(heads, EMPTY);
+    // Backwards, so each head ends up on a window's first occurrence.
+    for (int s = windows - 1; s >= 0; s--) {
+      next[s] = put(hash(this.tokens, s), s);
+    }
+  }
+
+  /**
+   * Reads a corpus of little-endian 32-bit token ids — the layout of an {@code int32} array dumped
+   * from any tokenizer — from {@code file}. The ids are read once, into the array the corpus
+   * indexes.
+   */
+  public static NgramCorpus load(int ngram, Path file) {
+    try (var channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      long size = channel.size();
+      if (
+        size % Integer.BYTES != 0 ||
+        size / Integer.BYTES > Integer.MAX_VALUE
+      ) {
+        throw new LlamaException(
+          "Not a corpus of 32-bit token ids (" + size + " bytes): " + file
+        );
+      }
+      int[] tokens = new int[(int) (size / Integer.BYTES)];
+      channel
+        .map(FileChannel.MapMode.READ_ONLY, 0, size)
+        .order(ByteOrder.LITTLE_ENDIAN)
+        .asIntBuffer()
+        .get(tokens);
+      return new NgramCorpus(tokens, ngram);
+    } catch (IOException e) {
+      throw new LlamaException("Could not read n-gram corpus " + file, e);
+    }
+  }
+
+  public int ngram() {
+    return ngram;
+  }
+
+  /** Tokens in the corpus. */
+  public int size() {
+    return tokens.length;
+  }
+
+  /**
+   * Up to {@code maxBranches} continuations of {@code window[from, from + ngram)} found in this
+   * corpus, each up to {@code kMax} tokens, in corpus order. A continuation that is a prefix of an
+   * earlier one (or has one as its prefix) is skipped, as in {@link NgramIndex#proposeBranches}.
+   */
+  public int[][] proposeBranches(
+    int[] window,
+    int from,
+    int kMax,
+    int maxBranches
+  ) {
+    if (kMax < 1 || maxBranches < 1 || next.length == 0) {
+      return NO_BRANCHES;
+    }
+    int[][] branches = new int[maxBranches][];
+    int found = 0;
+    int scanned = 0;
+    for (
+      int s = head(hash(window, from));
+      s != EMPTY && found < maxBranches && scanned < MAX_SCAN;
+      s = next[s], scanned++
+    ) {
+      int start = s + ngram;
+      int k = Math.min(kMax, tokens.length - start);
+      if (
+        k > 0 &&
+        Arrays.equals(tokens, s, start, window, from, from + ngram) &&
+        !NgramIndex.overlapsEarlier(branches, found, tokens, start, k)
+      ) {
+        branches[found++] = Arrays.copyOfRange(tokens, start, start + k);
+      }
+    }
+    return found == maxBranches ? branches : Arrays.copyOf(branches, found);
+  }
+
+  private long hash(int[] source, int from) {
+    long h = 0;
+    for (int t = 0; t < ngram; t++) {
+      h = h * HASH_PRIME + source[from + t];
+    }
+    return h;
+  }
+
+  private static int slot(long hash, int mask) {
+    long mixed = hash * 0x9E3779B97F4A7C15L;
+    return (int) (mixed ^ (mixed >>> 32)) & mask;
+  }
+
+  /** First start position of a window hashing to {@code hash}, or EMPTY. */
+  private int head(long hash) {
+    int mask = heads.length - 1;
+    for (int s = slot(hash, mask); heads[s] != EMPTY; s = (s + 1) & mask) {
+      if (keys[s] == hash) {
+        return heads[s];
+      }
+    }
+    return EMPTY;
+  }
+
+  /** Makes {@code start} the first position of {@code hash}; returns the one it displaces. */
+  private int put(long hash, int start) {
+    int mask = heads.length - 1;
+    int s = slot(hash, mask);
+    for (; heads[s] != EMPTY; s = (s + 1) & mask) {
+      if (keys[s] == hash) {
+        int after = heads[s];
+        heads[s] = start;
+        return after;
+      }
+    }
+    keys[s] = hash;
+    heads[s] = start;
+    return EMPTY;
+  }
+}
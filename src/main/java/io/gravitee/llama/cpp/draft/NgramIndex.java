@@ -15,116 +15,453 @@
  */
 package io.gravitee.llama.cpp.draft;
 
+import io.gravitee.llama.cpp.LlamaException;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.HashMap;
-import java.util.Map;
+import java.util.List;
 
 /**
  * Committed-token history for n-gram (prompt-lookup) drafting, with an incrementally-maintained
  * position index so a proposal is ~O(1) amortized instead of an O(history) backward scan (the latter
  * makes a whole generation O(n²)).
  *
- * <p>The index maps a rolling hash of each {@code ngram}-token window to the start positions where it
- * occurs (most recent last). Appending a token indexes the one window it completes in O(ngram); a
- * proposal hashes the current window, takes the most recent earlier start with matching tokens
- * (collisions are resolved by an actual token comparison), and returns what followed it. The result
- * is identical to a straightforward backward scan (the {@code NgramLookupTest} oracle) — a wrong
- * proposal could only lower the accept rate, never change emitted tokens.
+ * <p>Every order from {@code ngram} down to 1 is indexed: per order, a primitive open-addressing
+ * table maps the hash of a window to the last position it ended at, and a flat per-position array
+ * chains each window to its previous occurrence — no boxed keys, no object per distinct window, a
+ * fixed number of ints per token. Appending a token indexes the windows it completes in
+ * O(ngram). A proposal walks the longest order with an earlier occurrence of the current window
+ * (collisions are resolved by an actual token comparison) and backs off to shorter windows only when
+ * there is none; a wrong proposal could only lower the accept rate, never change emitted tokens.
  *
- * <p>Single-threaded per conversation state, like the rest of the speculative scratch.
+ * <p>The continuation is voted, not just copied: it follows the most recent occurrence, but at each
+ * step the next token is the one most of the agreeing occurrences (up to {@code MAX_SCAN} of them)
+ * continued with, ties going to the most recent. On a history where a window was followed by the
+ * same thing five times and by something else once, lately, the five win.
+ *
+ * <p>Memory is capped at {@code maxHistory} tokens: reaching it drops the older half and re-indexes
+ * the rest, so an arbitrarily long transcript costs amortized O(1) per token and bounded memory,
+ * drafting from its most recent {@code maxHistory / 2} tokens at least.
+ *
+ * <p>Single-threaded per conversation state, like the rest of the speculative scratch. The optional
+ * second tier, a {@link SharedNgramIndex}, is the one part shared between conversations: it is
+ * consulted after the full-order window finds nothing locally, before backing off. Attached
+ * {@link NgramCorpus corpora} — retrieved documents, tool outputs — come just before it: read-only,
+ * and never part of the history.
  *
  * @author Rémi SULTAN (remi.sultan at graviteesource.com)
  * @author GraviteeSource Team
  */
 public final class NgramIndex {
 
+  /** Tokens kept by default before the older half is dropped: 4 MiB of history, plus the index. */
+  public static final int DEFAULT_MAX_HISTORY = 1 << 20;
+
   private static final int[] NO_DRAFT = new int[0];
+  private static final int[][] NO_BRANCHES = new int[0][];
   private static final long HASH_PRIME = 1099511628211L;
+  // Earlier occurrences of a window a proposal looks at (votes on, or turns into branches).
+  private static final int MAX_SCAN = 64;
+  private static final int EMPTY = -1;
+  private static final int INITIAL_TABLE = 64;
 
   private final int ngram;
+  private final int maxHistory;
   private int[] history;
   private int histLen;
-  private final Map<Long, Positions> index = new HashMap<>();
+  // Per order o (at index o - 1): open-addressing window hash -> last end position, or EMPTY...
+  private final long[][] keys;
+  private final int[][] heads;
+  private final int[] sizes;
+  // ...and, per end position, the previous end position of a window with the same hash.
+  private final int[][] previous;
+  // Continuation starts of the current window's earlier occurrences, most recent first.
+  private final int[] candidates = new int[MAX_SCAN];
+  private final boolean[] agreeing = new boolean[MAX_SCAN];
+  // Second tier: continuations other conversations of the same model published (nullable).
+  private final SharedNgramIndex shared;
+  // Fixed corpora drafted from besides the history, in the order they were attached.
+  private final List<NgramCorpus> corpora = new ArrayList<>();
 
   public NgramIndex(int ngram) {
+    this(ngram, null);
+  }
+
+  /**
+   * An index that also publishes every committed token to {@code shared}, and falls back to it
+   * when this history has no earlier occurrence of the current window.
+   */
+  public NgramIndex(int ngram, SharedNgramIndex shared) {
+    this(ngram, DEFAULT_MAX_HISTORY, shared);
+  }
+
+  /**
+   * @param maxHistory tokens held before the older half is dropped; at least {@code 2}
+   * @param shared     second tier, with the same window; or null
+   */
+  public NgramIndex(int ngram, int maxHistory, SharedNgramIndex shared) {
+    if (ngram < 1 || maxHistory < 2) {
+      throw new LlamaException("ngram must be >= 1 and maxHistory >= 2");
+    }
+    if (shared != null && shared.ngram() != ngram) {
+      throw new LlamaException(
+        "Shared n-gram index window (" +
+          shared.ngram() +
+          ") differs from this index's (" +
+          ngram +
+          ")"
+      );
+    }
     this.ngram = ngram;
-    this.history = new int[16];
+    this.maxHistory = maxHistory;
+    this.shared = shared;
+    this.history = new int[Math.min(16, maxHistory)];
+    this.keys = new long[ngram][INITIAL_TABLE];
+    this.heads = new int[ngram][INITIAL_TABLE];
+    this.sizes = new int[ngram];
+    this.previous = new int[ngram][history.length];
+    for (int[] table : heads) {
+      Arrays.fill(table, EMPTY);
+    }
   }
 
-  /** Resets to empty, reusing the buffer — for a re-initialized conversation. */
+  /**
+   * Also drafts from {@code corpus} when the history has no earlier occurrence of the current
+   * window. Its tokens are not appended to the history, and it stays attached across
+   * {@link #clear}.
+   */
+  public void addCorpus(NgramCorpus corpus) {
+    if (corpus.ngram() != ngram) {
+      throw new LlamaException(
+        "N-gram corpus window (" +
+          corpus.ngram() +
+          ") differs from this index's (" +
+          ngram +
+          ")"
+      );
+    }
+    corpora.add(corpus);
+  }
+
+  /** Detaches every corpus added with {@link #addCorpus}. */
+  public void clearCorpora() {
+    corpora.clear();
+  }
+
+  /**
+   * Resets to empty, reusing the buffers — for a re-initialized conversation. What was published to
+   * the shared tier stays there, and attached corpora stay attached.
+   */
   public void clear() {
     histLen = 0;
-    index.clear();
+    for (int o = 0; o < ngram; o++) {
+      Arrays.fill(heads[o], EMPTY);
+      sizes[o] = 0;
+    }
+  }
+
+  /** Tokens currently held: everything appended since the last clear, up to the memory cap. */
+  public int size() {
+    return histLen;
   }
 
-  /** Appends one committed token and indexes the {@code ngram} window it completes (if any). */
+  /** Appends one committed token and indexes the windows it completes, one per order. */
   public void append(int token) {
+    if (histLen == maxHistory) {
+      dropOlderHalf();
+    }
     if (histLen == history.length) {
-      history = Arrays.copyOf(history, history.length * 2);
+      int capacity = (int) Math.min(maxHistory, 2L * history.length);
+      history = Arrays.copyOf(history, capacity);
+      for (int o = 0; o < ngram; o++) {
+        previous[o] = Arrays.copyOf(previous[o], capacity);
+      }
     }
     int p = histLen;
     history[histLen++] = token;
-    if (p >= ngram - 1) {
-      int start = p - ngram + 1;
-      index.computeIfAbsent(hashAt(start), k -> new Positions()).add(start);
+    index(p);
+    // Publish the window whose continuation this token completes.
+    if (shared != null) {
+      int published = histLen - shared.continuationLength() - ngram;
+      if (published >= 0) {
+        shared.record(history, published);
+      }
     }
   }
 
   /**
-   * Proposes up to {@code kMax} tokens that followed the most recent earlier occurrence of the last
-   * {@code ngram} tokens; empty array if there is no earlier match.
+   * Proposes up to {@code kMax} tokens that followed earlier occurrences of the last {@code ngram}
+   * tokens, voted as described above. Without any, the first attached corpus's continuation, then
+   * the shared tier's most frequent one, then the same lookup for ever shorter windows; an empty
+   * array if nothing matches at all.
    */
   public int[] propose(int kMax) {
-    if (histLen < ngram + 1) {
-      return NO_DRAFT;
-    }
-    int patStart = histLen - ngram;
-    Positions ps = index.get(hashAt(patStart));
-    if (ps != null) {
-      for (int i = ps.size - 1; i >= 0; i--) {
-        int start = ps.data[i];
-        // Skip the current window itself and resolve any hash collision by comparing tokens.
-        if (start >= patStart || !matches(start, patStart)) {
+    int[][] best = proposeBranches(kMax, 1);
+    return best.length == 0 ? NO_DRAFT : best[0];
+  }
+
+  /**
+   * Up to {@code maxBranches} different continuations of the current window, each up to
+   * {@code kMax} tokens — the branches of a draft tree. The first is what {@link #propose}
+   * returns; the rest follow the window's earlier occurrences, most recent first. A continuation
+   * that is a prefix of an earlier one (or has one as its prefix) adds nothing a tree would not
+   * already hold, so it is skipped. Branches still missing after that come from the attached
+   * corpora, in corpus order, then from the shared tier, most frequent first; shorter windows are
+   * tried only when none of them found anything.
+   */
+  public int[][] proposeBranches(int kMax, int maxBranches) {
+    if (kMax < 1 || maxBranches < 1 || histLen == 0) {
+      return NO_BRANCHES;
+    }
+    int[][] branches = new int[maxBranches][];
+    int found = branchesAt(ngram, kMax, branches);
+    if (histLen >= ngram) {
+      for (int c = 0; c < corpora.size() && found < maxBranches; c++) {
+        found = merge(
+          corpora
+            .get(c)
+            .proposeBranches(history, histLen - ngram, kMax, maxBranches),
+          branches,
+          found
+        );
+      }
+      if (shared != null && found < maxBranches) {
+        found = merge(
+          shared.proposeBranches(history, histLen - ngram, kMax, maxBranches),
+          branches,
+          found
+        );
+      }
+    }
+    for (int order = ngram - 1; found == 0 && order >= 1; order--) {
+      found = branchesAt(order, kMax, branches);
+    }
+    return found == maxBranches ? branches : Arrays.copyOf(branches, found);
+  }
+
+  /** Appends the {@code extra} branches that overlap none already found; returns how many now. */
+  private static int merge(int[][] extra, int[][] branches, int found) {
+    for (int[] branch : extra) {
+      if (found == branches.length) {
+        break;
+      }
+      if (!overlapsEarlier(branches, found, branch, 0, branch.length)) {
+        branches[found++] = branch;
+      }
+    }
+    return found;
+  }
+
+  /** Fills {@code branches} from the order-{@code order} window's occurrences; returns how many. */
+  private int branchesAt(int order, int kMax, int[][] branches) {
+    int n = findCandidates(order);
+    if (n == 0) {
+      return 0;
+    }
+    int found = 0;
+    branches[found++] = votedContinuation(n, kMax);
+    for (int i = 0; i < n && found < branches.length; i++) {
+      int start = candidates[i];
+      int k = Math.min(kMax, histLen - start);
+      if (!overlapsEarlier(branches, found, history, start, k)) {
+        branches[found++] = Arrays.copyOfRange(history, start, start + k);
+      }
+    }
+    return found;
+  }
+
+  /**
+   * Fills {@link #candidates} with the continuation starts of up to {@code MAX_SCAN} earlier
+   * occurrences of the last {@code order} tokens, most recent first; returns how many.
+   */
+  private int findCandidates(int order) {
+    int end = histLen - 1;
+    if (end + 1 < order) {
+      return 0;
+    }
+    int t = order - 1;
+    int n = 0;
+    for (
+      int e = head(t, windowHash(end, order));
+      e != EMPTY && n < MAX_SCAN;
+      e = previous[t][e]
+    ) {
+      // Skip the current window itself and resolve any hash collision by comparing tokens.
+      if (e < end && matches(e, end, order)) {
+        candidates[n++] = e + 1;
+      }
+    }
+    return n;
+  }
+
+  /**
+   * Walks the first {@code n} candidates' continuations together: each step takes the token most of
+   * the still-agreeing candidates continue with (the most recent's on a tie) and drops those that
+   * disagree. Stops at {@code kMax} tokens or where the most recent agreeing candidate runs out of
+   * history, so a single occurrence proposes exactly what followed it.
+   */
+  private int[] votedContinuation(int n, int kMax) {
+    Arrays.fill(agreeing, 0, n, true);
+    int[] out = new int[kMax];
+    int k = 0;
+    int anchor = 0; // the most recent agreeing candidate
+    while (k < kMax && candidates[anchor] + k < histLen) {
+      int best = history[candidates[anchor] + k];
+      int bestVotes = 0;
+      for (int i = anchor; i < n; i++) {
+        if (!agreeing[i] || candidates[i] + k >= histLen) {
           continue;
         }
-        int contStart = start + ngram;
-        int k = Math.min(kMax, histLen - contStart);
-        int[] out = new int[k];
-        System.arraycopy(history, contStart, out, 0, k);
-        return out;
+        int token = history[candidates[i] + k];
+        int votes = 0;
+        for (int j = anchor; j < n; j++) {
+          if (
+            agreeing[j] &&
+            candidates[j] + k < histLen &&
+            history[candidates[j] + k] == token
+          ) {
+            votes++;
+          }
+        }
+        if (votes > bestVotes) {
+          best = token;
+          bestVotes = votes;
+        }
+      }
+      out[k] = best;
+      anchor = -1;
+      for (int i = 0; i < n; i++) {
+        agreeing[i] =
+          agreeing[i] &&
+          candidates[i] + k < histLen &&
+          history[candidates[i] + k] == best;
+        if (agreeing[i] && anchor < 0) {
+          anchor = i;
+        }
       }
+      k++;
     }
-    return NO_DRAFT;
+    return k == kMax ? out : Arrays.copyOf(out, k);
   }
 
-  private long hashAt(int start) {
+  /** Indexes the window of every order that ends at {@code end}. */
+  private void index(int end) {
     long h = 0;
-    for (int t = 0; t < ngram; t++) {
-      h = h * HASH_PRIME + history[start + t];
+    for (int o = 1; o <= ngram && o <= end + 1; o++) {
+      h = h * HASH_PRIME + history[end - o + 1];
+      previous[o - 1][end] = put(o - 1, h, end);
+    }
+  }
+
+  /** Keeps the newer half of the history and rebuilds the index over it. */
+  private void dropOlderHalf() {
+    int keep = maxHistory / 2;
+    System.arraycopy(history, histLen - keep, history, 0, keep);
+    clear();
+    histLen = keep;
+    for (int p = 0; p < keep; p++) {
+      index(p);
+    }
+  }
+
+  /**
+   * Hash of the {@code order} tokens ending at {@code end}, built from the last token backwards so
+   * one pass yields every order's hash in turn (see {@link #index}).
+   */
+  private long windowHash(int end, int order) {
+    long h = 0;
+    for (int o = 1; o <= order; o++) {
+      h = h * HASH_PRIME + history[end - o + 1];
     }
     return h;
   }
 
-  private boolean matches(int a, int b) {
-    for (int t = 0; t < ngram; t++) {
-      if (history[a + t] != history[b + t]) {
-        return false;
+  private static int slot(long hash, int mask) {
+    long mixed = hash * 0x9E3779B97F4A7C15L;
+    return (int) (mixed ^ (mixed >>> 32)) & mask;
+  }
+
+  /** Last end position of a window hashing to {@code hash} in order table {@code t}, or EMPTY. */
+  private int head(int t, long hash) {
+    long[] k = keys[t];
+    int[] h = heads[t];
+    int mask = h.length - 1;
+    for (int s = slot(hash, mask); h[s] != EMPTY; s = (s + 1) & mask) {
+      if (k[s] == hash) {
+        return h[s];
       }
     }
-    return true;
+    return EMPTY;
+  }
+
+  /** Makes {@code end} the last position of {@code hash} in table {@code t}; returns the previous. */
+  private int put(int t, long hash, int end) {
+    long[] k = keys[t];
+    int[] h = heads[t];
+    int mask = h.length - 1;
+    int s = slot(hash, mask);
+    for (; h[s] != EMPTY; s = (s + 1) & mask) {
+      if (k[s] == hash) {
+        int before = h[s];
+        h[s] = end;
+        return before;
+      }
+    }
+    k[s] = hash;
+    h[s] = end;
+    if (++sizes[t] * 2 > h.length) {
+      grow(t);
+    }
+    return EMPTY;
   }
 
-  /** Minimal growable int list (amortized O(1) append, no boxing). */
-  private static final class Positions {
+  /** Doubles table {@code t}, keeping it at most half full. */
+  private void grow(int t) {
+    long[] oldKeys = keys[t];
+    int[] oldHeads = heads[t];
+    long[] k = new long[oldKeys.length * 2];
+    int[] h = new int[k.length];
+    Arrays.fill(h, EMPTY);
+    int mask = h.length - 1;
+    for (int i = 0; i < oldHeads.length; i++) {
+      if (oldHeads[i] != EMPTY) {
+        int s = slot(oldKeys[i], mask);
+        while (h[s] != EMPTY) {
+          s = (s + 1) & mask;
+        }
+        k[s] = oldKeys[i];
+        h[s] = oldHeads[i];
+      }
+    }
+    keys[t] = k;
+    heads[t] = h;
+  }
 
-    private int[] data = new int[4];
-    private int size = 0;
+  private boolean matches(int a, int b, int order) {
+    for (int t = 0; t < order; t++) {
+      if (history[a - t] != history[b - t]) {
+        return false;
+      }
+    }
+    return true;
+  }
 
-    void add(int p) {
-      if (size == data.length) {
-        data = Arrays.copyOf(data, data.length * 2);
+  /** Whether {@code tokens[from, from + k)} is a prefix of an earlier branch, or the reverse. */
+  static boolean overlapsEarlier(
+    int[][] branches,
+    int n,
+    int[] tokens,
+    int from,
+    int k
+  ) {
+    for (int b = 0; b < n; b++) {
+      int[] branch = branches[b];
+      int common = Math.min(k, branch.length);
+      if (
+        Arrays.mismatch(tokens, from, from + common, branch, 0, common) < 0
+      ) {
+        return true;
       }
-      data[size++] = p;
     }
+    return false;
   }
 }
@@ -0,0 +1,270 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.llama.cpp.draft;
+
+import io.gravitee.llama.cpp.LlamaException;
+import io.gravitee.llama.cpp.LlamaModel;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * N-gram continuations pooled across conversations: every conversation drafting with it publishes
+ * its committed tokens here, and an {@link NgramIndex} with no match of its own falls back to what
+ * other conversations of the same model produced after the same window — templates, boilerplate,
+ * code that many users ask for. The target still verifies every proposed token, so sharing changes
+ * acceptance rates, never output.
+ *
+ * <p>Each {@code ngram}-token window keeps up to {@link #MAX_CONTINUATIONS} continuations of
+ * {@code continuationLength} tokens with a frequency count, and proposes the most frequent. A new
+ * continuation arriving at a full window replaces the least frequent one and inherits its count
+ * plus one (space-saving counting), so a continuation that keeps coming back displaces a stale one
+ * without every one-off evicting the rest.
+ *
+ * <p>Memory is bounded by {@code capacity} windows, split over {@link #SEGMENTS} independently
+ * locked segments, each evicting its least recently used window. Threads publishing or proposing
+ * windows in different segments never contend, and one in the same segment holds its lock only for
+ * a hash lookup and a short array compare.
+ *
+ * @author GraviteeSource Team
+ */
+public final class SharedNgramIndex {
+
+  /** Windows kept by {@link #of}'s indexes. */
+  public static final int DEFAULT_CAPACITY = 1 << 16;
+  /** Tokens recorded after each window by {@link #of}'s indexes. */
+  public static final int DEFAULT_CONTINUATION_LENGTH = 8;
+  /** Continuations tracked per window. */
+  public static final int MAX_CONTINUATIONS = 4;
+  /** Independently locked LRU segments; a power of two. */
+  public static final int SEGMENTS = 16;
+
+  private static final int[] NO_DRAFT = new int[0];
+  private static final int[][] NO_BRANCHES = new int[0][];
+  private static final long HASH_PRIME = 1099511628211L;
+
+  private static final Map<
+    LlamaModel,
+    Map<Integer, SharedNgramIndex>
+  > BY_MODEL = Collections.synchronizedMap(new WeakHashMap<>());
+
+  private final int ngram;
+  private final int continuationLength;
+  private final Segment[] segments = new Segment[SEGMENTS];
+
+  public SharedNgramIndex(int ngram, int capacity, int continuationLength) {
+    if (ngram < 1 || capacity < 1 || continuationLength < 1) {
+      throw new LlamaException(
+        "ngram, capacity and continuationLength must be >= 1"
+      );
+    }
+    this.ngram = ngram;
+    this.continuationLength = continuationLength;
+    int perSegment = Math.max(1, capacity / SEGMENTS);
+    for (int i = 0; i < SEGMENTS; i++) {
+      segments[i] = new Segment(perSegment);
+    }
+  }
+
+  /**
+   * The index every conversation of {@code model} drafting with an {@code ngram}-token window
+   * shares, created with the default capacity on first use. Held only as long as the model is.
+   */
+  public static SharedNgramIndex of(LlamaModel model, int ngram) {
+    Map<Integer, SharedNgramIndex> byNgram;
+    synchronized (BY_MODEL) {
+      byNgram = BY_MODEL.computeIfAbsent(model, m -> new ConcurrentHashMap<>());
+    }
+    return byNgram.computeIfAbsent(ngram, n ->
+      new SharedNgramIndex(n, DEFAULT_CAPACITY, DEFAULT_CONTINUATION_LENGTH)
+    );
+  }
+
+  public int ngram() {
+    return ngram;
+  }
+
+  public int continuationLength() {
+    return continuationLength;
+  }
+
+  /** Windows currently held, across all segments. */
+  public int size() {
+    int size = 0;
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        size += segment.size();
+      }
+    }
+    return size;
+  }
+
+  /** Forgets every window. */
+  public void clear() {
+    for (Segment segment : segments) {
+      synchronized (segment) {
+        segment.clear();
+      }
+    }
+  }
+
+  /**
+   * Records that the window {@code tokens[from, from + ngram)} was followed by the
+   * {@code continuationLength} tokens after it, which must be present.
+   */
+  public void record(int[] tokens, int from) {
+    long hash = hash(tokens, from);
+    Segment segment = segmentFor(hash);
+    int contFrom = from + ngram;
+    synchronized (segment) {
+      Window window = segment.get(hash);
+      if (window == null || !window.matches(tokens, from)) {
+        // New window, or a hash collision: the newer window takes the slot.
+        window = new Window(Arrays.copyOfRange(tokens, from, contFrom));
+        segment.put(hash, window);
+      }
+      window.count(tokens, contFrom, continuationLength);
+    }
+  }
+
+  /**
+   * Up to {@code kMax} tokens of the most frequent continuation of {@code tokens[from, from +
+   * ngram)}; empty if no conversation has published one.
+   */
+  public int[] propose(int[] tokens, int from, int kMax) {
+    int[][] best = proposeBranches(tokens, from, kMax, 1);
+    return best.length == 0 ? NO_DRAFT : best[0];
+  }
+
+  /**
+   * Up to {@code maxBranches} continuations of {@code tokens[from, from + ngram)}, most frequent
+   * first, each cut to {@code kMax} tokens; continuations that become equal once cut are returned
+   * once.
+   */
+  public int[][] proposeBranches(
+    int[] tokens,
+    int from,
+    int kMax,
+    int maxBranches
+  ) {
+    if (kMax < 1 || maxBranches < 1) {
+      return NO_BRANCHES;
+    }
+    long hash = hash(tokens, from);
+    Segment segment = segmentFor(hash);
+    synchronized (segment) {
+      Window window = segment.get(hash);
+      if (window == null || !window.matches(tokens, from)) {
+        return NO_BRANCHES;
+      }
+      return window.branches(Math.min(kMax, continuationLength), maxBranches);
+    }
+  }
+
+  private long hash(int[] tokens, int from) {
+    long h = 0;
+    for (int t = 0; t < ngram; t++) {
+      h = h * HASH_PRIME + tokens[from + t];
+    }
+    return h;
+  }
+
+  private Segment segmentFor(long hash) {
+    // Fibonacci hashing: the top bits of the product mix every bit of the window hash.
+    int bits = Integer.numberOfTrailingZeros(SEGMENTS);
+    return segments[(int) ((hash * 0x9E3779B97F4A7C15L) >>> (64 - bits))];
+  }
+
+  /** One segment's windows, least recently used first. Guarded by its own monitor. */
+  private static final class Segment extends LinkedHashMap<Long, Window> {
+
+    private final int capacity;
+
+    Segment(int capacity) {
+      super(16, 0.75f, true);
+      this.capacity = capacity;
+    }
+
+    @Override
+    protected boolean removeEldestEntry(Map.Entry<Long, Window> eldest) {
+      return size() > capacity;
+    }
+  }
+
+  /** A window's tokens and its tracked continuations. Guarded by its segment's monitor. */
+  private static final class Window {
+
+    private final int[] tokens;
+    private final int[][] continuations = new int[MAX_CONTINUATIONS][];
+    private final int[] counts = new int[MAX_CONTINUATIONS];
+    private int size;
+
+    Window(int[] tokens) {
+      this.tokens = tokens;
+    }
+
+    boolean matches(int[] other, int from) {
+      int to = from + tokens.length;
+      return Arrays.equals(tokens, 0, tokens.length, other, from, to);
+    }
+
+    void count(int[] other, int from, int length) {
+      int to = from + length;
+      int least = 0;
+      for (int i = 0; i < size; i++) {
+        if (Arrays.equals(continuations[i], 0, length, other, from, to)) {
+          counts[i]++;
+          return;
+        }
+        if (counts[i] < counts[least]) {
+          least = i;
+        }
+      }
+      int[] continuation = Arrays.copyOfRange(other, from, to);
+      if (size < MAX_CONTINUATIONS) {
+        continuations[size] = continuation;
+        counts[size++] = 1;
+      } else {
+        continuations[least] = continuation;
+        counts[least]++;
+      }
+    }
+
+    int[][] branches(int length, int max) {
+      Integer[] order = new Integer[size];
+      for (int i = 0; i < size; i++) {
+        order[i] = i;
+      }
+      Arrays.sort(order, (a, b) -> Integer.compare(counts[b], counts[a]));
+      int[][] out = new int[Math.min(max, size)][];
+      int found = 0;
+      for (int i = 0; i < size && found < out.length; i++) {
+        int[] candidate = Arrays.copyOf(continuations[order[i]], length);
+        boolean seen = false;
+        for (int j = 0; j < found && !seen; j++) {
+          seen = Arrays.equals(out[j], candidate);
+        }
+        if (!seen) {
+          out[found++] = candidate;
+        }
+      }
+      return found == out.length ? out : Arrays.copyOf(out, found);
+    }
+  }
+}
@@ -0,0 +1,38 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.llama.cpp.logits;
+
+/**
+ * Decides once per JVM which {@link LogitsKernels} to use.
+ *
+ * <p>Kept apart from the interface so the choice stays package-private, and so the ternary below
+ * is the only reference to {@link VectorLogitsKernels}: the class, and with it every
+ * {@code jdk.incubator.vector} type, is only resolved when the module is actually there.
+ *
+ * @author GraviteeSource Team
+ */
+final class KernelSelection {
+
+  static final boolean VECTOR = ModuleLayer.boot()
+    .findModule("jdk.incubator.vector")
+    .isPresent();
+
+  static final LogitsKernels BEST = VECTOR
+    ? VectorLogitsKernels.INSTANCE
+    : ScalarLogitsKernels.INSTANCE;
+
+  private KernelSelection() {}
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.llama.cpp.logits;
+
+import java.lang.foreign.MemorySegment;
+
+/**
+ * Reductions over a logits row, read in place from the native {@code float[nVocab]} that
+ * {@code llama_get_logits_ith} points at — never copied onto the heap. Every {@code row} argument
+ * is a native segment.
+ *
+ * <p>Two implementations: a {@code jdk.incubator.vector} one, used when the JVM was started with
+ * {@code --add-modules jdk.incubator.vector}, and a scalar one otherwise. {@link #get()} picks once
+ * per JVM. The vector kernel never loads without the module, so the library still runs unchanged
+ * on a JVM that did not add it — only slower.
+ *
+ * @author GraviteeSource Team
+ */
+public sealed interface LogitsKernels
+  permits ScalarLogitsKernels, VectorLogitsKernels {
+  /** The fastest implementation this JVM supports. */
+  static LogitsKernels get() {
+    return KernelSelection.BEST;
+  }
+
+  /** The scalar implementation: exact {@link Math#exp}, always available. */
+  static LogitsKernels scalar() {
+    return ScalarLogitsKernels.INSTANCE;
+  }
+
+  /** Whether the {@code jdk.incubator.vector} module is resolved in this JVM. */
+  static boolean vectorAvailable() {
+    return KernelSelection.VECTOR;
+  }
+
+  /** Largest of the first {@code n} logits of {@code row}. */
+  float max(MemorySegment row, int n);
+
+  /**
+   * Sum of the squares of the first {@code n} floats of {@code row} — with {@link #divide}, an L2
+   * normalization, which is what pooled embedding rows use it for.
+   */
+  float sumOfSquares(MemorySegment row, int n);
+
+  /**
+   * Summarizes the first {@code n} logits of {@code row}: returns the log-partition
+   * {@code logZ = log(sum(exp(logit)))} and fills the {@code min(topN, n)} highest logits,
+   * descending, into {@code topIds}/{@code topLogits}.
+   *
+   * <p>{@code logprob(i) = logit(i) - logZ} for any {@code i}, so this is everything a logprobs
+   * response needs. Ties keep the lower token id first.
+   */
+  double summarize(
+    MemorySegment row,
+    int n,
+    int topN,
+    int[] topIds,
+    float[] topLogits
+  );
+
+  /** Index of the first largest of the first {@code n} logits of {@code row}. */
+  int argmax(MemorySegment row, int n);
+
+  /**
+   * Writes {@code src[i] / divisor} to {@code dst[i]} for the first {@code n} entries; {@code dst}
+   * may be {@code src}. A true division, not a multiply by the reciprocal, so the results are the
+   * ones llama.cpp's temperature sampler computes.
+   */
+  void divide(MemorySegment src, int n, float divisor, MemorySegment dst);
+
+  /** Writes {@code value} to {@code row[from]} through {@code row[to - 1]}. */
+  void fill(MemorySegment row, int from, int to, float value);
+
+  /**
+   * Sets to {@code -inf} every one of the first {@code n} logits whose bit in {@code allowed} is
+   * clear — bit {@code i % 64} of {@code allowed[i / 64]} for logit {@code i}. Whole words of ones
+   * or zeros cost one test and nothing or one fill.
+   */
+  void mask(MemorySegment row, int n, long[] allowed);
+
+  /**
+   * Partial selection: fills the {@code min(k, n)} highest of the first {@code n} logits of
+   * {@code row} into {@code ids}/{@code values}, descending, ties lower index first, and returns
+   * how many were filled. Costs {@code O(n + k log k)} rather than a sort of the whole row.
+   */
+  int topK(MemorySegment row, int n, int k, int[] ids, float[] values);
+
+  /**
+   * Fills every index whose logit is {@code >= threshold} into {@code ids}/{@code values}, in index
+   * order, and returns how many there are.
+   */
+  int collectAtLeast(
+    MemorySegment row,
+    int n,
+    float threshold,
+    int[] ids,
+    float[] values
+  );
+}
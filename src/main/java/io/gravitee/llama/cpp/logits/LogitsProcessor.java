@@ -0,0 +1,72 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.llama.cpp.logits;
+
+import java.lang.foreign.MemorySegment;
+
+/**
+ * Rewrites a logits row in place, after the decode that produced it and before the sampler reads
+ * it — the Java-side counterpart of a native logit-bias or grammar sampler, for constraints cheap
+ * enough not to need one.
+ *
+ * <p>Attached per conversation with
+ * {@link io.gravitee.llama.cpp.ConversationState#addLogitsProcessor}; the iterators run a state's
+ * processors in the order they were added, on that state's own row of the fused batch, right after
+ * the EOG ramp. Both the native and the Java sampler chain read the rewritten row, and so do
+ * logprobs: they describe the distribution the token was actually drawn from.
+ *
+ * <p>{@link LogitsProcessors} has the common ones — sparse biases, banned tokens, an allowed-token
+ * whitelist, forced tokens — and {@link io.gravitee.llama.cpp.structured.TokenFsm#processor()}
+ * constrains the output to a regex or JSON schema. An implementation is called once per sampled
+ * token, so it should not allocate; one that keeps no per-call state may be shared between
+ * conversations, including under
+ * {@link io.gravitee.llama.cpp.BatchIterator#setSamplingExecutor parallel sampling}. One that does
+ * keep state follows the output through {@link #accept} and belongs to one conversation.
+ *
+ * @author GraviteeSource Team
+ */
+@FunctionalInterface
+public interface LogitsProcessor {
+  /**
+   * Rewrites {@code row} in place.
+   *
+   * @param row    the native {@code float[nVocab]} logits row this step samples from
+   * @param nVocab the number of logits in {@code row}
+   * @param step   how many tokens this generation has sampled before this one: {@code 0} for the
+   *               token sampled right after the prompt
+   */
+  void process(MemorySegment row, int nVocab, int step);
+
+  /**
+   * Called with the token sampled from the row this processor just rewrote, for processors that
+   * track the output — an automaton following its state, for instance. Does nothing by default.
+   */
+  default void accept(int tokenId) {}
+
+  /**
+   * The tokens this processor already dictates after the last {@link #accept accepted} one, in
+   * order — empty when the next token is still a choice. The iterators commit them without sampling
+   * and decode them in one batch (jump-forward decoding), calling {@link #accept} for each, on every
+   * processor of the state, as if it had been sampled. Empty by default; callers must not modify the
+   * returned array.
+   */
+  default int[] forcedTokens() {
+    return LogitsProcessors.NO_TOKENS;
+  }
+
+  /** Called when the conversation is re-initialized for a new generation. Does nothing by default. */
+  default void reset() {}
+}
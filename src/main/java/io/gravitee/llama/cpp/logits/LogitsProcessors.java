@@ -0,0 +1,168 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.llama.cpp.logits;
+
+import static java.lang.foreign.ValueLayout.JAVA_FLOAT;
+
+import io.gravitee.llama.cpp.LlamaException;
+import java.lang.foreign.MemorySegment;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Built-in {@link LogitsProcessor}s. Token sets are sorted and deduplicated once, at construction,
+ * so a call touches only the row; none keeps per-call state, so each may be shared.
+ *
+ * <p>The sparse ones ({@link #bias}, {@link #ban}) are a scatter over a handful of ids. The masking
+ * ones ({@link #allowOnly}, {@link #force}) overwrite nearly the whole row with {@code -inf}, which
+ * they do as {@link LogitsKernels#fill} runs over the gaps between the kept ids.
+ *
+ * @author GraviteeSource Team
+ */
+public final class LogitsProcessors {
+
+  static final int[] NO_TOKENS = {};
+
+  private LogitsProcessors() {}
+
+  /**
+   * Adds {@code bias.get(id)} to the logit of every token id in {@code bias} — OpenAI's
+   * {@code logit_bias}. {@code Float.NEGATIVE_INFINITY} bans the token outright.
+   */
+  public static LogitsProcessor bias(Map<Integer, Float> bias) {
+    int[] ids = bias
+      .keySet()
+      .stream()
+      .mapToInt(Integer::intValue)
+      .sorted()
+      .toArray();
+    float[] values = new float[ids.length];
+    for (int i = 0; i < ids.length; i++) {
+      values[i] = bias.get(ids[i]);
+    }
+    checkIds(ids);
+    return new Bias(ids, values);
+  }
+
+  /** Sets the logit of each of {@code tokenIds} to {@code -inf}, so none of them can be sampled. */
+  public static LogitsProcessor ban(int... tokenIds) {
+    return new Ban(tokenSet(tokenIds));
+  }
+
+  /**
+   * Sets every logit except those of {@code tokenIds} to {@code -inf}, so only they can be sampled.
+   * Their own logits are left as they are.
+   */
+  public static LogitsProcessor allowOnly(int... tokenIds) {
+    int[] allowed = tokenSet(tokenIds);
+    if (allowed.length == 0) {
+      throw new LlamaException("allowOnly needs at least one token id");
+    }
+    return new AllowOnly(allowed);
+  }
+
+  /**
+   * Forces {@code tokenIds[step]} at each step the array covers: every other logit becomes
+   * {@code -inf}. A negative entry leaves that step free, and steps past the end are untouched —
+   * so {@code force(a, b)} forces the first two tokens of the answer and then lets the model go.
+   */
+  public static LogitsProcessor force(int... tokenIds) {
+    return new Force(tokenIds.clone());
+  }
+
+  private static int[] tokenSet(int[] tokenIds) {
+    int[] ids = Arrays.stream(tokenIds).sorted().distinct().toArray();
+    checkIds(ids);
+    return ids;
+  }
+
+  private static void checkIds(int[] sorted) {
+    if (sorted.length > 0 && sorted[0] < 0) {
+      throw new LlamaException("Invalid token id " + sorted[0]);
+    }
+  }
+
+  /** Ids are sorted, so one comparison bounds them all. */
+  private static void checkRange(int[] sorted, int nVocab) {
+    if (sorted.length > 0 && sorted[sorted.length - 1] >= nVocab) {
+      throw new LlamaException(
+        "Token id " +
+          sorted[sorted.length - 1] +
+          " is outside the vocabulary (" +
+          nVocab +
+          " tokens)"
+      );
+    }
+  }
+
+  /** Fills every index of {@code [0, nVocab)} except {@code keep} (sorted) with {@code -inf}. */
+  private static void maskAllBut(MemorySegment row, int nVocab, int[] keep) {
+    var kernels = LogitsKernels.get();
+    int from = 0;
+    for (int id : keep) {
+      kernels.fill(row, from, id, Float.NEGATIVE_INFINITY);
+      from = id + 1;
+    }
+    kernels.fill(row, from, nVocab, Float.NEGATIVE_INFINITY);
+  }
+
+  private record Bias(int[] ids, float[] values) implements LogitsProcessor {
+    @Override
+    public void process(MemorySegment row, int nVocab, int step) {
+      checkRange(ids, nVocab);
+      for (int i = 0; i < ids.length; i++) {
+        int id = ids[i];
+        row.setAtIndex(JAVA_FLOAT, id, row.getAtIndex(JAVA_FLOAT, id) + values[i]);
+      }
+    }
+  }
+
+  private record Ban(int[] ids) implements LogitsProcessor {
+    @Override
+    public void process(MemorySegment row, int nVocab, int step) {
+      checkRange(ids, nVocab);
+      for (int id : ids) {
+        row.setAtIndex(JAVA_FLOAT, id, Float.NEGATIVE_INFINITY);
+      }
+    }
+  }
+
+  private record AllowOnly(int[] ids) implements LogitsProcessor {
+    @Override
+    public void process(MemorySegment row, int nVocab, int step) {
+      checkRange(ids, nVocab);
+      maskAllBut(row, nVocab, ids);
+    }
+  }
+
+  private record Force(int[] ids) implements LogitsProcessor {
+    @Override
+    public void process(MemorySegment row, int nVocab, int step) {
+      if (step < 0 || step >= ids.length || ids[step] < 0) {
+        return;
+      }
+      int id = ids[step];
+      if (id >= nVocab) {
+        throw new LlamaException(
+          "Token id " + id + " is outside the vocabulary (" + nVocab + " tokens)"
+        );
+      }
+      var kernels = LogitsKernels.get();
+      kernels.fill(row, 0, id, Float.NEGATIVE_INFINITY);
+      kernels.fill(row, id + 1, nVocab, Float.NEGATIVE_INFINITY);
+    }
+  }
+}
@@ -0,0 +1,564 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.llama.cpp.logits;
+
+import static io.gravitee.llama.cpp.logits.ScalarLogitsKernels.heapPush;
+import static io.gravitee.llama.cpp.logits.ScalarLogitsKernels.heapReplaceTop;
+import static io.gravitee.llama.cpp.logits.ScalarLogitsKernels.sortDescending;
+import static io.gravitee.llama.cpp.logits.ScalarLogitsKernels.sortHeap;
+import static java.lang.foreign.ValueLayout.JAVA_FLOAT;
+
+import io.gravitee.llama.cpp.LlamaException;
+import java.lang.foreign.MemorySegment;
+import java.lang.foreign.SegmentAllocator;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * A sampler chain that runs in Java, over the logits row in place, instead of through
+ * {@code llama_sampler_sample}.
+ *
+ * <p>Built like {@link io.gravitee.llama.cpp.LlamaSampler} — one call per stage, applied in call
+ * order — and for the stages it has it picks the same token as the native chain for the same
+ * seed: each stage reproduces llama.cpp's arithmetic ({@code expf}, float cumulative sums, true
+ * division by the temperature) and the dist stage draws from the same {@code std::mt19937}.
+ * Ties between exactly equal logits are the one place the two may order candidates differently.
+ * Grammar and mirostat stay native-only.
+ *
+ * <p>Where the native chain first copies the whole vocabulary into a {@code llama_token_data}
+ * array, this one starts from the row itself. Stages that rewrite every logit (temperature,
+ * penalties) write into one reusable off-heap buffer; the first truncating stage (top-k, top-p,
+ * min-p) narrows the set with a {@link LogitsKernels} selection — a partial top-k, not a sort —
+ * and later stages only touch the survivors. The caller's row is never modified, so logprobs read
+ * after sampling still see the model's own distribution.
+ *
+ * <p>Not thread-safe: like the native chain, one instance belongs to one conversation.
+ *
+ * @author GraviteeSource Team
+ */
+public final class LogitsSampler {
+
+  private final int nVocab;
+  private final LogitsKernels kernels;
+  private final List<Stage> stages = new ArrayList<>();
+
+  // The candidate set. While dense it is every token: ids are implicit and the logits live in
+  // `source` — the caller's row until a stage rewrites them, then `dense`. Once a stage truncates
+  // it (source == null), it is the first `size` entries of ids/values.
+  private final MemorySegment dense;
+  private final int[] ids;
+  private final float[] values;
+  private float[] probs;
+  // Sort keys for a sparse candidate set; allocated on the first such sort, then reused.
+  private long[] sortKeys;
+  private MemorySegment source;
+  private int size;
+  private boolean sorted;
+  private int selected;
+
+  public LogitsSampler(SegmentAllocator allocator, int nVocab) {
+    this(allocator, nVocab, LogitsKernels.get());
+  }
+
+  public LogitsSampler(
+    SegmentAllocator allocator,
+    int nVocab,
+    LogitsKernels kernels
+  ) {
+    this.nVocab = nVocab;
+    this.kernels = kernels;
+    this.dense = allocator.allocate(JAVA_FLOAT, nVocab);
+    this.ids = new int[nVocab];
+    this.values = new float[nVocab];
+  }
+
+  public int nVocab() {
+    return nVocab;
+  }
+
+  public LogitsSampler greedy() {
+    stages.add(new Greedy());
+    return this;
+  }
+
+  public LogitsSampler temperature(float temperature) {
+    stages.add(new Temperature(temperature));
+    return this;
+  }
+
+  public LogitsSampler topK(int topK) {
+    stages.add(new TopK(topK));
+    return this;
+  }
+
+  public LogitsSampler topP(float topP, int minKeep) {
+    stages.add(new TopP(topP, minKeep));
+    return this;
+  }
+
+  public LogitsSampler minP(float minP, int minKeep) {
+    stages.add(new MinP(minP, minKeep));
+    return this;
+  }
+
+  public LogitsSampler penalties(
+    int penaltyLastN,
+    float penaltyRepeat,
+    float penaltyFreq,
+    float penaltyPresent
+  ) {
+    stages.add(
+      new Penalties(
+        nVocab,
+        penaltyLastN,
+        penaltyRepeat,
+        penaltyFreq,
+        penaltyPresent
+      )
+    );
+    return this;
+  }
+
+  /** The dist stage; {@code -1} ({@code LLAMA_DEFAULT_SEED}) seeds it randomly. */
+  public LogitsSampler seed(int seed) {
+    stages.add(new Dist(seed));
+    return this;
+  }
+
+  /**
+   * Runs the chain over {@code row} — {@code nVocab} native floats, e.g. from
+   * {@code LlamaIterator#logitsRow} — and returns the selected token, which is then accepted (as
+   * {@code llama_sampler_sample} does).
+   */
+  public int sample(MemorySegment row) {
+    source = row;
+    size = nVocab;
+    sorted = false;
+    selected = -1;
+    for (Stage stage : stages) {
+      switch (stage) {
+        case Greedy g -> greedy(g);
+        case Temperature t -> temperature(t);
+        case TopK k -> topK(k);
+        case TopP p -> topP(p);
+        case MinP m -> minP(m);
+        case Penalties p -> penalties(p);
+        case Dist d -> dist(d);
+      }
+    }
+    if (selected < 0 || selected >= size) {
+      throw new LlamaException(
+        "No stage of the sampler chain selected a token; end it with greedy() or seed()"
+      );
+    }
+    int token = source != null ? selected : ids[selected];
+    accept(token);
+    return token;
+  }
+
+  /**
+   * Records {@code token} in the stateful stages (the penalty window), as
+   * {@code llama_sampler_accept} does.
+   */
+  public void accept(int token) {
+    for (Stage stage : stages) {
+      if (stage instanceof Penalties p) {
+        p.accept(token);
+      }
+    }
+  }
+
+  /** Clears the penalty history and re-seeds the dist stage, as {@code llama_sampler_reset}. */
+  public void reset() {
+    for (Stage stage : stages) {
+      switch (stage) {
+        case Penalties p -> p.reset();
+        case Dist d -> d.rng.seed(d.seed);
+        default -> {}
+      }
+    }
+  }
+
+  private float logit(int i) {
+    return source != null ? source.getAtIndex(JAVA_FLOAT, i) : values[i];
+  }
+
+  private float max() {
+    if (source != null) {
+      return kernels.max(source, size);
+    }
+    float max = values[0];
+    for (int i = 1; i < size; i++) {
+      max = Math.max(max, values[i]);
+    }
+    return max;
+  }
+
+  /** Sorts the whole candidate set, leaving it sparse. */
+  private void sortAll() {
+    if (source != null) {
+      size = kernels.topK(source, size, size, ids, values);
+      source = null;
+    } else {
+      if (sortKeys == null) {
+        sortKeys = new long[nVocab];
+      }
+      sortDescending(ids, values, size, sortKeys);
+    }
+    sorted = true;
+  }
+
+  // llama_sampler_greedy_apply: the first of the largest logits.
+  private void greedy(Greedy stage) {
+    if (source != null) {
+      selected = kernels.argmax(source, size);
+      return;
+    }
+    selected = 0;
+    for (int i = 1; i < size; i++) {
+      if (values[i] > values[selected]) {
+        selected = i;
+      }
+    }
+  }
+
+  // llama_sampler_temp_impl: divide, or keep only the max (at -inf elsewhere) for t <= 0.
+  private void temperature(Temperature stage) {
+    float t = stage.value();
+    if (t <= 0f) {
+      if (source != null) {
+        int max = kernels.argmax(source, size);
+        float value = source.getAtIndex(JAVA_FLOAT, max);
+        for (int i = 0; i < size; i++) {
+          dense.setAtIndex(JAVA_FLOAT, i, Float.NEGATIVE_INFINITY);
+        }
+        dense.setAtIndex(JAVA_FLOAT, max, value);
+        source = dense;
+        return;
+      }
+      int maxI = 0;
+      float maxL = values[0];
+      for (int i = 1; i < size; i++) {
+        if (values[i] > maxL) {
+          values[maxI] = Float.NEGATIVE_INFINITY;
+          maxI = i;
+          maxL = values[i];
+        } else {
+          values[i] = Float.NEGATIVE_INFINITY;
+        }
+      }
+      return;
+    }
+    if (source != null) {
+      kernels.divide(source, size, t, dense);
+      source = dense;
+      return;
+    }
+    for (int i = 0; i < size; i++) {
+      values[i] /= t;
+    }
+  }
+
+  // llama_sampler_top_k_impl.
+  private void topK(TopK stage) {
+    if (stage.k() <= 0) {
+      return;
+    }
+    int k = Math.min(stage.k(), size);
+    if (source != null) {
+      size = kernels.topK(source, size, k, ids, values);
+      source = null;
+      sorted = true;
+      return;
+    }
+    if (!sorted) {
+      selectTop(k);
+    }
+    size = k;
+  }
+
+  /**
+   * Sparse top-k: the same heap selection as the kernels, built in place over the first {@code k}
+   * slots of ids/values — every later candidate is read before any slot it could land in.
+   */
+  private void selectTop(int k) {
+    int count = 0;
+    for (int i = 0; i < size; i++) {
+      if (count < k) {
+        count = heapPush(ids, values, count, ids[i], values[i]);
+      } else if (values[i] > values[0]) {
+        heapReplaceTop(ids, values, k, ids[i], values[i]);
+      }
+    }
+    sortHeap(ids, values, count);
+    sorted = true;
+  }
+
+  // llama_sampler_top_p_apply: softmax in float, then the smallest sorted prefix reaching p.
+  private void topP(TopP stage) {
+    if (stage.p() >= 1f) {
+      return;
+    }
+    float max = sorted ? values[0] : max();
+    float cum = 0f;
+    for (int i = 0; i < size; i++) {
+      cum += (float) Math.exp(logit(i) - max);
+    }
+    if (source != null) {
+      // Like llama.cpp: most nuclei fit in the top 256, so select those first and only sort
+      // the whole vocabulary when they fall short.
+      int head = kernels.topK(source, size, Math.min(256, size), ids, values);
+      int last = nucleus(head, max, cum, stage);
+      if (last < 0 && head < size) {
+        head = kernels.topK(source, size, size, ids, values);
+        last = nucleus(head, max, cum, stage);
+      }
+      size = last < 0 ? head : last;
+      source = null;
+      sorted = true;
+      return;
+    }
+    if (!sorted) {
+      sortAll();
+    }
+    int last = nucleus(size, max, cum, stage);
+    if (last >= 0) {
+      size = last;
+    }
+  }
+
+  /** Length of the sorted prefix whose probability reaches p (and minKeep), or -1. */
+  private int nucleus(int count, float max, float cum, TopP stage) {
+    float run = 0f;
+    for (int i = 0; i < count; i++) {
+      run += (float) Math.exp(values[i] - max) / cum;
+      if (run >= stage.p() && i + 1 >= stage.minKeep()) {
+        return i + 1;
+      }
+    }
+    return -1;
+  }
+
+  // llama_sampler_min_p_apply: filter on logit >= max + log(p), falling back to the sorted cut
+  // when the filter keeps fewer than minKeep.
+  private void minP(MinP stage) {
+    if (stage.p() <= 0f || size == 0) {
+      return;
+    }
+    float logP = (float) Math.log(stage.p());
+    if (!sorted) {
+      float minLogit = Math.max(-Float.MAX_VALUE, max()) + logP;
+      if (source != null) {
+        int count = kernels.collectAtLeast(source, size, minLogit, ids, values);
+        if (count > 0 && count >= stage.minKeep()) {
+          size = count;
+          source = null;
+          return;
+        }
+      } else {
+        int count = 0;
+        for (int i = 0; i < size; i++) {
+          if (values[i] >= minLogit) {
+            count++;
+          }
+        }
+        if (count > 0 && count >= stage.minKeep()) {
+          int kept = 0;
+          for (int i = 0; i < size; i++) {
+            if (values[i] >= minLogit) {
+              ids[kept] = ids[i];
+              values[kept++] = values[i];
+            }
+          }
+          size = kept;
+          return;
+        }
+      }
+      sortAll();
+    }
+    float minLogit = values[0] + logP;
+    int i = 1;
+    for (; i < size; i++) {
+      if (values[i] < minLogit && i >= stage.minKeep()) {
+        break;
+      }
+    }
+    size = i;
+  }
+
+  // llama_sampler_penalties_apply.
+  private void penalties(Penalties stage) {
+    if (stage.disabled()) {
+      return;
+    }
+    if (source != null) {
+      if (source != dense) {
+        MemorySegment.copy(source, 0, dense, 0, (long) size * Float.BYTES);
+        source = dense;
+      }
+      stage.applyDense(dense);
+    } else {
+      stage.applySparse(ids, values, size);
+    }
+    sorted = false;
+  }
+
+  // llama_sampler_dist_apply: float expf terms summed in double, one canonical draw, first
+  // running sum reaching it.
+  private void dist(Dist stage) {
+    if (size == 0) {
+      selected = -1;
+      return;
+    }
+    selected = 0;
+    if (size == 1) {
+      return;
+    }
+    float max = sorted ? values[0] : max();
+    if (probs == null) {
+      probs = new float[nVocab];
+    }
+    double sumCum = 0.0;
+    for (int i = 0; i < size; i++) {
+      float p = (float) Math.exp(logit(i) - max);
+      probs[i] = p;
+      sumCum += p;
+    }
+    double target = sumCum * stage.rng.nextCanonical();
+    double run = 0.0;
+    for (int i = 0; i < size; i++) {
+      run += probs[i];
+      if (run >= target) {
+        selected = i;
+        return;
+      }
+    }
+    selected = size - 1;
+  }
+
+  private sealed interface Stage
+    permits Greedy, Temperature, TopK, TopP, MinP, Penalties, Dist {}
+
+  private record Greedy() implements Stage {}
+
+  private record Temperature(float value) implements Stage {}
+
+  private record TopK(int k) implements Stage {}
+
+  private record TopP(float p, int minKeep) implements Stage {}
+
+  private record MinP(float p, int minKeep) implements Stage {}
+
+  /** Repetition penalties over the last {@code lastN} accepted tokens. */
+  private static final class Penalties implements Stage {
+
+    private final int lastN;
+    private final float repeat;
+    private final float freq;
+    private final float present;
+    // Occurrences per token id within the window, and the window itself as a ring.
+    private final int[] counts;
+    private final int[] ring;
+    private int head;
+    private int length;
+
+    Penalties(int nVocab, int lastN, float repeat, float freq, float present) {
+      this.lastN = Math.max(lastN, 0);
+      this.repeat = repeat;
+      this.freq = freq;
+      this.present = present;
+      this.counts = this.lastN == 0 ? new int[0] : new int[nVocab];
+      this.ring = new int[this.lastN];
+    }
+
+    boolean disabled() {
+      return (
+        lastN == 0 || (repeat == 1.0f && freq == 0.0f && present == 0.0f)
+      );
+    }
+
+    void accept(int token) {
+      if (lastN == 0) {
+        return;
+      }
+      counts[token]++;
+      if (length == lastN) {
+        counts[ring[head]]--;
+        ring[head] = token;
+        head = (head + 1) % lastN;
+      } else {
+        ring[(head + length) % lastN] = token;
+        length++;
+      }
+    }
+
+    void reset() {
+      Arrays.fill(counts, 0);
+      head = 0;
+      length = 0;
+    }
+
+    private float penalize(float logit, int count) {
+      float v = logit <= 0 ? logit * repeat : logit / repeat;
+      return v - ((float) count * freq + 1.0f * present);
+    }
+
+    /** Every distinct token in the window, once: counts are negated while visited. */
+    void applyDense(MemorySegment row) {
+      for (int j = 0; j < length; j++) {
+        int token = ring[j];
+        int count = counts[token];
+        if (count > 0) {
+          row.setAtIndex(
+            JAVA_FLOAT,
+            token,
+            penalize(row.getAtIndex(JAVA_FLOAT, token), count)
+          );
+          counts[token] = -count;
+        }
+      }
+      for (int j = 0; j < length; j++) {
+        int token = ring[j];
+        if (counts[token] < 0) {
+          counts[token] = -counts[token];
+        }
+      }
+    }
+
+    void applySparse(int[] ids, float[] values, int size) {
+      for (int i = 0; i < size; i++) {
+        int count = counts[ids[i]];
+        if (count > 0) {
+          values[i] = penalize(values[i], count);
+        }
+      }
+    }
+  }
+
+  private static final class Dist implements Stage {
+
+    private final int seed;
+    private final Mt19937 rng;
+
+    Dist(int seed) {
+      // get_rng_seed: LLAMA_DEFAULT_SEED asks for a random one, fixed for the sampler's life.
+      this.seed = seed == -1 ? ThreadLocalRandom.current().nextInt() : seed;
+      this.rng = new Mt19937(this.seed);
+    }
+  }
+}
@@ -0,0 +1,83 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.llama.cpp.logits;
+
+/**
+ * The 32-bit Mersenne Twister, bit for bit {@code std::mt19937}, plus the
+ * {@code std::uniform_real_distribution<double>(0, 1)} draw llama.cpp's dist sampler makes with
+ * it. Reproducing both is what lets {@link LogitsSampler} pick the same tokens as the native chain
+ * for the same seed.
+ *
+ * @author GraviteeSource Team
+ */
+final class Mt19937 {
+
+  private static final int N = 624;
+  private static final int M = 397;
+  private static final int MATRIX_A = 0x9908b0df;
+  private static final int UPPER_MASK = 0x80000000;
+  private static final int LOWER_MASK = 0x7fffffff;
+
+  private static final double TWO_32 = 4294967296.0;
+  private static final double TWO_64 = 18446744073709551616.0;
+
+  private final int[] mt = new int[N];
+  private int index;
+
+  Mt19937(int seed) {
+    seed(seed);
+  }
+
+  void seed(int seed) {
+    mt[0] = seed;
+    for (int i = 1; i < N; i++) {
+      mt[i] = 1812433253 * (mt[i - 1] ^ (mt[i - 1] >>> 30)) + i;
+    }
+    index = N;
+  }
+
+  /** The next output, as the unsigned 32-bit value {@code std::mt19937::operator()} returns. */
+  long next() {
+    if (index >= N) {
+      twist();
+    }
+    int y = mt[index++];
+    y ^= y >>> 11;
+    y ^= (y << 7) & 0x9d2c5680;
+    y ^= (y << 15) & 0xefc60000;
+    y ^= y >>> 18;
+    return y & 0xffffffffL;
+  }
+
+  /**
+   * {@code std::generate_canonical<double, 53>}: two draws, low word first, summed and scaled in
+   * double — including the rounding that implies, and the clamp of a rounded-up 1.0.
+   */
+  double nextCanonical() {
+    double sum = next();
+    sum += next() * TWO_32;
+    double r = sum / TWO_64;
+    return r >= 1.0 ? Math.nextDown(1.0) : r;
+  }
+
+  private void twist() {
+    for (int i = 0; i < N; i++) {
+      int y = (mt[i] & UPPER_MASK) | (mt[(i + 1) % N] & LOWER_MASK);
+      mt[i] = mt[(i + M) % N] ^ (y >>> 1) ^ ((y & 1) != 0 ? MATRIX_A : 0);
+    }
+    index = 0;
+  }
+}
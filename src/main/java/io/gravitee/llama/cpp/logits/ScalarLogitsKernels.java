@@ -0,0 +1,285 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.llama.cpp.logits;
+
+import static java.lang.foreign.ValueLayout.JAVA_FLOAT;
+
+import java.lang.foreign.MemorySegment;
+
+/**
+ * Scalar {@link LogitsKernels}: a max pass, then a pass that sums exact {@link Math#exp} terms and
+ * selects the top-N. The reference the vector kernel is checked against, and the fallback when
+ * {@code jdk.incubator.vector} is not resolved.
+ *
+ * @author GraviteeSource Team
+ */
+final class ScalarLogitsKernels implements LogitsKernels {
+
+  static final ScalarLogitsKernels INSTANCE = new ScalarLogitsKernels();
+
+  private ScalarLogitsKernels() {}
+
+  @Override
+  public float max(MemorySegment row, int n) {
+    float max = Float.NEGATIVE_INFINITY;
+    for (int i = 0; i < n; i++) {
+      float v = row.getAtIndex(JAVA_FLOAT, i);
+      if (v > max) max = v;
+    }
+    return max;
+  }
+
+  @Override
+  public float sumOfSquares(MemorySegment row, int n) {
+    float sum = 0f;
+    for (int i = 0; i < n; i++) {
+      float v = row.getAtIndex(JAVA_FLOAT, i);
+      sum += v * v;
+    }
+    return sum;
+  }
+
+  @Override
+  public double summarize(
+    MemorySegment row,
+    int n,
+    int topN,
+    int[] topIds,
+    float[] topLogits
+  ) {
+    float max = max(row, n);
+    int limit = Math.min(topN, n);
+    int count = 0;
+    double sum = 0.0;
+    for (int i = 0; i < n; i++) {
+      float v = row.getAtIndex(JAVA_FLOAT, i);
+      sum += Math.exp(v - max);
+      if (limit > 0 && (count < limit || v > topLogits[limit - 1])) {
+        count = insertTop(topIds, topLogits, count, limit, i, v);
+      }
+    }
+    return max + Math.log(sum);
+  }
+
+  @Override
+  public int argmax(MemorySegment row, int n) {
+    int best = 0;
+    float max = row.getAtIndex(JAVA_FLOAT, 0);
+    for (int i = 1; i < n; i++) {
+      float v = row.getAtIndex(JAVA_FLOAT, i);
+      if (v > max) {
+        max = v;
+        best = i;
+      }
+    }
+    return best;
+  }
+
+  @Override
+  public void divide(MemorySegment src, int n, float divisor, MemorySegment dst) {
+    for (int i = 0; i < n; i++) {
+      dst.setAtIndex(JAVA_FLOAT, i, src.getAtIndex(JAVA_FLOAT, i) / divisor);
+    }
+  }
+
+  @Override
+  public void fill(MemorySegment row, int from, int to, float value) {
+    for (int i = from; i < to; i++) {
+      row.setAtIndex(JAVA_FLOAT, i, value);
+    }
+  }
+
+  @Override
+  public void mask(MemorySegment row, int n, long[] allowed) {
+    for (int w = 0, base = 0; base < n; w++, base += 64) {
+      long bits = allowed[w];
+      int end = Math.min(base + 64, n);
+      if (bits == -1L) {
+        continue;
+      }
+      if (bits == 0L) {
+        fill(row, base, end, Float.NEGATIVE_INFINITY);
+        continue;
+      }
+      for (int i = base; i < end; i++) {
+        if ((bits & (1L << i)) == 0) {
+          row.setAtIndex(JAVA_FLOAT, i, Float.NEGATIVE_INFINITY);
+        }
+      }
+    }
+  }
+
+  @Override
+  public int topK(MemorySegment row, int n, int k, int[] ids, float[] values) {
+    int limit = Math.min(k, n);
+    if (limit <= 0) {
+      return 0;
+    }
+    int count = 0;
+    for (int i = 0; i < n; i++) {
+      float v = row.getAtIndex(JAVA_FLOAT, i);
+      if (count < limit) {
+        count = heapPush(ids, values, count, i, v);
+      } else if (v > values[0]) {
+        heapReplaceTop(ids, values, limit, i, v);
+      }
+    }
+    sortHeap(ids, values, count);
+    return count;
+  }
+
+  @Override
+  public int collectAtLeast(
+    MemorySegment row,
+    int n,
+    float threshold,
+    int[] ids,
+    float[] values
+  ) {
+    int count = 0;
+    for (int i = 0; i < n; i++) {
+      float v = row.getAtIndex(JAVA_FLOAT, i);
+      if (v >= threshold) {
+        ids[count] = i;
+        values[count++] = v;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Inserts one candidate into a descending top-N buffer of capacity {@code limit}, dropping the
+   * last entry when full; returns the new count. Equal values keep arrival order.
+   */
+  static int insertTop(
+    int[] ids,
+    float[] values,
+    int count,
+    int limit,
+    int id,
+    float value
+  ) {
+    int pos = count < limit ? count : limit - 1;
+    while (pos > 0 && value > values[pos - 1]) {
+      ids[pos] = ids[pos - 1];
+      values[pos] = values[pos - 1];
+      pos--;
+    }
+    ids[pos] = id;
+    values[pos] = value;
+    return count < limit ? count + 1 : count;
+  }
+
+  /*
+   * Top-k selection keeps a min-heap whose root is the worst candidate kept so far: the lowest
+   * value, and on equal values the highest id. Rows are scanned in index order, so a newcomer
+   * equal to the root never displaces it — ties go to the lower id, as in the sorted output.
+   */
+
+  /** Pushes one candidate onto a heap of {@code count} entries; returns the new count. */
+  static int heapPush(int[] ids, float[] values, int count, int id, float value) {
+    int pos = count;
+    while (pos > 0) {
+      int parent = (pos - 1) >>> 1;
+      if (!worse(value, id, values[parent], ids[parent])) {
+        break;
+      }
+      ids[pos] = ids[parent];
+      values[pos] = values[parent];
+      pos = parent;
+    }
+    ids[pos] = id;
+    values[pos] = value;
+    return count + 1;
+  }
+
+  /** Replaces the root of a full heap of {@code count} entries and restores the heap order. */
+  static void heapReplaceTop(
+    int[] ids,
+    float[] values,
+    int count,
+    int id,
+    float value
+  ) {
+    int pos = 0;
+    while (true) {
+      int child = 2 * pos + 1;
+      if (child >= count) {
+        break;
+      }
+      if (
+        child + 1 < count &&
+        worse(values[child + 1], ids[child + 1], values[child], ids[child])
+      ) {
+        child++;
+      }
+      if (!worse(values[child], ids[child], value, id)) {
+        break;
+      }
+      ids[pos] = ids[child];
+      values[pos] = values[child];
+      pos = child;
+    }
+    ids[pos] = id;
+    values[pos] = value;
+  }
+
+  private static boolean worse(float a, int aId, float b, int bId) {
+    return a < b || (a == b && aId > bId);
+  }
+
+  /**
+   * Sorts a heap of {@code count} entries built by {@link #heapPush} into descending value, ties
+   * lower id first, in place: the worst entry is swapped out of the root until none is left, so
+   * the result of a top-k selection is ordered without any scratch.
+   */
+  static void sortHeap(int[] ids, float[] values, int count) {
+    for (int end = count - 1; end > 0; end--) {
+      int id = ids[end];
+      float value = values[end];
+      ids[end] = ids[0];
+      values[end] = values[0];
+      heapReplaceTop(ids, values, end, id, value);
+    }
+  }
+
+  /**
+   * Sorts the first {@code count} entries by descending value, ties lower id first. Each pair is
+   * packed into one {@code long} of {@code keys}, at least {@code count} long, whose natural order
+   * is exactly that, so this is a primitive sort with no comparator and no boxing.
+   */
+  static void sortDescending(
+    int[] ids,
+    float[] values,
+    int count,
+    long[] keys
+  ) {
+    for (int i = 0; i < count; i++) {
+      int bits = Float.floatToRawIntBits(values[i]);
+      // Flips the magnitude bits of negatives, so signed int order is float order.
+      int ordered = bits ^ ((bits >> 31) & 0x7fffffff);
+      keys[i] = ((long) ~ordered << 32) | (ids[i] & 0xffffffffL);
+    }
+    java.util.Arrays.sort(keys, 0, count);
+    for (int i = 0; i < count; i++) {
+      int ordered = ~(int) (keys[i] >> 32);
+      values[i] = Float.intBitsToFloat(
+        ordered ^ ((ordered >> 31) & 0x7fffffff)
+      );
+      ids[i] = (int) keys[i];
+    }
+  }
+}
@@ -0,0 +1,393 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.llama.cpp.logits;
+
+import static io.gravitee.llama.cpp.logits.ScalarLogitsKernels.heapPush;
+import static io.gravitee.llama.cpp.logits.ScalarLogitsKernels.heapReplaceTop;
+import static io.gravitee.llama.cpp.logits.ScalarLogitsKernels.insertTop;
+import static io.gravitee.llama.cpp.logits.ScalarLogitsKernels.sortHeap;
+import static java.lang.foreign.ValueLayout.JAVA_FLOAT;
+
+import java.lang.foreign.MemorySegment;
+import java.nio.ByteOrder;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * {@code jdk.incubator.vector} {@link LogitsKernels}. {@link #summarize} computes max, log-sum-exp
+ * and top-N in a single pass over the native row; the selection kernels use the same
+ * compare-then-scalar-insert shape.
+ *
+ * <p>Each lane keeps a running max {@code m} and a sum {@code s} of {@code exp(logit - m)}. When a
+ * chunk raises a lane's max, that lane's sum is rescaled by {@code exp(mOld - mNew)} — after the
+ * first few hundred tokens the max is settled and the rescale branch is almost never taken. The
+ * lanes are combined in double at the end, with exact {@link Math#exp}.
+ *
+ * <p>The per-element exponential is {@link #exp}: a Cephes-style {@code 2^x} polynomial, within a
+ * few ulps of {@link Math#exp} over the {@code x <= 0} range it is used on. Sums are accumulated
+ * in blocks so float rounding does not grow with the vocabulary size.
+ *
+ * <p>Top-N candidates are found with a compare against the current N-th logit: a chunk with
+ * no lane above it — nearly all of them, once the buffer holds real candidates — costs one mask
+ * test.
+ *
+ * @author GraviteeSource Team
+ */
+final class VectorLogitsKernels implements LogitsKernels {
+
+  static final VectorLogitsKernels INSTANCE = new VectorLogitsKernels();
+
+  private static final VectorSpecies<Float> SPECIES =
+    FloatVector.SPECIES_PREFERRED;
+  private static final int LANES = SPECIES.length();
+  private static final ByteOrder ORDER = ByteOrder.nativeOrder();
+  // The low LANES bits set: a chunk whose lanes are all allowed.
+  private static final long LANE_BITS = LANES == 64 ? -1L : (1L << LANES) - 1;
+
+  /** Chunks summed in float before folding into the outer accumulator. */
+  private static final int BLOCK = 64;
+
+  // exp(x) = 2^(x·log2 e), split into 2^k · 2^f with k = round(x·log2 e), f in [-0.5, 0.5].
+  private static final float LOG2E = 1.44269504088896341f;
+  // Below this 2^k leaves the normal range; exp is ~1e-38 there, i.e. zero next to the max's 1.
+  private static final float EXP_LO = -87.3365448f;
+  // Adding then subtracting 1.5·2^23 rounds to the nearest integer; the sum's low mantissa bits
+  // hold k itself.
+  private static final float ROUND = 12582912f;
+  private static final int ROUND_BITS = 0x4B400000;
+  // 2^f = 1 + f·P(f) on [-0.5, 0.5] (Cephes exp2f).
+  private static final float P0 = 1.535336188319500e-4f;
+  private static final float P1 = 1.339887440266574e-3f;
+  private static final float P2 = 9.618437357674640e-3f;
+  private static final float P3 = 5.550332471162809e-2f;
+  private static final float P4 = 2.402264791363012e-1f;
+  private static final float P5 = 6.931472028550421e-1f;
+
+  private VectorLogitsKernels() {}
+
+  @Override
+  public float max(MemorySegment row, int n) {
+    int bound = SPECIES.loopBound(n);
+    var acc = FloatVector.broadcast(SPECIES, Float.NEGATIVE_INFINITY);
+    int i = 0;
+    for (; i < bound; i += LANES) {
+      acc = acc.max(load(row, i));
+    }
+    float max = acc.reduceLanes(VectorOperators.MAX);
+    for (; i < n; i++) {
+      float v = row.getAtIndex(JAVA_FLOAT, i);
+      if (v > max) max = v;
+    }
+    return max;
+  }
+
+  @Override
+  public float sumOfSquares(MemorySegment row, int n) {
+    int bound = SPECIES.loopBound(n);
+    var acc = FloatVector.zero(SPECIES);
+    int i = 0;
+    for (; i < bound; i += LANES) {
+      var v = load(row, i);
+      acc = v.fma(v, acc);
+    }
+    float sum = acc.reduceLanes(VectorOperators.ADD);
+    for (; i < n; i++) {
+      float v = row.getAtIndex(JAVA_FLOAT, i);
+      sum += v * v;
+    }
+    return sum;
+  }
+
+  @Override
+  public double summarize(
+    MemorySegment row,
+    int n,
+    int topN,
+    int[] topIds,
+    float[] topLogits
+  ) {
+    int limit = Math.min(topN, n);
+    int count = 0;
+    // -MAX_VALUE rather than -inf, so a masked (-inf) logit never meets a -inf max: -inf - -inf
+    // is NaN, whereas -inf - -MAX_VALUE is -inf and exp() clamps it to zero.
+    var m = FloatVector.broadcast(SPECIES, -Float.MAX_VALUE);
+    var inner = FloatVector.zero(SPECIES);
+    var outer = FloatVector.zero(SPECIES);
+    int inBlock = 0;
+
+    int bound = SPECIES.loopBound(n);
+    int i = 0;
+    for (; i < bound; i += LANES) {
+      var v = load(row, i);
+      if (v.compare(VectorOperators.GT, m).anyTrue()) {
+        var raised = m.max(v);
+        var scale = exp(m.sub(raised));
+        inner = inner.mul(scale);
+        outer = outer.mul(scale);
+        m = raised;
+      }
+      inner = inner.add(exp(v.sub(m)));
+      if (++inBlock == BLOCK) {
+        outer = outer.add(inner);
+        inner = FloatVector.zero(SPECIES);
+        inBlock = 0;
+      }
+
+      if (limit == 0) {
+        continue;
+      }
+      if (count < limit) {
+        // Still filling: every lane is a candidate until the buffer holds limit entries.
+        for (int lane = 0; lane < LANES; lane++) {
+          float value = row.getAtIndex(JAVA_FLOAT, i + lane);
+          if (count < limit || value > topLogits[limit - 1]) {
+            count = insertTop(topIds, topLogits, count, limit, i + lane, value);
+          }
+        }
+        continue;
+      }
+      VectorMask<Float> hits = v.compare(
+        VectorOperators.GT,
+        topLogits[limit - 1]
+      );
+      if (hits.anyTrue()) {
+        // Lanes in ascending order, and re-checked against a threshold the earlier lanes of this
+        // chunk may have raised: the same insertions, in the same order, as the scalar pass.
+        for (long bits = hits.toLong(); bits != 0; bits &= bits - 1) {
+          int lane = Long.numberOfTrailingZeros(bits);
+          float value = row.getAtIndex(JAVA_FLOAT, i + lane);
+          if (value > topLogits[limit - 1]) {
+            count = insertTop(topIds, topLogits, count, limit, i + lane, value);
+          }
+        }
+      }
+    }
+    outer = outer.add(inner);
+
+    // Fold the lanes and the scalar tail into one max and sum, exactly.
+    float[] laneMax = m.toArray();
+    float[] laneSum = outer.toArray();
+    double max = -Float.MAX_VALUE;
+    for (float v : laneMax) {
+      max = Math.max(max, v);
+    }
+    for (int j = i; j < n; j++) {
+      max = Math.max(max, row.getAtIndex(JAVA_FLOAT, j));
+    }
+    double sum = 0.0;
+    for (int lane = 0; lane < LANES; lane++) {
+      sum += laneSum[lane] * Math.exp(laneMax[lane] - max);
+    }
+    for (; i < n; i++) {
+      float value = row.getAtIndex(JAVA_FLOAT, i);
+      sum += Math.exp(value - max);
+      if (limit > 0 && (count < limit || value > topLogits[limit - 1])) {
+        count = insertTop(topIds, topLogits, count, limit, i, value);
+      }
+    }
+    return max + Math.log(sum);
+  }
+
+  @Override
+  public int argmax(MemorySegment row, int n) {
+    float max = max(row, n);
+    int bound = SPECIES.loopBound(n);
+    int i = 0;
+    for (; i < bound; i += LANES) {
+      var hits = load(row, i).compare(VectorOperators.EQ, max);
+      if (hits.anyTrue()) {
+        return i + hits.firstTrue();
+      }
+    }
+    for (; i < n; i++) {
+      if (row.getAtIndex(JAVA_FLOAT, i) == max) {
+        return i;
+      }
+    }
+    // Only reachable when the max is NaN; match the scalar scan, which then keeps index 0.
+    return 0;
+  }
+
+  @Override
+  public void divide(MemorySegment src, int n, float divisor, MemorySegment dst) {
+    int bound = SPECIES.loopBound(n);
+    int i = 0;
+    for (; i < bound; i += LANES) {
+      load(src, i)
+        .div(divisor)
+        .intoMemorySegment(dst, (long) i * Float.BYTES, ORDER);
+    }
+    for (; i < n; i++) {
+      dst.setAtIndex(JAVA_FLOAT, i, src.getAtIndex(JAVA_FLOAT, i) / divisor);
+    }
+  }
+
+  @Override
+  public void fill(MemorySegment row, int from, int to, float value) {
+    var v = FloatVector.broadcast(SPECIES, value);
+    int bound = from + SPECIES.loopBound(Math.max(0, to - from));
+    int i = from;
+    for (; i < bound; i += LANES) {
+      v.intoMemorySegment(row, (long) i * Float.BYTES, ORDER);
+    }
+    for (; i < to; i++) {
+      row.setAtIndex(JAVA_FLOAT, i, value);
+    }
+  }
+
+  @Override
+  public void mask(MemorySegment row, int n, long[] allowed) {
+    var negInf = FloatVector.broadcast(SPECIES, Float.NEGATIVE_INFINITY);
+    // LANES divides 64, so a chunk never straddles two words.
+    for (int w = 0, base = 0; base < n; w++, base += 64) {
+      long bits = allowed[w];
+      if (bits == -1L) {
+        continue;
+      }
+      int end = Math.min(base + 64, n);
+      int i = base;
+      if (bits == 0L) {
+        for (; i + LANES <= end; i += LANES) {
+          negInf.intoMemorySegment(row, (long) i * Float.BYTES, ORDER);
+        }
+      } else {
+        for (; i + LANES <= end; i += LANES) {
+          long laneBits = bits >>> (i - base);
+          if ((laneBits & LANE_BITS) == LANE_BITS) {
+            continue;
+          }
+          var keep = VectorMask.fromLong(SPECIES, laneBits);
+          load(row, i)
+            .blend(negInf, keep.not())
+            .intoMemorySegment(row, (long) i * Float.BYTES, ORDER);
+        }
+      }
+      for (; i < end; i++) {
+        if ((bits & (1L << i)) == 0) {
+          row.setAtIndex(JAVA_FLOAT, i, Float.NEGATIVE_INFINITY);
+        }
+      }
+    }
+  }
+
+  @Override
+  public int topK(MemorySegment row, int n, int k, int[] ids, float[] values) {
+    int limit = Math.min(k, n);
+    if (limit <= 0) {
+      return 0;
+    }
+    int count = 0;
+    int bound = SPECIES.loopBound(n);
+    int i = 0;
+    // Fill the heap element by element, then only look at chunks with a lane above its root.
+    for (; i < n && count < limit; i++) {
+      count = heapPush(ids, values, count, i, row.getAtIndex(JAVA_FLOAT, i));
+    }
+    for (; i < n && i % LANES != 0; i++) {
+      offer(row, i, ids, values, limit);
+    }
+    for (; i < bound; i += LANES) {
+      var hits = load(row, i).compare(VectorOperators.GT, values[0]);
+      for (long bits = hits.toLong(); bits != 0; bits &= bits - 1) {
+        offer(row, i + Long.numberOfTrailingZeros(bits), ids, values, limit);
+      }
+    }
+    for (; i < n; i++) {
+      offer(row, i, ids, values, limit);
+    }
+    sortHeap(ids, values, count);
+    return count;
+  }
+
+  private static void offer(
+    MemorySegment row,
+    int i,
+    int[] ids,
+    float[] values,
+    int limit
+  ) {
+    float v = row.getAtIndex(JAVA_FLOAT, i);
+    if (v > values[0]) {
+      heapReplaceTop(ids, values, limit, i, v);
+    }
+  }
+
+  @Override
+  public int collectAtLeast(
+    MemorySegment row,
+    int n,
+    float threshold,
+    int[] ids,
+    float[] values
+  ) {
+    int count = 0;
+    int bound = SPECIES.loopBound(n);
+    int i = 0;
+    for (; i < bound; i += LANES) {
+      var hits = load(row, i).compare(VectorOperators.GE, threshold);
+      for (long bits = hits.toLong(); bits != 0; bits &= bits - 1) {
+        int index = i + Long.numberOfTrailingZeros(bits);
+        ids[count] = index;
+        values[count++] = row.getAtIndex(JAVA_FLOAT, index);
+      }
+    }
+    for (; i < n; i++) {
+      float v = row.getAtIndex(JAVA_FLOAT, i);
+      if (v >= threshold) {
+        ids[count] = i;
+        values[count++] = v;
+      }
+    }
+    return count;
+  }
+
+  private static FloatVector load(MemorySegment row, int index) {
+    return FloatVector.fromMemorySegment(
+      SPECIES,
+      row,
+      (long) index * Float.BYTES,
+      ORDER
+    );
+  }
+
+  /** Lane-wise {@code exp(x)} for {@code x <= 0}; underflows to ~1e-38 below {@link #EXP_LO}. */
+  static FloatVector exp(FloatVector x) {
+    var t = x.max(EXP_LO).mul(LOG2E);
+    var shifted = t.add(ROUND);
+    var k = shifted.reinterpretAsInts().sub(ROUND_BITS);
+    var f = t.sub(shifted.sub(ROUND));
+    var p = f
+      .mul(P0)
+      .add(P1)
+      .mul(f)
+      .add(P2)
+      .mul(f)
+      .add(P3)
+      .mul(f)
+      .add(P4)
+      .mul(f)
+      .add(P5)
+      .mul(f)
+      .add(1f);
+    var scale = k
+      .add(127)
+      .lanewise(VectorOperators.LSHL, 23)
+      .reinterpretAsFloats();
+    return p.mul(scale);
+  }
+}
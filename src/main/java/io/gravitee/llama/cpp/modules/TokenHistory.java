@@ -30,10 +30,19 @@ import java.util.Arrays;
  * prefix is already resident when a sequence is re-initialized with
  * {@code ConversationState.initialize(prompt, reusePrefixTokens)}.
  *
+ * <p>A multimodal prompt fills positions with image or audio embeddings rather than tokens; those
+ * positions hold {@link #NO_TOKEN}, so the invariant holds there too.
+ *
  * @author GraviteeSource Team
  */
 public final class TokenHistory {
 
+  /**
+   * The id at a position a media chunk filled ({@code LLAMA_TOKEN_NULL}): no prompt token ever
+   * equals it, so prefix matching stops there, and no draft replays it.
+   */
+  public static final int NO_TOKEN = -1;
+
   private int[] tokens = new int[256];
   private int size = 0;
 
@@ -69,8 +78,30 @@ public final class TokenHistory {
     return size;
   }
 
+  /** The committed token at {@code position}, which must be below {@link #size()}. */
+  public int get(int position) {
+    if (position < 0 || position >= size) {
+      throw new IndexOutOfBoundsException(
+        "history position " + position + " outside [0, " + size + ")"
+      );
+    }
+    return tokens[position];
+  }
+
   /** Snapshot of the committed token ids, positions {@code [0, size())}. */
   public int[] toArray() {
     return Arrays.copyOf(tokens, size);
   }
+
+  /** The committed token ids in order, without the {@link #NO_TOKEN} positions of media chunks. */
+  public int[] textTokens() {
+    int[] text = new int[size];
+    int n = 0;
+    for (int i = 0; i < size; i++) {
+      if (tokens[i] != NO_TOKEN) {
+        text[n++] = tokens[i];
+      }
+    }
+    return n == size ? text : Arrays.copyOf(text, n);
+  }
 }
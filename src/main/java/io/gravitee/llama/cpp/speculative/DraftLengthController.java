@@ -0,0 +1,206 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.llama.cpp.speculative;
+
+/**
+ * Picks a sequence's draft length every round to maximize expected committed tokens per second,
+ * from what its own rounds measured (see {@code SpeculativeConfig#autoDraft}).
+ *
+ * <p>Model: each drafted token is accepted with probability {@code a}, independently, so a round
+ * drafting {@code k} tokens commits {@code E(k) = (1 - a^(k+1)) / (1 - a)} tokens on average —
+ * the accepted prefix plus the correction or bonus. It costs {@code k * d} of drafting plus a verify
+ * of {@code k + 1} tokens, fitted as {@code v0 + v1 * (k + 1)}; when several sequences share one
+ * fused verify, each carries {@code v0 / sharers} of its fixed part. The round length maximizing
+ * {@code E(k) / cost(k)} wins. {@code a} is a decayed count of accepted against rejected drafts
+ * (plus one of each, so a few unlucky rounds do not pin it to zero); {@code d}, {@code v0},
+ * {@code v1} are decayed averages and a decayed least-squares line. Verify times run until
+ * {@link io.gravitee.llama.cpp.LlamaContext#synchronize()} returns, so on an asynchronous (GPU)
+ * backend they hold the verify's compute rather than just its enqueue.
+ *
+ * <p>{@code k = 0} — a plain one-token decode — competes too, when the flavour can resume drafting
+ * cheaply afterwards. Once it wins, speculation is off for the sequence, except for one probe round
+ * every {@value #PROBE_INTERVAL} to notice the text becoming predictable again. Until
+ * {@value #WARMUP_ROUNDS} rounds have been measured the controller drafts the full {@code nDraft},
+ * as a fixed configuration would.
+ *
+ * <p>Single-threaded per conversation state, like the rest of the speculative scratch.
+ *
+ * @author GraviteeSource Team
+ */
+public final class DraftLengthController {
+
+  /** Rounds measured before the model replaces the configured maximum. */
+  public static final int WARMUP_ROUNDS = 4;
+  /** Rounds between two probes while speculation is off. */
+  public static final int PROBE_INTERVAL = 16;
+
+  // Weight kept by past observations at each new one: ~10 rounds of memory.
+  private static final double DECAY = 0.9;
+  // Share of a verify's cost assumed to grow with its token count until the rounds measured
+  // verifies of different sizes: small, because a verify is memory-bound like a decode.
+  private static final double PRIOR_PER_TOKEN_SHARE = 0.1;
+
+  private final int maxDraft;
+  private final int minDraft;
+  private final boolean canSwitchOff;
+
+  private double accepted;
+  private double rejected;
+  private double draftNanosPerToken = Double.NaN;
+  private double sharers = 1.0;
+  // Decayed least-squares sums over (verify tokens, verify nanos).
+  private double sw;
+  private double sx;
+  private double sy;
+  private double sxx;
+  private double sxy;
+
+  private int rounds;
+  private int roundsOff;
+  private int current;
+
+  /**
+   * @param maxDraft     the configured {@code nDraft}: the longest round ever drafted
+   * @param minDraft     the shortest speculating round, at least 1
+   * @param canSwitchOff whether a round may draft nothing
+   */
+  public DraftLengthController(
+    int maxDraft,
+    int minDraft,
+    boolean canSwitchOff
+  ) {
+    this.maxDraft = Math.max(1, maxDraft);
+    this.minDraft = Math.max(1, Math.min(minDraft, this.maxDraft));
+    this.canSwitchOff = canSwitchOff;
+    this.current = this.maxDraft;
+  }
+
+  /** Tokens to draft this round: {@code 0} means a plain decode. */
+  public int nDraft() {
+    return current;
+  }
+
+  /** Whether the last choice switched speculation off for this sequence. */
+  public boolean isOff() {
+    return current == 0;
+  }
+
+  /** Current estimate of the per-token acceptance probability. */
+  public double acceptProbability() {
+    return (accepted + 1.0) / (accepted + rejected + 2.0);
+  }
+
+  /** Records a round's acceptance: {@code accepted} of {@code drafted} tokens matched. */
+  public void observeAcceptance(int drafted, int accepted) {
+    if (drafted <= 0) {
+      return;
+    }
+    this.accepted = DECAY * this.accepted + accepted;
+    // Only the first mismatch is observed: everything after it was never tested.
+    this.rejected = DECAY * this.rejected + (accepted < drafted ? 1 : 0);
+  }
+
+  /**
+   * Records a round's costs and picks the next round's draft length.
+   *
+   * @param draftNanos   time spent drafting (and accepting) {@code drafted} tokens
+   * @param drafted      tokens drafted this round
+   * @param verifyNanos  time of the target decode that verified them
+   * @param verifyTokens tokens in that decode, every sharing sequence's included
+   * @param sharers      sequences that shared the verify decode, 1 outside a fused batch
+   */
+  public void observeCost(
+    long draftNanos,
+    int drafted,
+    long verifyNanos,
+    int verifyTokens,
+    int sharers
+  ) {
+    if (drafted > 0) {
+      double perToken = (double) draftNanos / drafted;
+      draftNanosPerToken = Double.isNaN(draftNanosPerToken)
+        ? perToken
+        : DECAY * draftNanosPerToken + (1 - DECAY) * perToken;
+    }
+    if (verifyTokens > 0 && verifyNanos > 0) {
+      double x = verifyTokens;
+      double y = verifyNanos;
+      sw = DECAY * sw + 1;
+      sx = DECAY * sx + x;
+      sy = DECAY * sy + y;
+      sxx = DECAY * sxx + x * x;
+      sxy = DECAY * sxy + x * y;
+    }
+    this.sharers = DECAY * this.sharers + (1 - DECAY) * Math.max(1, sharers);
+    rounds++;
+    current = choose();
+  }
+
+  private int choose() {
+    if (rounds < WARMUP_ROUNDS || sw == 0) {
+      return maxDraft;
+    }
+    int best = best();
+    if (best > 0) {
+      roundsOff = 0;
+      return best;
+    }
+    // Off: while off no draft is tested, so the acceptance estimate cannot recover by itself —
+    // a probe round every PROBE_INTERVAL re-measures it.
+    return current == 0 && ++roundsOff % PROBE_INTERVAL == 0
+      ? Math.max(minDraft, maxDraft / 2)
+      : 0;
+  }
+
+  /** The draft length with the best expected throughput under the current estimates. */
+  private int best() {
+    double a = acceptProbability();
+    double meanX = sx / sw;
+    double meanY = sy / sw;
+    double var = sxx / sw - meanX * meanX;
+    double perToken = var > 0.25
+      ? Math.max(0, (sxy / sw - meanX * meanY) / var)
+      : (PRIOR_PER_TOKEN_SHARE * meanY) / meanX;
+    double fixed = Math.max(0, meanY - perToken * meanX) / sharers;
+    double draft = Double.isNaN(draftNanosPerToken) ? 0 : draftNanosPerToken;
+
+    int best = canSwitchOff ? 0 : minDraft;
+    double bestRate = rate(best, a, draft, fixed, perToken);
+    for (int k = minDraft; k <= maxDraft; k++) {
+      double r = rate(k, a, draft, fixed, perToken);
+      if (r > bestRate) {
+        best = k;
+        bestRate = r;
+      }
+    }
+    return best;
+  }
+
+  /** Expected tokens per nanosecond of a round drafting {@code k} tokens. */
+  static double rate(
+    int k,
+    double accept,
+    double draftPerToken,
+    double verifyFixed,
+    double verifyPerToken
+  ) {
+    double tokens = accept >= 1.0
+      ? k + 1
+      : (1 - Math.pow(accept, k + 1)) / (1 - accept);
+    double cost = k * draftPerToken + verifyFixed + verifyPerToken * (k + 1);
+    return cost <= 0 ? tokens : tokens / cost;
+  }
+}
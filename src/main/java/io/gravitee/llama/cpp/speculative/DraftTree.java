@@ -0,0 +1,160 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.llama.cpp.speculative;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A token tree drafted for one verify decode: the committed {@code idLast} is the implicit root
+ * ({@link #ROOT}), every other node is one drafted token, and a root-to-leaf path is a branch.
+ *
+ * <p>Nodes are kept in insertion order with a parent index below their own, so the verify batch can
+ * list them as they are: node {@code i} is batch row {@code i + 1}, after the root's row 0. Adding a
+ * token a node already has as a child returns that child, so paths with a common prefix share its
+ * nodes and decode it once.
+ *
+ * <p>Branch {@code b} is the {@code b}-th leaf in node order. A node belongs to every branch whose
+ * leaf is below it: those are the sequence ids it is decoded under.
+ *
+ * @author GraviteeSource Team
+ */
+final class DraftTree {
+
+  /** The parent of depth-0 nodes: {@code idLast}, already drafted from. */
+  static final int ROOT = -1;
+
+  private int[] tokens;
+  private int[] parents;
+  private int[] depths;
+  private int size;
+
+  DraftTree(int capacity) {
+    this.tokens = new int[Math.max(1, capacity)];
+    this.parents = new int[tokens.length];
+    this.depths = new int[tokens.length];
+  }
+
+  /** Removes every node, keeping the buffers. */
+  void clear() {
+    size = 0;
+  }
+
+  int size() {
+    return size;
+  }
+
+  int token(int node) {
+    return tokens[node];
+  }
+
+  int parent(int node) {
+    return parents[node];
+  }
+
+  /** Drafted tokens above this node: {@code 0} for a child of the root. */
+  int depth(int node) {
+    return depths[node];
+  }
+
+  /** The child of {@code node} (or of {@link #ROOT}) that drafted {@code token}, or {@code -1}. */
+  int child(int node, int token) {
+    for (int i = node + 1; i < size; i++) {
+      if (parents[i] == node && tokens[i] == token) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  /** Adds {@code token} under {@code parent}, or returns the child that already drafted it. */
+  int add(int parent, int token) {
+    int existing = child(parent, token);
+    if (existing >= 0) {
+      return existing;
+    }
+    if (size == tokens.length) {
+      int capacity = size * 2;
+      tokens = Arrays.copyOf(tokens, capacity);
+      parents = Arrays.copyOf(parents, capacity);
+      depths = Arrays.copyOf(depths, capacity);
+    }
+    tokens[size] = token;
+    parents[size] = parent;
+    depths[size] = parent == ROOT ? 0 : depths[parent] + 1;
+    return size++;
+  }
+
+  /** Adds the first {@code length} tokens of {@code path} below the root, sharing common prefixes. */
+  void addPath(int[] path, int length) {
+    int node = ROOT;
+    for (int i = 0; i < length; i++) {
+      node = add(node, path[i]);
+    }
+  }
+
+  boolean isLeaf(int node) {
+    for (int i = node + 1; i < size; i++) {
+      if (parents[i] == node) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /** Number of branches (leaves). */
+  int branches() {
+    int leaves = 0;
+    for (int i = 0; i < size; i++) {
+      if (isLeaf(i)) {
+        leaves++;
+      }
+    }
+    return leaves;
+  }
+
+  /** Nodes on the longest branch: the most tokens one round can accept before its extra token. */
+  int maxDepth() {
+    int max = 0;
+    for (int i = 0; i < size; i++) {
+      max = Math.max(max, depths[i] + 1);
+    }
+    return max;
+  }
+
+  /**
+   * The sequence ids each node is decoded under, given one id per branch: {@code seqIds[b]} for
+   * every branch {@code b} through the node. The root row belongs to all of them.
+   */
+  List<List<Integer>> nodeSeqIds(int[] seqIds) {
+    List<List<Integer>> result = new ArrayList<>(size);
+    for (int i = 0; i < size; i++) {
+      result.add(new ArrayList<>(2));
+    }
+    int branch = 0;
+    for (int leaf = 0; leaf < size; leaf++) {
+      if (!isLeaf(leaf)) {
+        continue;
+      }
+      for (int node = leaf; node != ROOT; node = parents[node]) {
+        result.get(node).add(seqIds[branch]);
+      }
+      branch++;
+    }
+    return result;
+  }
+}
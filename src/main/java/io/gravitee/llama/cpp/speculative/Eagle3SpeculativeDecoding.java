@@ -42,7 +42,8 @@ public final class Eagle3SpeculativeDecoding
    * Encodes the target's captured prompt-layer features into g_embd rows and syncs the head
    * decoder with the shifted pairs {@code (token[k+1], g[k])} at pos k; the last g row becomes
    * the pending boundary. The layer capture buffer only covers the target's <b>last</b> decode,
-   * so the prompt must fit in a single target batch.
+   * so the prompt must fit in a single target batch. It is encoded {@link Eagle3Draft#maxRows()}
+   * rows at a time, so the head needs no scratch sized for the prompt.
    */
   @Override
   public void prefill(ConversationState state) {
@@ -51,6 +52,12 @@ public final class Eagle3SpeculativeDecoding
     var tokenized = state.getTokenized();
     int n = tokenized.size();
     int seqId = state.getSequenceId();
+    if (state.getTokenHistory().textTokens().length < state.getNPast()) {
+      throw new LlamaException(
+        "EAGLE3 does not support multimodal prompts: its layer capture needs every prompt row " +
+          "from one token decode, and media chunks are decoded as embeddings"
+      );
+    }
     if (n > target.nBatch()) {
       throw new LlamaException(
         "EAGLE3 requires the prompt (" +
@@ -61,19 +68,21 @@ public final class Eagle3SpeculativeDecoding
       );
     }
     e3.context().getMemory().seqRm(seqId, -1, -1);
-    float[][] g = e3.encodeCaptured(target, n);
-    if (n > 1) {
-      int[] toks = new int[n - 1];
-      int[] poss = new int[n - 1];
-      float[][] rows = new float[n - 1][];
-      for (int k = 0; k + 1 < n; k++) {
-        toks[k] = tokenized.data().getAtIndex(JAVA_INT, k + 1);
-        poss[k] = k;
-        rows[k] = g[k];
-      }
-      e3.syncPairs(toks, poss, rows, List.of(seqId));
+    e3.resetBoundary();
+    int[] toks = new int[n];
+    for (int k = 0; k < n; k++) {
+      toks[k] = tokenized.data().getAtIndex(JAVA_INT, k);
+    }
+    // Encoded maxRows rows at a time; each chunk syncs the pairs (token[k+1], g[k]) at pos k
+    // that are complete — the previous chunk's last row and all of its own but the last, which
+    // becomes the pending boundary.
+    var seq = List.of(seqId);
+    for (int off = 0; off < n; off += e3.maxRows()) {
+      int rows = Math.min(e3.maxRows(), n - off);
+      e3.encodeCaptured(target, off, rows);
+      int pos = off == 0 ? 0 : off - 1;
+      e3.commitPairs(toks, pos + 1, pos, rows - 1, seq);
     }
-    e3.setBoundary(g[n - 1]);
   }
 
   @Override
@@ -104,40 +113,23 @@ public final class Eagle3SpeculativeDecoding
       state
     );
 
-    decodeVerify(
-      spec.verifyBatch(),
-      target,
-      idLast,
-      nPast,
-      d.tokens(),
-      d.m(),
-      seq
-    );
+    decodeVerify(spec, target, idLast, nPast, d.tokens(), d.m(), seq);
     Verdict v = accept(it, state, spec, target, d.tokens(), d.snaps(), d.m());
 
-    // Encode the verify rows' captured features → g rows (gv[r] = g at target pos nPast+r).
-    // Read before any further target decode overwrites the capture buffers.
-    float[][] gv = e3.encodeCaptured(target, d.m() + 1);
+    // Encode the verify rows' captured features → staged g rows (row r = g at target pos
+    // nPast+r). Read before any further target decode overwrites the capture buffers.
+    e3.encodeCaptured(target, d.m() + 1);
 
     int newNPast = nPast + v.matched() + 1;
     target.getMemory().seqRm(seqId, newNPast, -1);
 
     // Head resync: wipe from the boundary, then re-decode only the accepted shifted pairs —
-    // (idLast @ B, boundary g) plus (drafted[k] @ B+1+k, gv[k]) for accepted k.
+    // (idLast @ B, boundary g) plus (drafted[k] @ B+1+k, g row k) for accepted k.
     e3.context().getMemory().seqRm(seqId, boundaryPos, -1);
     int[] toks = new int[v.matched() + 1];
-    int[] poss = new int[v.matched() + 1];
-    float[][] rows = new float[v.matched() + 1][];
     toks[0] = idLast;
-    poss[0] = boundaryPos;
-    rows[0] = e3.boundary();
-    for (int k = 0; k < v.matched(); k++) {
-      toks[k + 1] = d.tokens()[k];
-      poss[k + 1] = boundaryPos + 1 + k;
-      rows[k + 1] = gv[k];
-    }
-    e3.syncPairs(toks, poss, rows, seq);
-    e3.setBoundary(gv[v.matched()]);
+    System.arraycopy(d.tokens(), 0, toks, 1, v.matched());
+    e3.commitPairs(toks, 0, boundaryPos, v.matched(), seq);
 
     List<LlamaOutput> out = emitCommitted(it, state, d.tokens(), v);
     commit(state, v, d.tokens(), d.m(), newNPast);
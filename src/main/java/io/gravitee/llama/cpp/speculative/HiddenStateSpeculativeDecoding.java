@@ -17,6 +17,7 @@ package io.gravitee.llama.cpp.speculative;
 
 import io.gravitee.llama.cpp.*;
 import io.gravitee.llama.cpp.draft.HiddenStateDraft;
+import java.lang.foreign.MemorySegment;
 import java.util.List;
 
 /**
@@ -36,7 +37,8 @@ public abstract sealed class HiddenStateSpeculativeDecoding
 
   /**
    * Draft chain: step k decodes {@code (prevToken @ basePos+k)} with the current hidden,
-   * samples the draft, then chains on the source's own hidden.
+   * samples the draft, then chains on the source's own hidden — a native view of its output,
+   * copied into the next step's batch before that step decodes.
    */
   static Drafted draftChain(
     LlamaIterator<?> it,
@@ -44,7 +46,7 @@ public abstract sealed class HiddenStateSpeculativeDecoding
     Speculation spec,
     int basePos,
     int idLast,
-    float[] seedHidden,
+    MemorySegment seedHidden,
     List<Integer> seq,
     ConversationState state
   ) {
@@ -61,7 +63,7 @@ public abstract sealed class HiddenStateSpeculativeDecoding
     float[] probOut = new float[1];
     int m = 0;
     int prev = idLast;
-    float[] h = seedHidden;
+    MemorySegment h = seedHidden;
     for (int i = 0; i < kMax; i++) {
       drafter.step(prev, basePos + i, seq, h);
       float conf;
@@ -0,0 +1,115 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.llama.cpp.speculative;
+
+import io.gravitee.llama.cpp.*;
+import java.util.List;
+
+/**
+ * Hybrid speculative decoding: each round tries the n-gram lookup first and falls back to the draft
+ * model only when the history proposes fewer than {@link ConversationState#getHybridMinNgram()}
+ * tokens. Long verbatim repeats (code edits, quoted context) then cost no draft decode at all,
+ * while novel stretches still get the draft model's guesses.
+ *
+ * <p>An n-gram round runs exactly as {@link NgramSpeculativeDecoding} and leaves the draft KV
+ * behind ({@link ConversationState#markDraftBehind()}); a model round first catches it up from the
+ * committed token history, in one batched decode, then runs exactly as
+ * {@link ModelDraftSpeculativeDecoding} and appends what it committed to the n-gram history. The
+ * route depends only on the committed tokens, so greedy stays lossless and sampling stays exact.
+ *
+ * @author GraviteeSource Team
+ */
+public final class HybridSpeculativeDecoding extends SpeculativeDecoding {
+
+  /** The shortest n-gram proposal that replaces the draft model by default. */
+  public static final int DEFAULT_MIN_NGRAM = 2;
+
+  public static final HybridSpeculativeDecoding INSTANCE =
+    new HybridSpeculativeDecoding();
+
+  private HybridSpeculativeDecoding() {}
+
+  @Override
+  public void prefill(ConversationState state) {
+    state.clearDraftBehind();
+    ModelDraftSpeculativeDecoding.INSTANCE.prefill(state);
+  }
+
+  @Override
+  protected List<LlamaOutput> roundImpl(
+    LlamaIterator<?> it,
+    ConversationState state
+  ) {
+    int kMax = state.getNDraft();
+    int[] drafted = kMax > 0 ? state.proposeNgram(kMax) : null;
+    if (drafted != null && drafted.length >= state.getHybridMinNgram()) {
+      state.markDraftBehind();
+      return NgramSpeculativeDecoding.INSTANCE.roundImpl(it, state, drafted);
+    }
+    int nPast = state.getNPast();
+    if (state.draftBehindFrom() >= 0) {
+      // The last committed token becomes the deferred fill, riding along with the first draft
+      // decode as it does after a full accept.
+      catchUpDraft(state, nPast - 1);
+      state.setPendingDraftFill(
+        state.getTokenHistory().get(nPast - 1),
+        nPast - 1
+      );
+    }
+    List<LlamaOutput> out = ModelDraftSpeculativeDecoding.INSTANCE.roundImpl(
+      it,
+      state
+    );
+    // Keep the n-gram history at nPast + 1 tokens: the accepted drafts, then the new idLast.
+    var history = state.getTokenHistory();
+    for (int pos = nPast + 1; pos < state.getNPast(); pos++) {
+      state.appendHistory(history.get(pos));
+    }
+    state.appendHistory(state.getNewTokenId());
+    return out;
+  }
+
+  /**
+   * Decodes the committed tokens the draft KV missed, from
+   * {@link ConversationState#draftBehindFrom()} up to (excluding) position {@code upTo}, in chunks
+   * of the draft's {@code n_batch} through the persistent draft batch, and marks the draft in step
+   * again. No-op when it is not behind.
+   */
+  public static void catchUpDraft(ConversationState state, int upTo) {
+    int from = state.draftBehindFrom();
+    if (from < 0) {
+      return;
+    }
+    state.clearDraftBehind();
+    var draft = state.getDraftContext();
+    var history = state.getTokenHistory();
+    var seq = List.of(state.getSequenceId());
+    int nBatch = Math.max(1, draft.nBatch());
+    LlamaBatch batch = state
+      .getSpeculation()
+      .draftBatch(Math.min(nBatch, upTo - from));
+    for (int offset = from; offset < upTo; offset += nBatch) {
+      int chunk = Math.min(nBatch, upTo - offset);
+      batch.clear();
+      for (int i = 0; i < chunk; i++) {
+        batch.add(history.get(offset + i), offset + i, seq, false);
+      }
+      if (batch.decode(draft) != 0) {
+        throw new LlamaException("Draft catch-up decode failed");
+      }
+    }
+  }
+}
@@ -0,0 +1,196 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.llama.cpp.speculative;
+
+import io.gravitee.llama.cpp.*;
+import io.gravitee.llama.cpp.draft.LookaheadDraft;
+import io.gravitee.llama.cpp.logits.LogitsKernels;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Lookahead (Jacobi) speculative decoding: no draft model and no history — the target guesses its
+ * own n-grams (see {@link LookaheadDraft}) and verifies the ones pooled for the last token, both in
+ * the same single target decode per round. Greedy only, and as lossless as the tree verify it uses.
+ *
+ * <p>One round's batch holds three parts:
+ *
+ * <ul>
+ *   <li>{@code idLast} at {@code nPast}, under every sequence id below;
+ *   <li>the pooled continuations of {@code idLast}, as a {@link DraftTree} — one branch per
+ *       candidate, the conversation's own sequence for the first and scratch ids for the others;
+ *   <li>the guess window: column {@code i}'s level 0 at {@code nPast + i} and level {@code l} at
+ *       {@code nPast + i + l}, under one scratch id per column. A level-0 guess is also under every
+ *       later column's id, so each column sees {@code [prefix, level 0 of columns 0..i, its own
+ *       levels]} — a plain sequence whose last row predicts the token after the column's top.
+ * </ul>
+ *
+ * <p>The tree is walked exactly like {@link #verifyTree}; the window's predictions go to the pool
+ * and the window moves up one level. Every scratch sequence is emptied before the round returns.
+ * Scratch ids are the context's highest, as for trees, so the context needs a unified KV cache and
+ * {@code nSeqMax >= treeBranches + window} (checked by {@code setLookahead}).
+ *
+ * <p>In a {@code BatchIterator} there are no scratch ids to spare per sequence, so a fused round
+ * drafts one chain on the conversation's own sequence: the most recent pooled candidate, or else
+ * column 0 of the window — whose rows are already a plain sequence — and advances column 0 from
+ * its verify rows.
+ *
+ * @author GraviteeSource Team
+ */
+public final class LookaheadSpeculativeDecoding extends SpeculativeDecoding {
+
+  public static final LookaheadSpeculativeDecoding INSTANCE =
+    new LookaheadSpeculativeDecoding();
+
+  private LookaheadSpeculativeDecoding() {}
+
+  /** Seeds the guess window from the prompt: any tokens do, wrong guesses iterate away. */
+  @Override
+  public void prefill(ConversationState state) {
+    state.getLookaheadDraft().seed(state.getTokenHistory().textTokens());
+  }
+
+  @Override
+  protected List<LlamaOutput> roundImpl(
+    LlamaIterator<?> it,
+    ConversationState state
+  ) {
+    Speculation spec = state.getSpeculation();
+    LookaheadDraft lookahead = state.getLookaheadDraft();
+    LlamaContext target = state.getContext();
+    var memory = target.getMemory();
+    int nPast = state.getNPast();
+    int idLast = state.getNewTokenId();
+    int window = lookahead.window();
+    int levels = lookahead.levels();
+
+    DraftTree tree = spec.tree();
+    tree.clear();
+    int kMax = Math.min(state.getNDraft(), levels);
+    for (int[] candidate : lookahead.candidates(
+      idLast,
+      kMax,
+      spec.treeBranches()
+    )) {
+      tree.addPath(candidate, candidate.length);
+    }
+    int branches = Math.max(1, tree.branches());
+    int[] seqIds = branchSeqIds(state, branches + window);
+    int seqId = seqIds[0];
+    int[] columnIds = new int[window];
+    System.arraycopy(seqIds, branches, columnIds, 0, window);
+
+    List<Integer> all = new ArrayList<>(seqIds.length);
+    all.add(seqId);
+    for (int s = 1; s < seqIds.length; s++) {
+      memory.seqCp(seqId, seqIds[s], 0, nPast);
+      all.add(seqIds[s]);
+    }
+    try {
+      List<List<Integer>> nodeSeqIds = tree.nodeSeqIds(seqIds);
+      LlamaBatch batch = spec.lookaheadBatch(window);
+      batch.clear();
+      batch.add(idLast, nPast, all, true);
+      for (int i = 0; i < tree.size(); i++) {
+        batch.add(
+          tree.token(i),
+          nPast + 1 + tree.depth(i),
+          nodeSeqIds.get(i),
+          true
+        );
+      }
+      int[] topRow = addWindow(batch, lookahead, nPast, columnIds);
+
+      long start = System.nanoTime();
+      if (batch.decode(target) != 0) {
+        throw new LlamaException("Lookahead verify decode failed");
+      }
+      target.synchronize(); // time the compute, not the enqueue
+      spec.recordVerify(System.nanoTime() - start, batch.nTokens());
+
+      // Read the window's predictions before the walk: it may bias rows for the EOG ramp.
+      int nVocab = target.nVocab();
+      var kernels = LogitsKernels.get();
+      int[] next = new int[window];
+      for (int i = 0; i < window; i++) {
+        next[i] = kernels.argmax(
+          it.logitsRow(target, topRow[i], nVocab),
+          nVocab
+        );
+      }
+
+      TreeVerdict tv = acceptTree(
+        it,
+        state,
+        spec,
+        target,
+        nPast,
+        tree,
+        nodeSeqIds
+      );
+      lookahead.advance(idLast, next, window);
+
+      Verdict v = tv.verdict();
+      List<LlamaOutput> out = emitCommitted(it, state, tv.path(), v);
+      commit(state, v, tv.path(), tree.maxDepth(), nPast + v.matched() + 1);
+      return out;
+    } finally {
+      for (int s = 1; s < seqIds.length; s++) {
+        memory.seqRm(seqIds[s], -1, -1);
+      }
+    }
+  }
+
+  /**
+   * Packs the guess window behind the tree and returns, per column, the batch row predicting the
+   * token after its top level. Column 0's level 0 is {@code idLast}, already row 0.
+   */
+  private static int[] addWindow(
+    LlamaBatch batch,
+    LookaheadDraft lookahead,
+    int nPast,
+    int[] columnIds
+  ) {
+    int window = lookahead.window();
+    int levels = lookahead.levels();
+    int[] topRow = new int[window];
+    boolean topIsBase = levels == 1;
+    topRow[0] = 0;
+    for (int i = 1; i < window; i++) {
+      List<Integer> later = new ArrayList<>(window - i);
+      for (int c = i; c < window; c++) {
+        later.add(columnIds[c]);
+      }
+      topRow[i] = batch.nTokens();
+      batch.add(lookahead.token(i, 0), nPast + i, later, topIsBase);
+    }
+    for (int l = 1; l < levels; l++) {
+      boolean top = l == levels - 1;
+      for (int i = 0; i < window; i++) {
+        if (top) {
+          topRow[i] = batch.nTokens();
+        }
+        batch.add(
+          lookahead.token(i, l),
+          nPast + i + l,
+          List.of(columnIds[i]),
+          top
+        );
+      }
+    }
+    return topRow;
+  }
+}
@@ -15,9 +15,8 @@
  */
 package io.gravitee.llama.cpp.speculative;
 
-import static java.lang.foreign.ValueLayout.JAVA_INT;
-
 import io.gravitee.llama.cpp.*;
+import io.gravitee.llama.cpp.logits.LogitsKernels;
 import java.util.List;
 
 /**
@@ -41,12 +40,17 @@ public final class ModelDraftSpeculativeDecoding extends SpeculativeDecoding {
    * {@code processPrompt}. Starts from a clean draft KV for this seqId: with a shared draft
    * context, a reused seqId would otherwise inherit stale cells from a previous sequence
    * (degrades accept rate; can't corrupt output since the target still verifies every token).
+   *
+   * <p>A multimodal prompt has positions filled by image or audio embeddings, which a text draft
+   * cannot decode. It replays the prompt's text at consecutive positions, then shifts them up by
+   * the media positions so the last one sits where the target's does and the rounds line up. The
+   * draft reads the text without the picture: a lower accept rate, the same output.
    */
   @Override
   public void prefill(ConversationState state) {
     var draft = state.getDraftContext();
-    var tokenized = state.getTokenized();
-    int total = tokenized.size();
+    int[] text = state.getTokenHistory().textTokens();
+    int total = text.length;
     int nBatch = Math.max(1, draft.nBatch());
     int seqId = state.getSequenceId();
     state.clearPendingDraftFill(); // a fresh prompt replay invalidates any deferred fill
@@ -57,8 +61,7 @@ public final class ModelDraftSpeculativeDecoding extends SpeculativeDecoding {
       LlamaBatch batch = new LlamaBatch(state.getArena(), chunk, 0, 1);
       try {
         for (int i = 0; i < chunk; i++) {
-          int tok = tokenized.data().getAtIndex(JAVA_INT, offset + i);
-          batch.add(tok, offset + i, List.of(seqId), false);
+          batch.add(text[offset + i], offset + i, List.of(seqId), false);
         }
         if (batch.decode(draft) != 0) {
           throw new LlamaException("Draft prefill decode failed");
@@ -68,6 +71,10 @@ public final class ModelDraftSpeculativeDecoding extends SpeculativeDecoding {
       }
       offset += chunk;
     }
+    int media = state.getNPast() - total;
+    if (media > 0) {
+      draft.getMemory().seqAdd(seqId, 0, -1, media);
+    }
   }
 
   @Override
@@ -75,9 +82,12 @@ public final class ModelDraftSpeculativeDecoding extends SpeculativeDecoding {
     LlamaIterator<?> it,
     ConversationState state
   ) {
+    Speculation spec = state.getSpeculation();
+    if (spec.isTree() && state.getNDraft() > 0) {
+      return treeRound(it, state, spec);
+    }
     LlamaContext target = state.getContext();
     LlamaContext draft = state.getDraftContext();
-    Speculation spec = state.getSpeculation();
     int seqId = state.getSequenceId();
     int kMax = state.getNDraft();
     int nPast = state.getNPast();
@@ -100,6 +110,21 @@ public final class ModelDraftSpeculativeDecoding extends SpeculativeDecoding {
     float[] probOut = new float[1];
     int m = 0;
     int prev = idLast;
+    if (kMax == 0 && state.hasPendingDraftFill()) {
+      // Drafting is off this round (autoDraft): settle the deferred fill on its own, so the one
+      // this round leaves for idLast can take its place and the draft KV never falls behind.
+      draftBatch.clear();
+      draftBatch.add(
+        state.pendingDraftFillToken(),
+        state.pendingDraftFillPos(),
+        seq,
+        false
+      );
+      state.clearPendingDraftFill();
+      if (draftBatch.decode(draft) != 0) {
+        throw new LlamaException("Speculative draft decode failed");
+      }
+    }
     for (int i = 0; i < kMax; i++) {
       draftBatch.clear();
       // Piggy-back the deferred fill from the previous round's full accept (see below) onto
@@ -146,7 +171,7 @@ public final class ModelDraftSpeculativeDecoding extends SpeculativeDecoding {
       }
     }
 
-    decodeVerify(spec.verifyBatch(), target, idLast, nPast, drafted, m, seq);
+    decodeVerify(spec, target, idLast, nPast, drafted, m, seq);
     Verdict v = accept(it, state, spec, target, drafted, snaps, m);
 
     // Roll back both caches to the accepted boundary.
@@ -168,4 +193,129 @@ public final class ModelDraftSpeculativeDecoding extends SpeculativeDecoding {
     commit(state, v, drafted, m, newNPast);
     return out;
   }
+
+  /**
+   * A greedy tree round. The draft's first choices form the main chain, drafted exactly like the
+   * linear round; at each depth its runners-up are read from the same row, scored by the draft's
+   * probability of reaching them (the chain's product so far times their own), and the
+   * {@code treeBranches - 1} best become leaves off the chain. Runners-up cost no extra draft
+   * decode — only verify rows, all in the same target decode.
+   */
+  private List<LlamaOutput> treeRound(
+    LlamaIterator<?> it,
+    ConversationState state,
+    Speculation spec
+  ) {
+    LlamaContext target = state.getContext();
+    LlamaContext draft = state.getDraftContext();
+    int seqId = state.getSequenceId();
+    int kMax = state.getNDraft();
+    int nPast = state.getNPast();
+    int idLast = state.getNewTokenId();
+    int nVocab = target.nVocab();
+    int alternatives = spec.treeBranches() - 1;
+    var seq = List.of(seqId);
+    var kernels = LogitsKernels.get();
+
+    LlamaBatch draftBatch = spec.draftBatch();
+    int[] drafted = new int[kMax];
+    // The best `alternatives` runners-up so far, kept sorted by score, descending.
+    int[] altToken = new int[alternatives];
+    int[] altDepth = new int[alternatives];
+    double[] altScore = new double[alternatives];
+    int alts = 0;
+    int[] topIds = new int[alternatives + 1];
+    float[] topLogits = new float[alternatives + 1];
+    double reach = 1.0; // the draft's probability of the main chain so far
+    int m = 0;
+    int prev = idLast;
+    for (int i = 0; i < kMax; i++) {
+      draftBatch.clear();
+      if (i == 0 && state.hasPendingDraftFill()) {
+        draftBatch.add(
+          state.pendingDraftFillToken(),
+          state.pendingDraftFillPos(),
+          seq,
+          false
+        );
+        state.clearPendingDraftFill();
+      }
+      draftBatch.add(prev, nPast + i, seq, true);
+      if (draftBatch.decode(draft) != 0) {
+        throw new LlamaException("Speculative draft decode failed");
+      }
+      double logZ = kernels.summarize(
+        it.logitsRow(draft, -1, nVocab),
+        nVocab,
+        alternatives + 1,
+        topIds,
+        topLogits
+      );
+      for (int r = 1; r <= alternatives; r++) {
+        double score = reach * Math.exp(topLogits[r] - logZ);
+        int at = alts < alternatives ? alts++ : alternatives;
+        while (at > 0 && altScore[at - 1] < score) {
+          if (at < alternatives) {
+            altToken[at] = altToken[at - 1];
+            altDepth[at] = altDepth[at - 1];
+            altScore[at] = altScore[at - 1];
+          }
+          at--;
+        }
+        if (at < alternatives) {
+          altToken[at] = topIds[r];
+          altDepth[at] = i;
+          altScore[at] = score;
+        }
+      }
+      float conf = (float) Math.exp(topLogits[0] - logZ);
+      reach *= conf;
+      drafted[m] = topIds[0];
+      prev = drafted[m];
+      m++;
+      if (spec.isAdaptive() && m >= spec.draftMin() && conf < spec.pMin()) {
+        break;
+      }
+    }
+
+    DraftTree tree = spec.tree();
+    tree.clear();
+    int[] chainNodes = new int[m];
+    int parent = DraftTree.ROOT;
+    for (int i = 0; i < m; i++) {
+      parent = chainNodes[i] = tree.add(parent, drafted[i]);
+    }
+    for (int a = 0; a < alts; a++) {
+      tree.add(
+        altDepth[a] == 0 ? DraftTree.ROOT : chainNodes[altDepth[a] - 1],
+        altToken[a]
+      );
+    }
+
+    TreeVerdict tv = verifyTree(it, state, spec, target, idLast, nPast, tree);
+    Verdict v = tv.verdict();
+    int[] path = tv.path();
+    int newNPast = nPast + v.matched() + 1;
+
+    int common = 0;
+    while (common < v.matched() && path[common] == drafted[common]) {
+      common++;
+    }
+    if (common == v.matched()) {
+      // The main chain, or a prefix of it, won: roll back exactly as the linear round does.
+      draft.getMemory().seqRm(seqId, newNPast, -1);
+      if (v.matched() == m) {
+        state.setPendingDraftFill(prev, nPast + m);
+      }
+    } else {
+      // A runner-up (always a leaf) won at depth `common`: the draft holds the main chain's token
+      // from there on, so drop it and fill the runner-up in with next round's first draft decode.
+      draft.getMemory().seqRm(seqId, nPast + 1 + common, -1);
+      state.setPendingDraftFill(path[common], nPast + 1 + common);
+    }
+
+    List<LlamaOutput> out = emitCommitted(it, state, path, v);
+    commit(state, v, path, tree.maxDepth(), newNPast);
+    return out;
+  }
 }
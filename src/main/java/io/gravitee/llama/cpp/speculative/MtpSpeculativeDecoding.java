@@ -47,7 +47,7 @@ public final class MtpSpeculativeDecoding
   public void prefill(ConversationState state) {
     var mtp = state.getMtpDraft();
     mtp.context().getMemory().seqRm(state.getSequenceId(), -1, -1);
-    mtp.setSeed(state.getContext().getEmbeddingsIth(-1));
+    mtp.setSeed(state.getContext().getEmbeddingsIthSegment(-1));
   }
 
   @Override
@@ -76,25 +76,16 @@ public final class MtpSpeculativeDecoding
       state
     );
 
-    decodeVerify(
-      spec.verifyBatch(),
-      target,
-      idLast,
-      nPast,
-      d.tokens(),
-      d.m(),
-      seq
-    );
+    decodeVerify(spec, target, idLast, nPast, d.tokens(), d.m(), seq);
     Verdict v = accept(it, state, spec, target, d.tokens(), d.snaps(), d.m());
 
     // Next round's seed: the target's hidden at the last ACCEPTED verify row (input position
-    // nPast+matched — the position preceding the new idLast). Read before any further decode.
-    float[] newSeed = target.getEmbeddingsIth(v.matched());
+    // nPast+matched — the position preceding the new idLast). Copied before any further decode.
+    mtp.setSeed(target.getEmbeddingsIthSegment(v.matched()));
 
     int newNPast = nPast + v.matched() + 1;
     target.getMemory().seqRm(seqId, newNPast, -1);
     mtp.context().getMemory().seqRm(seqId, newNPast, -1);
-    mtp.setSeed(newSeed);
 
     List<LlamaOutput> out = emitCommitted(it, state, d.tokens(), v);
     commit(state, v, d.tokens(), d.m(), newNPast);
@@ -39,17 +39,41 @@ public final class NgramSpeculativeDecoding extends SpeculativeDecoding {
     LlamaIterator<?> it,
     ConversationState state
   ) {
-    LlamaContext target = state.getContext();
+    return roundImpl(it, state, null);
+  }
+
+  /**
+   * A round over {@code drafted}, the linear proposal for {@code getNDraft()} tokens when the
+   * caller already looked it up — {@link HybridSpeculativeDecoding} routes on it — or {@code null}
+   * to look it up here.
+   */
+  List<LlamaOutput> roundImpl(
+    LlamaIterator<?> it,
+    ConversationState state,
+    int[] drafted
+  ) {
     Speculation spec = state.getSpeculation();
+    if (spec.isTree()) {
+      int[][] branches = state.proposeNgramBranches(
+        state.getNDraft(),
+        spec.treeBranches()
+      );
+      if (branches.length > 1) {
+        return treeRound(it, state, spec, branches);
+      }
+    }
+    LlamaContext target = state.getContext();
     int seqId = state.getSequenceId();
     int nPast = state.getNPast();
     int idLast = state.getNewTokenId();
     var seq = List.of(seqId);
 
-    int[] drafted = state.proposeNgram(state.getNDraft());
+    if (drafted == null) {
+      drafted = state.proposeNgram(state.getNDraft());
+    }
     int m = drafted.length;
 
-    decodeVerify(spec.verifyBatch(), target, idLast, nPast, drafted, m, seq);
+    decodeVerify(spec, target, idLast, nPast, drafted, m, seq);
     // Point-mass draft: snaps == null → q = 1 accept + point-mass residual.
     Verdict v = accept(it, state, spec, target, drafted, null, m);
 
@@ -69,4 +93,42 @@ public final class NgramSpeculativeDecoding extends SpeculativeDecoding {
     commit(state, v, drafted, m, newNPast);
     return out;
   }
+
+  /**
+   * A greedy tree round over several looked-up continuations at once: each earlier occurrence of
+   * the current n-gram proposes its own branch, and continuations that start alike share nodes.
+   */
+  private List<LlamaOutput> treeRound(
+    LlamaIterator<?> it,
+    ConversationState state,
+    Speculation spec,
+    int[][] branches
+  ) {
+    DraftTree tree = spec.tree();
+    tree.clear();
+    for (int[] branch : branches) {
+      tree.addPath(branch, branch.length);
+    }
+    int nPast = state.getNPast();
+    TreeVerdict tv = verifyTree(
+      it,
+      state,
+      spec,
+      state.getContext(),
+      state.getNewTokenId(),
+      nPast,
+      tree
+    );
+    Verdict v = tv.verdict();
+    int[] path = tv.path();
+
+    List<LlamaOutput> out = emitCommitted(it, state, path, v);
+    for (int i = 0; i < v.matched(); i++) {
+      state.appendHistory(path[i]);
+    }
+    state.appendHistory(v.extra());
+
+    commit(state, v, path, tree.maxDepth(), nPast + v.matched() + 1);
+    return out;
+  }
 }
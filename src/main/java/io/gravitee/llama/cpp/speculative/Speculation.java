@@ -29,8 +29,9 @@ import java.util.Random;
  * <p>The per-position distribution (temperature → top-k → top-p → softmax) is computed
  * <b>natively</b> by the sampler chain applied to a {@link LlamaTokenDataArray}
  * ({@code llama_sampler_apply}); this class only adds the rejection-sampling decision and
- * residual draw, which have no native primitive. Reusable candidate buffers (one per role)
- * are allocated once and reused across rounds.
+ * residual draw, which have no native primitive. The full-vocabulary candidate buffers are not
+ * per conversation: they are borrowed from the calling thread's {@link SpeculationScratch}, so a
+ * speculative conversation costs no {@code n_vocab}-sized memory of its own.
  *
  * @author Rémi SULTAN (remi.sultan at graviteesource.com)
  * @author GraviteeSource Team
@@ -58,27 +59,29 @@ public final class Speculation {
 
   private final SpeculativeConfig config;
   private final Arena arena;
-  private final LlamaTokenDataArray targetBuf;
-  private final LlamaTokenDataArray draftBuf;
+  private final int nVocab;
   private final Random rng;
-  // Reusable dense q-by-token-id buffer for the residual draw, kept all-zero between calls so a
-  // residual is O(support) instead of O(support²) (the old per-id linear probOf scan).
-  private final float[] qScatter;
 
   // Persistent native scratch, built once and reused every round (cleared in place), then freed by
   // free() exactly once on teardown. Reusing them avoids per-round native init/free and the
   // confined-arena growth from re-allocating these structs every round. Nullable / lazily built.
   private LlamaSampler chain;
   private LlamaBatch draftBatch;
+  private int draftBatchCapacity;
   private LlamaBatch verifyBatch;
+  private LlamaBatch treeBatch;
+  private LlamaBatch lookaheadBatch;
+  private DraftTree tree;
+
+  // The last verify decode's wall time and token count, read by the draft-length controller.
+  private long verifyNanos;
+  private int verifyTokens;
 
   public Speculation(Arena arena, int nVocab, SpeculativeConfig config) {
     this.config = config;
     this.arena = arena;
-    this.targetBuf = new LlamaTokenDataArray(arena, nVocab);
-    this.draftBuf = new LlamaTokenDataArray(arena, nVocab);
+    this.nVocab = nVocab;
     this.rng = new Random(config.seed());
-    this.qScatter = new float[nVocab];
   }
 
   public boolean isGreedy() {
@@ -97,6 +100,14 @@ public final class Speculation {
     return config.pMin();
   }
 
+  public boolean isTree() {
+    return config.isTree();
+  }
+
+  public int treeBranches() {
+    return config.treeBranches();
+  }
+
   /**
    * Lazily-built persistent sampler chain for this config (greedy, or temp/top-k/top-p/dist),
    * reused across rounds. Reuse gives the stochastic chain a single continuous RNG stream (more
@@ -132,8 +143,25 @@ public final class Speculation {
    * the drafted token (see {@link ModelDraftSpeculativeDecoding}).
    */
   public LlamaBatch draftBatch() {
+    return draftBatch(2);
+  }
+
+  /**
+   * The persistent draft batch with room for at least {@code capacity} tokens, for
+   * {@link HybridSpeculativeDecoding#catchUpDraft}. Grows by at least doubling, freeing the smaller
+   * batch, so a conversation reallocates it a handful of times at most.
+   */
+  public LlamaBatch draftBatch(int capacity) {
+    if (draftBatch != null && draftBatchCapacity < capacity) {
+      draftBatch.free();
+      draftBatch = null;
+    }
     if (draftBatch == null) {
-      draftBatch = new LlamaBatch(arena, 2, 0, 1);
+      draftBatchCapacity = Math.max(
+        Math.max(2, capacity),
+        2 * draftBatchCapacity
+      );
+      draftBatch = new LlamaBatch(arena, draftBatchCapacity, 0, 1);
     }
     return draftBatch;
   }
@@ -146,6 +174,64 @@ public final class Speculation {
     return verifyBatch;
   }
 
+  /**
+   * Persistent tree-verify batch: idLast plus up to {@code nDraft} nodes per branch, each row
+   * carrying up to {@code treeBranches} sequence ids (see {@link SpeculativeDecoding#verifyTree}).
+   */
+  LlamaBatch treeBatch() {
+    if (treeBatch == null) {
+      treeBatch = new LlamaBatch(
+        arena,
+        1 + config.nDraft() * config.treeBranches(),
+        0,
+        config.treeBranches()
+      );
+    }
+    return treeBatch;
+  }
+
+  /**
+   * Persistent lookahead batch: idLast, up to {@code treeBranches} pooled candidates of
+   * {@code nDraft} tokens, and the {@code window x nDraft} guess window, each row carrying up to
+   * one sequence id per candidate and per column (see {@code LookaheadSpeculativeDecoding}).
+   */
+  LlamaBatch lookaheadBatch(int window) {
+    if (lookaheadBatch == null) {
+      int seqs = config.treeBranches() + window;
+      lookaheadBatch = new LlamaBatch(arena, seqs * config.nDraft(), 0, seqs);
+    }
+    return lookaheadBatch;
+  }
+
+  /** The draft tree, rebuilt in place every tree round. */
+  DraftTree tree() {
+    if (tree == null) {
+      tree = new DraftTree(config.nDraft() * config.treeBranches());
+    }
+    return tree;
+  }
+
+  /** Records a verify decode: {@code tokens} rows in {@code nanos}. */
+  void recordVerify(long nanos, int tokens) {
+    this.verifyNanos = nanos;
+    this.verifyTokens = tokens;
+  }
+
+  /** Wall time of the last recorded verify decode, 0 when none since {@link #resetVerify()}. */
+  long verifyNanos() {
+    return verifyNanos;
+  }
+
+  /** Token count of the last recorded verify decode. */
+  int verifyTokens() {
+    return verifyTokens;
+  }
+
+  void resetVerify() {
+    this.verifyNanos = 0;
+    this.verifyTokens = 0;
+  }
+
   /**
    * Frees the persistent native resources exactly once. Each field is NULLed so the call is
    * idempotent (a double-free is a no-op) and a re-initialized conversation lazily rebuilds them on
@@ -159,11 +245,20 @@ public final class Speculation {
     if (draftBatch != null) {
       draftBatch.free();
       draftBatch = null;
+      draftBatchCapacity = 0;
     }
     if (verifyBatch != null) {
       verifyBatch.free();
       verifyBatch = null;
     }
+    if (treeBatch != null) {
+      treeBatch.free();
+      treeBatch = null;
+    }
+    if (lookaheadBatch != null) {
+      lookaheadBatch.free();
+      lookaheadBatch = null;
+    }
   }
 
   /**
@@ -203,12 +298,30 @@ public final class Speculation {
   }
 
   public Snapshot draft(LlamaSampler chain, MemorySegment logitsRow) {
+    return snapshot(scratch().draftBuf, chain, logitsRow);
+  }
+
+  /**
+   * {@link #draft(LlamaSampler, MemorySegment)} on the caller's {@code nVocab}-candidate buffer
+   * instead of this thread's — for drafting on threads that don't live past the round (virtual
+   * threads), which would otherwise build a full scratch set each time.
+   */
+  public Snapshot draft(
+    LlamaSampler chain,
+    MemorySegment logitsRow,
+    LlamaTokenDataArray draftBuf
+  ) {
     return snapshot(draftBuf, chain, logitsRow);
   }
 
   /** Selected token only — applies the chain to the target buffer and returns its choice. */
   public int targetSelect(LlamaSampler chain, MemorySegment logitsRow) {
-    return select(targetBuf, chain, logitsRow);
+    return select(scratch().targetBuf, chain, logitsRow);
+  }
+
+  /** This thread's full-vocabulary buffers. */
+  private SpeculationScratch scratch() {
+    return SpeculationScratch.forThread(nVocab);
   }
 
   private static int select(
@@ -246,7 +359,7 @@ public final class Speculation {
   /* ----- native-buffer verify ----- */
 
   /**
-   * Rejection-sampling accept test operating directly on the persistent {@code targetBuf}: fills and
+   * Rejection-sampling accept test operating directly on this thread's {@code targetBuf}: fills and
    * applies the chain once (leaving {@code targetBuf} populated for a possible {@link
    * #residualTargetScatter} / {@link #residualTargetPointMass}), then accepts the drafted token with
    * probability {@code min(1, p/qOfDrafted)} where {@code p} is its post-chain target probability.
@@ -261,17 +374,21 @@ public final class Speculation {
     int draftedToken,
     float qOfDrafted
   ) {
+    LlamaTokenDataArray targetBuf = scratch().targetBuf;
     targetBuf.fill(logitsRow, 0);
     targetBuf.apply(chain);
     if (qOfDrafted <= 0.0f) {
       return true;
     }
-    double ratio = targetProbOf(draftedToken) / qOfDrafted;
+    double ratio = targetProbOf(targetBuf, draftedToken) / qOfDrafted;
     return ratio >= 1.0 || rng.nextDouble() < ratio;
   }
 
   /** Probability of {@code token} in the just-applied {@code targetBuf} (0 outside the kept support). */
-  private float targetProbOf(int token) {
+  private static float targetProbOf(
+    LlamaTokenDataArray targetBuf,
+    int token
+  ) {
     int n = (int) targetBuf.size();
     for (int i = 0; i < n; i++) {
       if (targetBuf.idAt(i) == token) {
@@ -285,9 +402,12 @@ public final class Speculation {
    * Residual draw over the already-applied {@code targetBuf} against a model-draft distribution:
    * samples from the normalized {@code (p - q)₊}, with {@code q} scattered by id. Allocation-free
    * (two passes; no {@code float[]} of differences). Must be called immediately after a rejecting
-   * {@link #acceptTarget} for the same position (no intervening fill/apply).
+   * {@link #acceptTarget} for the same position (no intervening fill/apply), on the same thread.
    */
   public int residualTargetScatter(Snapshot draft) {
+    SpeculationScratch scratch = scratch();
+    LlamaTokenDataArray targetBuf = scratch.targetBuf;
+    float[] qScatter = scratch.qScatter;
     int[] draftIds = draft.ids();
     float[] draftProbs = draft.probs();
     for (int i = 0; i < draftIds.length; i++) {
@@ -331,9 +451,10 @@ public final class Speculation {
    * Residual draw over the already-applied {@code targetBuf} against a point-mass n-gram draft at
    * {@code token}: samples from the target probabilities with {@code token} removed (since
    * {@code (p - 1)₊ = 0} there) and renormalized. Allocation-free. Must be called immediately after
-   * a rejecting {@link #acceptTarget} for the same position.
+   * a rejecting {@link #acceptTarget} for the same position, on the same thread.
    */
   public int residualTargetPointMass(int token) {
+    LlamaTokenDataArray targetBuf = scratch().targetBuf;
     int n = (int) targetBuf.size();
     double sum = 0.0;
     for (int i = 0; i < n; i++) {
@@ -0,0 +1,196 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.llama.cpp.speculative;
+
+import io.gravitee.llama.cpp.LlamaContext;
+import io.gravitee.llama.cpp.LlamaException;
+
+/**
+ * Batch-wide speculation policy for a {@code BatchIterator}: caps every sequence's draft length
+ * each step from how loaded the fused verify decode is, and suspends drafting once the target is
+ * compute-bound enough that verify rows cost more than the tokens they win.
+ *
+ * <p>A verify decode of {@code t} tokens is modelled as {@code fixed + perToken * t}: the fixed part
+ * is reading the weights, the per-token part the arithmetic. While the batch is small the fixed
+ * part dominates and extra verify rows are nearly free; past the <em>compute-bound threshold</em>
+ * {@code fixed / perToken} every row costs about as much as a sequence's whole step. With
+ * {@code n} sequences drafting {@code k} tokens each, a step commits {@code n * E(k)} tokens, where
+ * {@code E(k) = (1 - a^(k+1)) / (1 - a)} for the batch's acceptance probability {@code a}, in
+ * {@code fixed + perToken * n * (k + 1)} plus {@code k} draft steps — the cap is the {@code k}
+ * with the best ratio, and {@code 0} suspends drafting. As sequences finish, {@code n} drops, the
+ * fixed share wins again and drafting resumes by itself.
+ *
+ * <p>Both terms are fitted from every target decode the iterator times, speculative or not. Set
+ * {@link #computeBoundTokens(int)} to pin the threshold to a calibrated value instead (for example
+ * the batch size where {@code llama-bench} stops scaling); only the fixed part is then measured.
+ * Switching between drafting and not needs a {@value #HYSTERESIS_PERCENT}% better estimate, so a
+ * batch near the threshold does not flap. Whatever it estimates, the cap never asks for more than
+ * {@code n_batch} verify tokens.
+ *
+ * <p>Confined to the iterator thread, like the iterator.
+ *
+ * @author GraviteeSource Team
+ */
+public final class SpeculationGate {
+
+  /** Timed decodes needed before the gate caps anything. */
+  public static final int WARMUP_DECODES = 8;
+  /** Threshold assumed until the decodes seen differ enough in size to fit one. */
+  public static final int DEFAULT_COMPUTE_BOUND_TOKENS = 64;
+  /** Improvement needed to switch between drafting and suspended. */
+  public static final int HYSTERESIS_PERCENT = 5;
+
+  // Weight kept by past observations at each new one: ~10 steps of memory.
+  private static final double DECAY = 0.9;
+
+  private int computeBoundTokens;
+
+  // Decayed least-squares sums over (decode tokens, decode nanos).
+  private double sw;
+  private double sx;
+  private double sy;
+  private double sxx;
+  private double sxy;
+  private int decodes;
+
+  private double accepted;
+  private double rejected;
+  private double draftStepNanos = Double.NaN;
+  private boolean suspended;
+
+  /** Fluent setter: pins the compute-bound threshold, in verify tokens; {@code 0} fits it online. */
+  public SpeculationGate computeBoundTokens(int tokens) {
+    if (tokens < 0) {
+      throw new LlamaException(
+        "computeBoundTokens must be >= 0 (0 = fitted), got " + tokens
+      );
+    }
+    this.computeBoundTokens = tokens;
+    return this;
+  }
+
+  /** Whether the last cap suspended drafting for the whole batch. */
+  public boolean isSuspended() {
+    return suspended;
+  }
+
+  /** The compute-bound threshold in use, in decode tokens. */
+  public double computeBoundThreshold() {
+    double[] cost = cost();
+    return cost[1] == 0 ? Double.POSITIVE_INFINITY : cost[0] / cost[1];
+  }
+
+  /**
+   * Records a target decode of {@code tokens} tokens that took {@code nanos}, timed up to
+   * {@link LlamaContext#synchronize()} so an asynchronous backend's compute is included.
+   */
+  public void observeDecode(int tokens, long nanos) {
+    if (tokens <= 0 || nanos <= 0) {
+      return;
+    }
+    double x = tokens;
+    double y = nanos;
+    sw = DECAY * sw + 1;
+    sx = DECAY * sx + x;
+    sy = DECAY * sy + y;
+    sxx = DECAY * sxx + x * x;
+    sxy = DECAY * sxy + x * y;
+    decodes++;
+  }
+
+  /** Records a fused drafting phase: {@code steps} lockstep draft decodes in {@code nanos}. */
+  public void observeDrafting(long nanos, int steps) {
+    if (steps <= 0) {
+      return;
+    }
+    double perStep = (double) nanos / steps;
+    draftStepNanos = Double.isNaN(draftStepNanos)
+      ? perStep
+      : DECAY * draftStepNanos + (1 - DECAY) * perStep;
+  }
+
+  /** Records one sequence's round: {@code accepted} of {@code drafted} tokens matched. */
+  public void observeAcceptance(int drafted, int accepted) {
+    if (drafted <= 0) {
+      return;
+    }
+    this.accepted = DECAY * this.accepted + accepted;
+    this.rejected = DECAY * this.rejected + (accepted < drafted ? 1 : 0);
+  }
+
+  /**
+   * The most tokens any sequence may draft this step.
+   *
+   * @param sequences speculative sequences sharing the verify decode
+   * @param maxDraft  the largest draft length any of them asks for
+   * @param nBatch    the target context's {@code n_batch}
+   */
+  public int draftCap(int sequences, int maxDraft, int nBatch) {
+    if (sequences <= 0) {
+      return maxDraft;
+    }
+    int fits = Math.max(0, Math.min(maxDraft, nBatch / sequences - 1));
+    if (decodes < WARMUP_DECODES) {
+      return fits;
+    }
+    double[] cost = cost();
+    double a = (accepted + 1.0) / (accepted + rejected + 2.0);
+    double draft = Double.isNaN(draftStepNanos) ? 0 : draftStepNanos;
+    // Per-sequence view of the shared step: fixed part and draft steps split n ways.
+    double fixed = cost[0] / sequences;
+    double perDraft = draft / sequences;
+
+    double off = DraftLengthController.rate(0, a, perDraft, fixed, cost[1]);
+    int best = 0;
+    double bestRate = 0;
+    for (int k = 1; k <= fits; k++) {
+      double r = DraftLengthController.rate(k, a, perDraft, fixed, cost[1]);
+      if (r > bestRate) {
+        best = k;
+        bestRate = r;
+      }
+    }
+    double margin = 1 + HYSTERESIS_PERCENT / 100.0;
+    suspended =
+      best == 0 ||
+      (suspended ? bestRate <= off * margin : off > bestRate * margin);
+    return suspended ? 0 : best;
+  }
+
+  /** {@code {fixed, perToken}} nanos of a decode under the current estimates. */
+  private double[] cost() {
+    if (sw == 0) {
+      return new double[] { 0, 0 };
+    }
+    double meanX = sx / sw;
+    double meanY = sy / sw;
+    if (computeBoundTokens > 0) {
+      // y = fixed * (1 + t / T): only the fixed part is unknown.
+      double fixed = meanY / (1 + meanX / computeBoundTokens);
+      return new double[] { fixed, fixed / computeBoundTokens };
+    }
+    double var = sxx / sw - meanX * meanX;
+    if (var > 1.0) {
+      double perToken = Math.max(0, (sxy / sw - meanX * meanY) / var);
+      double fixed = meanY - perToken * meanX;
+      if (fixed > 0) {
+        return new double[] { fixed, perToken };
+      }
+    }
+    double fixed = meanY / (1 + meanX / DEFAULT_COMPUTE_BOUND_TOKENS);
+    return new double[] { fixed, fixed / DEFAULT_COMPUTE_BOUND_TOKENS };
+  }
+}
@@ -0,0 +1,58 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.llama.cpp.speculative;
+
+import io.gravitee.llama.cpp.LlamaTokenDataArray;
+import java.lang.foreign.Arena;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The full-vocabulary working buffers of {@link Speculation}: the target and draft candidate
+ * arrays and the dense {@code q}-by-id array of the residual draw. A thread verifies or drafts for
+ * one sequence at a time and each use lasts a single call (or, for {@code acceptTarget} and its
+ * residual, two back-to-back calls), so one set per thread and vocabulary size serves any number
+ * of conversations: memory scales with iterator threads, not with sequences.
+ *
+ * <p>Native memory comes from an automatic arena, released once the thread that owns the set is
+ * gone.
+ *
+ * @author GraviteeSource Team
+ */
+final class SpeculationScratch {
+
+  private static final ThreadLocal<
+    Map<Integer, SpeculationScratch>
+  > BY_THREAD = ThreadLocal.withInitial(HashMap::new);
+
+  final LlamaTokenDataArray targetBuf;
+  final LlamaTokenDataArray draftBuf;
+  // Dense q-by-token-id buffer for the residual draw, kept all-zero between calls so a residual
+  // is O(support) instead of O(support²).
+  final float[] qScatter;
+
+  private SpeculationScratch(int nVocab) {
+    Arena arena = Arena.ofAuto();
+    this.targetBuf = new LlamaTokenDataArray(arena, nVocab);
+    this.draftBuf = new LlamaTokenDataArray(arena, nVocab);
+    this.qScatter = new float[nVocab];
+  }
+
+  /** The calling thread's buffers for {@code nVocab} candidates, built on its first use. */
+  static SpeculationScratch forThread(int nVocab) {
+    return BY_THREAD.get().computeIfAbsent(nVocab, SpeculationScratch::new);
+  }
+}
@@ -29,13 +29,18 @@ import java.util.List;
  * <ul>
  *   <li>{@link NgramSpeculativeDecoding} — proposals from the committed history; no draft KV.</li>
  *   <li>{@link ModelDraftSpeculativeDecoding} — a separate small model decoded token-by-token.</li>
+ *   <li>{@link HybridSpeculativeDecoding} — the n-gram lookup first, the draft model when it comes
+ *       up short.</li>
+ *   <li>{@link LookaheadSpeculativeDecoding} — n-grams the target guesses for itself in a Jacobi
+ *       window.</li>
  *   <li>{@link MtpSpeculativeDecoding} — the target's own nextn head.</li>
  *   <li>{@link Eagle3SpeculativeDecoding} — a trained EAGLE3 head over the target's captured
  *       layer inputs.</li>
  * </ul>
  *
  * The right variant is attached to the {@link ConversationState} by its {@code setDraft} /
- * {@code setNgram} / {@code setMtp} / {@code setEagle3} setter; the iterators just delegate.
+ * {@code setNgram} / {@code setHybrid} / {@code setLookahead} / {@code setMtp} /
+ * {@code setEagle3} setter; the iterators just delegate.
  * The sampling math (draft snapshots, accept test, residual draws) lives in
  * {@link Speculation}; detokenization/emission stays on the iterator
  * ({@code emitSpeculative}). Greedy configs are lossless w.r.t. plain greedy decoding; sampling
@@ -49,6 +54,8 @@ public abstract sealed class SpeculativeDecoding
   permits
     ModelDraftSpeculativeDecoding,
     NgramSpeculativeDecoding,
+    HybridSpeculativeDecoding,
+    LookaheadSpeculativeDecoding,
     HiddenStateSpeculativeDecoding {
 
   /**
@@ -67,8 +74,22 @@ public abstract sealed class SpeculativeDecoding
     LlamaIterator<?> it,
     ConversationState state
   ) {
+    Speculation spec = state.getSpeculation();
+    spec.resetVerify();
+    long start = System.nanoTime();
     try {
-      return roundImpl(it, state);
+      List<LlamaOutput> outputs = roundImpl(it, state);
+      // Everything outside the verify decode is drafting cost: proposing plus accepting.
+      long verifyNanos = spec.verifyNanos();
+      int verifyTokens = spec.verifyTokens();
+      state.recordRoundCost(
+        System.nanoTime() - start - verifyNanos,
+        Math.max(0, verifyTokens - 1),
+        verifyNanos,
+        verifyTokens,
+        1
+      );
+      return outputs;
     } catch (RuntimeException e) {
       state.freeSpeculativeScratch();
       throw e;
@@ -96,9 +117,12 @@ public abstract sealed class SpeculativeDecoding
     }
   }
 
-  /** One batched target decode of {@code [idLast, drafted[0..m-1]]} with logits on every row. */
+  /**
+   * One batched target decode of {@code [idLast, drafted[0..m-1]]} with logits on every row, timed
+   * onto {@code spec} for the draft-length controller.
+   */
   static void decodeVerify(
-    LlamaBatch verifyBatch,
+    Speculation spec,
     LlamaContext target,
     int idLast,
     int nPast,
@@ -106,44 +130,50 @@ public abstract sealed class SpeculativeDecoding
     int m,
     List<Integer> seq
   ) {
+    LlamaBatch verifyBatch = spec.verifyBatch();
     verifyBatch.clear();
     verifyBatch.add(idLast, nPast, seq, true);
     for (int i = 0; i < m; i++) {
       verifyBatch.add(drafted[i], nPast + 1 + i, seq, true);
     }
+    long start = System.nanoTime();
     if (verifyBatch.decode(target) != 0) {
       throw new LlamaException("Speculative verify decode failed");
     }
+    // Decode may only queue the graph (GPU); stopping the timer there would book the verify's
+    // compute as drafting, and the controller would pick drafts that are too short.
+    target.synchronize();
+    spec.recordVerify(System.nanoTime() - start, m + 1);
   }
 
   /**
-   * Applies the budget EOG ramp to verify row {@code i}, which is the distribution after {@code i}
-   * more tokens. Biasing before the row is read keeps the acceptance test and the residual draw on
-   * the same target, so the round stays an exact sampler of the biased distribution.
-   */
-  /**
-   * Biases verify row {@code i} at its projected budget position, returning whether it did.
+   * Applies the budget EOG ramp to verify row {@code row}, which is the distribution after
+   * {@code i} more tokens. Biasing before the row is read keeps the acceptance test and the residual
+   * draw on the same target, so the round stays an exact sampler of the biased distribution.
    *
    * <p>The answer is kept per row rather than as a flag on the state: a round biases several
    * positions, and a sticky flag would attribute an EOG drawn from an unbiased row to budget
    * pressure just because an earlier row in the same round was biased.
+   *
+   * @return whether the row was biased
    */
   private static boolean biasVerifyRow(
     LlamaIterator<?> it,
     ConversationState state,
     LlamaContext target,
+    int row,
     int[] drafted,
     int i
   ) {
     if (!state.hasEogRamp()) {
       return false;
     }
-    var row = it.logitsRow(target, i, target.nVocab());
+    var logits = it.logitsRow(target, row, target.nVocab());
     // Row i is only reached if drafts 0..i-1 were accepted, so their text is where the gate must
     // be judged — not the text from before the round.
     return it.biasEogRow(
       state,
-      row,
+      logits,
       state.getAnswerTokens() + i,
       it.projectBoundary(state, drafted, i)
     );
@@ -171,7 +201,7 @@ public abstract sealed class SpeculativeDecoding
       int matched = 0;
       int correction = -1;
       for (int i = 0; i < m; i++) {
-        rowBiased[i] = biasVerifyRow(it, state, target, drafted, i);
+        rowBiased[i] = biasVerifyRow(it, state, target, i, drafted, i);
         int t = chain.sample(target, i);
         if (t == drafted[i]) {
           matched++;
@@ -182,7 +212,7 @@ public abstract sealed class SpeculativeDecoding
       }
       int extra;
       if (matched == m) {
-        rowBiased[m] = biasVerifyRow(it, state, target, drafted, m);
+        rowBiased[m] = biasVerifyRow(it, state, target, m, drafted, m);
         extra = chain.sample(target, m);
       } else {
         // The correction came from row `matched` — already recorded by the loop before it broke.
@@ -195,7 +225,7 @@ public abstract sealed class SpeculativeDecoding
     int matched = 0;
     int extra = -1;
     for (int i = 0; i < m; i++) {
-      rowBiased[i] = biasVerifyRow(it, state, target, drafted, i);
+      rowBiased[i] = biasVerifyRow(it, state, target, i, drafted, i);
       float q = snaps == null ? 1.0f : snaps[i].selectedProbability();
       if (
         spec.acceptTarget(chain, it.logitsRow(target, i, nVocab), drafted[i], q)
@@ -209,7 +239,7 @@ public abstract sealed class SpeculativeDecoding
       }
     }
     if (matched == m) {
-      rowBiased[m] = biasVerifyRow(it, state, target, drafted, m);
+      rowBiased[m] = biasVerifyRow(it, state, target, m, drafted, m);
       extra = spec.targetSelect(chain, it.logitsRow(target, m, nVocab));
     }
     return new Verdict(matched, extra, rowBiased);
@@ -256,4 +286,146 @@ public abstract sealed class SpeculativeDecoding
     state.setNewTokenId(v.extra());
     state.recordSpeculation(nDrafted, v.matched());
   }
+
+  /* ------------------------------- token-tree speculation ------------------------------- */
+
+  /** A tree round's verdict, plus the accepted path and the node it ends on. */
+  record TreeVerdict(Verdict verdict, int[] path, int node) {}
+
+  /**
+   * The sequence ids a tree round decodes its branches under: the conversation's own for branch 0
+   * (the draft's first choice), then the context's highest ids, skipping the conversation's. Those
+   * must be spare: every round removes its branch sequences afterwards, so one that holds cells
+   * belongs to another conversation and the round is refused rather than deleting them.
+   */
+  static int[] branchSeqIds(ConversationState state, int branches) {
+    var memory = state.getContext().getMemory();
+    int[] ids = new int[branches];
+    ids[0] = state.getSequenceId();
+    int next = state.getContext().nSeqMax() - 1;
+    for (int b = 1; b < branches; b++, next--) {
+      if (next == ids[0]) {
+        next--;
+      }
+      ids[b] = next;
+      if (memory.posMax(next) >= 0) {
+        throw new LlamaException(
+          "Tree speculation needs sequence id " +
+            next +
+            " spare for a branch, but it holds another conversation's cache"
+        );
+      }
+    }
+    return ids;
+  }
+
+  /**
+   * Verifies a drafted tree in one target decode and accepts greedily along it: from the root,
+   * follows the child holding the target's argmax for as long as there is one, and the target's
+   * pick where the tree runs out is the extra token — a correction, or the bonus past a leaf. Every
+   * emitted token is still the target's argmax after the ones before it, so this is as lossless as
+   * the chain; it just has more than one draft to agree with at each depth.
+   *
+   * <p>Each branch is decoded under its own sequence id, carrying a metadata copy of the committed
+   * prefix, and a node shared by several branches is decoded once under all of them. Afterwards only
+   * the accepted path is left, on the conversation's sequence: the winning branch's rows are copied
+   * onto it when the path is not its own, and every other branch sequence is removed.
+   */
+  static TreeVerdict verifyTree(
+    LlamaIterator<?> it,
+    ConversationState state,
+    Speculation spec,
+    LlamaContext target,
+    int idLast,
+    int nPast,
+    DraftTree tree
+  ) {
+    var memory = target.getMemory();
+    int branches = tree.branches();
+    int[] seqIds = branchSeqIds(state, branches);
+    int seqId = seqIds[0];
+    List<Integer> allBranches = new ArrayList<>(branches);
+    allBranches.add(seqId);
+    for (int b = 1; b < branches; b++) {
+      memory.seqCp(seqId, seqIds[b], 0, nPast);
+      allBranches.add(seqIds[b]);
+    }
+    try {
+      List<List<Integer>> nodeSeqIds = tree.nodeSeqIds(seqIds);
+      LlamaBatch batch = spec.treeBatch();
+      batch.clear();
+      batch.add(idLast, nPast, allBranches, true);
+      for (int i = 0; i < tree.size(); i++) {
+        batch.add(
+          tree.token(i),
+          nPast + 1 + tree.depth(i),
+          nodeSeqIds.get(i),
+          true
+        );
+      }
+      long start = System.nanoTime();
+      if (batch.decode(target) != 0) {
+        throw new LlamaException("Speculative tree verify decode failed");
+      }
+      target.synchronize(); // time the compute, not the enqueue
+      spec.recordVerify(System.nanoTime() - start, tree.size() + 1);
+
+      return acceptTree(it, state, spec, target, nPast, tree, nodeSeqIds);
+    } finally {
+      for (int b = 1; b < branches; b++) {
+        memory.seqRm(seqIds[b], -1, -1);
+      }
+    }
+  }
+
+  /**
+   * Walks a decoded tree greedily — node {@code i} at batch row {@code i + 1}, the root at row 0 —
+   * and leaves only the accepted path on the conversation's sequence: the winning branch's rows are
+   * copied onto it when the path is not its own, and its rows past the path are removed. The other
+   * branch sequences are the caller's to clear.
+   */
+  static TreeVerdict acceptTree(
+    LlamaIterator<?> it,
+    ConversationState state,
+    Speculation spec,
+    LlamaContext target,
+    int nPast,
+    DraftTree tree,
+    List<List<Integer>> nodeSeqIds
+  ) {
+    var memory = target.getMemory();
+    int seqId = state.getSequenceId();
+    LlamaSampler chain = spec.chain();
+    int[] path = new int[tree.maxDepth()];
+    boolean[] rowBiased = new boolean[path.length + 1];
+    int node = DraftTree.ROOT;
+    int matched = 0;
+    int extra;
+    while (true) {
+      // Node i is batch row i + 1; the root is row 0.
+      int row = node + 1;
+      rowBiased[matched] = biasVerifyRow(it, state, target, row, path, matched);
+      int token = chain.sample(target, row);
+      int child = tree.child(node, token);
+      if (child < 0) {
+        extra = token;
+        break;
+      }
+      path[matched++] = token;
+      node = child;
+    }
+
+    if (matched > 0 && !nodeSeqIds.get(node).contains(seqId)) {
+      // A runner-up won: swap the conversation's drafted rows for the winning branch's.
+      memory.seqRm(seqId, nPast + 1, -1);
+      memory.seqCp(
+        nodeSeqIds.get(node).getFirst(),
+        seqId,
+        nPast + 1,
+        nPast + 1 + matched
+      );
+    }
+    memory.seqRm(seqId, nPast + matched + 1, -1);
+    return new TreeVerdict(new Verdict(matched, extra, rowBiased), path, node);
+  }
 }
@@ -0,0 +1,472 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.llama.cpp.structured;
+
+import io.gravitee.llama.cpp.LlamaException;
+import io.gravitee.llama.cpp.structured.RegexParser.Alt;
+import io.gravitee.llama.cpp.structured.RegexParser.Chars;
+import io.gravitee.llama.cpp.structured.RegexParser.Concat;
+import io.gravitee.llama.cpp.structured.RegexParser.Empty;
+import io.gravitee.llama.cpp.structured.RegexParser.Node;
+import io.gravitee.llama.cpp.structured.RegexParser.Repeat;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A deterministic automaton over UTF-8 bytes, compiled from a {@link RegexParser} pattern: Thompson
+ * NFA, subset construction, then every state that can no longer reach an accepting one is dropped.
+ *
+ * <p>After that pruning, a transition either leads somewhere the match can still complete or is
+ * {@code -1} — so "the walk did not hit {@code -1}" is exactly "this prefix can still be
+ * completed", which is what the token index needs to know.
+ *
+ * @author GraviteeSource Team
+ */
+final class ByteDfa {
+
+  /** Bounds compile time and the per-state token masks built on top. */
+  static final int MAX_STATES = 50_000;
+
+  /** {@code transitions[state * 256 + byte]}: the next state, or {@code -1}. State 0 is the start. */
+  final int[] transitions;
+  final boolean[] accepting;
+
+  private ByteDfa(int[] transitions, boolean[] accepting) {
+    this.transitions = transitions;
+    this.accepting = accepting;
+  }
+
+  static ByteDfa compile(String pattern) {
+    var nfa = new Nfa();
+    int match = nfa.add(Nfa.MATCH, 0, 0, -1, -1);
+    int start = nfa.compile(RegexParser.parse(pattern), match);
+    return prune(determinize(nfa, start, match), pattern);
+  }
+
+  int nStates() {
+    return accepting.length;
+  }
+
+  int step(int state, int b) {
+    return transitions[(state << 8) | (b & 0xff)];
+  }
+
+  /** The state after {@code bytes} from {@code state}, or {@code -1}. */
+  int walk(int state, byte[] bytes) {
+    for (int i = 0; i < bytes.length && state >= 0; i++) {
+      state = step(state, bytes[i]);
+    }
+    return state;
+  }
+
+  /* ----- NFA ----- */
+
+  /** Thompson NFA in parallel arrays; built back to front, so each fragment knows its successor. */
+  private static final class Nfa {
+
+    static final int SPLIT = 0;
+    static final int RANGE = 1;
+    static final int MATCH = 2;
+
+    int size;
+    int[] kind = new int[64];
+    int[] lo = new int[64];
+    int[] hi = new int[64];
+    int[] out = new int[64];
+    int[] out2 = new int[64];
+
+    int add(int k, int l, int h, int o, int o2) {
+      if (size == kind.length) {
+        int capacity = size * 2;
+        kind = Arrays.copyOf(kind, capacity);
+        lo = Arrays.copyOf(lo, capacity);
+        hi = Arrays.copyOf(hi, capacity);
+        out = Arrays.copyOf(out, capacity);
+        out2 = Arrays.copyOf(out2, capacity);
+      }
+      if (size >= MAX_STATES * 16) {
+        throw new LlamaException("Pattern too large to compile");
+      }
+      kind[size] = k;
+      lo[size] = l;
+      hi[size] = h;
+      out[size] = o;
+      out2[size] = o2;
+      return size++;
+    }
+
+    /** Compiles {@code node} so that a match continues at {@code next}; returns its entry. */
+    int compile(Node node, int next) {
+      return switch (node) {
+        case Empty e -> next;
+        case Chars c -> chars(c.ranges(), next);
+        case Concat c -> {
+          int s = next;
+          for (int i = c.items().size() - 1; i >= 0; i--) {
+            s = compile(c.items().get(i), s);
+          }
+          yield s;
+        }
+        case Alt a -> {
+          int s = compile(a.options().getLast(), next);
+          for (int i = a.options().size() - 2; i >= 0; i--) {
+            s = add(SPLIT, 0, 0, compile(a.options().get(i), next), s);
+          }
+          yield s;
+        }
+        case Repeat r -> repeat(r, next);
+      };
+    }
+
+    private int repeat(Repeat r, int next) {
+      int s;
+      if (r.max() == -1) {
+        // loop: SPLIT(body -> loop, next)
+        int loop = add(SPLIT, 0, 0, -1, next);
+        // Compile first: it may grow the arrays, and out[loop] = compile(...) would write to the
+        // array read before the call.
+        int body = compile(r.node(), loop);
+        out[loop] = body;
+        s = loop;
+      } else {
+        s = next;
+        for (int i = r.min(); i < r.max(); i++) {
+          s = add(SPLIT, 0, 0, compile(r.node(), s), next);
+        }
+      }
+      for (int i = 0; i < r.min(); i++) {
+        s = compile(r.node(), s);
+      }
+      return s;
+    }
+
+    private int chars(int[] ranges, int next) {
+      List<int[]> sequences = new ArrayList<>();
+      for (int i = 0; i < ranges.length; i += 2) {
+        utf8Sequences(ranges[i], ranges[i + 1], sequences);
+      }
+      int s = -1;
+      for (int i = sequences.size() - 1; i >= 0; i--) {
+        int[] seq = sequences.get(i);
+        int t = next;
+        for (int j = seq.length - 2; j >= 0; j -= 2) {
+          t = add(RANGE, seq[j], seq[j + 1], t, -1);
+        }
+        s = s < 0 ? t : add(SPLIT, 0, 0, t, s);
+      }
+      if (s < 0) {
+        throw new LlamaException("Empty character class");
+      }
+      return s;
+    }
+  }
+
+  /**
+   * Splits the code points {@code [lo, hi]} into byte-range sequences, each a run of UTF-8 encodings
+   * that agree in length and differ only within per-byte ranges (flattened {@code lo, hi} pairs).
+   * Surrogates are skipped: they have no UTF-8 encoding.
+   */
+  static void utf8Sequences(int lo, int hi, List<int[]> out) {
+    if (lo > hi) {
+      return;
+    }
+    if (lo <= 0xD7FF && hi >= 0xE000) {
+      utf8Sequences(lo, 0xD7FF, out);
+      utf8Sequences(0xE000, hi, out);
+      return;
+    }
+    if (lo >= 0xD800 && lo <= 0xDFFF) {
+      utf8Sequences(0xE000, hi, out);
+      return;
+    }
+    if (hi >= 0xD800 && hi <= 0xDFFF) {
+      utf8Sequences(lo, 0xD7FF, out);
+      return;
+    }
+    // One encoded length at a time.
+    for (int max : new int[] { 0x7F, 0x7FF, 0xFFFF }) {
+      if (lo <= max && hi > max) {
+        utf8Sequences(lo, max, out);
+        utf8Sequences(max + 1, hi, out);
+        return;
+      }
+    }
+    if (hi <= 0x7F) {
+      out.add(new int[] { lo, hi });
+      return;
+    }
+    // Split until every continuation byte spans either all of 0x80-0xBF or a single prefix.
+    for (int i = 1; i < 4; i++) {
+      int m = (1 << (6 * i)) - 1;
+      if ((lo & ~m) != (hi & ~m)) {
+        if ((lo & m) != 0) {
+          utf8Sequences(lo, lo | m, out);
+          utf8Sequences((lo | m) + 1, hi, out);
+          return;
+        }
+        if ((hi & m) != m) {
+          utf8Sequences(lo, (hi & ~m) - 1, out);
+          utf8Sequences(hi & ~m, hi, out);
+          return;
+        }
+      }
+    }
+    byte[] a = new String(Character.toChars(lo)).getBytes(
+      java.nio.charset.StandardCharsets.UTF_8
+    );
+    byte[] b = new String(Character.toChars(hi)).getBytes(
+      java.nio.charset.StandardCharsets.UTF_8
+    );
+    int[] seq = new int[a.length * 2];
+    for (int i = 0; i < a.length; i++) {
+      seq[2 * i] = a[i] & 0xff;
+      seq[2 * i + 1] = b[i] & 0xff;
+    }
+    out.add(seq);
+  }
+
+  /* ----- subset construction ----- */
+
+  private record StateSet(int[] states, int hash) {
+    static StateSet of(int[] states) {
+      return new StateSet(states, Arrays.hashCode(states));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof StateSet other && Arrays.equals(states, other.states);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  private static ByteDfa determinize(Nfa nfa, int start, int match) {
+    var closure = new Closure(nfa);
+    Map<StateSet, Integer> ids = new HashMap<>();
+    List<int[]> sets = new ArrayList<>();
+    int[] transitions = new int[256 * 64];
+    List<Boolean> accepting = new ArrayList<>();
+
+    var first = StateSet.of(closure.of(new int[] { start }, 1));
+    ids.put(first, 0);
+    sets.add(first.states());
+    accepting.add(Arrays.binarySearch(first.states(), match) >= 0);
+
+    int[] targets = new int[16];
+    for (int d = 0; d < sets.size(); d++) {
+      int[] set = sets.get(d);
+      // Byte boundaries where the set of enabled ranges changes.
+      int[] cuts = new int[set.length * 2 + 2];
+      int nCuts = 0;
+      cuts[nCuts++] = 0;
+      cuts[nCuts++] = 256;
+      for (int s : set) {
+        if (nfa.kind[s] == Nfa.RANGE) {
+          cuts[nCuts++] = nfa.lo[s];
+          cuts[nCuts++] = nfa.hi[s] + 1;
+        }
+      }
+      Arrays.sort(cuts, 0, nCuts);
+      int base = d << 8;
+      if (transitions.length < base + 256) {
+        transitions = Arrays.copyOf(transitions, transitions.length * 2);
+      }
+      Arrays.fill(transitions, base, base + 256, -1);
+      for (int c = 0; c + 1 < nCuts; c++) {
+        int from = cuts[c];
+        int to = cuts[c + 1];
+        if (from == to) {
+          continue;
+        }
+        int nTargets = 0;
+        for (int s : set) {
+          if (nfa.kind[s] == Nfa.RANGE && nfa.lo[s] <= from && from <= nfa.hi[s]) {
+            if (nTargets == targets.length) {
+              targets = Arrays.copyOf(targets, nTargets * 2);
+            }
+            targets[nTargets++] = nfa.out[s];
+          }
+        }
+        if (nTargets == 0) {
+          continue;
+        }
+        var next = StateSet.of(closure.of(targets, nTargets));
+        Integer id = ids.get(next);
+        if (id == null) {
+          id = sets.size();
+          if (id >= MAX_STATES * 4) {
+            throw new LlamaException(
+              "Pattern needs more than " + MAX_STATES + " automaton states"
+            );
+          }
+          ids.put(next, id);
+          sets.add(next.states());
+          accepting.add(Arrays.binarySearch(next.states(), match) >= 0);
+        }
+        Arrays.fill(transitions, base + from, base + to, id);
+      }
+    }
+    boolean[] acc = new boolean[sets.size()];
+    for (int i = 0; i < acc.length; i++) {
+      acc[i] = accepting.get(i);
+    }
+    return new ByteDfa(Arrays.copyOf(transitions, acc.length << 8), acc);
+  }
+
+  /** Epsilon closure, sorted, keeping only states that consume input or match. */
+  private static final class Closure {
+
+    private final Nfa nfa;
+    private final int[] mark;
+    private int generation;
+    private int[] stack = new int[64];
+
+    Closure(Nfa nfa) {
+      this.nfa = nfa;
+      this.mark = new int[nfa.size];
+    }
+
+    int[] of(int[] seeds, int count) {
+      generation++;
+      int[] result = new int[16];
+      int n = 0;
+      int top = 0;
+      for (int i = 0; i < count; i++) {
+        top = push(top, seeds[i]);
+      }
+      while (top > 0) {
+        int s = stack[--top];
+        if (nfa.kind[s] == Nfa.SPLIT) {
+          top = push(top, nfa.out2[s]);
+          top = push(top, nfa.out[s]);
+        } else {
+          if (n == result.length) {
+            result = Arrays.copyOf(result, n * 2);
+          }
+          result[n++] = s;
+        }
+      }
+      result = Arrays.copyOf(result, n);
+      Arrays.sort(result);
+      return result;
+    }
+
+    private int push(int top, int s) {
+      if (s < 0 || mark[s] == generation) {
+        return top;
+      }
+      mark[s] = generation;
+      if (top == stack.length) {
+        stack = Arrays.copyOf(stack, top * 2);
+      }
+      stack[top] = s;
+      return top + 1;
+    }
+  }
+
+  /* ----- pruning ----- */
+
+  /** Drops states that cannot reach an accepting state, and renumbers from the start. */
+  private static ByteDfa prune(ByteDfa dfa, String pattern) {
+    int n = dfa.nStates();
+    // Co-reachability by fixpoint over reversed edges.
+    int[] inDegree = new int[n + 1];
+    for (int t : dfa.transitions) {
+      if (t >= 0) {
+        inDegree[t + 1]++;
+      }
+    }
+    for (int i = 0; i < n; i++) {
+      inDegree[i + 1] += inDegree[i];
+    }
+    int[] sources = new int[inDegree[n]];
+    int[] fill = Arrays.copyOf(inDegree, n);
+    for (int s = 0; s < n; s++) {
+      int base = s << 8;
+      int last = -1;
+      for (int b = 0; b < 256; b++) {
+        int t = dfa.transitions[base + b];
+        // Consecutive bytes usually share a target; one reverse edge is enough.
+        if (t >= 0 && t != last) {
+          sources[fill[t]++] = s;
+        }
+        last = t;
+      }
+    }
+    boolean[] live = new boolean[n];
+    var queue = new ArrayDeque<Integer>();
+    for (int s = 0; s < n; s++) {
+      if (dfa.accepting[s]) {
+        live[s] = true;
+        queue.add(s);
+      }
+    }
+    while (!queue.isEmpty()) {
+      int t = queue.poll();
+      for (int i = inDegree[t]; i < fill[t]; i++) {
+        int s = sources[i];
+        if (!live[s]) {
+          live[s] = true;
+          queue.add(s);
+        }
+      }
+    }
+    if (!live[0]) {
+      throw new LlamaException("Pattern matches nothing: " + pattern);
+    }
+
+    // Renumber the live states reachable from the start, breadth first.
+    int[] renumber = new int[n];
+    Arrays.fill(renumber, -1);
+    int[] order = new int[n];
+    int count = 0;
+    renumber[0] = 0;
+    order[count++] = 0;
+    for (int i = 0; i < count; i++) {
+      int base = order[i] << 8;
+      for (int b = 0; b < 256; b++) {
+        int t = dfa.transitions[base + b];
+        if (t >= 0 && live[t] && renumber[t] < 0) {
+          renumber[t] = count;
+          order[count++] = t;
+        }
+      }
+    }
+    if (count > MAX_STATES) {
+      throw new LlamaException(
+        "Pattern needs more than " + MAX_STATES + " automaton states"
+      );
+    }
+    int[] transitions = new int[count << 8];
+    boolean[] accepting = new boolean[count];
+    for (int i = 0; i < count; i++) {
+      int base = order[i] << 8;
+      for (int b = 0; b < 256; b++) {
+        int t = dfa.transitions[base + b];
+        transitions[(i << 8) | b] = t >= 0 && live[t] ? renumber[t] : -1;
+      }
+      accepting[i] = dfa.accepting[order[i]];
+    }
+    return new ByteDfa(transitions, accepting);
+  }
+}
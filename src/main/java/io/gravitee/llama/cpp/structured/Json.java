@@ -0,0 +1,277 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.llama.cpp.structured;
+
+import io.gravitee.llama.cpp.LlamaException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Just enough JSON to read a schema and write its literals back: objects become insertion-ordered
+ * maps (property order is output order), numbers keep their source text.
+ *
+ * @author GraviteeSource Team
+ */
+final class Json {
+
+  /** A number, as written. */
+  record JsonNumber(String text) {
+    int intValue() {
+      try {
+        return new java.math.BigDecimal(text).intValueExact();
+      } catch (ArithmeticException | NumberFormatException e) {
+        throw new LlamaException("Expected an integer, got " + text);
+      }
+    }
+
+    double doubleValue() {
+      return Double.parseDouble(text);
+    }
+  }
+
+  private final String text;
+  private int pos;
+
+  private Json(String text) {
+    this.text = text;
+  }
+
+  /** Parses one JSON value: a Map, List, String, {@link JsonNumber}, Boolean, or {@code null}. */
+  static Object parse(String text) {
+    var json = new Json(text);
+    json.skipSpace();
+    Object value = json.value();
+    json.skipSpace();
+    if (json.pos != text.length()) {
+      throw json.error("Trailing characters");
+    }
+    return value;
+  }
+
+  /** The compact JSON text of a value {@link #parse} produced. */
+  static String write(Object value) {
+    var out = new StringBuilder();
+    write(value, out);
+    return out.toString();
+  }
+
+  private static void write(Object value, StringBuilder out) {
+    switch (value) {
+      case null -> out.append("null");
+      case String s -> quote(s, out);
+      case JsonNumber n -> out.append(n.text());
+      case Boolean b -> out.append(b);
+      case Map<?, ?> map -> {
+        out.append('{');
+        boolean first = true;
+        for (var entry : map.entrySet()) {
+          if (!first) {
+            out.append(',');
+          }
+          first = false;
+          quote((String) entry.getKey(), out);
+          out.append(':');
+          write(entry.getValue(), out);
+        }
+        out.append('}');
+      }
+      case List<?> list -> {
+        out.append('[');
+        for (int i = 0; i < list.size(); i++) {
+          if (i > 0) {
+            out.append(',');
+          }
+          write(list.get(i), out);
+        }
+        out.append(']');
+      }
+      default -> throw new LlamaException("Not a JSON value: " + value);
+    }
+  }
+
+  static void quote(String s, StringBuilder out) {
+    out.append('"');
+    for (int i = 0; i < s.length(); i++) {
+      char c = s.charAt(i);
+      switch (c) {
+        case '"' -> out.append("\\\"");
+        case '\\' -> out.append("\\\\");
+        case '\n' -> out.append("\\n");
+        case '\r' -> out.append("\\r");
+        case '\t' -> out.append("\\t");
+        case '\b' -> out.append("\\b");
+        case '\f' -> out.append("\\f");
+        default -> {
+          if (c < 0x20) {
+            out.append(String.format("\\u%04x", (int) c));
+          } else {
+            out.append(c);
+          }
+        }
+      }
+    }
+    out.append('"');
+  }
+
+  private Object value() {
+    if (pos >= text.length()) {
+      throw error("Unexpected end");
+    }
+    char c = text.charAt(pos);
+    return switch (c) {
+      case '{' -> object();
+      case '[' -> array();
+      case '"' -> string();
+      case 't' -> literal("true", Boolean.TRUE);
+      case 'f' -> literal("false", Boolean.FALSE);
+      case 'n' -> literal("null", null);
+      default -> number();
+    };
+  }
+
+  private Map<String, Object> object() {
+    pos++;
+    Map<String, Object> map = new LinkedHashMap<>();
+    skipSpace();
+    if (peek() == '}') {
+      pos++;
+      return map;
+    }
+    while (true) {
+      skipSpace();
+      if (peek() != '"') {
+        throw error("Expected a property name");
+      }
+      String key = string();
+      skipSpace();
+      expect(':');
+      skipSpace();
+      map.put(key, value());
+      skipSpace();
+      if (peek() == ',') {
+        pos++;
+        continue;
+      }
+      expect('}');
+      return map;
+    }
+  }
+
+  private List<Object> array() {
+    pos++;
+    List<Object> list = new ArrayList<>();
+    skipSpace();
+    if (peek() == ']') {
+      pos++;
+      return list;
+    }
+    while (true) {
+      skipSpace();
+      list.add(value());
+      skipSpace();
+      if (peek() == ',') {
+        pos++;
+        continue;
+      }
+      expect(']');
+      return list;
+    }
+  }
+
+  private String string() {
+    pos++;
+    var out = new StringBuilder();
+    while (true) {
+      if (pos >= text.length()) {
+        throw error("Unterminated string");
+      }
+      char c = text.charAt(pos++);
+      if (c == '"') {
+        return out.toString();
+      }
+      if (c != '\\') {
+        out.append(c);
+        continue;
+      }
+      if (pos >= text.length()) {
+        throw error("Unterminated escape");
+      }
+      char e = text.charAt(pos++);
+      switch (e) {
+        case '"', '\\', '/' -> out.append(e);
+        case 'b' -> out.append('\b');
+        case 'f' -> out.append('\f');
+        case 'n' -> out.append('\n');
+        case 'r' -> out.append('\r');
+        case 't' -> out.append('\t');
+        case 'u' -> {
+          if (pos + 4 > text.length()) {
+            throw error("Truncated \\u escape");
+          }
+          out.append((char) Integer.parseInt(text.substring(pos, pos + 4), 16));
+          pos += 4;
+        }
+        default -> throw error("Invalid escape \\" + e);
+      }
+    }
+  }
+
+  private JsonNumber number() {
+    int start = pos;
+    while (
+      pos < text.length() && "+-0123456789.eE".indexOf(text.charAt(pos)) >= 0
+    ) {
+      pos++;
+    }
+    if (start == pos) {
+      throw error("Unexpected character '" + text.charAt(pos) + "'");
+    }
+    return new JsonNumber(text.substring(start, pos));
+  }
+
+  private Object literal(String word, Object value) {
+    if (!text.startsWith(word, pos)) {
+      throw error("Expected " + word);
+    }
+    pos += word.length();
+    return value;
+  }
+
+  private char peek() {
+    return pos < text.length() ? text.charAt(pos) : '\0';
+  }
+
+  private void expect(char c) {
+    if (peek() != c) {
+      throw error("Expected '" + c + "'");
+    }
+    pos++;
+  }
+
+  private void skipSpace() {
+    while (pos < text.length() && Character.isWhitespace(text.charAt(pos))) {
+      pos++;
+    }
+  }
+
+  private LlamaException error(String message) {
+    return new LlamaException(
+      "Invalid JSON schema: " + message + " at index " + pos
+    );
+  }
+}
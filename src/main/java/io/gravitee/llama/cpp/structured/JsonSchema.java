@@ -0,0 +1,578 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.llama.cpp.structured;
+
+import io.gravitee.llama.cpp.LlamaException;
+import io.gravitee.llama.cpp.structured.Json.JsonNumber;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Turns a JSON Schema into the regular expression {@link TokenFsm} compiles: the schema's instances,
+ * serialized with properties in schema order.
+ *
+ * <p>Covers what tool and response schemas use: {@code type} (one or a list), {@code properties}
+ * with {@code required}, {@code additionalProperties} as a schema when there are no properties,
+ * {@code items} and {@code prefixItems} with {@code minItems}/{@code maxItems}, {@code enum},
+ * {@code const}, {@code anyOf}/{@code oneOf}, {@code allOf} (merged), local {@code $ref}s,
+ * {@code nullable}, string {@code pattern}, {@code minLength}/{@code maxLength} and the
+ * {@code date}, {@code time}, {@code date-time} and {@code uuid} formats, {@code minimum},
+ * {@code maximum} and their exclusive forms on integers, and a non-negative {@code minimum} on
+ * numbers. Everything else is ignored rather than rejected, except recursive
+ * {@code $ref}s: JSON nesting is not regular, so a schema that allows unbounded depth cannot be
+ * compiled. An unconstrained value ({@code {}} or {@code true}) nests at most {@value #ANY_DEPTH}
+ * levels.
+ *
+ * <p>Whitespace between tokens is {@link #COMPACT_WHITESPACE} unless another pattern is given.
+ * Allowing unbounded whitespace lets a model pad forever without breaking the schema, so keep it
+ * bounded.
+ *
+ * @author GraviteeSource Team
+ */
+public final class JsonSchema {
+
+  /** At most one space after structural characters: {@code {"a": 1, "b": [1, 2]}}. */
+  public static final String COMPACT_WHITESPACE = "[ ]?";
+
+  /** Nesting allowed inside an unconstrained value. */
+  public static final int ANY_DEPTH = 2;
+
+  /** Length and item bounds above this are not enforced: each unit is a copy of the automaton. */
+  static final int MAX_BOUND = 256;
+
+  /** Largest magnitude of an integer {@code minimum} or {@code maximum}. */
+  static final double MAX_INTEGER_BOUND = 1e15;
+
+  static final String STRING_CHAR =
+    "(?:[^\"\\\\\\x00-\\x1F]|\\\\[\"\\\\/bfnrt]|\\\\u[0-9a-fA-F]{4})";
+  /** The code points a JSON string may hold unescaped. */
+  private static final int[] RAW_CHARS = RegexParser.negate(
+    new int[] { 0, 0x1F, '"', '"', '\\', '\\' }
+  );
+  static final String STRING = "\"" + STRING_CHAR + "*\"";
+  static final String INTEGER = "-?(?:0|[1-9][0-9]*)";
+  static final String NUMBER =
+    INTEGER + "(?:\\.[0-9]+)?(?:[eE][+-]?[0-9]+)?";
+  static final String BOOLEAN = "(?:true|false)";
+  static final String NULL = "null";
+
+  private static final String DATE =
+    "[0-9]{4}-(?:0[1-9]|1[0-2])-(?:0[1-9]|[12][0-9]|3[01])";
+  private static final String TIME =
+    "(?:[01][0-9]|2[0-3]):[0-5][0-9]:[0-5][0-9](?:\\.[0-9]+)?" +
+    "(?:Z|[+-](?:[01][0-9]|2[0-3]):[0-5][0-9])?";
+  private static final String UUID =
+    "[0-9a-fA-F]{8}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{4}-[0-9a-fA-F]{12}";
+
+  private final Object root;
+  private final String ws;
+  private final Set<String> resolving = new HashSet<>();
+
+  private JsonSchema(Object root, String whitespace) {
+    this.root = root;
+    this.ws = whitespace;
+  }
+
+  /** The regex for {@code schema} with {@link #COMPACT_WHITESPACE}. */
+  public static String toRegex(String schema) {
+    return toRegex(schema, COMPACT_WHITESPACE);
+  }
+
+  /**
+   * The regex for {@code schema}, with {@code whitespace} (itself a regex) wherever JSON allows
+   * whitespace between tokens.
+   *
+   * @throws LlamaException if the schema is not JSON or cannot be expressed as a regex
+   */
+  public static String toRegex(String schema, String whitespace) {
+    Object root = Json.parse(schema);
+    return new JsonSchema(root, whitespace).value(root);
+  }
+
+  private String value(Object schema) {
+    if (Boolean.TRUE.equals(schema)) {
+      return any(ANY_DEPTH);
+    }
+    if (!(schema instanceof Map<?, ?> raw)) {
+      throw new LlamaException("Unsupported schema: " + Json.write(schema));
+    }
+    @SuppressWarnings("unchecked")
+    var s = (Map<String, Object>) raw;
+
+    if (s.get("$ref") instanceof String ref) {
+      if (!resolving.add(ref)) {
+        throw new LlamaException(
+          "Recursive $ref " + ref + " cannot be compiled to an automaton"
+        );
+      }
+      try {
+        Map<String, Object> merged = new LinkedHashMap<>(s);
+        merged.remove("$ref");
+        if (resolve(ref) instanceof Map<?, ?> target) {
+          @SuppressWarnings("unchecked")
+          var t = (Map<String, Object>) target;
+          merged = merge(t, merged);
+        }
+        return value(merged);
+      } finally {
+        resolving.remove(ref);
+      }
+    }
+    if (Boolean.TRUE.equals(s.get("nullable"))) {
+      Map<String, Object> rest = new LinkedHashMap<>(s);
+      rest.remove("nullable");
+      return "(?:" + value(rest) + "|" + NULL + ")";
+    }
+    if (s.containsKey("const")) {
+      return literal(s.get("const"));
+    }
+    if (s.get("enum") instanceof List<?> values) {
+      List<String> options = new ArrayList<>();
+      for (Object v : values) {
+        options.add(literal(v));
+      }
+      return alternation(options);
+    }
+    for (String key : new String[] { "anyOf", "oneOf" }) {
+      if (s.get(key) instanceof List<?> subs) {
+        List<String> options = new ArrayList<>();
+        for (Object sub : subs) {
+          options.add(value(sub));
+        }
+        return alternation(options);
+      }
+    }
+    if (s.get("allOf") instanceof List<?> subs) {
+      Map<String, Object> merged = new LinkedHashMap<>(s);
+      merged.remove("allOf");
+      for (Object sub : subs) {
+        Object resolved = sub instanceof Map<?, ?> m &&
+          m.get("$ref") instanceof String r
+          ? resolve(r)
+          : sub;
+        if (resolved instanceof Map<?, ?> m) {
+          @SuppressWarnings("unchecked")
+          var part = (Map<String, Object>) m;
+          merged = merge(merged, part);
+        }
+      }
+      return value(merged);
+    }
+
+    Object type = s.get("type");
+    if (type instanceof List<?> types) {
+      List<String> options = new ArrayList<>();
+      for (Object t : types) {
+        options.add(ofType(s, (String) t));
+      }
+      return alternation(options);
+    }
+    if (type instanceof String t) {
+      return ofType(s, t);
+    }
+    if (s.containsKey("properties") || s.containsKey("additionalProperties")) {
+      return ofType(s, "object");
+    }
+    if (s.containsKey("items") || s.containsKey("prefixItems")) {
+      return ofType(s, "array");
+    }
+    return any(ANY_DEPTH);
+  }
+
+  private String ofType(Map<String, Object> s, String type) {
+    return switch (type) {
+      case "object" -> object(s);
+      case "array" -> array(s);
+      case "string" -> string(s);
+      case "integer" -> integer(s);
+      case "number" -> nonNegative(s)
+        ? NUMBER.substring(2) // drop the leading "-?"
+        : NUMBER;
+      case "boolean" -> BOOLEAN;
+      case "null" -> NULL;
+      default -> throw new LlamaException("Unsupported schema type: " + type);
+    };
+  }
+
+  /** A number's only enforceable bound is its sign; a negative minimum would go unenforced. */
+  private static boolean nonNegative(Map<String, Object> s) {
+    if (!(s.get("minimum") instanceof JsonNumber min)) {
+      return false;
+    }
+    if (min.doubleValue() < 0) {
+      throw new LlamaException(
+        "Negative minimum is only supported on integers, got " + min.text()
+      );
+    }
+    return true;
+  }
+
+  private static String integer(Map<String, Object> s) {
+    Long lo = integerBound(s, "minimum", "exclusiveMinimum", true);
+    Long hi = integerBound(s, "maximum", "exclusiveMaximum", false);
+    if (lo == null && hi == null) {
+      return INTEGER;
+    }
+    if (lo != null && hi != null && lo > hi) {
+      throw new LlamaException(
+        "No integer lies between minimum " + lo + " and maximum " + hi
+      );
+    }
+    List<String> options = new ArrayList<>();
+    if (lo == null || lo < 0) {
+      long from = hi == null || hi >= 0 ? 1 : -hi;
+      options.add("-" + naturals(from, lo == null ? null : -lo));
+    }
+    if ((lo == null || lo <= 0) && (hi == null || hi >= 0)) {
+      options.add("0");
+    }
+    if (hi == null || hi > 0) {
+      options.add(naturals(lo == null || lo < 1 ? 1 : lo, hi));
+    }
+    return "(?:" + String.join("|", options) + ")";
+  }
+
+  /**
+   * The inclusive integer bound {@code key} or {@code exclusiveKey} sets, the tighter of the two, or
+   * {@code null}. Draft-04's boolean {@code exclusiveMinimum}/{@code exclusiveMaximum} is honoured.
+   */
+  private static Long integerBound(
+    Map<String, Object> s,
+    String key,
+    String exclusiveKey,
+    boolean lower
+  ) {
+    Long bound = null;
+    Object exclusive = s.get(exclusiveKey);
+    if (s.get(key) instanceof JsonNumber n) {
+      bound = integral(n, lower, Boolean.TRUE.equals(exclusive));
+    }
+    if (exclusive instanceof JsonNumber n) {
+      long value = integral(n, lower, true);
+      if (bound == null || (lower ? value > bound : value < bound)) {
+        bound = value;
+      }
+    }
+    return bound;
+  }
+
+  private static long integral(
+    JsonNumber n,
+    boolean lower,
+    boolean exclusive
+  ) {
+    double value = n.doubleValue();
+    if (Math.abs(value) > MAX_INTEGER_BOUND) {
+      throw new LlamaException("Integer bound out of range: " + n.text());
+    }
+    if (lower) {
+      return exclusive
+        ? (long) Math.floor(value) + 1
+        : (long) Math.ceil(value);
+    }
+    return exclusive
+      ? (long) Math.ceil(value) - 1
+      : (long) Math.floor(value);
+  }
+
+  /** Decimal numerals from {@code lo >= 1} to {@code hi}, or with no upper bound if null. */
+  private static String naturals(long lo, Long hi) {
+    String from = Long.toString(lo);
+    String to = hi == null ? null : Long.toString(hi);
+    List<String> options = new ArrayList<>();
+    for (
+      int length = from.length();
+      to == null || length <= to.length();
+      length++
+    ) {
+      if (to == null && length > from.length()) {
+        options.add("[1-9][0-9]{" + (length - 1) + ",}");
+        break;
+      }
+      String a = length == from.length() ? from : "1" + "0".repeat(length - 1);
+      String b = to != null && length == to.length() ? to : "9".repeat(length);
+      options.add(digits(a, b));
+    }
+    return options.size() == 1
+      ? options.getFirst()
+      : "(?:" + String.join("|", options) + ")";
+  }
+
+  /** Numerals from {@code a} to {@code b}, both of the same length. */
+  private static String digits(String a, String b) {
+    if (a.isEmpty()) {
+      return "";
+    }
+    int n = a.length() - 1;
+    char x = a.charAt(0);
+    char y = b.charAt(0);
+    String restA = a.substring(1);
+    String restB = b.substring(1);
+    if (x == y) {
+      return x + digits(restA, restB);
+    }
+    String zeros = "0".repeat(n);
+    String nines = "9".repeat(n);
+    if (restA.equals(zeros) && restB.equals(nines)) {
+      return "[" + x + "-" + y + "]" + anyDigits(n);
+    }
+    List<String> options = new ArrayList<>();
+    options.add(x + digits(restA, nines));
+    if (y - x > 1) {
+      char next = (char) (x + 1);
+      char last = (char) (y - 1);
+      options.add("[" + next + "-" + last + "]" + anyDigits(n));
+    }
+    options.add(y + digits(zeros, restB));
+    return "(?:" + String.join("|", options) + ")";
+  }
+
+  private static String anyDigits(int n) {
+    return n == 0 ? "" : "[0-9]{" + n + "}";
+  }
+
+  private String object(Map<String, Object> s) {
+    String open = "\\{" + ws;
+    String close = ws + "\\}";
+    String comma = ws + "," + ws;
+    Map<?, ?> properties = s.get("properties") instanceof Map<?, ?> p
+      ? p
+      : Map.of();
+    if (properties.isEmpty()) {
+      Object additional = s.get("additionalProperties");
+      if (Boolean.FALSE.equals(additional)) {
+        return open + close;
+      }
+      String entry =
+        STRING +
+        ws +
+        ":" +
+        ws +
+        (additional instanceof Map<?, ?> ? value(additional) : any(ANY_DEPTH));
+      return open + "(?:" + entry + "(?:" + comma + entry + ")*)?" + close;
+    }
+
+    Set<String> required = new LinkedHashSet<>();
+    if (s.get("required") instanceof List<?> names) {
+      for (Object name : names) {
+        required.add((String) name);
+      }
+    }
+    List<String> entries = new ArrayList<>();
+    List<Boolean> mandatory = new ArrayList<>();
+    for (var property : properties.entrySet()) {
+      String name = (String) property.getKey();
+      entries.add(literal(name) + ws + ":" + ws + value(property.getValue()));
+      mandatory.add(required.contains(name));
+    }
+
+    // Properties appear in schema order. The first one present can be any optional property up
+    // to the first required one; after it, each required one follows its comma and each optional
+    // one may.
+    int firstRequired = mandatory.indexOf(true);
+    int lastFirst = firstRequired < 0 ? entries.size() - 1 : firstRequired;
+    List<String> options = new ArrayList<>();
+    for (int first = 0; first <= lastFirst; first++) {
+      var option = new StringBuilder(entries.get(first));
+      for (int j = first + 1; j < entries.size(); j++) {
+        String next = comma + entries.get(j);
+        option.append(mandatory.get(j) ? next : "(?:" + next + ")?");
+      }
+      options.add(option.toString());
+    }
+    String body = alternation(options);
+    return open + (firstRequired < 0 ? "(?:" + body + ")?" : body) + close;
+  }
+
+  private String array(Map<String, Object> s) {
+    String open = "\\[" + ws;
+    String close = ws + "\\]";
+    String comma = ws + "," + ws;
+    if (s.get("prefixItems") instanceof List<?> prefix && !prefix.isEmpty()) {
+      var tuple = new StringBuilder();
+      for (int i = 0; i < prefix.size(); i++) {
+        tuple.append(i == 0 ? "" : comma).append(value(prefix.get(i)));
+      }
+      return open + tuple + close;
+    }
+    Object items = s.getOrDefault("items", Boolean.TRUE);
+    String item = Boolean.TRUE.equals(items)
+      ? any(ANY_DEPTH - 1)
+      : value(items);
+    int min = bound(s, "minItems", 0);
+    int max = bound(s, "maxItems", -1);
+    if (max == 0) {
+      return open + close;
+    }
+    String rest =
+      "(?:" +
+      comma +
+      item +
+      ")" +
+      repeat(Math.max(0, min - 1), max < 0 ? -1 : max - 1);
+    String body = item + rest;
+    return open + (min == 0 ? "(?:" + body + ")?" : body) + close;
+  }
+
+  private String string(Map<String, Object> s) {
+    if (s.get("pattern") instanceof String pattern) {
+      // The pattern constrains the raw characters between the quotes, so it must not produce a
+      // quote, a backslash or a control character there; its anchors parse as nothing.
+      var node = RegexParser.restrict(RegexParser.parse(pattern), RAW_CHARS);
+      if (node == null) {
+        throw new LlamaException(
+          "Pattern only matches characters a JSON string must escape: " + pattern
+        );
+      }
+      return "\"" + RegexParser.print(node) + "\"";
+    }
+    if (s.get("format") instanceof String format) {
+      String formatted = switch (format) {
+        case "date" -> DATE;
+        case "time" -> TIME;
+        case "date-time" -> DATE + "T" + TIME;
+        case "uuid" -> UUID;
+        default -> null;
+      };
+      if (formatted != null) {
+        return "\"" + formatted + "\"";
+      }
+    }
+    int min = bound(s, "minLength", 0);
+    int max = bound(s, "maxLength", -1);
+    if (min == 0 && max < 0) {
+      return STRING;
+    }
+    return "\"" + STRING_CHAR + repeat(min, max) + "\"";
+  }
+
+  /** A bound from the schema, or {@code fallback}; bounds over {@link #MAX_BOUND} are dropped. */
+  private static int bound(Map<String, Object> s, String key, int fallback) {
+    if (!(s.get(key) instanceof JsonNumber n)) {
+      return fallback;
+    }
+    int value = n.intValue();
+    return value > MAX_BOUND ? fallback : Math.max(0, value);
+  }
+
+  private static String repeat(int min, int max) {
+    if (max < 0) {
+      return min == 0 ? "*" : min == 1 ? "+" : "{" + min + ",}";
+    }
+    return min == max ? "{" + min + "}" : "{" + min + "," + max + "}";
+  }
+
+  /** Any JSON value, arrays and objects nested at most {@code depth} levels. */
+  private String any(int depth) {
+    List<String> options = new ArrayList<>(
+      List.of(STRING, NUMBER, BOOLEAN, NULL)
+    );
+    if (depth > 0) {
+      String inner = any(depth - 1);
+      String comma = ws + "," + ws;
+      options.add(
+        "\\[" + ws + "(?:" + inner + "(?:" + comma + inner + ")*)?" + ws + "\\]"
+      );
+      String entry = STRING + ws + ":" + ws + inner;
+      options.add(
+        "\\{" + ws + "(?:" + entry + "(?:" + comma + entry + ")*)?" + ws + "\\}"
+      );
+    }
+    return alternation(options);
+  }
+
+  private Object resolve(String ref) {
+    if (!ref.startsWith("#")) {
+      throw new LlamaException("Only local $refs are supported: " + ref);
+    }
+    Object node = root;
+    for (String part : ref.substring(1).split("/")) {
+      if (part.isEmpty()) {
+        continue;
+      }
+      String key = part.replace("~1", "/").replace("~0", "~");
+      if (!(node instanceof Map<?, ?> map) || !map.containsKey(key)) {
+        throw new LlamaException("Unresolvable $ref " + ref);
+      }
+      node = map.get(key);
+    }
+    return node;
+  }
+
+  /** {@code base} overlaid with {@code over}; {@code properties} and {@code required} are unioned. */
+  private static Map<String, Object> merge(
+    Map<String, Object> base,
+    Map<String, Object> over
+  ) {
+    Map<String, Object> merged = new LinkedHashMap<>(base);
+    for (var entry : over.entrySet()) {
+      Object existing = merged.get(entry.getKey());
+      Object value = entry.getValue();
+      String key = entry.getKey();
+      if (
+        key.equals("properties") &&
+        existing instanceof Map<?, ?> a &&
+        value instanceof Map<?, ?> b
+      ) {
+        Map<Object, Object> union = new LinkedHashMap<>(a);
+        union.putAll(b);
+        merged.put("properties", union);
+      } else if (
+        key.equals("required") &&
+        existing instanceof List<?> a &&
+        value instanceof List<?> b
+      ) {
+        Set<Object> union = new LinkedHashSet<>(a);
+        union.addAll(b);
+        merged.put("required", new ArrayList<>(union));
+      } else {
+        merged.put(key, value);
+      }
+    }
+    return merged;
+  }
+
+  /** The regex matching exactly the JSON text of {@code value}. */
+  private static String literal(Object value) {
+    return escape(Json.write(value));
+  }
+
+  static String escape(String text) {
+    var out = new StringBuilder(text.length() + 8);
+    for (int i = 0; i < text.length(); i++) {
+      char c = text.charAt(i);
+      if ("\\.^$|?*+()[]{}".indexOf(c) >= 0) {
+        out.append('\\');
+      }
+      out.append(c);
+    }
+    return out.toString();
+  }
+
+  private static String alternation(List<String> options) {
+    if (options.isEmpty()) {
+      throw new LlamaException("Schema allows no value");
+    }
+    return options.size() == 1
+      ? options.getFirst()
+      : "(?:" + String.join("|", options) + ")";
+  }
+}
@@ -0,0 +1,465 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.llama.cpp.structured;
+
+import io.gravitee.llama.cpp.LlamaException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Parses the regular-expression subset structured output compiles into a {@link ByteDfa}.
+ *
+ * <p>Supported: literals; {@code .}; classes {@code [a-z]}, {@code [^...]} and the escapes
+ * {@code \d \D \w \W \s \S}; {@code \n \r \t \f \v \0 \xHH \\uHHHH} and escaped punctuation; groups
+ * {@code (...)} and {@code (?:...)}; alternation; the quantifiers {@code * + ? {n} {n,} {n,m}} (a
+ * trailing lazy {@code ?} is accepted and means nothing here). The whole output must match, so
+ * {@code ^} and {@code $} are accepted and ignored. No backreferences, lookaround or flags — none of
+ * them is regular.
+ *
+ * <p>Characters are Unicode code points; {@link ByteDfa} lowers them to UTF-8 bytes.
+ *
+ * @author GraviteeSource Team
+ */
+final class RegexParser {
+
+  /** Largest explicit repetition bound: every repetition is a copy of the sub-automaton. */
+  static final int MAX_REPEAT = 1_000;
+
+  static final int MAX_CODE_POINT = 0x10FFFF;
+
+  sealed interface Node permits Empty, Chars, Concat, Alt, Repeat {}
+
+  /** Matches the empty string. */
+  record Empty() implements Node {}
+
+  /** One code point out of {@code ranges}: sorted, disjoint {@code [lo, hi]} pairs, flattened. */
+  record Chars(int[] ranges) implements Node {}
+
+  record Concat(List<Node> items) implements Node {}
+
+  record Alt(List<Node> options) implements Node {}
+
+  /** {@code node} between {@code min} and {@code max} times; {@code max == -1} is unbounded. */
+  record Repeat(Node node, int min, int max) implements Node {}
+
+  private static final int[] DIGIT = { '0', '9' };
+  private static final int[] WORD = { '0', '9', 'A', 'Z', '_', '_', 'a', 'z' };
+  private static final int[] SPACE = { '\t', '\r', ' ', ' ' };
+  private static final int[] DOT = { 0, '\n' - 1, '\n' + 1, MAX_CODE_POINT };
+
+  private final String pattern;
+  private int pos;
+
+  private RegexParser(String pattern) {
+    this.pattern = pattern;
+  }
+
+  static Node parse(String pattern) {
+    var parser = new RegexParser(pattern);
+    Node node = parser.alternation();
+    if (parser.pos < pattern.length()) {
+      throw parser.error("Unbalanced ')'");
+    }
+    return node;
+  }
+
+  private Node alternation() {
+    List<Node> options = new ArrayList<>();
+    options.add(concatenation());
+    while (pos < pattern.length() && pattern.charAt(pos) == '|') {
+      pos++;
+      options.add(concatenation());
+    }
+    return options.size() == 1 ? options.getFirst() : new Alt(options);
+  }
+
+  private Node concatenation() {
+    List<Node> items = new ArrayList<>();
+    while (pos < pattern.length()) {
+      char c = pattern.charAt(pos);
+      if (c == '|' || c == ')') {
+        break;
+      }
+      Node atom = atom();
+      items.add(quantified(atom));
+    }
+    if (items.isEmpty()) {
+      return new Empty();
+    }
+    return items.size() == 1 ? items.getFirst() : new Concat(items);
+  }
+
+  private Node quantified(Node atom) {
+    Node node = atom;
+    while (pos < pattern.length()) {
+      char c = pattern.charAt(pos);
+      int min;
+      int max;
+      if (c == '*') {
+        min = 0;
+        max = -1;
+        pos++;
+      } else if (c == '+') {
+        min = 1;
+        max = -1;
+        pos++;
+      } else if (c == '?') {
+        min = 0;
+        max = 1;
+        pos++;
+      } else if (c == '{' && isBounds(pos)) {
+        int close = pattern.indexOf('}', pos);
+        String body = pattern.substring(pos + 1, close);
+        int comma = body.indexOf(',');
+        if (comma < 0) {
+          min = max = bound(body);
+        } else {
+          min = bound(body.substring(0, comma));
+          max = comma == body.length() - 1
+            ? -1
+            : bound(body.substring(comma + 1));
+        }
+        if (max != -1 && max < min) {
+          throw error("Repetition {" + body + "} has max < min");
+        }
+        pos = close + 1;
+      } else {
+        break;
+      }
+      // Lazy and possessive suffixes change which match a search returns, not whether the whole
+      // string matches.
+      if (
+        pos < pattern.length() &&
+        (pattern.charAt(pos) == '?' || pattern.charAt(pos) == '+')
+      ) {
+        pos++;
+      }
+      node = new Repeat(node, min, max);
+    }
+    return node;
+  }
+
+  /** Whether {@code {} at {@code at} opens {@code {n}}, {@code {n,}} or {@code {n,m}}. */
+  private boolean isBounds(int at) {
+    int close = pattern.indexOf('}', at);
+    return (
+      close > at + 1 &&
+      pattern.substring(at + 1, close).matches("\\d+(,\\d*)?")
+    );
+  }
+
+  private int bound(String digits) {
+    int value;
+    try {
+      value = Integer.parseInt(digits);
+    } catch (NumberFormatException e) {
+      value = Integer.MAX_VALUE;
+    }
+    if (value > MAX_REPEAT) {
+      throw error("Repetition bound " + digits + " exceeds " + MAX_REPEAT);
+    }
+    return value;
+  }
+
+  private Node atom() {
+    char c = pattern.charAt(pos);
+    switch (c) {
+      case '(' -> {
+        pos++;
+        if (pattern.startsWith("?:", pos)) {
+          pos += 2;
+        } else if (pos < pattern.length() && pattern.charAt(pos) == '?') {
+          throw error("Only (?:...) groups are supported");
+        }
+        Node inner = alternation();
+        if (pos >= pattern.length() || pattern.charAt(pos) != ')') {
+          throw error("Missing ')'");
+        }
+        pos++;
+        return inner;
+      }
+      case '[' -> {
+        return new Chars(charClass());
+      }
+      case '.' -> {
+        pos++;
+        return new Chars(DOT);
+      }
+      case '^', '$' -> {
+        pos++;
+        return new Empty();
+      }
+      case '\\' -> {
+        pos++;
+        int[] set = escape(false);
+        return new Chars(set);
+      }
+      case '*', '+', '?' -> throw error("Nothing to repeat");
+      default -> {
+        int cp = pattern.codePointAt(pos);
+        pos += Character.charCount(cp);
+        return new Chars(new int[] { cp, cp });
+      }
+    }
+  }
+
+  private int[] charClass() {
+    pos++; // [
+    boolean negated = false;
+    if (pos < pattern.length() && pattern.charAt(pos) == '^') {
+      negated = true;
+      pos++;
+    }
+    List<int[]> parts = new ArrayList<>();
+    boolean first = true;
+    while (true) {
+      if (pos >= pattern.length()) {
+        throw error("Missing ']'");
+      }
+      char c = pattern.charAt(pos);
+      if (c == ']' && !first) {
+        pos++;
+        break;
+      }
+      first = false;
+      int[] lo = classAtom();
+      if (
+        lo.length == 2 &&
+        lo[0] == lo[1] &&
+        pos + 1 < pattern.length() &&
+        pattern.charAt(pos) == '-' &&
+        pattern.charAt(pos + 1) != ']'
+      ) {
+        pos++;
+        int[] hi = classAtom();
+        if (hi.length != 2 || hi[0] != hi[1] || hi[0] < lo[0]) {
+          throw error("Invalid class range");
+        }
+        parts.add(new int[] { lo[0], hi[0] });
+      } else {
+        parts.add(lo);
+      }
+    }
+    int[] set = union(parts);
+    return negated ? negate(set) : set;
+  }
+
+  private int[] classAtom() {
+    if (pattern.charAt(pos) == '\\') {
+      pos++;
+      return escape(true);
+    }
+    int cp = pattern.codePointAt(pos);
+    pos += Character.charCount(cp);
+    return new int[] { cp, cp };
+  }
+
+  private int[] escape(boolean inClass) {
+    if (pos >= pattern.length()) {
+      throw error("Trailing '\\'");
+    }
+    char c = pattern.charAt(pos++);
+    return switch (c) {
+      case 'd' -> DIGIT;
+      case 'D' -> negate(DIGIT);
+      case 'w' -> WORD;
+      case 'W' -> negate(WORD);
+      case 's' -> SPACE;
+      case 'S' -> negate(SPACE);
+      case 'n' -> single('\n');
+      case 'r' -> single('\r');
+      case 't' -> single('\t');
+      case 'f' -> single('\f');
+      case 'v' -> single(0x0B);
+      case '0' -> single(0);
+      case 'b' -> {
+        if (!inClass) {
+          throw error("Word boundaries are not supported");
+        }
+        yield single('\b');
+      }
+      case 'x' -> single(hex(2));
+      case 'u' -> single(hex(4));
+      default -> {
+        if (Character.isLetterOrDigit(c)) {
+          throw error("Unsupported escape \\" + c);
+        }
+        yield single(c);
+      }
+    };
+  }
+
+  private int hex(int digits) {
+    if (pos + digits > pattern.length()) {
+      throw error("Truncated hex escape");
+    }
+    try {
+      int value = Integer.parseInt(pattern.substring(pos, pos + digits), 16);
+      pos += digits;
+      return value;
+    } catch (NumberFormatException e) {
+      throw error("Invalid hex escape");
+    }
+  }
+
+  private static int[] single(int cp) {
+    return new int[] { cp, cp };
+  }
+
+  /** Sorted, merged union of range sets. */
+  static int[] union(List<int[]> sets) {
+    List<int[]> pairs = new ArrayList<>();
+    for (int[] set : sets) {
+      for (int i = 0; i < set.length; i += 2) {
+        pairs.add(new int[] { set[i], set[i + 1] });
+      }
+    }
+    pairs.sort((a, b) -> Integer.compare(a[0], b[0]));
+    int[] out = new int[pairs.size() * 2];
+    int n = 0;
+    for (int[] p : pairs) {
+      if (n > 0 && p[0] <= out[n - 1] + 1) {
+        out[n - 1] = Math.max(out[n - 1], p[1]);
+      } else {
+        out[n++] = p[0];
+        out[n++] = p[1];
+      }
+    }
+    return Arrays.copyOf(out, n);
+  }
+
+  /** Complement of a sorted, merged range set over {@code [0, 0x10FFFF]}. */
+  static int[] negate(int[] set) {
+    int[] out = new int[set.length + 2];
+    int n = 0;
+    int next = 0;
+    for (int i = 0; i < set.length; i += 2) {
+      if (set[i] > next) {
+        out[n++] = next;
+        out[n++] = set[i] - 1;
+      }
+      next = set[i + 1] + 1;
+    }
+    if (next <= MAX_CODE_POINT) {
+      out[n++] = next;
+      out[n++] = MAX_CODE_POINT;
+    }
+    return Arrays.copyOf(out, n);
+  }
+
+  /** Intersection of two sorted, merged range sets. */
+  static int[] intersect(int[] a, int[] b) {
+    return negate(union(List.of(negate(a), negate(b))));
+  }
+
+  /**
+   * {@code node} with every character class narrowed to {@code allowed}, or {@code null} when
+   * nothing is left to match. Classes narrowed to nothing drop out of their alternation or make
+   * their concatenation unmatchable, so no empty class reaches {@link ByteDfa}.
+   */
+  static Node restrict(Node node, int[] allowed) {
+    return switch (node) {
+      case Empty empty -> empty;
+      case Chars chars -> {
+        int[] ranges = intersect(chars.ranges(), allowed);
+        yield ranges.length == 0 ? null : new Chars(ranges);
+      }
+      case Concat concat -> {
+        List<Node> items = new ArrayList<>(concat.items().size());
+        for (Node item : concat.items()) {
+          Node narrowed = restrict(item, allowed);
+          if (narrowed == null) {
+            yield null;
+          }
+          items.add(narrowed);
+        }
+        yield new Concat(items);
+      }
+      case Alt alt -> {
+        List<Node> options = new ArrayList<>(alt.options().size());
+        for (Node option : alt.options()) {
+          Node narrowed = restrict(option, allowed);
+          if (narrowed != null) {
+            options.add(narrowed);
+          }
+        }
+        yield options.isEmpty()
+          ? null
+          : options.size() == 1 ? options.getFirst() : new Alt(options);
+      }
+      case Repeat repeat -> {
+        Node narrowed = restrict(repeat.node(), allowed);
+        if (narrowed == null) {
+          yield repeat.min() == 0 ? new Empty() : null;
+        }
+        yield new Repeat(narrowed, repeat.min(), repeat.max());
+      }
+    };
+  }
+
+  /**
+   * Writes {@code node} back as a pattern this parser, and {@link java.util.regex.Pattern}, read as
+   * the same language. BMP code points are {@code \\uHHHH} escapes; the rest are literal.
+   */
+  static String print(Node node) {
+    return switch (node) {
+      case Empty empty -> "";
+      case Chars chars -> printClass(chars.ranges());
+      case Concat concat -> {
+        var out = new StringBuilder();
+        for (Node item : concat.items()) {
+          out.append(print(item));
+        }
+        yield out.toString();
+      }
+      case Alt alt -> {
+        var out = new StringBuilder("(?:");
+        for (int i = 0; i < alt.options().size(); i++) {
+          out.append(i == 0 ? "" : "|").append(print(alt.options().get(i)));
+        }
+        yield out.append(')').toString();
+      }
+      case Repeat repeat -> {
+        String max = repeat.max() < 0 ? "" : Integer.toString(repeat.max());
+        yield "(?:" + print(repeat.node()) + "){" + repeat.min() + "," + max + "}";
+      }
+    };
+  }
+
+  private static String printClass(int[] ranges) {
+    var out = new StringBuilder("[");
+    for (int i = 0; i < ranges.length; i += 2) {
+      out.append(printChar(ranges[i]));
+      if (ranges[i + 1] > ranges[i]) {
+        out.append('-').append(printChar(ranges[i + 1]));
+      }
+    }
+    return out.append(']').toString();
+  }
+
+  private static String printChar(int cp) {
+    return cp < 0x10000
+      ? String.format("\\u%04X", cp)
+      : Character.toString(cp);
+  }
+
+  private LlamaException error(String message) {
+    return new LlamaException(
+      message + " at index " + pos + " of pattern: " + pattern
+    );
+  }
+}
@@ -0,0 +1,316 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.llama.cpp.structured;
+
+import io.gravitee.llama.cpp.LlamaException;
+import io.gravitee.llama.cpp.LlamaVocab;
+import io.gravitee.llama.cpp.logits.LogitsKernels;
+import io.gravitee.llama.cpp.logits.LogitsProcessor;
+import java.lang.foreign.MemorySegment;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A pattern compiled against one vocabulary: for every automaton state, the set of tokens whose
+ * piece keeps the output completable, as a bitset over the vocabulary.
+ *
+ * <p>Built once per pattern and vocabulary — {@link #regex} and {@link #jsonSchema} cache it — so
+ * constraining a step costs one masked pass over the logits row, however large the schema:
+ * {@link #processor()} applies the current state's bitset before sampling and advances the state
+ * by the sampled token's bytes after. A native grammar sampler instead re-checks candidates against
+ * the grammar at every step.
+ *
+ * <p>The automaton runs over UTF-8 bytes, so a token that ends mid-character is handled like any
+ * other: its bytes lead to an intermediate state, and only continuations that complete the
+ * character are allowed next. End-of-generation tokens are allowed exactly in accepting states, so
+ * the model can only stop once the output matches — and must stop when nothing else can follow.
+ *
+ * <p>Thread-safe and shareable; the processors it hands out are not (one per conversation).
+ *
+ * @author GraviteeSource Team
+ */
+public final class TokenFsm {
+
+  /** Longest run of forced output, in bytes, that one state jumps over. */
+  static final int MAX_FORCED_BYTES = 256;
+
+  private static final int[] NO_TOKENS = {};
+
+  private final ByteDfa dfa;
+  private final VocabPieces vocab;
+  /** {@code masks[state]}: allowed tokens, one bit per token id. Equal masks share an array. */
+  private final long[][] masks;
+  /** {@code forced[state]}: the tokens the automaton dictates from there, see {@link #forced}. */
+  private final int[][] forced;
+
+  private TokenFsm(
+    ByteDfa dfa,
+    VocabPieces vocab,
+    long[][] masks,
+    int[][] forced
+  ) {
+    this.dfa = dfa;
+    this.vocab = vocab;
+    this.masks = masks;
+    this.forced = forced;
+  }
+
+  /**
+   * The automaton for {@code pattern} (see {@link RegexParser} for the supported syntax) over
+   * {@code vocab}; compiled on first use, then cached per pattern and model.
+   *
+   * @throws LlamaException if the pattern is invalid, matches nothing, or is too large
+   */
+  public static TokenFsm regex(LlamaVocab vocab, String pattern) {
+    var pieces = VocabPieces.of(vocab);
+    return pieces.fsms.computeIfAbsent(pattern, p -> compile(p, pieces));
+  }
+
+  /**
+   * The automaton for JSON matching {@code schema}, via {@link JsonSchema#toRegex(String)}.
+   *
+   * @throws LlamaException if the schema uses something {@link JsonSchema} does not support
+   */
+  public static TokenFsm jsonSchema(LlamaVocab vocab, String schema) {
+    return regex(vocab, JsonSchema.toRegex(schema));
+  }
+
+  /** Compiles without a model: {@code pieces[id]} is token {@code id}'s text. */
+  static TokenFsm compile(String pattern, byte[][] pieces, int[] eogTokens) {
+    return compile(pattern, new VocabPieces(pieces.clone(), eogTokens));
+  }
+
+  static TokenFsm compile(String pattern, VocabPieces vocab) {
+    var dfa = ByteDfa.compile(pattern);
+    int words = vocab.eogBits.length;
+    long[][] masks = new long[dfa.nStates()][];
+    int[][] forced = new int[dfa.nStates()][];
+    Map<MaskKey, long[]> distinct = new HashMap<>();
+    int[] stack = new int[64];
+    for (int state = 0; state < masks.length; state++) {
+      long[] mask = new long[words];
+      stack = index(dfa, vocab, state, mask, stack);
+      if (dfa.accepting[state]) {
+        for (int w = 0; w < words; w++) {
+          mask[w] |= vocab.eogBits[w];
+        }
+      }
+      masks[state] = distinct.computeIfAbsent(new MaskKey(mask), k -> k.bits);
+      forced[state] = forcedTokens(dfa, vocab, state);
+    }
+    return new TokenFsm(dfa, vocab, masks, forced);
+  }
+
+  /**
+   * The tokens spelling the output that {@code state} leaves no choice about: follows the automaton
+   * while exactly one byte is possible and stopping is not, then splits those bytes greedily into
+   * the longest pieces of the vocabulary. Bytes no piece covers end the run early.
+   */
+  private static int[] forcedTokens(ByteDfa dfa, VocabPieces vocab, int state) {
+    byte[] bytes = new byte[MAX_FORCED_BYTES];
+    int n = 0;
+    for (int s = state; n < bytes.length && !dfa.accepting[s]; ) {
+      int only = -1;
+      for (int b = 0; b < 256; b++) {
+        if (dfa.step(s, b) >= 0) {
+          if (only >= 0) {
+            only = -1;
+            break;
+          }
+          only = b;
+        }
+      }
+      if (only < 0) {
+        break;
+      }
+      bytes[n++] = (byte) only;
+      s = dfa.step(s, only);
+    }
+    int[] tokens = new int[n];
+    int count = 0;
+    for (int at = 0; at < n; ) {
+      int length = Math.min(n - at, vocab.maxLength);
+      int token = vocab.find(bytes, at, at + length);
+      while (token < 0 && --length > 0) {
+        token = vocab.find(bytes, at, at + length);
+      }
+      if (token < 0) {
+        break;
+      }
+      tokens[count++] = token;
+      at += length;
+    }
+    return count == 0 ? NO_TOKENS : Arrays.copyOf(tokens, count);
+  }
+
+  /**
+   * Sets the bit of every token whose piece, walked from {@code state}, stays in the automaton.
+   * Pieces come in sorted order: {@code stack[d]} is the state after the first {@code d} bytes of
+   * the previous piece, valid up to the shared prefix, and once a prefix dies every piece extending
+   * it is skipped without a single step.
+   */
+  private static int[] index(
+    ByteDfa dfa,
+    VocabPieces vocab,
+    int state,
+    long[] mask,
+    int[] stack
+  ) {
+    int deadAt = Integer.MAX_VALUE; // byte index at which the previous piece died
+    stack[0] = state;
+    for (int i = 0; i < vocab.order.length; i++) {
+      int token = vocab.order[i];
+      byte[] piece = vocab.pieces[token];
+      int shared = vocab.lcp[i];
+      if (shared > deadAt) {
+        continue; // extends a prefix that already died
+      }
+      if (piece.length >= stack.length) {
+        stack = Arrays.copyOf(stack, piece.length * 2);
+      }
+      int s = stack[shared];
+      deadAt = Integer.MAX_VALUE;
+      for (int d = shared; d < piece.length; d++) {
+        s = dfa.step(s, piece[d]);
+        if (s < 0) {
+          deadAt = d;
+          break;
+        }
+        stack[d + 1] = s;
+      }
+      if (s >= 0) {
+        mask[token >>> 6] |= 1L << token;
+      }
+    }
+    return stack;
+  }
+
+  private record MaskKey(long[] bits, int hash) {
+    MaskKey(long[] bits) {
+      this(bits, Arrays.hashCode(bits));
+    }
+
+    @Override
+    public boolean equals(Object o) {
+      return o instanceof MaskKey other && Arrays.equals(bits, other.bits);
+    }
+
+    @Override
+    public int hashCode() {
+      return hash;
+    }
+  }
+
+  /**
+   * The tokens that must follow in {@code state}, in order, when the automaton allows only one
+   * continuation there — a fixed key, a closing brace — and empty otherwise. Committing them without
+   * sampling is jump-forward decoding. Not a copy: callers must not modify it.
+   */
+  public int[] forced(int state) {
+    return forced[state];
+  }
+
+  /** The state before any output. */
+  public int start() {
+    return 0;
+  }
+
+  /** Number of automaton states. */
+  public int nStates() {
+    return masks.length;
+  }
+
+  public int nVocab() {
+    return vocab.nVocab;
+  }
+
+  public boolean isAccepting(int state) {
+    return dfa.accepting[state];
+  }
+
+  /** Whether {@code tokenId} may be sampled in {@code state}. */
+  public boolean allows(int state, int tokenId) {
+    return (masks[state][tokenId >>> 6] & (1L << tokenId)) != 0;
+  }
+
+  /**
+   * The state after {@code tokenId}'s piece, or {@code -1} if the token is not allowed in
+   * {@code state}. An end-of-generation token leaves an accepting state unchanged.
+   */
+  public int next(int state, int tokenId) {
+    if (tokenId < 0 || tokenId >= vocab.nVocab || !allows(state, tokenId)) {
+      return -1;
+    }
+    return vocab.isEog(tokenId) ? state : dfa.walk(state, vocab.pieces[tokenId]);
+  }
+
+  /** A processor that constrains one conversation's output to this automaton, from its start. */
+  public LogitsProcessor processor() {
+    return new Constraint(this);
+  }
+
+  /**
+   * Masks the row with the current state's bitset, and follows the sampled token. Stateful: one per
+   * conversation; {@link #reset()} (called by {@code ConversationState.initialize}) rewinds it.
+   */
+  private static final class Constraint implements LogitsProcessor {
+
+    private final TokenFsm fsm;
+    private final LogitsKernels kernels = LogitsKernels.get();
+    private int state;
+
+    Constraint(TokenFsm fsm) {
+      this.fsm = fsm;
+    }
+
+    @Override
+    public void process(MemorySegment row, int nVocab, int step) {
+      if (nVocab != fsm.nVocab()) {
+        throw new LlamaException(
+          "Structured output was compiled for " +
+            fsm.nVocab() +
+            " tokens, the row has " +
+            nVocab
+        );
+      }
+      kernels.mask(row, nVocab, fsm.masks[state]);
+    }
+
+    @Override
+    public void accept(int tokenId) {
+      int next = fsm.next(state, tokenId);
+      if (next < 0) {
+        throw new LlamaException(
+          "Token " +
+            tokenId +
+            " does not continue the structured output; was the row masked before sampling?"
+        );
+      }
+      state = next;
+    }
+
+    @Override
+    public int[] forcedTokens() {
+      return fsm.forced[state];
+    }
+
+    @Override
+    public void reset() {
+      state = fsm.start();
+    }
+  }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.llama.cpp.structured;
+
+import io.gravitee.llama.cpp.LlamaModel;
+import io.gravitee.llama.cpp.LlamaVocab;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.WeakHashMap;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * A vocabulary's token pieces, ordered for {@link TokenFsm}'s index build, plus the automata
+ * already built over it.
+ *
+ * <p>Pieces are sorted by their unsigned bytes, with the length of the prefix each shares with the
+ * one before it. Walking an automaton down that order visits the vocabulary like a trie: a shared
+ * prefix is walked once, and every piece that extends a dead prefix is skipped unread.
+ *
+ * <p>Control and end-of-generation tokens have no piece here: they are structure, not text. The
+ * end-of-generation ones are allowed separately, wherever the automaton accepts.
+ *
+ * @author GraviteeSource Team
+ */
+final class VocabPieces {
+
+  // Per model, held weakly: reading 150k pieces costs more than compiling most patterns, and a
+  // dropped model must not stay pinned by its index. Keyed by the model rather than the vocab, as
+  // callers wrap the same native vocab in a new LlamaVocab whenever they need one.
+  private static final Map<LlamaModel, Slot> CACHE =
+    Collections.synchronizedMap(new WeakHashMap<>());
+
+  /** One model's pieces, read once; its monitor is the build lock, private to this class. */
+  private static final class Slot {
+
+    private VocabPieces pieces;
+
+    synchronized VocabPieces get(LlamaVocab vocab) {
+      if (pieces == null) {
+        int n = vocab.nVocab();
+        byte[][] read = new byte[n][];
+        for (int id = 0; id < n; id++) {
+          if (!vocab.isControl(id)) {
+            read[id] = vocab.tokenToPiece(id);
+          }
+        }
+        pieces = new VocabPieces(read, vocab.eogTokens());
+      }
+      return pieces;
+    }
+  }
+
+  final int nVocab;
+  /** {@code pieces[token]}, or {@code null} for tokens no pattern may produce. */
+  final byte[][] pieces;
+  /** Token ids with a non-empty piece, sorted by piece. */
+  final int[] order;
+  /** {@code lcp[i]}: bytes {@code pieces[order[i]]} shares with {@code pieces[order[i - 1]]}. */
+  final int[] lcp;
+  /** The end-of-generation tokens, as a vocabulary bitset. */
+  final long[] eogBits;
+  /** Length of the longest piece. */
+  final int maxLength;
+
+  /** Compiled automata over this vocabulary, by pattern. */
+  final Map<String, TokenFsm> fsms = new ConcurrentHashMap<>();
+
+  VocabPieces(byte[][] pieces, int[] eogTokens) {
+    this.nVocab = pieces.length;
+    this.pieces = pieces;
+    this.eogBits = new long[(nVocab + 63) >>> 6];
+    for (int id : eogTokens) {
+      eogBits[id >>> 6] |= 1L << id;
+      pieces[id] = null;
+    }
+    int count = 0;
+    Integer[] boxed = new Integer[nVocab];
+    for (int id = 0; id < nVocab; id++) {
+      if (pieces[id] != null && pieces[id].length > 0) {
+        boxed[count++] = id;
+      }
+    }
+    Arrays.sort(boxed, 0, count, (a, b) ->
+      Arrays.compareUnsigned(pieces[a], pieces[b])
+    );
+    this.order = new int[count];
+    this.lcp = new int[count];
+    int longest = 0;
+    for (int i = 0; i < count; i++) {
+      order[i] = boxed[i];
+      longest = Math.max(longest, pieces[order[i]].length);
+      if (i > 0) {
+        byte[] prev = pieces[order[i - 1]];
+        byte[] cur = pieces[order[i]];
+        int mismatch = Arrays.mismatch(prev, cur);
+        lcp[i] = mismatch < 0 ? cur.length : mismatch;
+      }
+    }
+    this.maxLength = longest;
+  }
+
+  static VocabPieces of(LlamaVocab vocab) {
+    Slot slot;
+    synchronized (CACHE) {
+      slot = CACHE.computeIfAbsent(vocab.getModel(), model -> new Slot());
+    }
+    return slot.get(vocab);
+  }
+
+  /** The lowest token id whose piece is exactly {@code bytes[from..to)}, or {@code -1}. */
+  int find(byte[] bytes, int from, int to) {
+    int lo = 0;
+    int hi = order.length - 1;
+    while (lo <= hi) {
+      int mid = (lo + hi) >>> 1;
+      byte[] piece = pieces[order[mid]];
+      int cmp = Arrays.compareUnsigned(
+        piece,
+        0,
+        piece.length,
+        bytes,
+        from,
+        to
+      );
+      if (cmp < 0) {
+        lo = mid + 1;
+      } else if (cmp > 0) {
+        hi = mid - 1;
+      } else {
+        // Equal pieces sort by id: return the lowest.
+        while (mid > 0 && Arrays.equals(pieces[order[mid - 1]], piece)) {
+          mid--;
+        }
+        return order[mid];
+      }
+    }
+    return -1;
+  }
+
+  boolean isEog(int tokenId) {
+    return (eogBits[tokenId >>> 6] & (1L << tokenId)) != 0;
+  }
+}
@@ -22,9 +22,13 @@ import static org.assertj.core.api.AssertionsForClassTypes.assertThatThrownBy;
 import io.gravitee.llama.cpp.nativelib.LlamaLibLoader;
 import java.lang.foreign.Arena;
 import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Random;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Test;
@@ -440,6 +444,85 @@ class BatchProcessorTest extends LlamaCppTest {
     model.free();
   }
 
+  @Test
+  void parallel_sampling_matches_serial_sampling() {
+    var modelParameters = new LlamaModelParams(arena);
+    Path absolutePath = getModelPath(MODEL_PATH, MODEL_TO_DOWNLOAD);
+    var model = new LlamaModel(arena, absolutePath, modelParameters);
+    track(model);
+
+    List<String> serial = sampledOutputs(model, null);
+    List<String> parallel;
+    try (var executor = Executors.newVirtualThreadPerTaskExecutor()) {
+      parallel = sampledOutputs(model, executor);
+    }
+
+    // Same tokens, queued in the same order: the executor changes where sampling runs, not what
+    // it draws or how the outputs interleave.
+    assertThat(serial).isNotEmpty();
+    assertThat(parallel).isEqualTo(serial);
+
+    model.free();
+  }
+
+  /**
+   * Runs four seeded conversations through one BatchIterator and returns every output as
+   * {@code seq:text}, in the order next() returned them. Sequences 2 and 3 share a sampler, so the
+   * parallel run has to keep them in one task to draw what the serial run draws.
+   */
+  private static List<String> sampledOutputs(
+    LlamaModel model,
+    Executor executor
+  ) {
+    var contextParams = new LlamaContextParams(arena)
+      .nCtx(2048)
+      .nBatch(512)
+      .nSeqMax(4);
+    var context = new LlamaContext(arena, model, contextParams);
+    var vocab = new LlamaVocab(model);
+    var tokenizer = new LlamaTokenizer(vocab, context);
+    var samplers = List.of(
+      new LlamaSampler(arena).temperature(0.8f).seed(11),
+      new LlamaSampler(arena).temperature(0.8f).seed(22),
+      new LlamaSampler(arena).temperature(0.8f).seed(33)
+    );
+    String[] questions = {
+      "What is the capital of France?",
+      "What is the capital of England?",
+      "What is the capital of Poland?",
+      "What is the capital of Spain?",
+    };
+
+    var iterator = new BatchIterator(arena, context).setSamplingExecutor(
+      executor
+    );
+    for (int seq = 0; seq < questions.length; seq++) {
+      var prompt = getPrompt(
+        model,
+        arena,
+        buildMessages(arena, SYSTEM, questions[seq]),
+        contextParams
+      );
+      var sampler = samplers.get(Math.min(seq, 2));
+      iterator.addState(
+        ConversationState.create(arena, context, tokenizer, sampler, seq)
+          .setMaxTokens(30)
+          .initialize(prompt)
+      );
+    }
+
+    List<String> outputs = new ArrayList<>();
+    while (iterator.hasNext()) {
+      LlamaOutput output = iterator.next();
+      outputs.add(output.sequenceId() + ":" + output.text());
+    }
+
+    iterator.free();
+    context.free();
+    samplers.forEach(LlamaSampler::free);
+    return outputs;
+  }
+
   @AfterAll
   public static void afterAll() {
     arena = null;
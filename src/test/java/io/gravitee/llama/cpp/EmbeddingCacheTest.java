@@ -0,0 +1,109 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.llama.cpp;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.lang.foreign.Arena;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Pure tests for {@link EmbeddingCache} — plain off-heap memory, no native library. Cover lookups
+ * and their counters, least-recently-used eviction into the freed row, and the text hash.
+ *
+ * @author GraviteeSource Team
+ */
+class EmbeddingCacheTest {
+
+  private static EmbeddingCache.Key key(String text) {
+    return EmbeddingCache.key(42, text);
+  }
+
+  @Test
+  void returns_a_copy_of_what_was_stored_and_counts_lookups() {
+    try (var arena = Arena.ofConfined()) {
+      var cache = new EmbeddingCache(arena, 3, 1024);
+      float[] vector = { 1f, 2f, 3f };
+
+      assertThat(cache.get(key("title"))).isNull();
+      cache.put(key("title"), vector);
+      vector[0] = 9f;
+      float[] hit = cache.get(key("title"));
+
+      assertThat(hit).containsExactly(1f, 2f, 3f);
+      hit[1] = 9f;
+      assertThat(cache.get(key("title"))).containsExactly(1f, 2f, 3f);
+      assertThat(cache.hits()).isEqualTo(2);
+      assertThat(cache.misses()).isEqualTo(1);
+      assertThat(cache.size()).isEqualTo(1);
+    }
+  }
+
+  @Test
+  void the_byte_budget_bounds_the_entries() {
+    try (var arena = Arena.ofConfined()) {
+      // 2 floats = 8 bytes per vector; 20 bytes hold 2.
+      var cache = new EmbeddingCache(arena, 2, 20);
+
+      assertThat(cache.capacity()).isEqualTo(2);
+      assertThatThrownBy(() -> new EmbeddingCache(arena, 2, 7))
+        .isInstanceOf(LlamaException.class)
+        .hasMessageContaining("holds no");
+    }
+  }
+
+  @Test
+  void evicts_the_least_recently_used_into_its_row() {
+    try (var arena = Arena.ofConfined()) {
+      var cache = new EmbeddingCache(arena, 2, 16);
+      cache.put(key("a"), new float[] { 1f, 1f });
+      cache.put(key("b"), new float[] { 2f, 2f });
+      cache.get(key("a")); // b is now the least recently used
+
+      cache.put(key("c"), new float[] { 3f, 3f });
+
+      assertThat(cache.size()).isEqualTo(2);
+      assertThat(cache.evictions()).isEqualTo(1);
+      assertThat(cache.get(key("b"))).isNull();
+      assertThat(cache.get(key("a"))).containsExactly(1f, 1f);
+      assertThat(cache.get(key("c"))).containsExactly(3f, 3f);
+    }
+  }
+
+  @Test
+  void rejects_a_vector_of_another_dimension() {
+    try (var arena = Arena.ofConfined()) {
+      var cache = new EmbeddingCache(arena, 2, 64);
+
+      assertThatThrownBy(() -> cache.put(key("a"), new float[] { 1f }))
+        .isInstanceOf(LlamaException.class)
+        .hasMessageContaining("does not fit");
+    }
+  }
+
+  @Test
+  void keys_depend_on_every_char_the_length_and_the_seed() {
+    String text = "the quick brown fox jumps";
+
+    assertThat(key(text)).isEqualTo(key(new String(text)));
+    assertThat(key(text)).isNotEqualTo(key("the quick brown fox jumpt"));
+    assertThat(key(text)).isNotEqualTo(key("The quick brown fox jumps"));
+    assertThat(key("a")).isNotEqualTo(key("a\u0000"));
+    assertThat(key("")).isNotEqualTo(key("\u0000"));
+    assertThat(key(text)).isNotEqualTo(EmbeddingCache.key(43, text));
+  }
+}
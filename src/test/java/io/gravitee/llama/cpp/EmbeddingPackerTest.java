@@ -0,0 +1,105 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.llama.cpp;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * First-fit-decreasing packing of embedding inputs into decode batches.
+ *
+ * <p>No model or native libraries required.
+ *
+ * @author GraviteeSource Team
+ */
+class EmbeddingPackerTest {
+
+  @Test
+  void short_inputs_fill_the_room_long_ones_leave() {
+    // Caller order needs three decodes: [6], [6, 5], [5].
+    int[][] batches = EmbeddingPacker.pack(new int[] { 6, 6, 5, 5 }, 11, 4);
+
+    assertThat(batches.length).isEqualTo(2);
+    assertThat(batches[0]).containsExactly(0, 2);
+    assertThat(batches[1]).containsExactly(1, 3);
+  }
+
+  @Test
+  void each_input_goes_into_the_first_batch_with_room() {
+    int[][] batches = EmbeddingPacker.pack(new int[] { 3, 8, 3, 5, 2 }, 10, 4);
+
+    assertThat(batches.length).isEqualTo(3);
+    assertThat(batches[0]).containsExactly(1, 4);
+    assertThat(batches[1]).containsExactly(3, 0);
+    assertThat(batches[2]).containsExactly(2);
+  }
+
+  @Test
+  void a_batch_holds_at_most_n_seq_max_inputs() {
+    int[][] batches = EmbeddingPacker.pack(new int[] { 1, 1, 1, 1, 1 }, 512, 2);
+
+    assertThat(batches.length).isEqualTo(3);
+    assertThat(batches[0]).containsExactly(0, 1);
+    assertThat(batches[1]).containsExactly(2, 3);
+    assertThat(batches[2]).containsExactly(4);
+  }
+
+  @Test
+  void an_input_of_exactly_n_batch_tokens_fills_a_batch() {
+    int[][] batches = EmbeddingPacker.pack(new int[] { 4, 16, 12 }, 16, 8);
+
+    assertThat(batches.length).isEqualTo(2);
+    assertThat(batches[0]).containsExactly(1);
+    assertThat(batches[1]).containsExactly(2, 0);
+  }
+
+  @Test
+  void no_inputs_need_no_batches() {
+    assertThat(EmbeddingPacker.pack(new int[0], 512, 4).length).isEqualTo(0);
+  }
+
+  @Test
+  void every_input_is_packed_once_within_both_limits() {
+    var random = new Random(7);
+    int[] lengths = new int[5000];
+    long total = 0;
+    for (int i = 0; i < lengths.length; i++) {
+      lengths[i] = 1 + random.nextInt(512);
+      total += lengths[i];
+    }
+
+    int[][] batches = EmbeddingPacker.pack(lengths, 512, 16);
+
+    boolean[] seen = new boolean[lengths.length];
+    for (int[] batch : batches) {
+      assertThat(batch.length).isBetween(1, 16);
+      int tokens = 0;
+      for (int input : batch) {
+        assertThat(seen[input]).isFalse();
+        seen[input] = true;
+        tokens += lengths[input];
+      }
+      assertThat(tokens).isLessThanOrEqualTo(512);
+    }
+    for (boolean packed : seen) {
+      assertThat(packed).isTrue();
+    }
+    // Within a few percent of the token-count bound.
+    assertThat((long) batches.length).isLessThan(total / 512 + total / 5120);
+  }
+}
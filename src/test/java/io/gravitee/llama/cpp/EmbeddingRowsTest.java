@@ -0,0 +1,163 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.llama.cpp;
+
+import static java.lang.foreign.ValueLayout.JAVA_BYTE;
+import static java.lang.foreign.ValueLayout.JAVA_FLOAT;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.gravitee.llama.cpp.LlamaEmbedder.RowEncoding;
+import io.gravitee.llama.cpp.logits.LogitsKernels;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Pure tests for {@link EmbeddingRows} — an Arena-allocated row stands in for the pooled native
+ * output, no model required. Each {@link RowEncoding} is written into a row of a larger matrix.
+ *
+ * @author GraviteeSource Team
+ */
+class EmbeddingRowsTest {
+
+  private static final LogitsKernels[] KERNELS = {
+    LogitsKernels.get(),
+    LogitsKernels.scalar(),
+  };
+
+  private static MemorySegment row(Arena arena, float... values) {
+    MemorySegment row = arena.allocate(JAVA_FLOAT, values.length);
+    for (int i = 0; i < values.length; i++) {
+      row.setAtIndex(JAVA_FLOAT, i, values[i]);
+    }
+    return row;
+  }
+
+  @Test
+  void float32_rows_are_copied_or_l2_normalized() {
+    try (Arena arena = Arena.ofConfined()) {
+      MemorySegment src = row(arena, 3f, 0f, -4f);
+      for (LogitsKernels kernels : KERNELS) {
+        MemorySegment out = arena.allocate(JAVA_FLOAT, 6);
+
+        EmbeddingRows.write(
+          src,
+          3,
+          out.asSlice(0, 12),
+          RowEncoding.FLOAT32,
+          false,
+          kernels
+        );
+        EmbeddingRows.write(
+          src,
+          3,
+          out.asSlice(12, 12),
+          RowEncoding.FLOAT32,
+          true,
+          kernels
+        );
+
+        assertThat(out.toArray(JAVA_FLOAT)).containsExactly(
+          3f,
+          0f,
+          -4f,
+          0.6f,
+          0f,
+          -0.8f
+        );
+      }
+    }
+  }
+
+  @Test
+  void a_zero_row_is_left_as_is_when_normalized() {
+    try (Arena arena = Arena.ofConfined()) {
+      MemorySegment src = row(arena, 0f, 0f);
+      MemorySegment out = row(arena, 9f, 9f);
+
+      EmbeddingRows.write(
+        src,
+        2,
+        out,
+        RowEncoding.FLOAT32,
+        true,
+        LogitsKernels.get()
+      );
+
+      assertThat(out.toArray(JAVA_FLOAT)).containsExactly(0f, 0f);
+    }
+  }
+
+  @Test
+  void int8_rows_scale_the_largest_magnitude_to_127() {
+    try (Arena arena = Arena.ofConfined()) {
+      MemorySegment src = row(arena, 0.5f, -2f, 1f, 0f);
+      MemorySegment out = arena.allocate(4);
+
+      EmbeddingRows.write(
+        src,
+        4,
+        out,
+        RowEncoding.INT8,
+        false,
+        LogitsKernels.get()
+      );
+
+      assertThat(out.toArray(JAVA_BYTE)).containsExactly(32, -127, 64, 0);
+    }
+  }
+
+  @Test
+  void binary_rows_pack_the_signs_high_bit_first() {
+    try (Arena arena = Arena.ofConfined()) {
+      // 10 dimensions: positive at 0, 2, 7 and 9.
+      MemorySegment src = row(
+        arena,
+        1f,
+        -1f,
+        0.5f,
+        0f,
+        -2f,
+        -3f,
+        -0.1f,
+        4f,
+        -1f,
+        2f
+      );
+      MemorySegment out = arena.allocate(2);
+
+      EmbeddingRows.write(
+        src,
+        10,
+        out,
+        RowEncoding.BINARY,
+        false,
+        LogitsKernels.get()
+      );
+
+      assertThat(out.get(JAVA_BYTE, 0)).isEqualTo((byte) 0b1010_0001);
+      assertThat(out.get(JAVA_BYTE, 1)).isEqualTo((byte) 0b0100_0000);
+    }
+  }
+
+  @Test
+  void row_bytes_follow_the_encoding() {
+    assertThat(RowEncoding.FLOAT32.rowBytes(1024)).isEqualTo(4096L);
+    assertThat(RowEncoding.INT8.rowBytes(1024)).isEqualTo(1024L);
+    assertThat(RowEncoding.BINARY.rowBytes(1024)).isEqualTo(128L);
+    assertThat(RowEncoding.BINARY.rowBytes(1025)).isEqualTo(129L);
+  }
+}
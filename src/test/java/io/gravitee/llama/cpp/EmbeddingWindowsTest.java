@@ -0,0 +1,117 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.llama.cpp;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.gravitee.llama.cpp.LlamaEmbedder.WindowAggregation;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Sliding windows over long embedding inputs and the aggregation of their vectors.
+ *
+ * <p>No model or native libraries required.
+ *
+ * @author GraviteeSource Team
+ */
+class EmbeddingWindowsTest {
+
+  private static final int CLS = 101;
+  private static final int SEP = 102;
+
+  @Test
+  void finds_how_the_special_tokens_wrap_an_input() {
+    assertThat(
+      EmbeddingWindows.lead(
+        new int[] { CLS, 7, 8, SEP },
+        new int[] { CLS, SEP }
+      )
+    ).isEqualTo(1);
+    assertThat(
+      EmbeddingWindows.lead(new int[] { 1, 7, 8 }, new int[] { 1 })
+    ).isEqualTo(1);
+    assertThat(
+      EmbeddingWindows.lead(new int[] { 7, 8, 2 }, new int[] { 2 })
+    ).isEqualTo(0);
+    assertThat(
+      EmbeddingWindows.lead(new int[] { 7, 8 }, new int[0])
+    ).isEqualTo(0);
+    assertThat(
+      EmbeddingWindows.lead(new int[] { 7, 8, 9 }, new int[] { CLS, SEP })
+    ).isEqualTo(-1);
+  }
+
+  @Test
+  void every_window_keeps_the_special_tokens_and_overlaps_the_previous() {
+    int[] tokens = { CLS, 1, 2, 3, 4, 5, 6, 7, SEP };
+
+    // 3 content tokens per window, 1 shared: starts at 1, 3, 5.
+    int[][] windows = EmbeddingWindows.split(tokens, 1, 1, 5, 1);
+
+    assertThat(windows.length).isEqualTo(3);
+    assertThat(windows[0]).containsExactly(CLS, 1, 2, 3, SEP);
+    assertThat(windows[1]).containsExactly(CLS, 3, 4, 5, SEP);
+    assertThat(windows[2]).containsExactly(CLS, 5, 6, 7, SEP);
+  }
+
+  @Test
+  void the_last_window_ends_with_the_content() {
+    int[] tokens = { 1, 2, 3, 4, 5, 6 };
+
+    int[][] windows = EmbeddingWindows.split(tokens, 0, 0, 4, 0);
+
+    assertThat(windows.length).isEqualTo(2);
+    assertThat(windows[0]).containsExactly(1, 2, 3, 4);
+    assertThat(windows[1]).containsExactly(5, 6);
+  }
+
+  @Test
+  void an_input_that_fits_is_one_window() {
+    int[] tokens = { CLS, 1, 2, SEP };
+
+    int[][] windows = EmbeddingWindows.split(tokens, 1, 1, 8, 2);
+
+    assertThat(windows.length).isEqualTo(1);
+    assertThat(windows[0]).containsExactly(CLS, 1, 2, SEP);
+  }
+
+  @Test
+  void aggregates_only_the_given_windows() {
+    float[][] vectors = {
+      { 9f, 9f },
+      { 1f, 4f },
+      { 3f, 0f },
+      { 9f, 9f },
+    };
+    int[] weights = { 1, 3, 1, 1 };
+
+    assertThat(
+      EmbeddingWindows.aggregate(vectors, weights, 1, 2, WindowAggregation.MEAN)
+    ).containsExactly(2f, 2f);
+    assertThat(
+      EmbeddingWindows.aggregate(vectors, weights, 1, 2, WindowAggregation.MAX)
+    ).containsExactly(3f, 4f);
+    assertThat(
+      EmbeddingWindows.aggregate(
+        vectors,
+        weights,
+        1,
+        2,
+        WindowAggregation.LENGTH_WEIGHTED
+      )
+    ).containsExactly(1.5f, 3f);
+  }
+}
@@ -93,4 +93,25 @@ class LlamaTokenDataArrayTest {
       assertThat(candidates.selectedIndex()).isEqualTo(-1L);
     }
   }
+
+  @Test
+  void the_shared_id_template_outlives_the_arena_of_the_first_buffer() {
+    int nVocab = 5;
+    try (Arena first = Arena.ofConfined()) {
+      new LlamaTokenDataArray(first, nVocab);
+    }
+    try (Arena arena = Arena.ofConfined()) {
+      MemorySegment logits = arena.allocate(ValueLayout.JAVA_FLOAT, nVocab);
+      var candidates = new LlamaTokenDataArray(arena, nVocab);
+      var other = new LlamaTokenDataArray(arena, nVocab);
+      candidates.fill(logits, 0);
+      other.fill(logits, 0);
+
+      // The pristine image was built once, outside either arena, and both buffers restore from it.
+      for (int i = 0; i < nVocab; i++) {
+        assertThat(candidates.idAt(i)).isEqualTo(i);
+        assertThat(other.idAt(i)).isEqualTo(i);
+      }
+    }
+  }
 }
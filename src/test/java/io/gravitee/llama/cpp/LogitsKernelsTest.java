@@ -0,0 +1,251 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.llama.cpp;
+
+import static java.lang.foreign.ValueLayout.JAVA_FLOAT;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.within;
+
+import io.gravitee.llama.cpp.logits.LogitsKernels;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.util.Random;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Pure tests for the {@link LogitsKernels} behind {@link LlamaContext#getLogprobs} — an
+ * Arena-allocated row stands in for the native logits, no model required.
+ *
+ * <p>Each case runs against {@link LogitsKernels#get()} (the vector kernel when
+ * {@code jdk.incubator.vector} is resolved, as it is under surefire) and the scalar one, and checks
+ * both against log-sum-exp and a full sort done in double. The vocabulary sizes are deliberately
+ * not multiples of any vector width, so the scalar tail is exercised too.
+ *
+ * @author GraviteeSource Team
+ */
+class LogitsKernelsTest {
+
+  private static final LogitsKernels[] KERNELS = {
+    LogitsKernels.get(),
+    LogitsKernels.scalar(),
+  };
+
+  private static MemorySegment row(Arena arena, float[] logits) {
+    MemorySegment row = arena.allocate(JAVA_FLOAT, logits.length);
+    for (int i = 0; i < logits.length; i++) {
+      row.setAtIndex(JAVA_FLOAT, i, logits[i]);
+    }
+    return row;
+  }
+
+  private static float[] randomLogits(int n, long seed) {
+    var random = new Random(seed);
+    float[] logits = new float[n];
+    for (int i = 0; i < n; i++) {
+      logits[i] = (float) (random.nextGaussian() * 4.0);
+    }
+    return logits;
+  }
+
+  private static double exactLogZ(float[] logits) {
+    double max = Double.NEGATIVE_INFINITY;
+    for (float v : logits) max = Math.max(max, v);
+    double sum = 0.0;
+    for (float v : logits) sum += Math.exp(v - max);
+    return max + Math.log(sum);
+  }
+
+  /** Indices by descending logit, lower index first on ties. */
+  private static int[] exactTop(float[] logits, int topN) {
+    return java.util.stream.IntStream.range(0, logits.length)
+      .boxed()
+      .sorted((a, b) ->
+        logits[a] != logits[b]
+          ? Float.compare(logits[b], logits[a])
+          : Integer.compare(a, b)
+      )
+      .limit(topN)
+      .mapToInt(Integer::intValue)
+      .toArray();
+  }
+
+  @Test
+  void log_sum_exp_and_top_n_match_exact_math() {
+    float[] logits = randomLogits(151_937, 42);
+    try (Arena arena = Arena.ofConfined()) {
+      MemorySegment row = row(arena, logits);
+      for (LogitsKernels kernels : KERNELS) {
+        int[] ids = new int[20];
+        float[] values = new float[20];
+        double logZ = kernels.summarize(row, logits.length, 20, ids, values);
+
+        assertThat(logZ).as("%s", kernels).isCloseTo(
+          exactLogZ(logits),
+          within(1e-4)
+        );
+        assertThat(ids).as("%s", kernels).containsExactly(
+          exactTop(logits, 20)
+        );
+        for (int rank = 0; rank < 20; rank++) {
+          assertThat(values[rank]).isEqualTo(logits[ids[rank]]);
+        }
+      }
+    }
+  }
+
+  @Test
+  void max_matches_the_largest_logit() {
+    float[] logits = randomLogits(32_003, 7);
+    logits[32_001] = 99f; // in the scalar tail for every vector width
+    try (Arena arena = Arena.ofConfined()) {
+      MemorySegment row = row(arena, logits);
+      for (LogitsKernels kernels : KERNELS) {
+        assertThat(kernels.max(row, logits.length)).isEqualTo(99f);
+      }
+    }
+  }
+
+  @Test
+  void sum_of_squares_matches_double_math() {
+    float[] values = randomLogits(4_099, 13);
+    double exact = 0.0;
+    for (float v : values) {
+      exact += (double) v * v;
+    }
+    try (Arena arena = Arena.ofConfined()) {
+      MemorySegment row = row(arena, values);
+      for (LogitsKernels kernels : KERNELS) {
+        double sum = kernels.sumOfSquares(row, values.length);
+
+        assertThat(sum).as("%s", kernels).isCloseTo(
+          exact,
+          within(exact * 1e-5)
+        );
+      }
+    }
+  }
+
+  @Test
+  void a_rising_max_is_rescaled_not_overflowed() {
+    // Strictly increasing logits: every chunk raises the running max, and exp(logit - oldMax)
+    // would overflow float without the rescale.
+    float[] logits = new float[4_099];
+    for (int i = 0; i < logits.length; i++) {
+      logits[i] = i * 0.25f;
+    }
+    try (Arena arena = Arena.ofConfined()) {
+      MemorySegment row = row(arena, logits);
+      for (LogitsKernels kernels : KERNELS) {
+        int[] ids = new int[3];
+        float[] values = new float[3];
+        double logZ = kernels.summarize(row, logits.length, 3, ids, values);
+
+        assertThat(logZ).as("%s", kernels).isCloseTo(
+          exactLogZ(logits),
+          within(1e-4)
+        );
+        assertThat(ids).containsExactly(4_098, 4_097, 4_096);
+      }
+    }
+  }
+
+  @Test
+  void masked_logits_contribute_nothing() {
+    float[] logits = randomLogits(1_001, 3);
+    for (int i = 0; i < logits.length; i += 2) {
+      logits[i] = Float.NEGATIVE_INFINITY;
+    }
+    try (Arena arena = Arena.ofConfined()) {
+      MemorySegment row = row(arena, logits);
+      for (LogitsKernels kernels : KERNELS) {
+        int[] ids = new int[5];
+        float[] values = new float[5];
+        double logZ = kernels.summarize(row, logits.length, 5, ids, values);
+
+        assertThat(logZ).as("%s", kernels).isCloseTo(
+          exactLogZ(logits),
+          within(1e-4)
+        );
+        assertThat(ids).containsExactly(exactTop(logits, 5));
+      }
+    }
+  }
+
+  @Test
+  void ties_keep_the_lower_token_id_first() {
+    float[] logits = new float[517];
+    java.util.Arrays.fill(logits, 1f);
+    logits[300] = 2f;
+    try (Arena arena = Arena.ofConfined()) {
+      MemorySegment row = row(arena, logits);
+      for (LogitsKernels kernels : KERNELS) {
+        int[] ids = new int[4];
+        float[] values = new float[4];
+        kernels.summarize(row, logits.length, 4, ids, values);
+
+        assertThat(ids).as("%s", kernels).containsExactly(300, 0, 1, 2);
+      }
+    }
+  }
+
+  @Test
+  void top_n_is_capped_at_the_vocabulary_size() {
+    float[] logits = { 0.5f, 3f, -1f };
+    try (Arena arena = Arena.ofConfined()) {
+      MemorySegment row = row(arena, logits);
+      for (LogitsKernels kernels : KERNELS) {
+        int[] ids = new int[3];
+        float[] values = new float[3];
+        double logZ = kernels.summarize(row, logits.length, 10, ids, values);
+
+        assertThat(logZ).isCloseTo(exactLogZ(logits), within(1e-6));
+        assertThat(ids).containsExactly(1, 0, 2);
+      }
+    }
+  }
+
+  @Test
+  void logprobs_keep_the_chosen_token_and_box_nothing() {
+    byte[] euro = { (byte) 0xE2, (byte) 0x82, (byte) 0xAC };
+    var chosen = new TokenLogprob(
+      "€",
+      7,
+      -2.5,
+      java.util.List.of(0xE2, 0x82, 0xAC)
+    );
+    var top = new TokenLogprob("a", 1, -0.1, java.util.List.of(0x61));
+    var logprobs = new Logprobs(chosen, java.util.List.of(top, chosen));
+    var backed = new TokenLogprobList(
+      new int[] { 1, 7 },
+      new double[] { -0.1, -2.5 },
+      new byte[][] { { 0x61 }, euro }
+    );
+
+    assertThat(logprobs.size()).isEqualTo(2);
+    assertThat(logprobs.chosenIndex()).isEqualTo(1);
+    assertThat(logprobs.tokenId(1)).isEqualTo(7);
+    assertThat(logprobs.logprob(1)).isEqualTo(-2.5);
+    assertThat(logprobs.chosenToken()).isEqualTo(chosen);
+    assertThat(new Logprobs(backed.get(1), backed)).isEqualTo(logprobs);
+    assertThat(
+      new Logprobs(chosen, java.util.List.of(top)).chosenIndex()
+    ).isEqualTo(-1);
+    assertThat(new UnsignedByteList(euro)).containsExactly(0xE2, 0x82, 0xAC);
+    assertThat(new UnsignedByteList(euro).get(0)).isSameAs(
+      new UnsignedByteList(euro).get(0)
+    );
+  }
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.llama.cpp;
+
+import static io.gravitee.llama.cpp.LlamaRuntime.ggml_backend_reg_count;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.gravitee.llama.cpp.logits.LogitsSampler;
+import io.gravitee.llama.cpp.nativelib.LlamaLibLoader;
+import java.lang.foreign.Arena;
+import java.util.List;
+import java.util.function.BiFunction;
+import java.util.function.UnaryOperator;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The Java {@link LogitsSampler} against the native chain it stands in for: the same stages and
+ * seed over the same model must produce the same text.
+ *
+ * @author GraviteeSource Team
+ */
+class LogitsSamplerLlamaIteratorTest extends LlamaCppTest {
+
+  private static Arena arena;
+
+  @BeforeAll
+  static void beforeAll() {
+    arena = Arena.ofConfined();
+
+    String libPath = LlamaLibLoader.load();
+    LlamaRuntime.llama_backend_init();
+    LlamaRuntime.ggml_backend_load_all_from_path(arena, libPath);
+
+    System.out.println("****************************");
+    System.out.println("Libraries loaded at: " + libPath);
+    System.out.println(
+      "Number of devices registered: " + ggml_backend_reg_count()
+    );
+    System.out.println("****************************");
+  }
+
+  /** Generates with the native chain, then with the Java one, on fresh samplers and KV. */
+  private void assertSameOutput(
+    BiFunction<LlamaSampler, LlamaVocab, LlamaSampler> nativeChain,
+    UnaryOperator<LogitsSampler> javaChain
+  ) {
+    var model = new LlamaModel(
+      arena,
+      getModelPath(MODEL_PATH, MODEL_TO_DOWNLOAD),
+      new LlamaModelParams(arena)
+    );
+    track(model);
+    var contextParams = new LlamaContextParams(arena).noPerf(false);
+    var context = new LlamaContext(arena, model, contextParams);
+    track(context);
+    var vocab = new LlamaVocab(model);
+    var tokenizer = new LlamaTokenizer(vocab, context);
+    var prompt = getPrompt(
+      model,
+      arena,
+      buildMessages(arena, SYSTEM, "Write a short poem about the sea."),
+      contextParams
+    );
+
+    var nativeSampler = nativeChain.apply(new LlamaSampler(arena), vocab);
+    track(nativeSampler);
+    List<LlamaOutput> expected;
+    try (
+      var it = new DefaultLlamaIterator(
+        ConversationState.create(arena, context, tokenizer, nativeSampler)
+          .setMaxTokens(48)
+          .initialize(prompt)
+      )
+    ) {
+      expected = it.stream().toList();
+    }
+
+    var unused = new LlamaSampler(arena);
+    track(unused);
+    List<LlamaOutput> actual;
+    try (
+      var it = new DefaultLlamaIterator(
+        ConversationState.create(arena, context, tokenizer, unused)
+          .setLogitsSampler(
+            javaChain.apply(new LogitsSampler(arena, vocab.nVocab()))
+          )
+          .setMaxTokens(48)
+          .initialize(prompt)
+      )
+    ) {
+      actual = it.stream().toList();
+    }
+
+    assertThat(expected).isNotEmpty();
+    assertThat(actual.stream().map(LlamaOutput::content).toList()).isEqualTo(
+      expected.stream().map(LlamaOutput::content).toList()
+    );
+
+    context.free();
+    nativeSampler.free();
+    unused.free();
+    model.free();
+  }
+
+  @Test
+  void temperature_top_k_top_p_dist_matches_the_native_chain() {
+    assertSameOutput(
+      (s, vocab) -> s.temperature(0.9f).topK(40).topP(0.9f, 1).seed(42),
+      s -> s.temperature(0.9f).topK(40).topP(0.9f, 1).seed(42)
+    );
+  }
+
+  @Test
+  void penalties_temperature_min_p_dist_matches_the_native_chain() {
+    assertSameOutput(
+      (s, vocab) ->
+        s
+          .penalties(vocab, 64, 1.3f, 0.1f, 0.1f)
+          .temperature(0.8f)
+          .minP(0.05f, 1)
+          .seed(7),
+      s ->
+        s
+          .penalties(64, 1.3f, 0.1f, 0.1f)
+          .temperature(0.8f)
+          .minP(0.05f, 1)
+          .seed(7)
+    );
+  }
+
+  @AfterAll
+  static void afterAll() {
+    arena = null;
+    LlamaRuntime.llama_backend_free();
+  }
+}
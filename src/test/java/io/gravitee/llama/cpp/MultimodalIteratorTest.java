@@ -439,4 +439,69 @@ class MultimodalIteratorTest extends LlamaCppTest {
     sampler.free();
     llamaModel.free();
   }
+
+  @Test
+  void speculative_draft_over_image_prompt_matches_greedy()
+    throws URISyntaxException {
+    var llamaModel = track(
+      new LlamaModel(
+        arena,
+        getModelPath(MODEL_VL_PATH, VL_TEXT),
+        new LlamaModelParams(arena)
+      )
+    );
+    var mtmdContext = track(
+      new MtmdContext(
+        arena,
+        llamaModel,
+        getModelPath(VL_MMPROJ_PATH, VL_MMPROJ).toAbsolutePath(),
+        new MtmdContextParams(arena).mediaMarker("<IMG>")
+      )
+    );
+    var contextParams = new LlamaContextParams(arena).nCtx(4096);
+    var llamaContext = track(
+      new LlamaContext(arena, llamaModel, contextParams)
+    );
+    // The text model itself drafts, without the image.
+    var draftContext = track(
+      new LlamaContext(arena, llamaModel, contextParams)
+    );
+    var image = MtmdImage.fromFile(
+      arena,
+      Path.of(getClass().getClassLoader().getResource("man.jpg").toURI())
+    );
+    var vocab = new LlamaVocab(llamaModel);
+    String prompt = "USER: What is in this image?\n<IMG>\nASSISTANT:";
+
+    String[] outputs = new String[2];
+    ConversationState speculative = null;
+    for (int run = 0; run < 2; run++) {
+      var state = ConversationState.create(
+        arena,
+        llamaContext,
+        new LlamaTokenizer(vocab, llamaContext),
+        track(new LlamaSampler(arena).greedy())
+      ).setMaxTokens(48);
+      if (run == 1) {
+        state.setDraft(draftContext, SpeculativeConfig.greedy(4));
+        speculative = state;
+      }
+      state.initialize(prompt).setImages(List.of(image));
+      try (var it = new DefaultLlamaIterator(state, mtmdContext)) {
+        outputs[run] = it
+          .stream()
+          .map(LlamaOutput::content)
+          .reduce("", String::concat);
+      }
+    }
+
+    System.out.println(
+      "greedy/speculative: " + outputs[0] + " || " + outputs[1]
+    );
+    assertThat(outputs[1]).isEqualTo(outputs[0]);
+    assertThat(speculative.committedTokens().length).isEqualTo(
+      speculative.getNPast()
+    );
+    image.free();
+  }
 }
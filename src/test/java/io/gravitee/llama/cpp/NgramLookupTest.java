@@ -22,8 +22,9 @@ import org.junit.jupiter.api.Test;
 
 /**
  * Pure tests for the incremental {@link NgramIndex} used by n-gram (prompt-lookup) drafting — no
- * native library, no model. Covers match selection, most-recent preference, continuation extraction,
- * the kMax cap, and the no-match fallback.
+ * native library, no model. Covers match selection, most-recent preference, frequency voting,
+ * backoff to shorter windows, continuation extraction, the kMax cap, the memory cap, and the no-match
+ * fallback.
  *
  * @author Rémi SULTAN (remi.sultan at graviteesource.com)
  * @author GraviteeSource Team
@@ -75,4 +76,91 @@ class NgramLookupTest {
     // ngram=1, last token 5 matches at index 1; only one continuation token remains.
     assertThat(propose(1, 5, 5, 5, 5)).containsExactly(5);
   }
+
+  /** Builds an index from {@code history} and returns its branches for the trailing window. */
+  private static int[][] branches(
+    int ngram,
+    int kMax,
+    int max,
+    int... history
+  ) {
+    NgramIndex index = new NgramIndex(ngram);
+    for (int token : history) {
+      index.append(token);
+    }
+    return index.proposeBranches(kMax, max);
+  }
+
+  @Test
+  void branches_start_with_the_single_proposal() {
+    int[] history = { 1, 2, 7, 8, 1, 2, 5, 6, 1, 2 };
+    int[][] branches = branches(2, 2, 3, history);
+    assertThat(branches.length).isEqualTo(2);
+    assertThat(branches[0]).containsExactly(propose(2, 2, history));
+    assertThat(branches[0]).containsExactly(5, 6);
+    assertThat(branches[1]).containsExactly(7, 8);
+  }
+
+  @Test
+  void branches_skip_prefix_related_continuations() {
+    // [1,2] is followed by [3,4], then [3,4] again, then [3,9]: only two distinct branches.
+    int[][] branches = branches(
+      2,
+      2,
+      4,
+      1, 2, 3, 9, 1, 2, 3, 4, 1, 2, 3, 4, 1, 2
+    );
+    assertThat(branches.length).isEqualTo(2);
+    assertThat(branches[0]).containsExactly(3, 4);
+    assertThat(branches[1]).containsExactly(3, 9);
+  }
+
+  @Test
+  void branches_capped_at_max() {
+    int[][] branches = branches(1, 1, 2, 0, 1, 0, 2, 0, 3, 0);
+    assertThat(branches.length).isEqualTo(2);
+    assertThat(branches[0]).containsExactly(3);
+    assertThat(branches[1]).containsExactly(2);
+  }
+
+  @Test
+  void frequent_continuation_outvotes_the_most_recent() {
+    // [1,2] was followed by 3 twice, then once by 8 — most recently. The 3s win the vote.
+    assertThat(
+      propose(2, 1, 1, 2, 3, 1, 2, 3, 1, 2, 8, 1, 2)
+    ).containsExactly(3);
+  }
+
+  @Test
+  void vote_follows_the_agreeing_occurrences() {
+    // After the vote picks 3, only occurrences continuing with 3 carry on: both say 4 next.
+    assertThat(
+      propose(2, 2, 1, 2, 3, 4, 1, 2, 3, 4, 1, 2, 8, 9, 1, 2)
+    ).containsExactly(3, 4);
+  }
+
+  @Test
+  void backs_off_to_shorter_windows() {
+    // [4,5] never occurred before, but [5] did: order 1 proposes what followed it.
+    assertThat(propose(2, 2, 5, 6, 7, 4, 5)).containsExactly(6, 7);
+  }
+
+  @Test
+  void full_order_match_is_preferred_over_a_backoff() {
+    // [3,5] was followed by 9; the lone [5] most recently by 6. The full window decides.
+    assertThat(propose(2, 1, 3, 5, 9, 7, 5, 6, 3, 5)).containsExactly(9);
+  }
+
+  @Test
+  void memory_is_capped_and_recent_history_still_drafts() {
+    NgramIndex index = new NgramIndex(2, 1000, null);
+    for (int i = 0; i < 200_000; i++) {
+      index.append(i % 5000);
+    }
+    assertThat(index.size()).isLessThan(1001);
+    // What is kept is the last few hundred tokens, 4500..4999 at least: [4900,4901] is in there.
+    index.append(4900);
+    index.append(4901);
+    assertThat(index.propose(2)).containsExactly(4902, 4903);
+  }
 }
@@ -0,0 +1,269 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.llama.cpp;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Batching of concurrent single-input calls by the {@link RequestCoalescer} behind
+ * {@link CoalescingEmbedder} and {@link CoalescingReranker}; the batch function upper-cases
+ * strings instead of running a model.
+ *
+ * <p>No model or native libraries required.
+ *
+ * @author GraviteeSource Team
+ */
+class RequestCoalescerTest {
+
+  private static final Duration NO_WAIT = Duration.ZERO;
+  private static final Duration LONG_WAIT = Duration.ofHours(1);
+
+  /** Records every batch it is called with; the first call blocks until {@link #release()}. */
+  private static final class Batches {
+
+    final List<List<String>> seen = new ArrayList<>();
+    final CountDownLatch firstStarted = new CountDownLatch(1);
+    final CountDownLatch release;
+
+    Batches(boolean holdFirst) {
+      this.release = new CountDownLatch(holdFirst ? 1 : 0);
+    }
+
+    List<String> apply(List<String> inputs) {
+      boolean first;
+      synchronized (seen) {
+        first = seen.isEmpty();
+        seen.add(List.copyOf(inputs));
+      }
+      if (first) {
+        firstStarted.countDown();
+        await(release);
+      }
+      if (inputs.contains("bad")) {
+        throw new LlamaException("rejected");
+      }
+      return inputs.stream().map(String::toUpperCase).toList();
+    }
+
+    void release() {
+      release.countDown();
+    }
+
+    List<List<String>> seen() {
+      synchronized (seen) {
+        return List.copyOf(seen);
+      }
+    }
+  }
+
+  private static void await(CountDownLatch latch) {
+    try {
+      latch.await(5, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+  }
+
+  private static String get(CompletableFuture<String> future)
+    throws Exception {
+    return future.get(5, TimeUnit.SECONDS);
+  }
+
+  @Test
+  void requests_queued_behind_a_running_batch_form_the_next_one()
+    throws Exception {
+    var batches = new Batches(true);
+    try (
+      var coalescer = new RequestCoalescer<String, String>(
+        "test",
+        batches::apply,
+        4,
+        8,
+        NO_WAIT
+      )
+    ) {
+      var a = coalescer.submit("a");
+      await(batches.firstStarted);
+      List<CompletableFuture<String>> rest = new ArrayList<>();
+      for (String text : List.of("b", "c", "d", "e", "f")) {
+        rest.add(coalescer.submit(text));
+      }
+      batches.release();
+
+      assertThat(get(a)).isEqualTo("A");
+      assertThat(get(rest.get(4))).isEqualTo("F");
+      assertThat(batches.seen()).isEqualTo(
+        List.of(List.of("a"), List.of("b", "c", "d", "e", "f"))
+      );
+    }
+  }
+
+  @Test
+  void a_lone_request_waits_at_most_max_wait() throws Exception {
+    var batches = new Batches(false);
+    try (
+      var coalescer = new RequestCoalescer<String, String>(
+        "test",
+        batches::apply,
+        4,
+        8,
+        Duration.ofMillis(20)
+      )
+    ) {
+      assertThat(get(coalescer.submit("a"))).isEqualTo("A");
+      assertThat(batches.seen()).isEqualTo(List.of(List.of("a")));
+    }
+  }
+
+  @Test
+  void a_full_batch_does_not_wait() throws Exception {
+    var batches = new Batches(false);
+    try (
+      var coalescer = new RequestCoalescer<String, String>(
+        "test",
+        batches::apply,
+        3,
+        8,
+        LONG_WAIT
+      )
+    ) {
+      var a = coalescer.submit("a");
+      var b = coalescer.submit("b");
+      var c = coalescer.submit("c");
+
+      assertThat(get(a) + get(b) + get(c)).isEqualTo("ABC");
+      assertThat(batches.seen()).isEqualTo(List.of(List.of("a", "b", "c")));
+    }
+  }
+
+  @Test
+  void a_rejected_input_fails_only_its_own_request() throws Exception {
+    var batches = new Batches(false);
+    try (
+      var coalescer = new RequestCoalescer<String, String>(
+        "test",
+        batches::apply,
+        3,
+        8,
+        LONG_WAIT
+      )
+    ) {
+      var a = coalescer.submit("a");
+      var bad = coalescer.submit("bad");
+      var c = coalescer.submit("c");
+
+      assertThat(get(a)).isEqualTo("A");
+      assertThat(get(c)).isEqualTo("C");
+      assertThatThrownBy(bad::join).hasMessageContaining("rejected");
+    }
+  }
+
+  @Test
+  void close_serves_queued_requests_and_rejects_later_ones() throws Exception {
+    var batches = new Batches(true);
+    var coalescer = new RequestCoalescer<String, String>(
+      "test",
+      batches::apply,
+      4,
+      8,
+      NO_WAIT
+    );
+    var a = coalescer.submit("a");
+    await(batches.firstStarted);
+    var b = coalescer.submit("b");
+
+    var closing = Thread.ofPlatform().start(coalescer::close);
+    batches.release();
+    closing.join(5_000);
+
+    assertThat(get(a)).isEqualTo("A");
+    assertThat(get(b)).isEqualTo("B");
+    assertThatThrownBy(coalescer.submit("c")::join).hasMessageContaining(
+      "test is closed"
+    );
+  }
+
+  @Test
+  void an_error_fails_its_batch_and_the_worker_keeps_serving()
+    throws Exception {
+    try (
+      var coalescer = new RequestCoalescer<String, String>(
+        "test",
+        inputs -> {
+          if (inputs.contains("oom")) {
+            throw new OutOfMemoryError("simulated");
+          }
+          return inputs.stream().map(String::toUpperCase).toList();
+        },
+        1,
+        1,
+        NO_WAIT
+      )
+    ) {
+      assertThatThrownBy(coalescer.submit("oom")::join).hasMessageContaining(
+        "simulated"
+      );
+      assertThat(get(coalescer.submit("a"))).isEqualTo("A");
+    }
+  }
+
+  @Test
+  void a_batch_with_the_wrong_number_of_outputs_fails() {
+    try (
+      var coalescer = new RequestCoalescer<String, String>(
+        "test",
+        inputs -> List.of(),
+        1,
+        1,
+        NO_WAIT
+      )
+    ) {
+      assertThatThrownBy(coalescer.submit("a")::join).hasMessageContaining(
+        "0 outputs for 1 inputs"
+      );
+    }
+  }
+
+  @Test
+  void close_from_a_continuation_on_the_worker_does_not_deadlock()
+    throws Exception {
+    var batches = new Batches(false);
+    var coalescer = new RequestCoalescer<String, String>(
+      "test",
+      batches::apply,
+      1,
+      1,
+      NO_WAIT
+    );
+    var a = coalescer.submit("a");
+    var closed = a.thenRun(coalescer::close);
+
+    closed.get(5, TimeUnit.SECONDS);
+    assertThat(get(a)).isEqualTo("A");
+    assertThatThrownBy(coalescer.submit("b")::join).hasMessageContaining(
+      "test is closed"
+    );
+  }
+}
@@ -162,4 +162,48 @@ class SpeculativeConfigTest {
       SpeculativeConfig.builder().nDraft(0).build()
     ).isInstanceOf(LlamaException.class);
   }
+
+  @Test
+  void tree_branches_default_to_a_chain() {
+    assertThat(SpeculativeConfig.greedy(4).treeBranches()).isEqualTo(1);
+    assertThat(SpeculativeConfig.greedy(4).isTree()).isFalse();
+    // Zero or negative clamps to a chain.
+    assertThat(
+      SpeculativeConfig.greedy(4).withTreeBranches(0).treeBranches()
+    ).isEqualTo(1);
+  }
+
+  @Test
+  void with_tree_branches_enables_trees_and_survives_other_withers() {
+    var config = SpeculativeConfig.ngramGreedy(6, 2)
+      .withTreeBranches(3)
+      .withNDraft(8);
+    assertThat(config.isTree()).isTrue();
+    assertThat(config.treeBranches()).isEqualTo(3);
+    assertThat(config.isNgram()).isTrue();
+    assertThat(config.toBuilder().build()).isEqualTo(config);
+  }
+
+  @Test
+  void sampling_tree_is_rejected() {
+    assertThatThrownBy(() ->
+      SpeculativeConfig.greedy(4).withTreeBranches(2).withTemperature(0.8f)
+    )
+      .isInstanceOf(LlamaException.class)
+      .hasMessageContaining("greedy only");
+  }
+
+  @Test
+  void auto_draft_is_off_by_default_and_survives_other_withers() {
+    assertThat(SpeculativeConfig.greedy(4).autoDraft()).isFalse();
+    var config = SpeculativeConfig.ngramGreedy(6, 2)
+      .withAutoDraft(true)
+      .withNDraft(8);
+    assertThat(config.autoDraft()).isTrue();
+    assertThat(config.nDraft()).isEqualTo(8);
+    assertThat(config.toBuilder().build()).isEqualTo(config);
+    assertThat(
+      SpeculativeConfig.builder().autoDraft(true).build().autoDraft()
+    ).isTrue();
+  }
 }
@@ -25,6 +25,7 @@ import static org.assertj.core.api.Assertions.assertThat;
 import io.gravitee.llama.cpp.nativelib.LlamaLibLoader;
 import java.lang.foreign.Arena;
 import java.nio.file.Path;
+import java.util.concurrent.Executors;
 import org.junit.jupiter.api.AfterAll;
 import org.junit.jupiter.api.BeforeAll;
 import org.junit.jupiter.api.Tag;
@@ -221,6 +222,148 @@ class SpeculativeDecodingTest extends LlamaCppTest {
     assertThat(sb1.toString()).isEqualTo(refs[1]);
   }
 
+  @Test
+  void fused_draft_ahead_matches_per_sequence_greedy() {
+    Path path = getModelPath(MODEL_PATH, MODEL_TO_DOWNLOAD);
+    var model = track(new LlamaModel(arena, path, new LlamaModelParams(arena)));
+    var cp = new LlamaContextParams(arena)
+      .nCtx(512)
+      .nBatch(512)
+      .nUBatch(512)
+      .nSeqMax(2);
+    var batchCtx = track(new LlamaContext(arena, model, cp));
+    var draftCtx = track(new LlamaContext(arena, model, cp));
+    var refCtx = track(new LlamaContext(arena, model, cp));
+    var vocab = new LlamaVocab(model);
+
+    String[] prompts = { "The capital of France is", "Water boils at" };
+
+    String[] refs = new String[2];
+    for (int i = 0; i < 2; i++) {
+      var refState = ConversationState.create(
+        arena,
+        refCtx,
+        new LlamaTokenizer(vocab, refCtx),
+        track(new LlamaSampler(arena).greedy()),
+        0
+      )
+        .setMaxTokens(MAX_TOKENS)
+        .initialize(prompts[i]);
+      refs[i] = new DefaultLlamaIterator(refState)
+        .stream()
+        .map(LlamaOutput::content)
+        .reduce("", (a, b) -> a + b);
+      refCtx.clearCache();
+    }
+
+    // The draft is the target itself, so every bonus guess is right and each round after the first
+    // starts from drafts made during the previous verify.
+    var sb0 = new StringBuilder();
+    var sb1 = new StringBuilder();
+    var states = new ConversationState[2];
+    try (var executor = Executors.newSingleThreadExecutor()) {
+      var batchIt = new BatchIterator(arena, batchCtx).setDraftExecutor(
+        executor
+      );
+      try {
+        for (int i = 0; i < 2; i++) {
+          states[i] = ConversationState.create(
+            arena,
+            batchCtx,
+            new LlamaTokenizer(vocab, batchCtx),
+            track(new LlamaSampler(arena).greedy()),
+            i
+          )
+            .setMaxTokens(MAX_TOKENS)
+            .setDraft(draftCtx, SpeculativeConfig.greedy(4));
+          batchIt.addState(states[i].initialize(prompts[i]));
+        }
+        batchIt
+          .stream()
+          .forEach(o -> (o.sequenceId() == 0 ? sb0 : sb1).append(o.content()));
+      } finally {
+        batchIt.free();
+      }
+    }
+
+    System.out.println("seq0 ref/ahead: " + refs[0] + " || " + sb0);
+    System.out.println("seq1 ref/ahead: " + refs[1] + " || " + sb1);
+    assertThat(sb0.toString()).isEqualTo(refs[0]);
+    assertThat(sb1.toString()).isEqualTo(refs[1]);
+    assertThat(states[0].acceptRate()).isEqualTo(1.0);
+    assertThat(states[1].acceptRate()).isEqualTo(1.0);
+  }
+
+  @Test
+  void concurrent_draft_groups_match_per_sequence_greedy() {
+    Path path = getModelPath(MODEL_PATH, MODEL_TO_DOWNLOAD);
+    var model = track(new LlamaModel(arena, path, new LlamaModelParams(arena)));
+    var cp = new LlamaContextParams(arena)
+      .nCtx(512)
+      .nBatch(512)
+      .nUBatch(512)
+      .nSeqMax(2);
+    var batchCtx = track(new LlamaContext(arena, model, cp));
+    var refCtx = track(new LlamaContext(arena, model, cp));
+    var vocab = new LlamaVocab(model);
+
+    String[] prompts = { "The capital of France is", "Water boils at" };
+
+    String[] refs = new String[2];
+    for (int i = 0; i < 2; i++) {
+      var refState = ConversationState.create(
+        arena,
+        refCtx,
+        new LlamaTokenizer(vocab, refCtx),
+        track(new LlamaSampler(arena).greedy()),
+        0
+      )
+        .setMaxTokens(MAX_TOKENS)
+        .initialize(prompts[i]);
+      refs[i] = new DefaultLlamaIterator(refState)
+        .stream()
+        .map(LlamaOutput::content)
+        .reduce("", (a, b) -> a + b);
+      refCtx.clearCache();
+    }
+
+    // One draft context per sequence: two groups, drafted at the same time each step.
+    var sb0 = new StringBuilder();
+    var sb1 = new StringBuilder();
+    try (var executor = Executors.newFixedThreadPool(2)) {
+      var batchIt = new BatchIterator(arena, batchCtx).setDraftGroupExecutor(
+        executor
+      );
+      try {
+        for (int i = 0; i < 2; i++) {
+          var draftCtx = track(new LlamaContext(arena, model, cp));
+          batchIt.addState(
+            ConversationState.create(
+              arena,
+              batchCtx,
+              new LlamaTokenizer(vocab, batchCtx),
+              track(new LlamaSampler(arena).greedy()),
+              i
+            )
+              .setMaxTokens(MAX_TOKENS)
+              .setDraft(draftCtx, SpeculativeConfig.greedy(4))
+              .initialize(prompts[i])
+          );
+        }
+        batchIt
+          .stream()
+          .forEach(o -> (o.sequenceId() == 0 ? sb0 : sb1).append(o.content()));
+      } finally {
+        batchIt.free();
+      }
+    }
+
+    System.out.println("seq0 ref/groups: " + refs[0] + " || " + sb0);
+    System.out.println("seq1 ref/groups: " + refs[1] + " || " + sb1);
+    assertThat(sb0.toString()).isEqualTo(refs[0]);
+    assertThat(sb1.toString()).isEqualTo(refs[1]);
+  }
+
   @Test
   void greedy_speculative_with_smaller_draft_matches_target_greedy() {
     Path targetPath = getModelPath(
@@ -508,6 +651,120 @@ class SpeculativeDecodingTest extends LlamaCppTest {
     assertThat(ngState.acceptRate()).isBetween(0.0, 1.0);
   }
 
+  @Test
+  void hybrid_greedy_matches_plain_greedy() {
+    Path path = getModelPath(MODEL_PATH, MODEL_TO_DOWNLOAD);
+    var model = track(new LlamaModel(arena, path, new LlamaModelParams(arena)));
+    var cp = new LlamaContextParams(arena).nCtx(512).nBatch(512).nUBatch(512);
+    var arCtx = track(new LlamaContext(arena, model, cp));
+    var hyCtx = track(new LlamaContext(arena, model, cp));
+    var draftCtx = track(new LlamaContext(arena, model, cp));
+    var vocab = new LlamaVocab(model);
+    // Repetitive enough for the lookup to win some rounds and leave others to the draft model.
+    String prompt = "Count: one two three, one two three, one two three, one two";
+
+    var arState = ConversationState.create(
+      arena,
+      arCtx,
+      new LlamaTokenizer(vocab, arCtx),
+      track(new LlamaSampler(arena).greedy())
+    )
+      .setMaxTokens(MAX_TOKENS)
+      .initialize(prompt);
+    String greedy = new DefaultLlamaIterator(arState)
+      .stream()
+      .map(LlamaOutput::content)
+      .reduce("", (a, b) -> a + b);
+
+    var hyState = ConversationState.create(
+      arena,
+      hyCtx,
+      new LlamaTokenizer(vocab, hyCtx),
+      track(new LlamaSampler(arena).greedy())
+    )
+      .setMaxTokens(MAX_TOKENS)
+      .setHybrid(draftCtx, SpeculativeConfig.ngramGreedy(4, 2))
+      .initialize(prompt);
+    String hybrid = new DefaultLlamaIterator(hyState)
+      .stream()
+      .map(LlamaOutput::content)
+      .reduce("", (a, b) -> a + b);
+
+    System.out.println("greedy: " + greedy);
+    System.out.println(
+      "hybrid: " + hybrid + " (accept=" + hyState.acceptRate() + ")"
+    );
+    assertThat(hyState.isHybrid()).isTrue();
+    assertThat(hybrid).isEqualTo(greedy);
+    // The draft KV never runs ahead of the target's committed tokens.
+    assertThat(draftCtx.getMemory().posMax(0)).isLessThan(hyState.getNPast());
+  }
+
+  @Test
+  void lookahead_greedy_matches_plain_greedy() {
+    Path path = getModelPath(MODEL_PATH, MODEL_TO_DOWNLOAD);
+    var model = track(new LlamaModel(arena, path, new LlamaModelParams(arena)));
+    var cp = new LlamaContextParams(arena).nCtx(512).nBatch(512).nUBatch(512);
+    var arCtx = track(new LlamaContext(arena, model, cp));
+    // Candidates + window sequences share the prefix, hence the unified KV cache.
+    var laCtx = track(
+      new LlamaContext(
+        arena,
+        model,
+        new LlamaContextParams(arena)
+          .nCtx(1024)
+          .nBatch(512)
+          .nUBatch(512)
+          .nSeqMax(8)
+          .kvUnified(true)
+      )
+    );
+    var vocab = new LlamaVocab(model);
+
+    var arState = ConversationState.create(
+      arena,
+      arCtx,
+      new LlamaTokenizer(vocab, arCtx),
+      track(new LlamaSampler(arena).greedy())
+    )
+      .setMaxTokens(MAX_TOKENS)
+      .initialize(PROMPT);
+    String greedy = new DefaultLlamaIterator(arState)
+      .stream()
+      .map(LlamaOutput::content)
+      .reduce("", (a, b) -> a + b);
+
+    // Lookahead: the target guesses its own n-grams. Lossless w.r.t. greedy decoding whatever
+    // the pool proposes.
+    var laState = ConversationState.create(
+      arena,
+      laCtx,
+      new LlamaTokenizer(vocab, laCtx),
+      track(new LlamaSampler(arena).greedy())
+    )
+      .setMaxTokens(MAX_TOKENS)
+      .setLookahead(SpeculativeConfig.greedy(3).withTreeBranches(3), 4)
+      .initialize(PROMPT);
+    String lookahead;
+    try (var it = new DefaultLlamaIterator(laState)) {
+      lookahead = it
+        .stream()
+        .map(LlamaOutput::content)
+        .reduce("", (a, b) -> a + b);
+    }
+
+    System.out.println("greedy   : " + greedy);
+    System.out.println(
+      "lookahead: " + lookahead + " (accept=" + laState.acceptRate() + ")"
+    );
+    assertThat(lookahead).isEqualTo(greedy);
+    assertThat(laState.acceptRate()).isBetween(0.0, 1.0);
+    // Column scratch sequences are removed after every round.
+    for (int seq = 1; seq < 8; seq++) {
+      assertThat(laCtx.getMemory().posMax(seq)).isEqualTo(-1);
+    }
+  }
+
   @Test
   void eog_ramp_under_speculation_tracks_the_text_and_finishes_as_length() {
     // The ramp's boundary gate reads state that only the autoregressive path used to update, so a
@@ -0,0 +1,180 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.llama.cpp;
+
+import static io.gravitee.llama.cpp.LlamaRuntime.ggml_backend_reg_count;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import io.gravitee.llama.cpp.nativelib.LlamaLibLoader;
+import io.gravitee.llama.cpp.structured.JsonSchema;
+import io.gravitee.llama.cpp.structured.TokenFsm;
+import java.lang.foreign.Arena;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+/**
+ * JSON-schema constrained generation through both iterators, with and without jump-forward
+ * decoding: the output must match the schema either way, and with jump-forward the forced keys and
+ * punctuation arrive several tokens per step.
+ *
+ * @author GraviteeSource Team
+ */
+class StructuredOutputLlamaIteratorTest extends LlamaCppTest {
+
+  private static final String SCHEMA = """
+    {
+      "type": "object",
+      "properties": {
+        "city": { "type": "string", "maxLength": 24 },
+        "country": { "type": "string", "maxLength": 24 },
+        "population": { "type": "integer", "minimum": 0 }
+      },
+      "required": ["city", "country", "population"]
+    }
+    """;
+
+  private static Arena arena;
+
+  @BeforeAll
+  static void beforeAll() {
+    arena = Arena.ofConfined();
+
+    String libPath = LlamaLibLoader.load();
+    LlamaRuntime.llama_backend_init();
+    LlamaRuntime.ggml_backend_load_all_from_path(arena, libPath);
+
+    System.out.println("****************************");
+    System.out.println("Libraries loaded at: " + libPath);
+    System.out.println(
+      "Number of devices registered: " + ggml_backend_reg_count()
+    );
+    System.out.println("****************************");
+  }
+
+  private LlamaModel model() {
+    return track(
+      new LlamaModel(
+        arena,
+        getModelPath(MODEL_PATH, MODEL_TO_DOWNLOAD),
+        new LlamaModelParams(arena)
+      )
+    );
+  }
+
+  private String prompt(LlamaModel model, LlamaContextParams contextParams) {
+    return getPrompt(
+      model,
+      arena,
+      buildMessages(arena, SYSTEM, "Describe Paris as JSON."),
+      contextParams
+    );
+  }
+
+  @Test
+  void default_iterator_output_matches_the_schema_with_and_without_jump_forward() {
+    var model = model();
+    var contextParams = new LlamaContextParams(arena);
+    var context = track(new LlamaContext(arena, model, contextParams));
+    var vocab = new LlamaVocab(model);
+    var tokenizer = new LlamaTokenizer(vocab, context);
+    var fsm = TokenFsm.jsonSchema(vocab, SCHEMA);
+    var schema = Pattern.compile(JsonSchema.toRegex(SCHEMA));
+    var prompt = prompt(model, contextParams);
+
+    for (boolean jumpForward : new boolean[] { false, true }) {
+      var sampler = track(new LlamaSampler(arena).greedy());
+      List<LlamaOutput> outputs;
+      try (
+        var it = new DefaultLlamaIterator(
+          ConversationState.create(arena, context, tokenizer, sampler)
+            .addLogitsProcessor(fsm.processor())
+            .setJumpForward(jumpForward)
+            .setMaxTokens(128)
+            .initialize(prompt)
+        )
+      ) {
+        outputs = it.stream().toList();
+      }
+      String json = outputs
+        .stream()
+        .map(LlamaOutput::content)
+        .collect(Collectors.joining());
+      assertThat(schema.matcher(json).matches()).as(json).isTrue();
+      if (jumpForward) {
+        // The keys and the punctuation around them are forced: emitted several tokens at a time.
+        assertThat(outputs).anyMatch(o -> o.numberOfTokens() > 1);
+        assertThat(outputs.size()).isLessThan(
+          outputs.stream().mapToInt(LlamaOutput::numberOfTokens).sum()
+        );
+      } else {
+        assertThat(outputs).allMatch(o -> o.numberOfTokens() == 1);
+      }
+    }
+  }
+
+  @Test
+  void batch_iterator_jumps_forward_per_sequence() {
+    var model = model();
+    var contextParams = new LlamaContextParams(arena).nSeqMax(2);
+    var context = track(new LlamaContext(arena, model, contextParams));
+    var vocab = new LlamaVocab(model);
+    var tokenizer = new LlamaTokenizer(vocab, context);
+    var fsm = TokenFsm.jsonSchema(vocab, SCHEMA);
+    var schema = Pattern.compile(JsonSchema.toRegex(SCHEMA));
+    var prompt = prompt(model, contextParams);
+
+    var iterator = new BatchIterator(arena, context);
+    for (int seq = 0; seq < 2; seq++) {
+      var sampler = track(new LlamaSampler(arena).temperature(0.8f).seed(seq));
+      iterator.addState(
+        ConversationState.create(arena, context, tokenizer, sampler, seq)
+          .addLogitsProcessor(fsm.processor())
+          .setMaxTokens(128)
+          .initialize(prompt)
+      );
+    }
+    Map<Integer, StringBuilder> texts = new HashMap<>();
+    int forwarded = 0;
+    while (iterator.hasNext()) {
+      var output = iterator.next();
+      texts
+        .computeIfAbsent(output.sequenceId(), k -> new StringBuilder())
+        .append(output.content());
+      forwarded += output.numberOfTokens() > 1 ? 1 : 0;
+    }
+    iterator.free();
+
+    assertThat(texts).hasSize(2);
+    texts
+      .values()
+      .forEach(json ->
+        assertThat(schema.matcher(json).matches()).as(json.toString()).isTrue()
+      );
+    assertThat(forwarded).isPositive();
+  }
+
+  @AfterAll
+  static void afterAll() {
+    arena = null;
+    LlamaRuntime.llama_backend_free();
+  }
+}
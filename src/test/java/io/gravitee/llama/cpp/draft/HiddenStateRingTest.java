@@ -0,0 +1,141 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.llama.cpp.draft;
+
+import static java.lang.foreign.ValueLayout.JAVA_FLOAT;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.gravitee.llama.cpp.LlamaException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Pure tests for {@link HiddenStateRing} — plain off-heap memory, no native library. Cover staging
+ * after the pending row, the contiguous pending-then-staged view, and the wrap back to slot 0.
+ *
+ * @author GraviteeSource Team
+ */
+class HiddenStateRingTest {
+
+  private static void fill(MemorySegment rows, int width, float... firsts) {
+    for (int r = 0; r < firsts.length; r++) {
+      for (int c = 0; c < width; c++) {
+        rows.setAtIndex(JAVA_FLOAT, (long) r * width + c, firsts[r] + c);
+      }
+    }
+  }
+
+  /** The first float of every row of {@code rows}. */
+  private static float[] firsts(MemorySegment rows, int width) {
+    float[] all = rows.toArray(JAVA_FLOAT);
+    float[] out = new float[all.length / width];
+    for (int r = 0; r < out.length; r++) {
+      out[r] = all[r * width];
+    }
+    return out;
+  }
+
+  @Test
+  void staged_rows_follow_the_pending_row_contiguously() {
+    try (var arena = Arena.ofConfined()) {
+      var ring = new HiddenStateRing(arena, 2, 3);
+      assertThat(ring.hasPending()).isFalse();
+
+      ring.stage(3);
+      fill(ring.staged(0, 3), 2, 10, 20, 30);
+      assertThat(firsts(ring.pendingThenStaged(2), 2)).containsExactly(10, 20);
+
+      ring.commit(2);
+      assertThat(firsts(ring.pending(), 2)).containsExactly(30);
+
+      ring.stage(2);
+      fill(ring.staged(0, 2), 2, 40, 50);
+      assertThat(firsts(ring.pendingThenStaged(2), 2)).containsExactly(
+        30,
+        40,
+        50
+      );
+      assertThat(ring.pendingThenStaged(0).byteSize()).isEqualTo(8L);
+    }
+  }
+
+  @Test
+  void the_pending_row_moves_back_to_the_start_when_a_stage_would_overrun() {
+    try (var arena = Arena.ofConfined()) {
+      // Capacity 2 * (2 + 1) = 6 rows.
+      var ring = new HiddenStateRing(arena, 3, 2);
+      ring.stage(2);
+      fill(ring.staged(0, 2), 3, 1, 2);
+      ring.commit(1); // pending at slot 1
+      ring.stage(2);
+      fill(ring.staged(0, 2), 3, 3, 4);
+      ring.commit(1); // pending at slot 3
+      ring.stage(2);
+      fill(ring.staged(0, 2), 3, 5, 6);
+      ring.commit(1); // pending at slot 5: the next stage wraps
+
+      ring.stage(2);
+      fill(ring.staged(0, 2), 3, 7, 8);
+      MemorySegment run = ring.pendingThenStaged(2);
+      assertThat(run.toArray(JAVA_FLOAT)).containsExactly(
+        6,
+        7,
+        8,
+        7,
+        8,
+        9,
+        8,
+        9,
+        10
+      );
+    }
+  }
+
+  @Test
+  void set_pending_copies_a_row_in() {
+    try (var arena = Arena.ofConfined()) {
+      var ring = new HiddenStateRing(arena, 2, 1);
+      MemorySegment source = arena.allocate(2 * Float.BYTES);
+      fill(source, 2, 5);
+      ring.setPending(source);
+      fill(source, 2, 9);
+      assertThat(ring.pending().toArray(JAVA_FLOAT)).containsExactly(5, 6);
+
+      ring.setPending(source);
+      assertThat(ring.pending().toArray(JAVA_FLOAT)).containsExactly(9, 10);
+
+      ring.clear();
+      assertThat(ring.hasPending()).isFalse();
+    }
+  }
+
+  @Test
+  void staging_is_bounded() {
+    try (var arena = Arena.ofConfined()) {
+      var ring = new HiddenStateRing(arena, 2, 2);
+      assertThatThrownBy(() -> ring.stage(3)).isInstanceOf(
+        LlamaException.class
+      );
+      assertThatThrownBy(ring::pending).isInstanceOf(LlamaException.class);
+      ring.stage(1);
+      assertThatThrownBy(() -> ring.staged(0, 2)).isInstanceOf(
+        IndexOutOfBoundsException.class
+      );
+    }
+  }
+}
@@ -0,0 +1,143 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.llama.cpp.draft;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.gravitee.llama.cpp.LlamaException;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Pure tests for {@link LookaheadDraft} — no native library, no model. Cover seeding the window,
+ * pooling n-grams as columns advance, and how the pool ranks and caps candidates.
+ *
+ * @author GraviteeSource Team
+ */
+class LookaheadDraftTest {
+
+  @Test
+  void seed_fills_the_window_walking_back_from_the_last_token() {
+    var draft = new LookaheadDraft(2, 2, 4);
+    draft.seed(new int[] { 10, 11, 12, 13 });
+
+    assertThat(draft.token(0, 0)).isEqualTo(13);
+    assertThat(draft.token(0, 1)).isEqualTo(12);
+    assertThat(draft.token(1, 0)).isEqualTo(11);
+    assertThat(draft.token(1, 1)).isEqualTo(10);
+    assertThat(draft.poolSize()).isEqualTo(0);
+  }
+
+  @Test
+  void seed_wraps_around_a_short_history() {
+    var draft = new LookaheadDraft(3, 2, 4);
+    draft.seed(new int[] { 7 });
+
+    for (int i = 0; i < 3; i++) {
+      assertThat(draft.token(i, 0)).isEqualTo(7);
+      assertThat(draft.token(i, 1)).isEqualTo(7);
+    }
+  }
+
+  @Test
+  void advance_pools_each_column_and_moves_it_up_one_level() {
+    var draft = new LookaheadDraft(2, 2, 4);
+    draft.seed(new int[] { 10, 11, 12, 13 });
+
+    // Column 0 becomes [5, 12] -> pools 5:[12, 20]; column 1 [11, 10] -> pools 11:[10, 21].
+    draft.advance(5, new int[] { 20, 21 }, 2);
+
+    assertThat(draft.candidates(5, 4, 4).length).isEqualTo(1);
+    assertThat(draft.candidates(5, 4, 4)[0]).containsExactly(12, 20);
+    assertThat(draft.candidates(11, 4, 4)[0]).containsExactly(10, 21);
+    assertThat(draft.token(0, 0)).isEqualTo(12);
+    assertThat(draft.token(0, 1)).isEqualTo(20);
+    assertThat(draft.token(1, 0)).isEqualTo(10);
+    assertThat(draft.token(1, 1)).isEqualTo(21);
+  }
+
+  @Test
+  void advance_leaves_undecoded_columns_alone() {
+    var draft = new LookaheadDraft(2, 2, 4);
+    draft.seed(new int[] { 10, 11, 12, 13 });
+
+    draft.advance(5, new int[] { 20 }, 1);
+
+    assertThat(draft.poolSize()).isEqualTo(1);
+    assertThat(draft.token(1, 0)).isEqualTo(11);
+    assertThat(draft.token(1, 1)).isEqualTo(10);
+  }
+
+  @Test
+  void candidates_are_most_recent_first_deduplicated_and_capped() {
+    var draft = new LookaheadDraft(1, 2, 2);
+    draft.seed(new int[] { 1, 2 });
+
+    // Each round pools [grid(0,1), next] under the committed token 9.
+    draft.advance(9, new int[] { 3 }, 1); // 9:[1,3]
+    draft.advance(9, new int[] { 4 }, 1); // 9:[3,4]
+    draft.advance(9, new int[] { 5 }, 1); // 9:[4,5] evicts [1,3]
+    int[][] candidates = draft.candidates(9, 4, 4);
+    assertThat(candidates.length).isEqualTo(2);
+    assertThat(candidates[0]).containsExactly(4, 5);
+    assertThat(candidates[1]).containsExactly(3, 4);
+
+    // Re-observing a kept continuation moves it to the front without growing the list.
+    draft.advance(9, new int[] { 4 }, 1); // grid now [9,5]: 9:[5,4]
+    draft.advance(9, new int[] { 5 }, 1); // 9:[4,5] again
+    candidates = draft.candidates(9, 4, 4);
+    assertThat(candidates.length).isEqualTo(2);
+    assertThat(candidates[0]).containsExactly(4, 5);
+    assertThat(candidates[1]).containsExactly(5, 4);
+  }
+
+  @Test
+  void candidates_are_cut_to_the_draft_length_and_count() {
+    var draft = new LookaheadDraft(1, 3, 4);
+    draft.seed(new int[] { 1, 2, 3 });
+    draft.advance(9, new int[] { 4 }, 1); // 9:[2,1,4]
+    draft.advance(9, new int[] { 5 }, 1); // 9:[1,4,5]
+
+    int[][] candidates = draft.candidates(9, 2, 1);
+    assertThat(candidates.length).isEqualTo(1);
+    assertThat(candidates[0]).containsExactly(1, 4);
+    assertThat(draft.candidates(9, 0, 4).length).isEqualTo(0);
+    assertThat(draft.candidates(42, 3, 4).length).isEqualTo(0);
+  }
+
+  @Test
+  void column_guesses_are_the_first_column_above_its_base() {
+    var draft = new LookaheadDraft(2, 3, 4);
+    draft.seed(new int[] { 1, 2, 3, 4, 5, 6 });
+
+    assertThat(draft.columnGuesses(8)).containsExactly(5, 4);
+    assertThat(draft.columnGuesses(1)).containsExactly(5);
+    assertThat(draft.columnGuesses(0)).isEmpty();
+  }
+
+  @Test
+  void rejects_an_empty_window() {
+    assertThatThrownBy(() -> new LookaheadDraft(0, 2, 4)).isInstanceOf(
+      LlamaException.class
+    );
+    assertThatThrownBy(() -> new LookaheadDraft(2, 0, 4)).isInstanceOf(
+      LlamaException.class
+    );
+    assertThatThrownBy(() -> new LookaheadDraft(2, 2, 0)).isInstanceOf(
+      LlamaException.class
+    );
+  }
+}
@@ -0,0 +1,166 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.llama.cpp.draft;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.gravitee.llama.cpp.LlamaException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Pure tests for {@link NgramCorpus} and the corpora an {@link NgramIndex} drafts from — no native
+ * library, no model.
+ *
+ * @author GraviteeSource Team
+ */
+class NgramCorpusTest {
+
+  private static NgramIndex history(int ngram, int... tokens) {
+    var index = new NgramIndex(ngram);
+    for (int token : tokens) {
+      index.append(token);
+    }
+    return index;
+  }
+
+  @Test
+  void proposes_what_followed_the_window_in_the_corpus() {
+    var corpus = new NgramCorpus(2, new int[] { 9, 1, 2, 3, 4, 5 });
+    int[][] branches = corpus.proposeBranches(new int[] { 7, 1, 2 }, 1, 3, 4);
+    assertThat(branches.length).isEqualTo(1);
+    assertThat(branches[0]).containsExactly(3, 4, 5);
+    assertThat(
+      corpus.proposeBranches(new int[] { 2, 1 }, 0, 3, 4).length
+    ).isEqualTo(0);
+  }
+
+  @Test
+  void continuations_come_in_corpus_order_without_overlapping_prefixes() {
+    var corpus = new NgramCorpus(
+      1,
+      new int[] { 5, 1, 1, 5, 2, 2, 5, 1, 1, 5 }
+    );
+    int[][] branches = corpus.proposeBranches(new int[] { 5 }, 0, 2, 4);
+    assertThat(branches.length).isEqualTo(2);
+    assertThat(branches[0]).containsExactly(1, 1);
+    assertThat(branches[1]).containsExactly(2, 2);
+  }
+
+  @Test
+  void the_index_drafts_from_a_corpus_without_growing_its_history() {
+    var index = history(2, 8, 1, 2);
+    assertThat(index.propose(4)).isEmpty();
+
+    index.addCorpus(new NgramCorpus(2, new int[] { 1, 2, 3, 4, 5 }));
+    assertThat(index.propose(4)).containsExactly(3, 4, 5);
+    assertThat(index.size()).isEqualTo(3);
+  }
+
+  @Test
+  void the_history_wins_over_a_corpus_and_a_corpus_over_the_shared_tier() {
+    var shared = new SharedNgramIndex(2, 1024, 2);
+    var publisher = new NgramIndex(2, shared);
+    for (int token : new int[] { 1, 2, 6, 6 }) {
+      publisher.append(token);
+    }
+    var corpus = new NgramCorpus(2, new int[] { 1, 2, 3, 4 });
+
+    var local = history(2, 1, 2, 7, 1, 2);
+    local.addCorpus(corpus);
+    assertThat(local.propose(2)).containsExactly(7, 1);
+
+    var fresh = new NgramIndex(2, shared);
+    fresh.append(1);
+    fresh.append(2);
+    fresh.addCorpus(corpus);
+    assertThat(fresh.propose(2)).containsExactly(3, 4);
+    int[][] branches = fresh.proposeBranches(2, 4);
+    assertThat(branches.length).isEqualTo(2);
+    assertThat(branches[0]).containsExactly(3, 4);
+    assertThat(branches[1]).containsExactly(6, 6);
+  }
+
+  @Test
+  void corpora_stay_attached_across_clear_until_detached() {
+    var index = history(1, 4);
+    index.addCorpus(new NgramCorpus(1, new int[] { 4, 5 }));
+    index.clear();
+    index.append(4);
+    assertThat(index.propose(2)).containsExactly(5);
+
+    index.clearCorpora();
+    assertThat(index.propose(2)).isEmpty();
+  }
+
+  @Test
+  void the_corpus_window_must_match_the_index() {
+    var index = new NgramIndex(2);
+    assertThatThrownBy(() -> index.addCorpus(new NgramCorpus(3, new int[0])))
+      .isInstanceOf(LlamaException.class)
+      .hasMessageContaining("differs");
+  }
+
+  @Test
+  void short_and_empty_corpora_propose_nothing() {
+    assertThat(
+      new NgramCorpus(3, new int[] { 1, 2 }).proposeBranches(
+        new int[] { 1, 2, 3 },
+        0,
+        4,
+        4
+      ).length
+    ).isEqualTo(0);
+    // A window at the very end has no continuation.
+    assertThat(
+      new NgramCorpus(2, new int[] { 1, 2 }).proposeBranches(
+        new int[] { 1, 2 },
+        0,
+        4,
+        4
+      ).length
+    ).isEqualTo(0);
+  }
+
+  @Test
+  void loads_little_endian_token_ids_from_a_file() throws Exception {
+    var file = Files.createTempFile("corpus", ".tok");
+    try {
+      var bytes = ByteBuffer.allocate(5 * Integer.BYTES).order(
+        ByteOrder.LITTLE_ENDIAN
+      );
+      for (int token : new int[] { 1, 2, 300000, 4, 5 }) {
+        bytes.putInt(token);
+      }
+      Files.write(file, bytes.array());
+
+      var corpus = NgramCorpus.load(2, file);
+      assertThat(corpus.size()).isEqualTo(5);
+      int[][] branches = corpus.proposeBranches(new int[] { 1, 2 }, 0, 4, 1);
+      assertThat(branches[0]).containsExactly(300000, 4, 5);
+
+      Files.write(file, new byte[] { 1, 2, 3 });
+      assertThatThrownBy(() -> NgramCorpus.load(2, file))
+        .isInstanceOf(LlamaException.class)
+        .hasMessageContaining("32-bit");
+    } finally {
+      Files.delete(file);
+    }
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.llama.cpp.draft;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.gravitee.llama.cpp.LlamaException;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Pure tests for {@link SharedNgramIndex} and the second tier it gives {@link NgramIndex} — no native
+ * library, no model. Cover publishing, frequency ranking, eviction, and the local-first fallback.
+ *
+ * @author GraviteeSource Team
+ */
+class SharedNgramIndexTest {
+
+  private static NgramIndex conversation(
+    SharedNgramIndex shared,
+    int... tokens
+  ) {
+    var index = new NgramIndex(shared.ngram(), shared);
+    for (int token : tokens) {
+      index.append(token);
+    }
+    return index;
+  }
+
+  @Test
+  void another_conversation_drafts_from_what_one_published() {
+    var shared = new SharedNgramIndex(2, 1024, 3);
+    conversation(shared, 1, 2, 3, 4, 5);
+
+    // No earlier [1,2] in this history: the shared tier answers.
+    var other = conversation(shared, 9, 1, 2);
+    assertThat(other.propose(4)).containsExactly(3, 4, 5);
+    assertThat(other.propose(2)).containsExactly(3, 4);
+  }
+
+  @Test
+  void a_window_is_published_only_once_its_continuation_is_complete() {
+    var shared = new SharedNgramIndex(2, 1024, 3);
+    conversation(shared, 1, 2, 3, 4);
+    assertThat(shared.size()).isEqualTo(0);
+    assertThat(conversation(shared, 1, 2).propose(4)).isEmpty();
+  }
+
+  @Test
+  void the_local_history_wins_over_the_shared_tier() {
+    var shared = new SharedNgramIndex(2, 1024, 2);
+    conversation(shared, 1, 2, 3, 4);
+    var local = conversation(shared, 1, 2, 7, 1, 2);
+    assertThat(local.propose(2)).containsExactly(7, 1);
+  }
+
+  @Test
+  void the_most_frequent_continuation_is_proposed_first() {
+    var shared = new SharedNgramIndex(1, 1024, 2);
+    conversation(shared, 5, 1, 1);
+    conversation(shared, 5, 2, 2);
+    conversation(shared, 5, 2, 2);
+
+    assertThat(conversation(shared, 5).propose(2)).containsExactly(2, 2);
+    int[][] branches = conversation(shared, 5).proposeBranches(2, 4);
+    assertThat(branches.length).isEqualTo(2);
+    assertThat(branches[0]).containsExactly(2, 2);
+    assertThat(branches[1]).containsExactly(1, 1);
+  }
+
+  @Test
+  void memory_is_bounded_by_capacity() {
+    var shared = new SharedNgramIndex(1, SharedNgramIndex.SEGMENTS, 1);
+    int[] tokens = new int[1000];
+    for (int i = 0; i < tokens.length; i++) {
+      tokens[i] = i;
+    }
+    conversation(shared, tokens);
+    assertThat(shared.size()).isLessThan(SharedNgramIndex.SEGMENTS + 1);
+    assertThat(shared.size()).isPositive();
+  }
+
+  @Test
+  void a_shared_index_with_another_window_is_rejected() {
+    var shared = new SharedNgramIndex(3, 16, 4);
+    assertThatThrownBy(() -> new NgramIndex(2, shared))
+      .isInstanceOf(LlamaException.class)
+      .hasMessageContaining("window");
+  }
+}
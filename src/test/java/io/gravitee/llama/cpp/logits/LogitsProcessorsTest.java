@@ -0,0 +1,185 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.llama.cpp.logits;
+
+import static java.lang.foreign.ValueLayout.JAVA_FLOAT;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.gravitee.llama.cpp.LlamaException;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.util.Map;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Pure tests for the built-in {@link LogitsProcessors} and the {@link LogitsKernels#fill} they mask
+ * with, over Arena-allocated rows.
+ *
+ * @author GraviteeSource Team
+ */
+class LogitsProcessorsTest {
+
+  private static final int N_VOCAB = 1_003;
+
+  private Arena arena;
+
+  @BeforeEach
+  void setUp() {
+    arena = Arena.ofConfined();
+  }
+
+  @AfterEach
+  void tearDown() {
+    arena.close();
+  }
+
+  private MemorySegment ramp(int n) {
+    MemorySegment row = arena.allocate(JAVA_FLOAT, n);
+    for (int i = 0; i < n; i++) {
+      row.setAtIndex(JAVA_FLOAT, i, i * 0.01f);
+    }
+    return row;
+  }
+
+  private static float at(MemorySegment row, int i) {
+    return row.getAtIndex(JAVA_FLOAT, i);
+  }
+
+  @Test
+  void fill_covers_exactly_the_range_with_both_kernels() {
+    for (var kernels : new LogitsKernels[] {
+      LogitsKernels.get(),
+      LogitsKernels.scalar(),
+    }) {
+      // Unaligned start and end, so both the vector body and the scalar tails run.
+      var row = ramp(N_VOCAB);
+      kernels.fill(row, 3, 990, -1f);
+      for (int i = 0; i < N_VOCAB; i++) {
+        float expected = i >= 3 && i < 990 ? -1f : i * 0.01f;
+        assertThat(at(row, i)).as("%s[%d]", kernels, i).isEqualTo(expected);
+      }
+      // An empty range writes nothing.
+      kernels.fill(row, 500, 500, 7f);
+      assertThat(at(row, 500)).isEqualTo(-1f);
+    }
+  }
+
+  @Test
+  void bias_adds_to_the_listed_tokens_only() {
+    var row = ramp(N_VOCAB);
+    LogitsProcessors.bias(Map.of(10, 5f, 2, -1f, 1000, Float.NEGATIVE_INFINITY))
+      .process(row, N_VOCAB, 0);
+
+    assertThat(at(row, 10)).isEqualTo(10 * 0.01f + 5f);
+    assertThat(at(row, 2)).isEqualTo(2 * 0.01f - 1f);
+    assertThat(at(row, 1000)).isEqualTo(Float.NEGATIVE_INFINITY);
+    assertThat(at(row, 11)).isEqualTo(11 * 0.01f);
+  }
+
+  @Test
+  void ban_masks_the_listed_tokens_only() {
+    var row = ramp(N_VOCAB);
+    LogitsProcessors.ban(7, 3, 7, 1002).process(row, N_VOCAB, 0);
+
+    for (int i = 0; i < N_VOCAB; i++) {
+      boolean banned = i == 3 || i == 7 || i == 1002;
+      assertThat(at(row, i)).isEqualTo(
+        banned ? Float.NEGATIVE_INFINITY : i * 0.01f
+      );
+    }
+  }
+
+  @Test
+  void allow_only_masks_everything_else() {
+    var row = ramp(N_VOCAB);
+    LogitsProcessors.allowOnly(500, 0, 501, 1002).process(row, N_VOCAB, 0);
+
+    for (int i = 0; i < N_VOCAB; i++) {
+      boolean allowed = i == 0 || i == 500 || i == 501 || i == 1002;
+      assertThat(at(row, i)).isEqualTo(
+        allowed ? i * 0.01f : Float.NEGATIVE_INFINITY
+      );
+    }
+    // Whatever the sampler, only an allowed token can come out.
+    var row2 = ramp(N_VOCAB);
+    LogitsProcessors.allowOnly(42, 17).process(row2, N_VOCAB, 0);
+    assertThat(LogitsKernels.get().argmax(row2, N_VOCAB)).isEqualTo(42);
+  }
+
+  @Test
+  void force_applies_per_step_and_then_lets_go() {
+    var force = LogitsProcessors.force(5, -1, 9);
+
+    var step0 = ramp(N_VOCAB);
+    force.process(step0, N_VOCAB, 0);
+    assertThat(LogitsKernels.get().argmax(step0, N_VOCAB)).isEqualTo(5);
+    assertThat(LogitsKernels.get().max(step0, N_VOCAB)).isEqualTo(5 * 0.01f);
+    assertThat(at(step0, 4)).isEqualTo(Float.NEGATIVE_INFINITY);
+    assertThat(at(step0, 6)).isEqualTo(Float.NEGATIVE_INFINITY);
+
+    // -1 leaves the step free.
+    var step1 = ramp(N_VOCAB);
+    force.process(step1, N_VOCAB, 1);
+    assertThat(LogitsKernels.get().argmax(step1, N_VOCAB)).isEqualTo(
+      N_VOCAB - 1
+    );
+
+    var step2 = ramp(N_VOCAB);
+    force.process(step2, N_VOCAB, 2);
+    assertThat(LogitsKernels.get().argmax(step2, N_VOCAB)).isEqualTo(9);
+
+    // Past the end the row is untouched.
+    var step3 = ramp(N_VOCAB);
+    force.process(step3, N_VOCAB, 3);
+    assertThat(at(step3, 0)).isEqualTo(0f);
+    assertThat(at(step3, N_VOCAB - 1)).isEqualTo((N_VOCAB - 1) * 0.01f);
+  }
+
+  @Test
+  void forced_tokens_drive_the_java_sampler() {
+    var sampler = new LogitsSampler(arena, N_VOCAB)
+      .temperature(0.8f)
+      .seed(7);
+    var force = LogitsProcessors.force(11, 22, 33);
+    for (int step = 0; step < 3; step++) {
+      var row = ramp(N_VOCAB);
+      force.process(row, N_VOCAB, step);
+      assertThat(sampler.sample(row)).isEqualTo(11 * (step + 1));
+    }
+  }
+
+  @Test
+  void out_of_vocabulary_ids_are_rejected() {
+    assertThatThrownBy(() -> LogitsProcessors.ban(-1)).isInstanceOf(
+      LlamaException.class
+    );
+    assertThatThrownBy(() -> LogitsProcessors.allowOnly()).isInstanceOf(
+      LlamaException.class
+    );
+    var row = ramp(N_VOCAB);
+    assertThatThrownBy(() ->
+      LogitsProcessors.ban(N_VOCAB).process(row, N_VOCAB, 0)
+    )
+      .isInstanceOf(LlamaException.class)
+      .hasMessageContaining("outside the vocabulary");
+    assertThatThrownBy(() ->
+      LogitsProcessors.force(N_VOCAB + 5).process(row, N_VOCAB, 0)
+    ).isInstanceOf(LlamaException.class);
+  }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.llama.cpp.logits;
+
+import static java.lang.foreign.ValueLayout.JAVA_FLOAT;
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.util.Random;
+import java.util.function.Function;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Pure tests for the Java {@link LogitsSampler} — Arena-allocated rows stand in for the native
+ * logits, no model required. Equality with the native chain itself needs a model and lives in
+ * {@code LogitsSamplerLlamaIteratorTest}; here the RNG is pinned to the C++ standard's reference
+ * value, the vector and scalar kernels must agree token for token, and each stage's behaviour is
+ * checked on rows small enough to reason about.
+ *
+ * @author GraviteeSource Team
+ */
+class LogitsSamplerTest {
+
+  private static final int N_VOCAB = 1_003;
+
+  private Arena arena;
+
+  @BeforeEach
+  void setUp() {
+    arena = Arena.ofConfined();
+  }
+
+  @AfterEach
+  void tearDown() {
+    arena.close();
+  }
+
+  private MemorySegment row(float... logits) {
+    MemorySegment row = arena.allocate(JAVA_FLOAT, logits.length);
+    for (int i = 0; i < logits.length; i++) {
+      row.setAtIndex(JAVA_FLOAT, i, logits[i]);
+    }
+    return row;
+  }
+
+  private MemorySegment randomRow(Random random) {
+    float[] logits = new float[N_VOCAB];
+    for (int i = 0; i < N_VOCAB; i++) {
+      logits[i] = (float) (random.nextGaussian() * 3.0);
+    }
+    return row(logits);
+  }
+
+  @Test
+  void mt19937_matches_the_standard_reference_value() {
+    // [rand.predef]: the 10000th consecutive invocation of a default-constructed mt19937
+    // (seed 5489) produces 4123659995.
+    var rng = new Mt19937(5489);
+    long value = 0;
+    for (int i = 0; i < 10_000; i++) {
+      value = rng.next();
+    }
+    assertThat(value).isEqualTo(4123659995L);
+  }
+
+  @Test
+  void canonical_draws_are_in_the_unit_interval() {
+    var rng = new Mt19937(42);
+    for (int i = 0; i < 10_000; i++) {
+      assertThat(rng.nextCanonical()).isBetween(0.0, Math.nextDown(1.0));
+    }
+  }
+
+  @Test
+  void vector_and_scalar_kernels_sample_the_same_tokens() {
+    Function<LogitsKernels, LogitsSampler> chain = kernels ->
+      new LogitsSampler(arena, N_VOCAB, kernels)
+        .penalties(64, 1.3f, 0.1f, 0.1f)
+        .temperature(0.8f)
+        .topK(40)
+        .topP(0.9f, 1)
+        .minP(0.05f, 1)
+        .seed(1234);
+    var vector = chain.apply(LogitsKernels.get());
+    var scalar = chain.apply(LogitsKernels.scalar());
+
+    var random = new Random(7);
+    for (int step = 0; step < 200; step++) {
+      MemorySegment row = randomRow(random);
+      assertThat(vector.sample(row)).as("step %d", step).isEqualTo(
+        scalar.sample(row)
+      );
+    }
+  }
+
+  @Test
+  void the_same_seed_gives_the_same_tokens_and_reset_replays_them() {
+    var sampler = new LogitsSampler(arena, N_VOCAB).temperature(1.2f).seed(99);
+    var random = new Random(3);
+    MemorySegment[] rows = new MemorySegment[50];
+    int[] first = new int[rows.length];
+    for (int i = 0; i < rows.length; i++) {
+      rows[i] = randomRow(random);
+      first[i] = sampler.sample(rows[i]);
+    }
+
+    sampler.reset();
+    for (int i = 0; i < rows.length; i++) {
+      assertThat(sampler.sample(rows[i])).isEqualTo(first[i]);
+    }
+  }
+
+  @Test
+  void greedy_picks_the_first_largest_logit() {
+    var sampler = new LogitsSampler(arena, 6).greedy();
+    assertThat(sampler.sample(row(0f, 3f, 1f, 3f, -2f, 2f))).isEqualTo(1);
+  }
+
+  @Test
+  void top_k_one_is_greedy_whatever_the_seed() {
+    var random = new Random(11);
+    for (int seed = 0; seed < 20; seed++) {
+      MemorySegment row = randomRow(random);
+      int argmax = LogitsKernels.scalar().argmax(row, N_VOCAB);
+      var sampler = new LogitsSampler(arena, N_VOCAB).topK(1).seed(seed);
+      assertThat(sampler.sample(row)).isEqualTo(argmax);
+    }
+  }
+
+  @Test
+  void zero_temperature_keeps_only_the_max() {
+    var random = new Random(5);
+    MemorySegment row = randomRow(random);
+    int argmax = LogitsKernels.scalar().argmax(row, N_VOCAB);
+    var sampler = new LogitsSampler(arena, N_VOCAB).temperature(0f).seed(17);
+    for (int i = 0; i < 10; i++) {
+      assertThat(sampler.sample(row)).isEqualTo(argmax);
+    }
+  }
+
+  @Test
+  void min_p_drops_tokens_far_below_the_top() {
+    // p(1) / p(0) = e^-10: far below min_p = 0.1, so only tokens 0 and 2 (e^-1) survive.
+    var sampler = new LogitsSampler(arena, 4).minP(0.1f, 1).seed(3);
+    MemorySegment row = row(5f, -5f, 4f, -20f);
+    for (int i = 0; i < 100; i++) {
+      assertThat(sampler.sample(row)).isIn(0, 2);
+    }
+  }
+
+  @Test
+  void top_p_keeps_the_smallest_prefix_reaching_p() {
+    // Probabilities ~0.66 / 0.24 / 0.09 / ...: p = 0.8 needs the first two.
+    var sampler = new LogitsSampler(arena, 5).topP(0.8f, 1).seed(8);
+    MemorySegment row = row(3f, 2f, 1f, -3f, -4f);
+    for (int i = 0; i < 100; i++) {
+      assertThat(sampler.sample(row)).isIn(0, 1);
+    }
+  }
+
+  @Test
+  void repeat_penalty_moves_greedy_off_a_repeated_token() {
+    var sampler = new LogitsSampler(arena, 4)
+      .penalties(8, 2.0f, 0f, 0f)
+      .greedy();
+    MemorySegment row = row(1.0f, 3.0f, 2.0f, 0.5f);
+
+    assertThat(sampler.sample(row)).isEqualTo(1);
+    // Token 1 is now in the window: 3.0 / 2 = 1.5 < 2.0.
+    assertThat(sampler.sample(row)).isEqualTo(2);
+    // ...and token 2 too: 2.0 / 2 = 1.0, 1.5 still wins.
+    assertThat(sampler.sample(row)).isEqualTo(1);
+  }
+
+  @Test
+  void penalties_leave_the_window_after_last_n_tokens() {
+    var sampler = new LogitsSampler(arena, 3)
+      .penalties(1, 4.0f, 0f, 0f)
+      .greedy();
+    MemorySegment row = row(3.0f, 2.0f, 0.1f);
+
+    assertThat(sampler.sample(row)).isEqualTo(0);
+    // Window {0}: 0.75 < 2.0.
+    assertThat(sampler.sample(row)).isEqualTo(1);
+    // Window {1} only — token 0 aged out.
+    assertThat(sampler.sample(row)).isEqualTo(0);
+  }
+
+  @Test
+  void the_callers_row_is_never_modified() {
+    var random = new Random(13);
+    MemorySegment row = randomRow(random);
+    float[] before = row.toArray(JAVA_FLOAT);
+
+    var sampler = new LogitsSampler(arena, N_VOCAB)
+      .penalties(16, 1.5f, 0.2f, 0.2f)
+      .temperature(0.5f)
+      .topK(10)
+      .seed(1);
+    for (int i = 0; i < 20; i++) {
+      sampler.sample(row);
+    }
+    assertThat(row.toArray(JAVA_FLOAT)).containsExactly(before);
+  }
+}
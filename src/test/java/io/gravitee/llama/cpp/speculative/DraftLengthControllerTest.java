@@ -0,0 +1,128 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.llama.cpp.speculative;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import org.junit.jupiter.api.Test;
+
+/**
+ * Pure tests for {@link DraftLengthController} — no native library, no model. Rounds are fed
+ * synthetic acceptance and timings; the controller must draft long when drafts are accepted and
+ * verify rows are cheap, short or not at all otherwise.
+ *
+ * @author GraviteeSource Team
+ */
+class DraftLengthControllerTest {
+
+  // A memory-bound verify: 10 ms fixed, 0.2 ms per extra row; drafting 1 ms per token.
+  private static final long FIXED = 10_000_000L;
+  private static final long PER_ROW = 200_000L;
+  private static final long DRAFT = 1_000_000L;
+
+  @Test
+  void drafts_the_maximum_until_warmed_up() {
+    var controller = new DraftLengthController(8, 1, true);
+    assertThat(controller.nDraft()).isEqualTo(8);
+    for (int i = 0; i < DraftLengthController.WARMUP_ROUNDS - 1; i++) {
+      round(controller, 0);
+      assertThat(controller.nDraft()).isEqualTo(8);
+    }
+  }
+
+  @Test
+  void keeps_drafting_long_when_everything_is_accepted() {
+    var controller = new DraftLengthController(8, 1, true);
+    for (int i = 0; i < 40; i++) {
+      round(controller, controller.nDraft());
+    }
+    assertThat(controller.nDraft()).isEqualTo(8);
+    assertThat(controller.acceptProbability()).isGreaterThan(0.9);
+  }
+
+  @Test
+  void shortens_rounds_when_acceptance_is_middling() {
+    var controller = new DraftLengthController(8, 1, true);
+    for (int i = 0; i < 40; i++) {
+      // Accepts about half of each round, then a mismatch.
+      round(controller, controller.nDraft() / 2);
+    }
+    assertThat(controller.nDraft()).isBetween(1, 7);
+  }
+
+  @Test
+  void switches_off_when_nothing_is_accepted_and_probes_later() {
+    var controller = new DraftLengthController(8, 1, true);
+    int off = -1;
+    for (int i = 0; i < 40 && off < 0; i++) {
+      round(controller, 0);
+      if (controller.isOff()) {
+        off = i;
+      }
+    }
+    assertThat(off).isNotNegative();
+
+    int probes = 0;
+    for (int i = 0; i < 2 * DraftLengthController.PROBE_INTERVAL; i++) {
+      round(controller, 0);
+      if (!controller.isOff()) {
+        probes++;
+      }
+    }
+    assertThat(probes).isBetween(1, 2);
+  }
+
+  @Test
+  void never_switches_off_when_not_allowed() {
+    var controller = new DraftLengthController(4, 1, false);
+    for (int i = 0; i < 40; i++) {
+      round(controller, 0);
+    }
+    assertThat(controller.nDraft()).isEqualTo(1);
+  }
+
+  @Test
+  void resumes_after_a_probe_finds_drafts_accepted_again() {
+    var controller = new DraftLengthController(8, 1, true);
+    for (int i = 0; i < 20; i++) {
+      round(controller, 0);
+    }
+    assertThat(controller.isOff()).isTrue();
+    for (int i = 0; i < 200 && controller.isOff(); i++) {
+      round(controller, controller.nDraft());
+    }
+    // The probe's full accept is enough to make drafting pay again.
+    for (int i = 0; i < 20; i++) {
+      round(controller, controller.nDraft());
+    }
+    assertThat(controller.isOff()).isFalse();
+    assertThat(controller.nDraft()).isGreaterThan(4);
+  }
+
+  @Test
+  void rate_weighs_expected_tokens_against_round_cost() {
+    // Certain acceptance: k + 1 tokens.
+    assertThat(DraftLengthController.rate(3, 1.0, 0, 0, 0)).isEqualTo(4.0);
+    // a = 0.5, k = 1: 1.5 tokens for 1 + 2 + 2 * 1 = 5.
+    assertThat(DraftLengthController.rate(1, 0.5, 1, 2, 1)).isEqualTo(0.3);
+  }
+
+  private static void round(DraftLengthController controller, int accepted) {
+    int k = controller.nDraft();
+    controller.observeAcceptance(k, Math.min(k, accepted));
+    controller.observeCost(k * DRAFT, k, FIXED + PER_ROW * k, k + 1, 1);
+  }
+}
@@ -0,0 +1,85 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.llama.cpp.speculative;
+
+import static org.assertj.core.api.Assertions.assertThat;
+
+import java.util.List;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Pure tests for {@link DraftTree} — no native library, no model. Cover prefix sharing, node order,
+ * branch counting, and the sequence ids each node is decoded under.
+ *
+ * @author GraviteeSource Team
+ */
+class DraftTreeTest {
+
+  @Test
+  void paths_with_a_common_prefix_share_its_nodes() {
+    var tree = new DraftTree(1);
+    tree.addPath(new int[] { 10, 11, 12 }, 3);
+    tree.addPath(new int[] { 10, 11, 20 }, 3);
+    tree.addPath(new int[] { 30 }, 1);
+
+    // 10, 11, 12, then 20 under 11, then 30 under the root.
+    assertThat(tree.size()).isEqualTo(5);
+    assertThat(tree.parent(3)).isEqualTo(1);
+    assertThat(tree.depth(3)).isEqualTo(2);
+    assertThat(tree.parent(4)).isEqualTo(DraftTree.ROOT);
+    assertThat(tree.depth(4)).isEqualTo(0);
+    assertThat(tree.branches()).isEqualTo(3);
+    assertThat(tree.maxDepth()).isEqualTo(3);
+  }
+
+  @Test
+  void child_finds_the_node_that_drafted_a_token() {
+    var tree = new DraftTree(4);
+    tree.addPath(new int[] { 1, 2 }, 2);
+    tree.addPath(new int[] { 1, 3 }, 2);
+
+    assertThat(tree.child(DraftTree.ROOT, 1)).isEqualTo(0);
+    assertThat(tree.child(0, 2)).isEqualTo(1);
+    assertThat(tree.child(0, 3)).isEqualTo(2);
+    assertThat(tree.child(0, 4)).isEqualTo(-1);
+    assertThat(tree.child(1, 3)).isEqualTo(-1);
+  }
+
+  @Test
+  void each_node_is_decoded_under_the_branches_through_it() {
+    var tree = new DraftTree(4);
+    tree.addPath(new int[] { 1, 2 }, 2);
+    tree.addPath(new int[] { 1, 3 }, 2);
+    tree.addPath(new int[] { 4 }, 1);
+
+    var seqs = tree.nodeSeqIds(new int[] { 0, 7, 6 });
+    assertThat(seqs.get(0)).isEqualTo(List.of(0, 7));
+    assertThat(seqs.get(1)).isEqualTo(List.of(0));
+    assertThat(seqs.get(2)).isEqualTo(List.of(7));
+    assertThat(seqs.get(3)).isEqualTo(List.of(6));
+  }
+
+  @Test
+  void clear_keeps_nothing() {
+    var tree = new DraftTree(2);
+    tree.addPath(new int[] { 1, 2, 3 }, 3);
+    tree.clear();
+    assertThat(tree.size()).isEqualTo(0);
+    assertThat(tree.branches()).isEqualTo(0);
+    tree.add(DraftTree.ROOT, 9);
+    assertThat(tree.token(0)).isEqualTo(9);
+  }
+}
@@ -0,0 +1,102 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.llama.cpp.speculative;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.gravitee.llama.cpp.LlamaException;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Pure tests for {@link SpeculationGate} — no native library, no model. Decodes are fed synthetic
+ * timings from a known cost line; the gate must draft while the batch is memory-bound, suspend
+ * once it is compute-bound, and never exceed {@code n_batch}.
+ *
+ * @author GraviteeSource Team
+ */
+class SpeculationGateTest {
+
+  private static final long FIXED = 10_000_000L;
+
+  @Test
+  void caps_by_n_batch_during_warmup() {
+    var gate = new SpeculationGate();
+    // 10 sequences in a 32-token batch: at most 2 drafts each.
+    assertThat(gate.draftCap(10, 8, 32)).isEqualTo(2);
+    assertThat(gate.draftCap(1, 8, 512)).isEqualTo(8);
+    assertThat(gate.draftCap(64, 8, 64)).isZero();
+  }
+
+  @Test
+  void fits_the_compute_bound_threshold_from_decode_timings() {
+    var gate = new SpeculationGate();
+    // 10 ms + 0.5 ms per token: compute-bound past 20 tokens.
+    for (int t : new int[] { 1, 4, 8, 16, 32, 64, 8, 1, 32, 16 }) {
+      gate.observeDecode(t, FIXED + 500_000L * t);
+    }
+    assertThat(gate.computeBoundThreshold()).isBetween(19.0, 21.0);
+  }
+
+  @Test
+  void suspends_under_load_and_resumes_when_the_batch_drains() {
+    var gate = new SpeculationGate().computeBoundTokens(16);
+    warmUp(gate);
+
+    assertThat(gate.draftCap(64, 8, 4096)).isZero();
+    assertThat(gate.isSuspended()).isTrue();
+
+    assertThat(gate.draftCap(2, 8, 4096)).isPositive();
+    assertThat(gate.isSuspended()).isFalse();
+  }
+
+  @Test
+  void drafts_the_maximum_while_memory_bound_and_accepted() {
+    var gate = new SpeculationGate().computeBoundTokens(4096);
+    for (int i = 0; i < SpeculationGate.WARMUP_DECODES; i++) {
+      gate.observeDecode(9, FIXED);
+      gate.observeAcceptance(8, 8);
+    }
+    assertThat(gate.draftCap(4, 8, 512)).isEqualTo(8);
+  }
+
+  @Test
+  void never_asks_for_more_than_n_batch() {
+    var gate = new SpeculationGate().computeBoundTokens(4096);
+    for (int i = 0; i < SpeculationGate.WARMUP_DECODES; i++) {
+      gate.observeDecode(9, FIXED);
+      gate.observeAcceptance(8, 8);
+    }
+    // 4 sequences in 16 tokens: 3 drafts each at most.
+    assertThat(gate.draftCap(4, 8, 16)).isEqualTo(3);
+  }
+
+  @Test
+  void rejects_a_negative_threshold() {
+    assertThatThrownBy(() ->
+      new SpeculationGate().computeBoundTokens(-1)
+    ).isInstanceOf(LlamaException.class);
+  }
+
+  // Decodes on the line fixed * (1 + t / 16); each round accepts 2 of 4 drafts.
+  private static void warmUp(SpeculationGate gate) {
+    for (int i = 0; i < SpeculationGate.WARMUP_DECODES; i++) {
+      int t = 8 + 8 * i;
+      gate.observeDecode(t, FIXED + (FIXED * t) / 16);
+      gate.observeAcceptance(4, 2);
+    }
+  }
+}
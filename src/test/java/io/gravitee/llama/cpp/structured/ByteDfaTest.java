@@ -0,0 +1,116 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.llama.cpp.structured;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.gravitee.llama.cpp.LlamaException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+/**
+ * The byte automaton must accept exactly what {@link Pattern} matches, on random strings that mix
+ * ASCII, multi-byte UTF-8 and the characters the patterns care about.
+ *
+ * @author GraviteeSource Team
+ */
+class ByteDfaTest {
+
+  private static final int[] ALPHABET = "abcxy.-@é€😀\"\\0123 mo{}"
+    .codePoints()
+    .toArray();
+
+  private static boolean matches(ByteDfa dfa, String text) {
+    int state = dfa.walk(0, text.getBytes(StandardCharsets.UTF_8));
+    return state >= 0 && dfa.accepting[state];
+  }
+
+  @ParameterizedTest
+  @ValueSource(
+    strings = {
+      "a|b*c",
+      "(ab|a)*b{2,3}",
+      "[^a-c]+x?",
+      "\\d{3}-\\d{2}",
+      "(?:[a-zé€😀]|\\.)+",
+      "x{0,2}y",
+      "[\\w.]+@[a-z]+\\.com",
+      "^\\{[0-9]*\\}$",
+      "[^\"\\\\\\x00-\\x1F]*",
+      JsonSchema.STRING,
+      JsonSchema.NUMBER,
+    }
+  )
+  void accepts_exactly_what_java_regex_matches(String pattern) {
+    var dfa = ByteDfa.compile(pattern);
+    var reference = Pattern.compile(pattern);
+    var random = new Random(pattern.hashCode());
+    for (int t = 0; t < 20_000; t++) {
+      var text = new StringBuilder();
+      int length = random.nextInt(8);
+      for (int i = 0; i < length; i++) {
+        text.appendCodePoint(ALPHABET[random.nextInt(ALPHABET.length)]);
+      }
+      String s = text.toString();
+      assertThat(matches(dfa, s))
+        .as("%s on '%s'", pattern, s)
+        .isEqualTo(reference.matcher(s).matches());
+    }
+  }
+
+  @Test
+  void every_live_state_can_still_complete() {
+    // "ab" then "c" or "d": after "a" the walk lives, after "x" it is dead immediately.
+    var dfa = ByteDfa.compile("ab[cd]");
+    assertThat(dfa.walk(0, "a".getBytes(StandardCharsets.UTF_8))).isNotNegative();
+    assertThat(dfa.walk(0, "x".getBytes(StandardCharsets.UTF_8))).isEqualTo(-1);
+    assertThat(dfa.walk(0, "abe".getBytes(StandardCharsets.UTF_8))).isEqualTo(-1);
+  }
+
+  @Test
+  void splits_a_character_across_walks() {
+    // A token may end mid-character: the automaton continues on the next token's bytes.
+    var dfa = ByteDfa.compile("€+");
+    byte[] euro = "€".getBytes(StandardCharsets.UTF_8);
+    int mid = dfa.walk(0, new byte[] { euro[0] });
+    assertThat(mid).isNotNegative();
+    assertThat(dfa.accepting[mid]).isFalse();
+    int end = dfa.walk(mid, new byte[] { euro[1], euro[2] });
+    assertThat(dfa.accepting[end]).isTrue();
+  }
+
+  @Test
+  void rejects_what_it_cannot_compile() {
+    assertThatThrownBy(() -> ByteDfa.compile("(a")).isInstanceOf(
+      LlamaException.class
+    );
+    assertThatThrownBy(() -> ByteDfa.compile("(?=a)")).isInstanceOf(
+      LlamaException.class
+    );
+    assertThatThrownBy(() -> ByteDfa.compile("a{2000}")).isInstanceOf(
+      LlamaException.class
+    );
+    // Matches nothing at all.
+    assertThatThrownBy(() -> ByteDfa.compile("[^\\s\\S]")).isInstanceOf(
+      LlamaException.class
+    );
+  }
+}
@@ -0,0 +1,219 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.llama.cpp.structured;
+
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.gravitee.llama.cpp.LlamaException;
+import java.nio.charset.StandardCharsets;
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.Test;
+
+/**
+ * Schema-to-regex conversion, checked on instances with {@link Pattern} and on the compiled
+ * {@link ByteDfa}, which must agree.
+ *
+ * @author GraviteeSource Team
+ */
+class JsonSchemaTest {
+
+  private static final String PERSON = """
+    {
+      "type": "object",
+      "properties": {
+        "name": { "type": "string", "maxLength": 20 },
+        "age": { "type": "integer", "minimum": 0 },
+        "tags": { "type": "array", "items": { "type": "string" }, "maxItems": 3 },
+        "kind": { "enum": ["a", "b\\"q", 1, null] },
+        "when": { "type": "string", "format": "date" },
+        "at": { "$ref": "#/$defs/point" },
+        "score": { "type": ["number", "null"] }
+      },
+      "required": ["name", "kind"],
+      "$defs": {
+        "point": {
+          "type": "object",
+          "properties": { "x": { "type": "number" }, "y": { "type": "number" } },
+          "required": ["x", "y"]
+        }
+      }
+    }
+    """;
+
+  private static void assertMatches(String schema, String json, boolean expected) {
+    String regex = JsonSchema.toRegex(schema);
+    assertThat(Pattern.compile(regex).matcher(json).matches())
+      .as("java.util.regex on %s", json)
+      .isEqualTo(expected);
+    var dfa = ByteDfa.compile(regex);
+    int state = dfa.walk(0, json.getBytes(StandardCharsets.UTF_8));
+    assertThat(state >= 0 && dfa.accepting[state])
+      .as("automaton on %s", json)
+      .isEqualTo(expected);
+  }
+
+  @Test
+  void object_instances_follow_schema_order_and_required() {
+    assertMatches(PERSON, "{\"name\":\"bob\",\"kind\":\"a\"}", true);
+    assertMatches(PERSON, "{\"name\": \"bob\", \"age\": 3, \"kind\": null}", true);
+    assertMatches(
+      PERSON,
+      "{\"name\":\"x\",\"tags\":[\"a\",\"b\"],\"kind\":1,\"when\":\"2024-02-29\"," +
+        "\"at\":{\"x\":1.5,\"y\":-2e3},\"score\":null}",
+      true
+    );
+    assertMatches(PERSON, "{\"name\":\"x\",\"kind\":\"b\\\"q\"}", true);
+
+    // required "name" missing
+    assertMatches(PERSON, "{\"kind\":\"a\"}", false);
+    // minimum 0
+    assertMatches(PERSON, "{\"name\":\"bob\",\"age\":-1,\"kind\":\"a\"}", false);
+    // maxItems 3
+    assertMatches(
+      PERSON,
+      "{\"name\":\"x\",\"tags\":[\"a\",\"b\",\"c\",\"d\"],\"kind\":1}",
+      false
+    );
+    // not in the enum
+    assertMatches(PERSON, "{\"name\":\"x\",\"kind\":2}", false);
+    // out of schema order
+    assertMatches(PERSON, "{\"kind\":\"a\",\"name\":\"x\"}", false);
+    // maxLength 20
+    assertMatches(
+      PERSON,
+      "{\"name\":\"abcdefghijklmnopqrstu\",\"kind\":\"a\"}",
+      false
+    );
+  }
+
+  @Test
+  void optional_only_objects_may_be_empty() {
+    String schema = """
+      {"type":"object","properties":{"a":{"type":"boolean"},"b":{"const":"x"}}}
+      """;
+    assertMatches(schema, "{}", true);
+    assertMatches(schema, "{\"b\":\"x\"}", true);
+    assertMatches(schema, "{\"a\":true,\"b\":\"x\"}", true);
+    assertMatches(schema, "{\"a\":true,}", false);
+  }
+
+  @Test
+  void strings_escape_and_formats() {
+    String schema = "{\"type\":\"string\"}";
+    assertMatches(schema, "\"café \\\"quoted\\\" \\u00e9\\n\"", true);
+    assertMatches(schema, "\"raw\nnewline\"", false);
+    assertMatches(schema, "\"bad \\x escape\"", false);
+
+    String uuid = "{\"type\":\"string\",\"format\":\"uuid\"}";
+    assertMatches(uuid, "\"123e4567-e89b-12d3-a456-426614174000\"", true);
+    assertMatches(uuid, "\"123e4567\"", false);
+
+    String pattern = "{\"type\":\"string\",\"pattern\":\"^[A-Z]{2}[0-9]+$\"}";
+    assertMatches(pattern, "\"AB12\"", true);
+    assertMatches(pattern, "\"A12\"", false);
+  }
+
+  @Test
+  void integer_bounds_are_enforced_on_both_sides_of_zero() {
+    String[][] bounds = {
+      { "\"minimum\":-37", "\"maximum\":215" },
+      { "\"minimum\":-1200", "\"maximum\":-9" },
+      { "\"exclusiveMinimum\":10", "\"exclusiveMaximum\":1000" },
+      { "\"minimum\":-5", null },
+      { null, "\"maximum\":-100" },
+      { "\"minimum\":7.5", "\"maximum\":99.5" },
+    };
+    long[][] expected = {
+      { -37, 215 },
+      { -1200, -9 },
+      { 11, 999 },
+      { -5, Long.MAX_VALUE },
+      { Long.MIN_VALUE, -100 },
+      { 8, 99 },
+    };
+    for (int i = 0; i < bounds.length; i++) {
+      var fields = new StringBuilder("{\"type\":\"integer\"");
+      for (String bound : bounds[i]) {
+        if (bound != null) {
+          fields.append(',').append(bound);
+        }
+      }
+      String schema = fields.append('}').toString();
+      var regex = Pattern.compile(JsonSchema.toRegex(schema));
+      for (long n = -2000; n <= 2000; n++) {
+        assertThat(regex.matcher(Long.toString(n)).matches())
+          .as("%s on %d", schema, n)
+          .isEqualTo(n >= expected[i][0] && n <= expected[i][1]);
+      }
+    }
+    assertMatches("{\"type\":\"integer\",\"maximum\":5}", "-0", false);
+    assertMatches("{\"type\":\"integer\",\"minimum\":0}", "007", false);
+  }
+
+  @Test
+  void unenforceable_numeric_bounds_are_rejected() {
+    assertThatThrownBy(() ->
+      JsonSchema.toRegex("{\"type\":\"number\",\"minimum\":-1}")
+    )
+      .isInstanceOf(LlamaException.class)
+      .hasMessageContaining("Negative minimum");
+    assertThatThrownBy(() ->
+      JsonSchema.toRegex("{\"type\":\"integer\",\"minimum\":3,\"maximum\":2}")
+    ).isInstanceOf(LlamaException.class);
+  }
+
+  @Test
+  void patterns_cannot_break_out_of_the_string() {
+    String any = "{\"type\":\"string\",\"pattern\":\"^.{1,8}$\"}";
+    assertMatches(any, "\"ok\"", true);
+    assertMatches(any, "\"a\"b\"", false);
+    assertMatches(any, "\"a\\\\b\"", false);
+    assertMatches(any, "\"tab\there\"", false);
+
+    String explicit = "{\"type\":\"string\",\"pattern\":\"x[\\\"\\\\\\\\]?\"}";
+    assertMatches(explicit, "\"x\"", true);
+    assertMatches(explicit, "\"x\"\"", false);
+    assertMatches(explicit, "\"x\\\"", false);
+
+    assertThatThrownBy(() ->
+      JsonSchema.toRegex("{\"type\":\"string\",\"pattern\":\"[\\\"]+\"}")
+    )
+      .isInstanceOf(LlamaException.class)
+      .hasMessageContaining("must escape");
+  }
+
+  @Test
+  void unconstrained_values_nest_to_a_bounded_depth() {
+    assertMatches("{}", "{\"a\":[1,2,null]}", true);
+    assertMatches("true", "\"text\"", true);
+    assertMatches("{}", "[[[1]]]", false);
+  }
+
+  @Test
+  void recursive_refs_are_rejected() {
+    String tree = """
+      {"$defs":{"node":{"type":"object","properties":{"child":{"$ref":"#/$defs/node"}}}},
+       "$ref":"#/$defs/node"}
+      """;
+    assertThatThrownBy(() -> JsonSchema.toRegex(tree))
+      .isInstanceOf(LlamaException.class)
+      .hasMessageContaining("Recursive");
+    assertThatThrownBy(() -> JsonSchema.toRegex("{\"type\":")).isInstanceOf(
+      LlamaException.class
+    );
+  }
+}
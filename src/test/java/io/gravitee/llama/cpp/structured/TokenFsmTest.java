@@ -0,0 +1,278 @@
+/*
+ * Copyright © 2015 The Gravitee team (http://gravitee.io)
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *     http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package io.gravitee.llama.cpp.structured;
+
+import static java.lang.foreign.ValueLayout.JAVA_FLOAT;
+import static org.assertj.core.api.Assertions.assertThat;
+import static org.assertj.core.api.Assertions.assertThatThrownBy;
+
+import io.gravitee.llama.cpp.LlamaException;
+import io.gravitee.llama.cpp.logits.LogitsKernels;
+import io.gravitee.llama.cpp.logits.LogitsSampler;
+import java.io.ByteArrayOutputStream;
+import java.lang.foreign.Arena;
+import java.lang.foreign.MemorySegment;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.regex.Pattern;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+/**
+ * The token index over a synthetic vocabulary — every single byte plus multi-byte pieces that cut
+ * across JSON structure — so no model is needed. Sampling at a high temperature from noise with the
+ * constraint applied must only ever produce text the pattern matches.
+ *
+ * @author GraviteeSource Team
+ */
+class TokenFsmTest {
+
+  private static final String SCHEMA = """
+    {"type":"object","properties":{
+      "name":{"type":"string","maxLength":12},
+      "age":{"type":"integer","minimum":0},
+      "tags":{"type":"array","items":{"type":"string"},"maxItems":2},
+      "kind":{"enum":["a","b",null]}},
+     "required":["name","kind"]}
+    """;
+
+  private Arena arena;
+  private byte[][] pieces;
+  private int eog;
+
+  @BeforeEach
+  void setUp() {
+    arena = Arena.ofConfined();
+    List<byte[]> tokens = new ArrayList<>();
+    for (int b = 0; b < 256; b++) {
+      tokens.add(new byte[] { (byte) b });
+    }
+    for (String piece : new String[] {
+      "{\"",
+      "\":",
+      "\",\"",
+      "name",
+      "kind",
+      "age",
+      "\"a\"",
+      "null",
+      "12",
+      "3,",
+      "\":\"",
+      "\"}",
+      "[\"",
+      "\"]",
+      ", \"",
+      "\": ",
+      "é",
+      "€",
+      "true",
+      "\"name\":\"",
+    }) {
+      tokens.add(piece.getBytes(StandardCharsets.UTF_8));
+    }
+    var random = new Random(5);
+    String alphabet = " \"{}:,abnkme0123[]";
+    for (int i = 0; i < 2_000; i++) {
+      byte[] piece = new byte[1 + random.nextInt(6)];
+      for (int j = 0; j < piece.length; j++) {
+        piece[j] = (byte) alphabet.charAt(random.nextInt(alphabet.length()));
+      }
+      tokens.add(piece);
+    }
+    eog = tokens.size();
+    tokens.add(new byte[0]);
+    pieces = tokens.toArray(new byte[0][]);
+  }
+
+  @AfterEach
+  void tearDown() {
+    arena.close();
+  }
+
+  private MemorySegment noise(Random random) {
+    MemorySegment row = arena.allocate(JAVA_FLOAT, pieces.length);
+    for (int i = 0; i < pieces.length; i++) {
+      // Favour the multi-byte pieces, so tokens regularly span structure.
+      float bias = i == eog ? -3f : i >= 256 ? 1.5f : 0f;
+      row.setAtIndex(JAVA_FLOAT, i, (float) random.nextGaussian() + bias);
+    }
+    return row;
+  }
+
+  @Test
+  void constrained_sampling_only_produces_matching_text() {
+    String regex = JsonSchema.toRegex(SCHEMA);
+    var fsm = TokenFsm.compile(regex, pieces, new int[] { eog });
+    var reference = Pattern.compile(regex);
+    var random = new Random(11);
+    int finished = 0;
+    for (int run = 0; run < 100; run++) {
+      var constraint = fsm.processor();
+      var sampler = new LogitsSampler(arena, pieces.length)
+        .temperature(1.5f)
+        .seed(run);
+      var out = new ByteArrayOutputStream();
+      for (int step = 0; step < 300; step++) {
+        var row = noise(random);
+        constraint.process(row, pieces.length, step);
+        int token = sampler.sample(row);
+        constraint.accept(token);
+        if (token == eog) {
+          String text = out.toString(StandardCharsets.UTF_8);
+          assertThat(reference.matcher(text).matches()).as("%s", text).isTrue();
+          finished++;
+          break;
+        }
+        out.writeBytes(pieces[token]);
+      }
+    }
+    assertThat(finished).isGreaterThan(50);
+  }
+
+  @Test
+  void masks_allow_exactly_the_tokens_that_keep_the_output_completable() {
+    var fsm = TokenFsm.compile("ab(c|de)", pieces, new int[] { eog });
+    int a = 'a';
+    int start = fsm.start();
+    assertThat(fsm.allows(start, a)).isTrue();
+    assertThat(fsm.allows(start, 'b')).isFalse();
+    assertThat(fsm.allows(start, eog)).isFalse();
+
+    int afterA = fsm.next(start, a);
+    int afterAbd = fsm.next(fsm.next(afterA, 'b'), 'd');
+    assertThat(fsm.isAccepting(afterAbd)).isFalse();
+    int done = fsm.next(afterAbd, 'e');
+    assertThat(fsm.isAccepting(done)).isTrue();
+    // Accepting with nothing left to say: only end-of-generation remains.
+    assertThat(fsm.allows(done, eog)).isTrue();
+    for (int id = 0; id < pieces.length; id++) {
+      if (id != eog) {
+        assertThat(fsm.allows(done, id)).isFalse();
+      }
+    }
+    assertThat(fsm.next(start, 'z')).isEqualTo(-1);
+  }
+
+  @Test
+  void processor_masks_the_row_with_both_kernels_alike() {
+    var fsm = TokenFsm.compile(JsonSchema.toRegex(SCHEMA), pieces, new int[] {
+      eog,
+    });
+    int n = pieces.length;
+    for (int state = 0; state < fsm.nStates(); state += 5) {
+      long[] bits = new long[(n + 63) >>> 6];
+      for (int id = 0; id < n; id++) {
+        if (fsm.allows(state, id)) {
+          bits[id >>> 6] |= 1L << id;
+        }
+      }
+      for (var kernels : new LogitsKernels[] {
+        LogitsKernels.get(),
+        LogitsKernels.scalar(),
+      }) {
+        MemorySegment row = arena.allocate(JAVA_FLOAT, n);
+        for (int id = 0; id < n; id++) {
+          row.setAtIndex(JAVA_FLOAT, id, id);
+        }
+        kernels.mask(row, n, bits);
+        for (int id = 0; id < n; id++) {
+          float expected = fsm.allows(state, id) ? id : Float.NEGATIVE_INFINITY;
+          assertThat(row.getAtIndex(JAVA_FLOAT, id)).isEqualTo(expected);
+        }
+      }
+    }
+  }
+
+  @Test
+  void forced_tokens_spell_the_only_continuation() {
+    var fsm = TokenFsm.compile("\\{\"name\":\"[a-z]+\"\\}", pieces, new int[] {
+      eog,
+    });
+    int state = fsm.start();
+    var spelled = new ByteArrayOutputStream();
+    for (int token : fsm.forced(state)) {
+      spelled.writeBytes(pieces[token]);
+      state = fsm.next(state, token);
+    }
+    assertThat(spelled.toString(StandardCharsets.UTF_8)).isEqualTo(
+      "{\"name\":\""
+    );
+    // The longest pieces win: fewer tokens than bytes.
+    assertThat(fsm.forced(fsm.start()).length).isLessThan(9);
+    // A choice follows: nothing more is forced.
+    assertThat(fsm.forced(state)).isEmpty();
+
+    state = fsm.next(state, 'x');
+    assertThat(fsm.forced(state)).isEmpty();
+    state = fsm.next(state, '"');
+    assertThat(fsm.forced(state)).containsExactly((int) '}');
+    // Accepting: stopping is a choice too.
+    assertThat(fsm.forced(fsm.next(state, '}'))).isEmpty();
+  }
+
+  @Test
+  void committing_forced_tokens_keeps_the_output_matching() {
+    String regex = JsonSchema.toRegex(SCHEMA);
+    var fsm = TokenFsm.compile(regex, pieces, new int[] { eog });
+    var reference = Pattern.compile(regex);
+    var random = new Random(3);
+    int forced = 0;
+    for (int run = 0; run < 50; run++) {
+      var constraint = fsm.processor();
+      var sampler = new LogitsSampler(arena, pieces.length)
+        .temperature(1.5f)
+        .seed(run);
+      var out = new ByteArrayOutputStream();
+      for (int step = 0; step < 300; step++) {
+        var row = noise(random);
+        constraint.process(row, pieces.length, step);
+        int token = sampler.sample(row);
+        constraint.accept(token);
+        if (token == eog) {
+          String text = out.toString(StandardCharsets.UTF_8);
+          assertThat(reference.matcher(text).matches()).as("%s", text).isTrue();
+          break;
+        }
+        out.writeBytes(pieces[token]);
+        for (int next : constraint.forcedTokens()) {
+          constraint.accept(next);
+          out.writeBytes(pieces[next]);
+          forced++;
+        }
+      }
+    }
+    assertThat(forced).isPositive();
+  }
+
+  @Test
+  void a_token_outside_the_mask_is_rejected() {
+    var constraint = TokenFsm.compile("ab", pieces, new int[] {
+      eog,
+    }).processor();
+    assertThatThrownBy(() -> constraint.accept('b')).isInstanceOf(
+      LlamaException.class
+    );
+    constraint.accept('a');
+    constraint.reset();
+    constraint.accept('a');
+    constraint.accept('b');
+    constraint.accept(eog);
+  }
+}